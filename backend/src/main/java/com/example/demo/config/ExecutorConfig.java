@@ -0,0 +1,23 @@
+package com.example.demo.config;
+
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+
+/**
+ * Threads for the application's own pools that spend their time waiting on DynamoDB and OpenAI
+ * (parallel scans, embedding batches, search pipeline, streamed answers, OpenAI HTTP callbacks).
+ *
+ * The pools are bounded and use platform threads. Having one factory for all of them keeps the
+ * choice of thread type in one place for when the project moves to Java 21.
+ */
+@Configuration
+public class ExecutorConfig {
+
+    @Bean
+    public ThreadFactory blockingIoThreadFactory() {
+        return Executors.defaultThreadFactory();
+    }
+}
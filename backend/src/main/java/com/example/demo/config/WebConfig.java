@@ -1,19 +1,53 @@
 package com.example.demo.config;
 
+import jakarta.annotation.PreDestroy;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.context.annotation.Configuration;
+import org.springframework.scheduling.concurrent.ConcurrentTaskExecutor;
+import org.springframework.web.servlet.config.annotation.AsyncSupportConfigurer;
 import org.springframework.web.servlet.config.annotation.CorsRegistry;
 import org.springframework.web.servlet.config.annotation.WebMvcConfigurer;
 
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+
 @Configuration
 public class WebConfig implements WebMvcConfigurer {
-    
+
+    @Autowired
+    @Qualifier("blockingIoThreadFactory")
+    private ThreadFactory blockingIoThreadFactory;
+
+    // Threads writing streamed response bodies (file downloads); further downloads wait for one
+    @Value("${web.async.threads:32}")
+    private int asyncThreads;
+
+    private ExecutorService asyncExecutor;
+
     @Override
     public void addCorsMappings(CorsRegistry registry) {
         registry.addMapping("/api/**")
                 .allowedOrigins("http://localhost:3000")
                 .allowedMethods("GET", "POST", "PUT", "DELETE", "OPTIONS")
                 .allowedHeaders("*")
+                .exposedHeaders("ETag", "Content-Range", "Accept-Ranges", "Content-Disposition")
                 .allowCredentials(true);
     }
-}
 
+    @Override
+    public void configureAsyncSupport(AsyncSupportConfigurer configurer) {
+        // StreamingResponseBody otherwise runs on a default executor that starts a new thread per download
+        asyncExecutor = Executors.newFixedThreadPool(Math.max(1, asyncThreads), blockingIoThreadFactory);
+        configurer.setTaskExecutor(new ConcurrentTaskExecutor(asyncExecutor));
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        if (asyncExecutor != null) {
+            asyncExecutor.shutdownNow();
+        }
+    }
+}
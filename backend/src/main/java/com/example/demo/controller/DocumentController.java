@@ -2,7 +2,11 @@ package com.example.demo.controller;
 
 import com.example.demo.model.Document;
 import com.example.demo.repository.DocumentRepository;
+import com.example.demo.repository.EmbeddingRepository;
+import com.example.demo.service.EmbeddingMigrationService;
+import com.example.demo.service.IngestionService;
 import com.example.demo.service.S3Service;
+import com.example.demo.service.SearchService;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.http.HttpHeaders;
 import org.springframework.http.HttpStatus;
@@ -10,15 +14,24 @@ import org.springframework.http.MediaType;
 import org.springframework.http.ResponseEntity;
 import org.springframework.web.bind.annotation.*;
 import org.springframework.web.multipart.MultipartFile;
+import org.springframework.web.servlet.mvc.method.annotation.StreamingResponseBody;
 import com.example.demo.service.SNSService;
+import software.amazon.awssdk.core.ResponseInputStream;
 import software.amazon.awssdk.services.dynamodb.DynamoDbClient;
 import software.amazon.awssdk.services.dynamodb.model.*;
+import software.amazon.awssdk.services.s3.model.GetObjectResponse;
+import software.amazon.awssdk.services.s3.model.S3Exception;
 
+import java.io.IOException;
 import java.time.Instant;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.ArrayList;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.regex.Pattern;
+import java.util.stream.Collectors;
 
 @RestController
 @RequestMapping("/api/documents")
@@ -30,6 +43,9 @@ import java.util.ArrayList;
 })
 public class DocumentController {
 
+    // A single byte range ("bytes=100-199", "bytes=100-" or "bytes=-100"), the only form S3 serves
+    private static final Pattern SINGLE_BYTE_RANGE = Pattern.compile("bytes=(\\d+-\\d*|-\\d+)");
+
     @Autowired
     private DocumentRepository documentRepository;
 
@@ -39,6 +55,18 @@ public class DocumentController {
     @Autowired
     private SNSService snsService;
 
+    @Autowired
+    private SearchService searchService;
+
+    @Autowired
+    private EmbeddingMigrationService embeddingMigrationService;
+
+    @Autowired
+    private IngestionService ingestionService;
+
+    @Autowired
+    private EmbeddingRepository embeddingRepository;
+
     @Autowired
     private DynamoDbClient dynamoDbClient;
 
@@ -78,14 +106,17 @@ public class DocumentController {
 
             Document savedDocument = documentRepository.save(document);
 
-            // Publish SNS event with complete document information
-            snsService.publishDocumentUploadedEvent(
-                savedDocument.getId(), 
-                s3Key, 
-                userId, 
-                savedDocument.getFileName(), 
-                s3Service.getBucketName()
-            );
+            // Process in this service when enabled; otherwise (or when its queue is full) hand off to the Lambda via SNS
+            boolean ingestedInProcess = ingestionService.submit(savedDocument);
+            if (!ingestedInProcess) {
+                snsService.publishDocumentUploadedEvent(
+                    savedDocument.getId(), 
+                    s3Key, 
+                    userId, 
+                    savedDocument.getFileName(), 
+                    s3Service.getBucketName()
+                );
+            }
             
             // Return response
             Map<String, Object> response = new HashMap<>();
@@ -127,9 +158,12 @@ public class DocumentController {
         return ResponseEntity.ok(document);
     }
 
-    // GET /api/documents/{id}/download - Download document
+    // GET /api/documents/{id}/download - Download document, streamed from S3 (supports Range and If-None-Match)
     @GetMapping("/{id}/download")
-    public ResponseEntity<?> downloadDocument(@PathVariable String id) {
+    public ResponseEntity<?> downloadDocument(
+            @PathVariable String id,
+            @RequestHeader(value = HttpHeaders.RANGE, required = false) String range,
+            @RequestHeader(value = HttpHeaders.IF_NONE_MATCH, required = false) String ifNoneMatch) {
         try {
             // Get document metadata
             Document document = documentRepository.findById(id);
@@ -138,16 +172,63 @@ public class DocumentController {
                         .body(Map.of("error", "Document not found with id: " + id));
             }
 
-            // Download from S3
-            byte[] fileContent = s3Service.downloadFile(document.getS3Key());
+            // Multiple ranges are not supported; the whole file is a valid answer to them
+            String byteRange = range != null && SINGLE_BYTE_RANGE.matcher(range.trim()).matches() ? range.trim() : null;
+
+            // Open the object in S3, letting S3 evaluate the range and the ETag
+            ResponseInputStream<GetObjectResponse> object;
+            try {
+                object = s3Service.openFile(document.getS3Key(), byteRange, ifNoneMatch);
+            } catch (S3Exception e) {
+                if (e.statusCode() == HttpStatus.NOT_MODIFIED.value()) {
+                    // Echo the object's ETag, not the request header, which may be "*" or a list
+                    ResponseEntity.BodyBuilder notModified = ResponseEntity.status(HttpStatus.NOT_MODIFIED);
+                    String eTag = eTagOf(e);
+                    if (eTag != null) {
+                        notModified.eTag(eTag);
+                    }
+                    return notModified.build();
+                }
+                if (e.statusCode() == HttpStatus.REQUESTED_RANGE_NOT_SATISFIABLE.value()) {
+                    return ResponseEntity.status(HttpStatus.REQUESTED_RANGE_NOT_SATISFIABLE)
+                            .header(HttpHeaders.CONTENT_RANGE, "bytes */" + document.getFileSize())
+                            .build();
+                }
+                throw e;
+            }
 
-            // Return file
-            HttpHeaders headers = new HttpHeaders();
-            headers.setContentType(MediaType.parseMediaType(document.getContentType()));
-            headers.setContentDispositionFormData("attachment", document.getFileName());
-            headers.setContentLength(fileContent.length);
+            try {
+                GetObjectResponse metadata = object.response();
+
+                HttpHeaders headers = new HttpHeaders();
+                headers.setContentType(MediaType.parseMediaType(document.getContentType()));
+                headers.setContentDispositionFormData("attachment", document.getFileName());
+                headers.setContentLength(metadata.contentLength());
+                headers.setETag(metadata.eTag());
+                headers.set(HttpHeaders.ACCEPT_RANGES, "bytes");
+                HttpStatus status = HttpStatus.OK;
+                if (metadata.contentRange() != null) {
+                    headers.set(HttpHeaders.CONTENT_RANGE, metadata.contentRange());
+                    status = HttpStatus.PARTIAL_CONTENT;
+                }
 
-            return new ResponseEntity<>(fileContent, headers, HttpStatus.OK);
+                // Copied to the client in small buffers after this method returns
+                StreamingResponseBody body = out -> {
+                    try (ResponseInputStream<GetObjectResponse> in = object) {
+                        in.transferTo(out);
+                    }
+                };
+                return new ResponseEntity<>(body, headers, status);
+            } catch (RuntimeException e) {
+                // Nothing will read the object, so drop its connection instead of leaking it
+                object.abort();
+                try {
+                    object.close();
+                } catch (IOException closeFailure) {
+                    e.addSuppressed(closeFailure);
+                }
+                throw e;
+            }
 
         } catch (Exception e) {
             return ResponseEntity.status(HttpStatus.INTERNAL_SERVER_ERROR)
@@ -155,6 +236,18 @@ public class DocumentController {
         }
     }
 
+    /**
+     * ETag of the object from the headers of S3's error response
+     * @param e The error S3 returned
+     * @return The ETag, or null if the response did not carry one
+     */
+    private static String eTagOf(S3Exception e) {
+        if (e.awsErrorDetails() == null || e.awsErrorDetails().sdkHttpResponse() == null) {
+            return null;
+        }
+        return e.awsErrorDetails().sdkHttpResponse().firstMatchingHeader(HttpHeaders.ETAG).orElse(null);
+    }
+
     // DELETE /api/documents/{id} - Delete document
     @DeleteMapping("/{id}")
     public ResponseEntity<?> deleteDocument(@PathVariable String id) {
@@ -168,6 +261,7 @@ public class DocumentController {
 
             // Delete embeddings from DocumentEmbeddings table
             deleteDocumentEmbeddings(id);
+            searchService.removeDocument(id);
 
             // Delete from S3
             s3Service.deleteFile(document.getS3Key());
@@ -194,48 +288,32 @@ public class DocumentController {
         try {
             // Get all valid document IDs
             List<Document> allDocs = documentRepository.findAll();
-            List<String> validDocIds = allDocs.stream()
+            Set<String> validDocIds = allDocs.stream()
                     .map(Document::getId)
-                    .toList();
+                    .collect(Collectors.toSet());
             
             System.out.println("Valid documents: " + validDocIds.size());
             
-            // Scan all embeddings with pagination
-            int orphanCount = 0;
-            int totalCount = 0;
-            Map<String, AttributeValue> lastEvaluatedKey = null;
-            
-            do {
-                ScanRequest.Builder scanBuilder = ScanRequest.builder()
-                        .tableName("DocumentEmbeddings");
-                
-                if (lastEvaluatedKey != null) {
-                    scanBuilder.exclusiveStartKey(lastEvaluatedKey);
-                }
-                
-                ScanResponse scanResponse = dynamoDbClient.scan(scanBuilder.build());
+            // Sweep all embeddings with a parallel segmented scan, deleting orphans as pages arrive
+            AtomicInteger orphans = new AtomicInteger();
+            long scanned = embeddingRepository.scanAll("chunk_id, document_id", item -> {
+                String docId = item.get("document_id").s();
+                String chunkId = item.get("chunk_id").s();
                 
-                for (Map<String, AttributeValue> item : scanResponse.items()) {
-                    totalCount++;
-                    String docId = item.get("document_id").s();
-                    String chunkId = item.get("chunk_id").s();
+                // If document doesn't exist, delete the embedding
+                if (!validDocIds.contains(docId)) {
+                    System.out.println("Deleting orphan embedding: " + chunkId + " (doc: " + docId + ")");
+                    DeleteItemRequest deleteRequest = DeleteItemRequest.builder()
+                            .tableName(EmbeddingRepository.TABLE_NAME)
+                            .key(Map.of("chunk_id", AttributeValue.builder().s(chunkId).build()))
+                            .build();
                     
-                    // If document doesn't exist, delete the embedding
-                    if (!validDocIds.contains(docId)) {
-                        System.out.println("Deleting orphan embedding: " + chunkId + " (doc: " + docId + ")");
-                        DeleteItemRequest deleteRequest = DeleteItemRequest.builder()
-                                .tableName("DocumentEmbeddings")
-                                .key(Map.of("chunk_id", AttributeValue.builder().s(chunkId).build()))
-                                .build();
-                        
-                        dynamoDbClient.deleteItem(deleteRequest);
-                        orphanCount++;
-                    }
+                    dynamoDbClient.deleteItem(deleteRequest);
+                    orphans.incrementAndGet();
                 }
-                
-                lastEvaluatedKey = scanResponse.lastEvaluatedKey();
-                
-            } while (lastEvaluatedKey != null && !lastEvaluatedKey.isEmpty());
+            });
+            int totalCount = (int) scanned;
+            int orphanCount = orphans.get();
             
             System.out.println("Cleaned up " + orphanCount + " orphan embeddings out of " + totalCount + " total");
             
@@ -253,6 +331,28 @@ public class DocumentController {
         }
     }
 
+    // POST /api/documents/migrate-embeddings - Rewrite JSON embeddings in the binary format (runs in the background)
+    @PostMapping("/migrate-embeddings")
+    public ResponseEntity<?> migrateEmbeddings() {
+        if (!embeddingMigrationService.start()) {
+            return ResponseEntity.status(HttpStatus.CONFLICT)
+                    .body(Map.of("error", "Embedding migration is already running"));
+        }
+        return ResponseEntity.status(HttpStatus.ACCEPTED).body(embeddingMigrationService.getStatus());
+    }
+
+    // GET /api/documents/migrate-embeddings - Progress of the embedding migration
+    @GetMapping("/migrate-embeddings")
+    public ResponseEntity<?> getEmbeddingMigrationStatus() {
+        return ResponseEntity.ok(embeddingMigrationService.getStatus());
+    }
+
+    // GET /api/documents/ingestion - Counters and queue depths of the in-process ingestion pipeline
+    @GetMapping("/ingestion")
+    public ResponseEntity<?> getIngestionStatus() {
+        return ResponseEntity.ok(ingestionService.getStatus());
+    }
+
     /**
      * Delete all embeddings for a document from DocumentEmbeddings table
      */
@@ -1,12 +1,19 @@
 package com.example.demo.controller;
 
+import com.example.demo.service.AnswerStreamListener;
 import com.example.demo.service.QAService;
+import com.example.demo.service.SearchService;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.http.HttpStatus;
+import org.springframework.http.MediaType;
 import org.springframework.http.ResponseEntity;
 import org.springframework.web.bind.annotation.*;
+import org.springframework.web.servlet.mvc.method.annotation.SseEmitter;
 
+import java.util.HashMap;
+import java.util.List;
 import java.util.Map;
+import java.util.concurrent.CompletionException;
 
 @RestController
 @RequestMapping("/api/qa")
@@ -30,6 +37,10 @@ public class QAController {
                 return ResponseEntity.badRequest()
                         .body(Map.of("error", "Question cannot be empty"));
             }
+            if (maxSources == null || maxSources < 1 || maxSources > SearchService.MAX_TOP_K) {
+                return ResponseEntity.badRequest()
+                        .body(Map.of("error", "maxSources must be between 1 and " + SearchService.MAX_TOP_K));
+            }
 
             System.out.println("Received Q&A request: " + question);
 
@@ -43,4 +54,63 @@ public class QAController {
         }
     }
 
+    // POST /api/qa/stream - Same request as /api/qa, answered as server-sent events:
+    // "sources" (list of chunks), then "token" ({"text": ...}) as the answer is generated,
+    // then "done" ({"model", "cached"}) or "error" ({"error": ...})
+    @PostMapping("/stream")
+    public ResponseEntity<?> askQuestionStream(@RequestBody Map<String, Object> request) {
+        String question = (String) request.get("question");
+        Integer maxSources = (Integer) request.getOrDefault("maxSources", 5);
+
+        if (question == null || question.trim().isEmpty()) {
+            return ResponseEntity.badRequest()
+                    .body(Map.of("error", "Question cannot be empty"));
+        }
+        if (maxSources == null || maxSources < 1 || maxSources > SearchService.MAX_TOP_K) {
+            return ResponseEntity.badRequest()
+                    .body(Map.of("error", "maxSources must be between 1 and " + SearchService.MAX_TOP_K));
+        }
+
+        System.out.println("Received streaming Q&A request: " + question);
+
+        SseEmitter emitter = new SseEmitter(qaService.getStreamTimeoutMillis());
+        qaService.streamAnswer(question, maxSources, new AnswerStreamListener() {
+            @Override
+            public void onSources(List<Map<String, Object>> sources) throws Exception {
+                emitter.send(SseEmitter.event().name("sources").data(sources, MediaType.APPLICATION_JSON));
+            }
+
+            @Override
+            public void onToken(String token) throws Exception {
+                emitter.send(SseEmitter.event().name("token").data(Map.of("text", token), MediaType.APPLICATION_JSON));
+            }
+        }).whenComplete((result, error) -> {
+            try {
+                if (error != null) {
+                    Throwable cause = error instanceof CompletionException && error.getCause() != null
+                            ? error.getCause() : error;
+                    System.err.println("Streaming Q&A error: " + cause.getMessage());
+                    emitter.send(SseEmitter.event().name("error")
+                            .data(Map.of("error", "Failed to process question: " + cause.getMessage()),
+                                    MediaType.APPLICATION_JSON));
+                } else {
+                    Map<String, Object> done = new HashMap<>();
+                    done.put("model", result.get("model"));
+                    done.put("cached", result.getOrDefault("cached", false));
+                    emitter.send(SseEmitter.event().name("done").data(done, MediaType.APPLICATION_JSON));
+                }
+                emitter.complete();
+            } catch (Exception e) {
+                // Client already disconnected
+                emitter.completeWithError(e);
+            }
+        });
+        return ResponseEntity.ok(emitter);
+    }
+
+    // GET /api/qa/cache - Answer cache statistics
+    @GetMapping("/cache")
+    public ResponseEntity<?> answerCacheStats() {
+        return ResponseEntity.ok(qaService.getAnswerCacheStats());
+    }
 }
@@ -1,11 +1,14 @@
 package com.example.demo.controller;
 
+import com.example.demo.search.SearchFilter;
+import com.example.demo.search.SearchOptions;
 import com.example.demo.service.SearchService;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.http.ResponseEntity;
 import org.springframework.web.bind.annotation.*;
 
 import java.util.List;
+import java.util.Locale;
 import java.util.Map;
 
 @RestController
@@ -25,7 +28,9 @@ public class SearchController {
      * Search for documents similar to the query
      * 
      * POST /api/search
-     * Body: { "query": "What is AI?", "topK": 5 }
+     * Body: { "query": "What is AI?", "topK": 5, "mode": "vector", "exact": false, "nprobe": 16 }
+     * mode: "vector" (default), "hybrid" (vector + BM25 fused by rank) or "lexical" (BM25 only, no embedding)
+     * Optional filters, all of which must match: "userId", "documentIds": ["..."], "contentType": "application/pdf"
      */
     @PostMapping
     public ResponseEntity<?> search(@RequestBody Map<String, Object> request) {
@@ -33,16 +38,50 @@ public class SearchController {
             // Extract parameters from request body
             String query = (String) request.get("query");
             Integer topK = (Integer) request.getOrDefault("topK", 5);
+            Boolean exact = (Boolean) request.getOrDefault("exact", false);
+            Integer nprobe = (Integer) request.get("nprobe");
+            String mode = (String) request.getOrDefault("mode", "vector");
+            String userId = (String) request.get("userId");
+            String contentType = (String) request.get("contentType");
+            Object documentIds = request.get("documentIds");
             
             // Validate query
             if (query == null || query.trim().isEmpty()) {
                 return ResponseEntity.badRequest()
                         .body(Map.of("error", "Query cannot be empty"));
             }
+            if (topK == null || topK < 1 || topK > SearchService.MAX_TOP_K) {
+                return ResponseEntity.badRequest()
+                        .body(Map.of("error", "topK must be between 1 and " + SearchService.MAX_TOP_K));
+            }
             
             // Perform search
-            System.out.println("Search request: query='" + query + "', topK=" + topK);
-            List<Map<String, Object>> results = searchService.searchDocuments(query, topK);
+            System.out.println("Search request: query='" + query + "', topK=" + topK + ", mode=" + mode);
+            SearchOptions options = new SearchOptions();
+            try {
+                options.setMode(SearchOptions.Mode.valueOf(mode.toUpperCase(Locale.ROOT)));
+            } catch (IllegalArgumentException e) {
+                return ResponseEntity.badRequest()
+                        .body(Map.of("error", "Unknown search mode: " + mode));
+            }
+            options.setExact(exact);
+            options.setNprobe(nprobe);
+
+            // Restrict the search to matching documents
+            SearchFilter filter = new SearchFilter();
+            filter.setUserId(userId);
+            filter.setContentType(contentType);
+            if (documentIds != null) {
+                if (!(documentIds instanceof List) || ((List<?>) documentIds).stream().anyMatch(id -> !(id instanceof String))) {
+                    return ResponseEntity.badRequest()
+                            .body(Map.of("error", "documentIds must be a list of document IDs"));
+                }
+                filter.setDocumentIds(((List<?>) documentIds).stream().map(id -> (String) id).toList());
+            }
+            if (!filter.isEmpty()) {
+                options.setFilter(filter);
+            }
+            List<Map<String, Object>> results = searchService.searchDocuments(query, topK, options);
             
             // Return results
             return ResponseEntity.ok(Map.of(
@@ -58,6 +97,41 @@ public class SearchController {
             return ResponseEntity.internalServerError()
                     .body(Map.of("error", "Search failed: " + e.getMessage()));
         }
-    }    
+    }
+
+    /**
+     * Describe the active vector index
+     * 
+     * GET /api/search/index
+     */
+    @GetMapping("/index")
+    public ResponseEntity<?> indexStats() {
+        return ResponseEntity.ok(searchService.getIndexStats());
+    }
+
+    /**
+     * Hit ratio and size of the query embedding cache
+     * 
+     * GET /api/search/cache
+     */
+    @GetMapping("/cache")
+    public ResponseEntity<?> queryCacheStats() {
+        return ResponseEntity.ok(searchService.getQueryCacheStats());
+    }
+
+    /**
+     * Retrain and rebuild the vector index in the background
+     * 
+     * POST /api/search/index/rebuild
+     */
+    @PostMapping("/index/rebuild")
+    public ResponseEntity<?> rebuildIndex() {
+        if (!searchService.buildIndex()) {
+            return ResponseEntity.badRequest()
+                    .body(Map.of("error", "No approximate index configured or a build is already running"));
+        }
+        return ResponseEntity.accepted()
+                .body(Map.of("message", "Index rebuild started"));
+    }
 }
 
@@ -60,6 +60,15 @@ public class DocumentRepository {
         return document;
     }
 
+    // Set the processing status of a document
+    public void updateStatus(String id, String status) {
+        Document document = findById(id);
+        if (document != null) {
+            document.setStatus(status);
+            documentTable.putItem(document);
+        }
+    }
+
     // Delete document by ID
     public void deleteById(String id) {
         Key key = Key.builder().partitionValue(id).build();
@@ -0,0 +1,169 @@
+package com.example.demo.repository;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+
+/**
+ * Encodings of an embedding vector in the DocumentEmbeddings table.
+ *
+ * FORMAT_JSON is the legacy JSON array text ("[0.23, -0.15, ...]").
+ * FORMAT_FLOAT32 and FORMAT_FLOAT16 are raw little-endian values, 4 and 2 bytes per dimension.
+ * For a 1536-d vector that is 6 KB or 3 KB, against roughly 30 KB of JSON text.
+ */
+public final class EmbeddingCodec {
+
+    public static final int FORMAT_JSON = 1;
+    public static final int FORMAT_FLOAT32 = 2;
+    public static final int FORMAT_FLOAT16 = 3;
+
+    private EmbeddingCodec() {
+    }
+
+    /**
+     * Map a configured format name ("float32" or "float16") to its format number
+     */
+    public static int formatOf(String name) {
+        if ("float32".equalsIgnoreCase(name)) {
+            return FORMAT_FLOAT32;
+        }
+        if ("float16".equalsIgnoreCase(name)) {
+            return FORMAT_FLOAT16;
+        }
+        throw new IllegalArgumentException("Unknown embedding format: " + name);
+    }
+
+    /**
+     * Encode a vector in one of the binary formats
+     *
+     * @param vector Embedding vector
+     * @param format FORMAT_FLOAT32 or FORMAT_FLOAT16
+     * @return Little-endian bytes
+     */
+    public static byte[] encode(float[] vector, int format) {
+        if (format == FORMAT_FLOAT32) {
+            ByteBuffer buffer = ByteBuffer.allocate(vector.length * Float.BYTES).order(ByteOrder.LITTLE_ENDIAN);
+            buffer.asFloatBuffer().put(vector);
+            return buffer.array();
+        }
+        if (format == FORMAT_FLOAT16) {
+            ByteBuffer buffer = ByteBuffer.allocate(vector.length * Short.BYTES).order(ByteOrder.LITTLE_ENDIAN);
+            for (float value : vector) {
+                buffer.putShort(toHalf(value));
+            }
+            return buffer.array();
+        }
+        throw new IllegalArgumentException("Not a binary embedding format: " + format);
+    }
+
+    /**
+     * Decode a vector written by {@link #encode}
+     *
+     * @param bytes Little-endian bytes
+     * @param format FORMAT_FLOAT32 or FORMAT_FLOAT16
+     * @return Embedding vector
+     */
+    public static float[] decode(byte[] bytes, int format) {
+        ByteBuffer buffer = ByteBuffer.wrap(bytes).order(ByteOrder.LITTLE_ENDIAN);
+        if (format == FORMAT_FLOAT32) {
+            float[] vector = new float[bytes.length / Float.BYTES];
+            buffer.asFloatBuffer().get(vector);
+            return vector;
+        }
+        if (format == FORMAT_FLOAT16) {
+            float[] vector = new float[bytes.length / Short.BYTES];
+            for (int i = 0; i < vector.length; i++) {
+                vector[i] = fromHalf(buffer.getShort());
+            }
+            return vector;
+        }
+        throw new IllegalArgumentException("Not a binary embedding format: " + format);
+    }
+
+    /**
+     * Parse the legacy JSON array text without building a JSON tree
+     *
+     * @param json JSON string like "[0.23, -0.15, 0.87, ...]"
+     * @return Embedding vector
+     */
+    public static float[] parseJson(String json) {
+        int start = json.indexOf('[');
+        int end = json.lastIndexOf(']');
+        if (start < 0 || end < start) {
+            throw new IllegalArgumentException("Embedding is not a JSON array");
+        }
+        if (json.substring(start + 1, end).trim().isEmpty()) {
+            return new float[0];
+        }
+
+        int count = 1;
+        for (int i = start + 1; i < end; i++) {
+            if (json.charAt(i) == ',') {
+                count++;
+            }
+        }
+        float[] vector = new float[count];
+        int from = start + 1;
+        for (int i = 0; i < count; i++) {
+            int comma = i == count - 1 ? end : json.indexOf(',', from);
+            vector[i] = Float.parseFloat(json.substring(from, comma).trim());
+            from = comma + 1;
+        }
+        return vector;
+    }
+
+    /**
+     * Round a float to the nearest IEEE 754 half-precision value (ties to even)
+     */
+    static short toHalf(float value) {
+        int bits = Float.floatToIntBits(value);
+        int sign = (bits >>> 16) & 0x8000;
+        int floatExponent = (bits >>> 23) & 0xff;
+        int mantissa = bits & 0x7fffff;
+
+        if (floatExponent == 0xff) {
+            // Infinity stays infinity, NaN stays a (quiet) NaN
+            return (short) (sign | 0x7c00 | (mantissa != 0 ? 0x200 : 0));
+        }
+        int exponent = floatExponent - 127 + 15;
+        if (exponent >= 0x1f) {
+            return (short) (sign | 0x7c00);
+        }
+        if (exponent <= 0) {
+            // Subnormal half, or zero when too small
+            if (exponent < -10) {
+                return (short) sign;
+            }
+            mantissa |= 0x800000;
+            int shift = 14 - exponent;
+            int half = mantissa >> shift;
+            int remainder = mantissa & ((1 << shift) - 1);
+            int halfway = 1 << (shift - 1);
+            if (remainder > halfway || (remainder == halfway && (half & 1) != 0)) {
+                half++;
+            }
+            return (short) (sign | half);
+        }
+        int half = (exponent << 10) | (mantissa >> 13);
+        int remainder = mantissa & 0x1fff;
+        // A carry out of the mantissa correctly bumps the exponent (up to infinity)
+        if (remainder > 0x1000 || (remainder == 0x1000 && (half & 1) != 0)) {
+            half++;
+        }
+        return (short) (sign | half);
+    }
+
+    static float fromHalf(short value) {
+        int bits = value & 0xffff;
+        int sign = (bits & 0x8000) << 16;
+        int exponent = (bits >>> 10) & 0x1f;
+        int mantissa = bits & 0x3ff;
+        if (exponent == 0x1f) {
+            return Float.intBitsToFloat(sign | 0x7f800000 | (mantissa << 13));
+        }
+        if (exponent == 0) {
+            float magnitude = mantissa * 0x1p-24f;
+            return sign != 0 ? -magnitude : magnitude;
+        }
+        return Float.intBitsToFloat(sign | ((exponent + 112) << 23) | (mantissa << 13));
+    }
+}
@@ -0,0 +1,370 @@
+package com.example.demo.repository;
+
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Repository;
+import software.amazon.awssdk.core.SdkBytes;
+import software.amazon.awssdk.services.dynamodb.DynamoDbClient;
+import software.amazon.awssdk.services.dynamodb.model.AttributeValue;
+import software.amazon.awssdk.services.dynamodb.model.BatchGetItemRequest;
+import software.amazon.awssdk.services.dynamodb.model.BatchGetItemResponse;
+import software.amazon.awssdk.services.dynamodb.model.BatchWriteItemRequest;
+import software.amazon.awssdk.services.dynamodb.model.BatchWriteItemResponse;
+import software.amazon.awssdk.services.dynamodb.model.ConditionalCheckFailedException;
+import software.amazon.awssdk.services.dynamodb.model.DeleteRequest;
+import software.amazon.awssdk.services.dynamodb.model.KeysAndAttributes;
+import software.amazon.awssdk.services.dynamodb.model.PutRequest;
+import software.amazon.awssdk.services.dynamodb.model.ScanRequest;
+import software.amazon.awssdk.services.dynamodb.model.ScanResponse;
+import software.amazon.awssdk.services.dynamodb.model.UpdateItemRequest;
+import software.amazon.awssdk.services.dynamodb.model.WriteRequest;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.function.Consumer;
+
+/**
+ * Access to the DocumentEmbeddings table.
+ *
+ * An item stores its vector either as legacy JSON text in "embedding" (S), or as raw little-endian
+ * values in "embedding_bin" (B) with the {@link EmbeddingCodec} format number in "embedding_format" (N).
+ * Reads accept both, so old and migrated items can live side by side.
+ * "updated_at" (N, epoch milliseconds) is the chunk's version: whoever re-writes a chunk under the same
+ * chunk_id sets a new one, so the search service's refresh can replace its resident copy. Items without
+ * it count as version 0.
+ */
+@Repository
+public class EmbeddingRepository {
+
+    public static final String TABLE_NAME = "DocumentEmbeddings";
+
+    public static final String EMBEDDING_JSON = "embedding";
+    public static final String EMBEDDING_BINARY = "embedding_bin";
+    public static final String EMBEDDING_FORMAT = "embedding_format";
+    public static final String UPDATED_AT = "updated_at";
+
+    private static final int BATCH_GET_LIMIT = 100;
+    private static final int BATCH_WRITE_LIMIT = 25;
+    // Retries of unprocessed keys/items per batch; backoff doubles from 50 ms up to 1 s (about 7 s in total)
+    private static final int BATCH_MAX_RETRIES = 10;
+
+    private final DynamoDbClient dynamoDbClient;
+    private final ParallelScanner parallelScanner;
+    private final int writeFormat;
+
+    @Autowired
+    public EmbeddingRepository(DynamoDbClient dynamoDbClient, ParallelScanner parallelScanner,
+                               @Value("${embeddings.storage.format:float32}") String writeFormat) {
+        this.dynamoDbClient = dynamoDbClient;
+        this.parallelScanner = parallelScanner;
+        this.writeFormat = EmbeddingCodec.formatOf(writeFormat);
+    }
+
+    // Format used for new and migrated vectors
+    public int getWriteFormat() {
+        return writeFormat;
+    }
+
+    // Decode the vector of an item in whichever format it was stored
+    public float[] readVector(Map<String, AttributeValue> item) {
+        AttributeValue binary = item.get(EMBEDDING_BINARY);
+        if (binary != null && binary.b() != null) {
+            AttributeValue format = item.get(EMBEDDING_FORMAT);
+            int formatNumber = format != null && format.n() != null
+                    ? Integer.parseInt(format.n())
+                    : EmbeddingCodec.FORMAT_FLOAT32;
+            return EmbeddingCodec.decode(binary.b().asByteArray(), formatNumber);
+        }
+        AttributeValue json = item.get(EMBEDDING_JSON);
+        if (json == null || json.s() == null) {
+            throw new IllegalArgumentException("Item has no embedding attribute");
+        }
+        return EmbeddingCodec.parseJson(json.s());
+    }
+
+    // Attributes holding a vector in the configured binary format, for new writes
+    public Map<String, AttributeValue> vectorAttributes(float[] vector) {
+        Map<String, AttributeValue> attributes = new HashMap<>();
+        attributes.put(EMBEDDING_BINARY, AttributeValue.builder()
+                .b(SdkBytes.fromByteArray(EmbeddingCodec.encode(vector, writeFormat)))
+                .build());
+        attributes.put(EMBEDDING_FORMAT, AttributeValue.builder().n(Integer.toString(writeFormat)).build());
+        return attributes;
+    }
+
+    // Version of an item (its updated_at), 0 when it has none
+    public static long readVersion(Map<String, AttributeValue> item) {
+        AttributeValue updatedAt = item.get(UPDATED_AT);
+        return updatedAt != null && updatedAt.n() != null ? Long.parseLong(updatedAt.n()) : 0L;
+    }
+
+    // Whole item for a new chunk, with its vector in the configured binary format
+    public Map<String, AttributeValue> chunkItem(String chunkId, String documentId, String fileName, String text,
+                                                 long updatedAt, float[] vector) {
+        Map<String, AttributeValue> item = vectorAttributes(vector);
+        item.put(UPDATED_AT, AttributeValue.builder().n(Long.toString(updatedAt)).build());
+        item.put("chunk_id", AttributeValue.builder().s(chunkId).build());
+        item.put("document_id", AttributeValue.builder().s(documentId).build());
+        item.put("file_name", AttributeValue.builder().s(fileName != null ? fileName : "").build());
+        item.put("text", AttributeValue.builder().s(text).build());
+        return item;
+    }
+
+    /**
+     * Put items with BatchWriteItem in groups of 25, retrying unprocessed items with a short backoff
+     *
+     * @param items Whole items, e.g. from {@link #chunkItem}
+     * @throws IllegalStateException when DynamoDB keeps leaving items unprocessed
+     */
+    public void batchWrite(List<Map<String, AttributeValue>> items) throws InterruptedException {
+        List<WriteRequest> writes = new ArrayList<>(items.size());
+        for (Map<String, AttributeValue> item : items) {
+            writes.add(WriteRequest.builder().putRequest(PutRequest.builder().item(item).build()).build());
+        }
+        submitWrites(writes);
+    }
+
+    /**
+     * Delete chunks with BatchWriteItem in groups of 25, retrying unprocessed keys with a short backoff
+     *
+     * @param chunkIds Chunks to delete; ids that do not exist are ignored
+     * @throws IllegalStateException when DynamoDB keeps leaving keys unprocessed
+     */
+    public void batchDelete(List<String> chunkIds) throws InterruptedException {
+        List<WriteRequest> writes = new ArrayList<>(chunkIds.size());
+        for (String chunkId : chunkIds) {
+            writes.add(WriteRequest.builder().deleteRequest(DeleteRequest.builder()
+                    .key(Map.of("chunk_id", AttributeValue.builder().s(chunkId).build()))
+                    .build()).build());
+        }
+        submitWrites(writes);
+    }
+
+    /**
+     * BatchWriteItem in groups of 25 requests, retrying unprocessed ones with a short backoff
+     */
+    private void submitWrites(List<WriteRequest> writes) throws InterruptedException {
+        for (int start = 0; start < writes.size(); start += BATCH_WRITE_LIMIT) {
+            Map<String, List<WriteRequest>> requestItems = Map.of(TABLE_NAME,
+                    writes.subList(start, Math.min(start + BATCH_WRITE_LIMIT, writes.size())));
+            int attempt = 0;
+            while (!requestItems.isEmpty()) {
+                BatchWriteItemResponse response = dynamoDbClient.batchWriteItem(
+                        BatchWriteItemRequest.builder().requestItems(requestItems).build());
+
+                // Retry requests DynamoDB throttled this time, with a short backoff
+                requestItems = response.unprocessedItems();
+                if (requestItems != null && !requestItems.isEmpty()) {
+                    backOff("BatchWriteItem", attempt++, requestItems.get(TABLE_NAME).size());
+                } else {
+                    requestItems = Map.of();
+                }
+            }
+        }
+    }
+
+    /**
+     * Stream every item of the table through a parallel segmented scan
+     *
+     * @param projectionExpression Attributes to read, or null for whole items
+     * @param consumer Receives each item; called from several scan threads at once
+     * @return Number of items scanned
+     */
+    public long scanAll(String projectionExpression, Consumer<Map<String, AttributeValue>> consumer) throws Exception {
+        ScanRequest.Builder scanBuilder = ScanRequest.builder().tableName(TABLE_NAME);
+        if (projectionExpression != null) {
+            scanBuilder.projectionExpression(projectionExpression);
+        }
+        return parallelScanner.scan(scanBuilder.build(), consumer);
+    }
+
+    // Attributes needed to score a chunk; text and file_name are left for hydration
+    public static final String VECTOR_PROJECTION = "chunk_id, document_id, updated_at, #embedding, #bin, #format";
+
+    /**
+     * Stream the scoring attributes (ids and vector, no text) of every item through a parallel scan
+     *
+     * @param consumer Receives each item; called from several scan threads at once
+     * @return Number of items scanned
+     */
+    public long scanVectors(Consumer<Map<String, AttributeValue>> consumer) throws Exception {
+        return parallelScanner.scan(ScanRequest.builder()
+                .tableName(TABLE_NAME)
+                .projectionExpression(VECTOR_PROJECTION)
+                .expressionAttributeNames(vectorAttributeNames())
+                .build(), consumer);
+    }
+
+    /**
+     * Stream chunk_id and updated_at of every item through a parallel scan, for detecting new and re-written chunks
+     *
+     * @param consumer Receives each item; called from several scan threads at once
+     * @return Number of items scanned
+     */
+    public long scanVersions(Consumer<Map<String, AttributeValue>> consumer) throws Exception {
+        return scanAll("chunk_id, " + UPDATED_AT, consumer);
+    }
+
+    /**
+     * Stream chunk_id and text of every item through a parallel scan
+     *
+     * @param consumer Receives each item; called from several scan threads at once
+     * @return Number of items scanned
+     */
+    public long scanTexts(Consumer<Map<String, AttributeValue>> consumer) throws Exception {
+        return parallelScanner.scan(ScanRequest.builder()
+                .tableName(TABLE_NAME)
+                .projectionExpression("chunk_id, #text")
+                .expressionAttributeNames(Map.of("#text", "text"))
+                .build(), consumer);
+    }
+
+    /**
+     * Fetch the scoring attributes of the given chunks
+     *
+     * @param chunkIds Chunks to fetch
+     * @return Records with chunk_id, document_id, updated_at (Long) and the decoded "embedding" (float[])
+     */
+    public List<Map<String, Object>> getEmbeddings(List<String> chunkIds) throws InterruptedException {
+        List<Map<String, Object>> embeddings = new ArrayList<>();
+        batchGet(chunkIds, VECTOR_PROJECTION, vectorAttributeNames(), item -> {
+            Map<String, Object> embedding = new HashMap<>();
+            embedding.put("chunk_id", item.get("chunk_id").s());
+            embedding.put("document_id", item.get("document_id").s());
+            embedding.put(UPDATED_AT, readVersion(item));
+            embedding.put("embedding", readVector(item));
+            embeddings.add(embedding);
+        });
+
+        System.out.println("Fetched " + embeddings.size() + " embeddings from DynamoDB");
+        return embeddings;
+    }
+
+    /**
+     * Fetch text and file name of the given chunks (no vectors)
+     *
+     * @param chunkIds Chunks to fetch
+     * @return chunk_id -> record with "text" and "file_name"
+     */
+    public Map<String, Map<String, String>> getChunkTexts(List<String> chunkIds) throws InterruptedException {
+        Map<String, Map<String, String>> texts = new HashMap<>();
+        batchGet(chunkIds, "chunk_id, #text, file_name", Map.of("#text", "text"), item -> {
+            Map<String, String> chunk = new HashMap<>();
+            chunk.put("text", item.get("text").s());
+            chunk.put("file_name", item.get("file_name").s());
+            texts.put(item.get("chunk_id").s(), chunk);
+        });
+        return texts;
+    }
+
+    private static Map<String, String> vectorAttributeNames() {
+        return Map.of("#embedding", EMBEDDING_JSON, "#bin", EMBEDDING_BINARY, "#format", EMBEDDING_FORMAT);
+    }
+
+    /**
+     * BatchGetItem in groups of 100 keys, retrying unprocessed keys with a short backoff
+     */
+    private void batchGet(List<String> chunkIds, String projectionExpression, Map<String, String> attributeNames,
+                          Consumer<Map<String, AttributeValue>> consumer) throws InterruptedException {
+        for (int start = 0; start < chunkIds.size(); start += BATCH_GET_LIMIT) {
+            List<Map<String, AttributeValue>> keys = new ArrayList<>();
+            for (String chunkId : chunkIds.subList(start, Math.min(start + BATCH_GET_LIMIT, chunkIds.size()))) {
+                keys.add(Map.of("chunk_id", AttributeValue.builder().s(chunkId).build()));
+            }
+
+            Map<String, KeysAndAttributes> requestItems = Map.of(TABLE_NAME, KeysAndAttributes.builder()
+                    .keys(keys)
+                    .projectionExpression(projectionExpression)
+                    .expressionAttributeNames(attributeNames)
+                    .build());
+            int attempt = 0;
+            while (!requestItems.isEmpty()) {
+                BatchGetItemResponse response = dynamoDbClient.batchGetItem(
+                        BatchGetItemRequest.builder().requestItems(requestItems).build());
+
+                for (Map<String, AttributeValue> item : response.responses().getOrDefault(TABLE_NAME, List.of())) {
+                    consumer.accept(item);
+                }
+
+                // Retry keys DynamoDB could not serve this time, with a short backoff
+                requestItems = response.unprocessedKeys();
+                if (requestItems != null && !requestItems.isEmpty()) {
+                    backOff("BatchGetItem", attempt++, requestItems.get(TABLE_NAME).keys().size());
+                } else {
+                    requestItems = Map.of();
+                }
+            }
+        }
+    }
+
+    /**
+     * Wait before retrying unprocessed keys or items, giving up after {@link #BATCH_MAX_RETRIES} retries
+     *
+     * @param operation DynamoDB operation, for the error message
+     * @param attempt Retries made so far for this batch
+     * @param unprocessed Keys or items DynamoDB left unprocessed
+     */
+    private static void backOff(String operation, int attempt, int unprocessed) throws InterruptedException {
+        if (attempt >= BATCH_MAX_RETRIES) {
+            throw new IllegalStateException(operation + " on " + TABLE_NAME + " still left " + unprocessed
+                    + " unprocessed after " + BATCH_MAX_RETRIES + " retries; the table is being throttled");
+        }
+        Thread.sleep(Math.min(1000L, 50L << Math.min(attempt, 5)));
+    }
+
+    /**
+     * Read one page of items that still hold a JSON embedding
+     *
+     * @param startKey Key to continue from, or null for the first page
+     * @param limit Items evaluated by this page (before the filter)
+     * @return Scan page with chunk_id and embedding of each legacy item
+     */
+    public ScanResponse scanLegacyPage(Map<String, AttributeValue> startKey, int limit) {
+        ScanRequest.Builder scanBuilder = ScanRequest.builder()
+                .tableName(TABLE_NAME)
+                .projectionExpression("chunk_id, #embedding")
+                .filterExpression("attribute_exists(#embedding)")
+                .expressionAttributeNames(Map.of("#embedding", EMBEDDING_JSON))
+                .limit(limit);
+        if (startKey != null) {
+            scanBuilder.exclusiveStartKey(startKey);
+        }
+        return dynamoDbClient.scan(scanBuilder.build());
+    }
+
+    /**
+     * Rewrite one legacy item in the binary format and drop its JSON attribute.
+     * The update only applies if the JSON is still the one that was read, so an item
+     * re-written by the processing Lambda in the meantime is left alone.
+     *
+     * @param item Item from {@link #scanLegacyPage}
+     * @return true if the item was rewritten, false if it changed since it was read
+     */
+    public boolean migrateItem(Map<String, AttributeValue> item) {
+        String json = item.get(EMBEDDING_JSON).s();
+        Map<String, AttributeValue> vector = vectorAttributes(EmbeddingCodec.parseJson(json));
+
+        Map<String, AttributeValue> values = new HashMap<>();
+        values.put(":bin", vector.get(EMBEDDING_BINARY));
+        values.put(":format", vector.get(EMBEDDING_FORMAT));
+        values.put(":json", item.get(EMBEDDING_JSON));
+        try {
+            dynamoDbClient.updateItem(UpdateItemRequest.builder()
+                    .tableName(TABLE_NAME)
+                    .key(Map.of("chunk_id", item.get("chunk_id")))
+                    .updateExpression("SET #bin = :bin, #format = :format REMOVE #embedding")
+                    .conditionExpression("#embedding = :json")
+                    .expressionAttributeNames(Map.of(
+                            "#bin", EMBEDDING_BINARY,
+                            "#format", EMBEDDING_FORMAT,
+                            "#embedding", EMBEDDING_JSON))
+                    .expressionAttributeValues(values)
+                    .build());
+            return true;
+        } catch (ConditionalCheckFailedException e) {
+            return false;
+        }
+    }
+}
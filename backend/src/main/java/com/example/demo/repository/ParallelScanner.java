@@ -0,0 +1,153 @@
+package com.example.demo.repository;
+
+import jakarta.annotation.PreDestroy;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+import software.amazon.awssdk.services.dynamodb.DynamoDbClient;
+import software.amazon.awssdk.services.dynamodb.model.AttributeValue;
+import software.amazon.awssdk.services.dynamodb.model.ReturnConsumedCapacity;
+import software.amazon.awssdk.services.dynamodb.model.ScanRequest;
+import software.amazon.awssdk.services.dynamodb.model.ScanResponse;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Consumer;
+
+/**
+ * Full-table scans split into DynamoDB parallel-scan segments.
+ *
+ * Each segment is paged on a worker of a bounded pool and its items are handed to the consumer
+ * page by page, so a scan never holds more than one page per segment in memory.
+ * An optional read-capacity budget paces all segments together, so a large sweep leaves
+ * provisioned capacity for foreground reads.
+ */
+@Component
+public class ParallelScanner {
+
+    private final DynamoDbClient dynamoDbClient;
+    private final int segments;
+    private final double readCapacityPerSecond;
+    private final ExecutorService workers;
+
+    // Earliest time (System.nanoTime) the next page may be read under the capacity budget
+    private long nextReadAt = 0;
+
+    @Autowired
+    public ParallelScanner(DynamoDbClient dynamoDbClient,
+                           @Value("${dynamodb.scan.segments:8}") int segments,
+                           @Value("${dynamodb.scan.threads:8}") int threads,
+                           @Value("${dynamodb.scan.readCapacityPerSecond:0}") double readCapacityPerSecond,
+                           @Qualifier("blockingIoThreadFactory") ThreadFactory threadFactory) {
+        this.dynamoDbClient = dynamoDbClient;
+        this.segments = Math.max(1, segments);
+        this.readCapacityPerSecond = readCapacityPerSecond;
+        this.workers = Executors.newFixedThreadPool(Math.max(1, threads), threadFactory);
+    }
+
+    /**
+     * Scan a whole table in parallel segments
+     *
+     * @param request Scan to run (table, projection, filter); segment and start key are set per page
+     * @param consumer Receives every item; called from several threads at once, so it must be thread-safe
+     * @return Number of items passed to the consumer
+     * @throws Exception the first failure of any segment (the other segments stop at their next page)
+     */
+    public long scan(ScanRequest request, Consumer<Map<String, AttributeValue>> consumer) throws Exception {
+        AtomicLong items = new AtomicLong();
+        AtomicBoolean failed = new AtomicBoolean(false);
+        List<Future<?>> futures = new ArrayList<>();
+        long start = System.currentTimeMillis();
+
+        for (int segment = 0; segment < segments; segment++) {
+            int current = segment;
+            futures.add(workers.submit(() -> {
+                scanSegment(request, current, consumer, items, failed);
+                return null;
+            }));
+        }
+
+        Exception failure = null;
+        for (Future<?> future : futures) {
+            try {
+                future.get();
+            } catch (ExecutionException e) {
+                if (failure == null) {
+                    failure = e.getCause() instanceof Exception ? (Exception) e.getCause() : e;
+                }
+            }
+        }
+        if (failure != null) {
+            throw failure;
+        }
+
+        System.out.println("Scanned " + items.get() + " items from " + request.tableName() + " in "
+                + segments + " segments, " + (System.currentTimeMillis() - start) + " ms");
+        return items.get();
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        workers.shutdownNow();
+    }
+
+    private void scanSegment(ScanRequest request, int segment, Consumer<Map<String, AttributeValue>> consumer,
+                             AtomicLong items, AtomicBoolean failed) throws InterruptedException {
+        Map<String, AttributeValue> lastEvaluatedKey = null;
+        try {
+            do {
+                if (failed.get()) {
+                    return;
+                }
+                ScanRequest.Builder pageBuilder = request.toBuilder()
+                        .segment(segment)
+                        .totalSegments(segments)
+                        .returnConsumedCapacity(ReturnConsumedCapacity.TOTAL);
+                if (lastEvaluatedKey != null) {
+                    pageBuilder.exclusiveStartKey(lastEvaluatedKey);
+                }
+
+                ScanResponse response = dynamoDbClient.scan(pageBuilder.build());
+                for (Map<String, AttributeValue> item : response.items()) {
+                    consumer.accept(item);
+                }
+                items.addAndGet(response.items().size());
+
+                if (response.consumedCapacity() != null && response.consumedCapacity().capacityUnits() != null) {
+                    throttle(response.consumedCapacity().capacityUnits());
+                }
+                lastEvaluatedKey = response.lastEvaluatedKey();
+            } while (lastEvaluatedKey != null && !lastEvaluatedKey.isEmpty());
+        } catch (RuntimeException | InterruptedException e) {
+            failed.set(true);
+            throw e;
+        }
+    }
+
+    /**
+     * Charge the capacity a page consumed against the shared budget and wait off any debt
+     */
+    private void throttle(double capacityUnits) throws InterruptedException {
+        if (readCapacityPerSecond <= 0) {
+            return;
+        }
+        long wait;
+        synchronized (this) {
+            long now = System.nanoTime();
+            nextReadAt = Math.max(nextReadAt, now) + (long) (capacityUnits / readCapacityPerSecond * 1_000_000_000L);
+            wait = nextReadAt - now;
+        }
+        if (wait > 0) {
+            Thread.sleep(wait / 1_000_000L, (int) (wait % 1_000_000L));
+        }
+    }
+}
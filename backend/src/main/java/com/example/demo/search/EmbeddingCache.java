@@ -0,0 +1,133 @@
+package com.example.demo.search;
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Bounded cache of query embeddings.
+ *
+ * Entries expire after a fixed time to live and the least recently used ones are evicted once
+ * the total weight (approximate heap bytes of keys and vectors) passes the limit.
+ * Cached vectors are shared, so callers must not modify them.
+ */
+public class EmbeddingCache {
+
+    // Rough per-entry overhead of the map node, entry object and array headers
+    private static final int ENTRY_OVERHEAD_BYTES = 96;
+
+    private final long maxWeightBytes;
+    private final long ttlMillis;
+
+    // Access-ordered, so iteration starts at the least recently used entry
+    private final LinkedHashMap<String, Entry> entries = new LinkedHashMap<>(16, 0.75f, true);
+    private long weightBytes = 0;
+    private long hits = 0;
+    private long misses = 0;
+    private long evictions = 0;
+
+    public EmbeddingCache(long maxWeightBytes, long ttlMillis) {
+        this.maxWeightBytes = maxWeightBytes;
+        this.ttlMillis = ttlMillis;
+    }
+
+    /**
+     * Cache key for a query: whitespace collapsed, prefixed with the model name.
+     * Case is kept, since the model embeds "IT" and "it" (or code identifiers) differently.
+     */
+    public static String key(String model, String query) {
+        String normalized = query.trim().replaceAll("\\s+", " ");
+        return model + '\n' + normalized;
+    }
+
+    /**
+     * Look up a live entry
+     *
+     * @return Cached vector, or null when absent or expired
+     */
+    public synchronized float[] get(String key) {
+        Entry entry = entries.get(key);
+        if (entry != null && entry.expiresAt <= System.currentTimeMillis()) {
+            remove(key, entry);
+            entry = null;
+        }
+        if (entry == null) {
+            misses++;
+            return null;
+        }
+        hits++;
+        return entry.vector;
+    }
+
+    public synchronized void put(String key, float[] vector) {
+        Entry previous = entries.remove(key);
+        if (previous != null) {
+            weightBytes -= previous.weight;
+        }
+        Entry entry = new Entry(vector, System.currentTimeMillis() + ttlMillis,
+                ENTRY_OVERHEAD_BYTES + 2L * key.length() + 4L * vector.length);
+        if (entry.weight > maxWeightBytes) {
+            return;
+        }
+        entries.put(key, entry);
+        weightBytes += entry.weight;
+
+        Iterator<Map.Entry<String, Entry>> eldest = entries.entrySet().iterator();
+        while (weightBytes > maxWeightBytes && eldest.hasNext()) {
+            Entry evicted = eldest.next().getValue();
+            eldest.remove();
+            weightBytes -= evicted.weight;
+            evictions++;
+        }
+    }
+
+    public synchronized int size() {
+        return entries.size();
+    }
+
+    public synchronized long getWeightBytes() {
+        return weightBytes;
+    }
+
+    public long getMaxWeightBytes() {
+        return maxWeightBytes;
+    }
+
+    public long getTtlMillis() {
+        return ttlMillis;
+    }
+
+    public synchronized long getHits() {
+        return hits;
+    }
+
+    public synchronized long getMisses() {
+        return misses;
+    }
+
+    public synchronized long getEvictions() {
+        return evictions;
+    }
+
+    public synchronized double hitRatio() {
+        long lookups = hits + misses;
+        return lookups == 0 ? 0.0 : (double) hits / lookups;
+    }
+
+    private void remove(String key, Entry entry) {
+        entries.remove(key);
+        weightBytes -= entry.weight;
+    }
+
+    private static final class Entry {
+        private final float[] vector;
+        private final long expiresAt;
+        private final long weight;
+
+        private Entry(float[] vector, long expiresAt, long weight) {
+            this.vector = vector;
+            this.expiresAt = expiresAt;
+            this.weight = weight;
+        }
+    }
+}
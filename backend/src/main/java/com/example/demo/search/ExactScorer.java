@@ -0,0 +1,156 @@
+package com.example.demo.search;
+
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveTask;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Brute-force top-K search over every live row of a store snapshot.
+ *
+ * Large snapshots are split into row ranges that are scored on a dedicated {@link ForkJoinPool},
+ * each range into its own {@link TopKHeap}; the partial heaps are merged pairwise as the tasks join.
+ * Snapshots below the serial threshold are scored on the calling thread, so small corpora
+ * never pay the fork and merge overhead.
+ */
+public class ExactScorer {
+
+    // Ranges per worker; a few more ranges than workers evens out uneven cores and mapped pages
+    private static final int PARTITIONS_PER_THREAD = 4;
+
+    private final int parallelism;
+    private final int serialThreshold;
+    private final ForkJoinPool pool;
+
+    /**
+     * @param parallelism Worker threads for exact scoring (1 keeps every search serial)
+     * @param serialThreshold Snapshots with fewer rows than this are scored on the calling thread
+     */
+    public ExactScorer(int parallelism, int serialThreshold) {
+        this.parallelism = Math.max(1, parallelism);
+        this.serialThreshold = Math.max(1, serialThreshold);
+        this.pool = this.parallelism > 1 ? new ForkJoinPool(this.parallelism) : null;
+    }
+
+    public int getParallelism() {
+        return parallelism;
+    }
+
+    public int getSerialThreshold() {
+        return serialThreshold;
+    }
+
+    /**
+     * Find the live rows most similar to the query
+     *
+     * @param snapshot Store snapshot to scan
+     * @param query Query vector, normalized to unit length
+     * @param k Number of rows to return
+     * @return Up to k rows, best first
+     */
+    public SearchHits search(VectorStore.Snapshot snapshot, float[] query, int k) {
+        return search(snapshot, query, k, null);
+    }
+
+    /**
+     * Find the live rows most similar to the query among the rows of a filter.
+     * Only the filter's rows are visited, so the cost follows the filter's size rather than the store's.
+     *
+     * @param snapshot Store snapshot to scan
+     * @param query Query vector, normalized to unit length
+     * @param k Number of rows to return
+     * @param filter Rows to score (null = every row)
+     * @return Up to k rows, best first
+     */
+    public SearchHits search(VectorStore.Snapshot snapshot, float[] query, int k, RowBitmap filter) {
+        int rows = snapshot.size();
+        int scored = filter == null ? rows : filter.cardinality();
+        if (pool == null || scored < serialThreshold || k <= 0) {
+            return scoreRange(snapshot, query, k, filter, 0, rows);
+        }
+        int partitionRows = Math.max(serialThreshold / PARTITIONS_PER_THREAD,
+                (rows + parallelism * PARTITIONS_PER_THREAD - 1) / (parallelism * PARTITIONS_PER_THREAD));
+        return pool.invoke(new PartitionTask(snapshot, query, k, filter, 0, rows, partitionRows));
+    }
+
+    /**
+     * Stop the worker threads
+     */
+    public void shutdown() {
+        if (pool != null) {
+            pool.shutdown();
+            try {
+                pool.awaitTermination(5, TimeUnit.SECONDS);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+    }
+
+    private static SearchHits scoreRange(VectorStore.Snapshot snapshot, float[] query, int k, RowBitmap filter,
+                                         int from, int to) {
+        TopKHeap best = new TopKHeap(k);
+        if (filter == null) {
+            for (int row = from; row < to; row++) {
+                if (!snapshot.isLive(row)) {
+                    continue;
+                }
+                best.offer(row, snapshot.similarity(row, query));
+            }
+            return best.toHits();
+        }
+        for (int row = filter.nextRow(from); row >= 0 && row < to; row = filter.nextRow(row + 1)) {
+            if (snapshot.isLive(row)) {
+                best.offer(row, snapshot.similarity(row, query));
+            }
+        }
+        return best.toHits();
+    }
+
+    private static SearchHits merge(SearchHits left, SearchHits right, int k) {
+        TopKHeap best = new TopKHeap(k);
+        for (int i = 0; i < left.size(); i++) {
+            best.offer(left.row(i), left.score(i));
+        }
+        for (int i = 0; i < right.size(); i++) {
+            best.offer(right.row(i), right.score(i));
+        }
+        return best.toHits();
+    }
+
+    /**
+     * Scores rows [from, to), halving the range until it is at most partitionRows long
+     */
+    private static final class PartitionTask extends RecursiveTask<SearchHits> {
+        private final VectorStore.Snapshot snapshot;
+        private final float[] query;
+        private final int k;
+        private final RowBitmap filter;
+        private final int from;
+        private final int to;
+        private final int partitionRows;
+
+        private PartitionTask(VectorStore.Snapshot snapshot, float[] query, int k, RowBitmap filter, int from, int to,
+                              int partitionRows) {
+            this.snapshot = snapshot;
+            this.query = query;
+            this.k = k;
+            this.filter = filter;
+            this.from = from;
+            this.to = to;
+            this.partitionRows = partitionRows;
+        }
+
+        @Override
+        protected SearchHits compute() {
+            if (to - from <= partitionRows) {
+                return scoreRange(snapshot, query, k, filter, from, to);
+            }
+            int middle = (from + to) >>> 1;
+            PartitionTask left = new PartitionTask(snapshot, query, k, filter, from, middle, partitionRows);
+            PartitionTask right = new PartitionTask(snapshot, query, k, filter, middle, to, partitionRows);
+            left.fork();
+            SearchHits rightHits = right.compute();
+            return merge(left.join(), rightHits, k);
+        }
+    }
+}
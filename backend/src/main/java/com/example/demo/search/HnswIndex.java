@@ -0,0 +1,351 @@
+package com.example.demo.search;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.Comparator;
+import java.util.List;
+import java.util.PriorityQueue;
+import java.util.Random;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+/**
+ * Hierarchical Navigable Small World graph (Malkov and Yashunin) over the rows of a {@link VectorStore}.
+ *
+ * The graph only stores row numbers; vectors are always read from the store.
+ * Rows removed from the store stay in the graph as routing nodes and are filtered out of results.
+ *
+ * Tuning:
+ * <ul>
+ *   <li>m - links per node on the upper layers (2 * m on layer 0); more links raise recall and memory</li>
+ *   <li>efConstruction - candidate list size while inserting; higher builds a better graph, slower</li>
+ *   <li>efSearch - candidate list size while searching; higher raises recall, slower queries</li>
+ * </ul>
+ */
+public class HnswIndex implements VectorIndex {
+
+    private static final Comparator<Candidate> BEST_FIRST = (a, b) -> Double.compare(b.score, a.score);
+    private static final Comparator<Candidate> WORST_FIRST = (a, b) -> Double.compare(a.score, b.score);
+
+    // Most a filtered search widens efSearch by to make up for rows the filter rejects
+    private static final int MAX_FILTER_EF_FACTOR = 16;
+
+    private final VectorStore store;
+    private final int m;
+    private final int maxConnections0;
+    private final int efConstruction;
+    private volatile int efSearch;
+    private final double levelMultiplier;
+    private final Random random = new Random(42);
+
+    // Many concurrent searches, one insert at a time
+    private final ReentrantReadWriteLock lock = new ReentrantReadWriteLock();
+
+    // levels[row] is the top layer of the row, or -1 when it is not in the graph
+    private int[] levels = new int[0];
+    // links[row][layer] holds the neighbour rows of the row on that layer
+    private int[][][] links = new int[0][][];
+    private int entryPoint = -1;
+    private int maxLevel = -1;
+    private int size = 0;
+
+    public HnswIndex(VectorStore store, int m, int efConstruction, int efSearch) {
+        if (m < 2) {
+            throw new IllegalArgumentException("HNSW m must be at least 2");
+        }
+        this.store = store;
+        this.m = m;
+        this.maxConnections0 = m * 2;
+        this.efConstruction = Math.max(efConstruction, m);
+        this.efSearch = efSearch;
+        this.levelMultiplier = 1.0 / Math.log(m);
+    }
+
+    public int getM() {
+        return m;
+    }
+
+    public int getEfConstruction() {
+        return efConstruction;
+    }
+
+    public int getEfSearch() {
+        return efSearch;
+    }
+
+    public void setEfSearch(int efSearch) {
+        this.efSearch = efSearch;
+    }
+
+    @Override
+    public int size() {
+        lock.readLock().lock();
+        try {
+            return size;
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    @Override
+    public void build() {
+        // One insert per lock acquisition, so searches interleave with a long build
+        VectorStore.Snapshot snapshot = store.snapshot();
+        for (int row = 0; row < snapshot.size(); row++) {
+            if (snapshot.isLive(row)) {
+                add(row);
+            }
+        }
+    }
+
+    @Override
+    public void add(int row) {
+        lock.writeLock().lock();
+        try {
+            ensureCapacity(row + 1);
+            if (levels[row] >= 0) {
+                return;
+            }
+
+            VectorStore.Snapshot snapshot = store.snapshot();
+            float[] vector = new float[snapshot.dimension()];
+            snapshot.copyRow(row, vector);
+
+            int level = randomLevel();
+            levels[row] = level;
+            links[row] = new int[level + 1][];
+            Arrays.fill(links[row], new int[0]);
+            size++;
+
+            if (entryPoint < 0) {
+                entryPoint = row;
+                maxLevel = level;
+                return;
+            }
+
+            // Greedy descent through the layers above the new node
+            Candidate nearest = new Candidate(entryPoint, snapshot.similarity(entryPoint, vector));
+            for (int layer = maxLevel; layer > level; layer--) {
+                nearest = greedyClosest(snapshot, vector, nearest, layer);
+            }
+
+            // Link the node on every layer it belongs to
+            List<Candidate> entryPoints = List.of(nearest);
+            for (int layer = Math.min(level, maxLevel); layer >= 0; layer--) {
+                List<Candidate> candidates = searchLayer(snapshot, vector, entryPoints, efConstruction, layer);
+                int[] neighbours = selectNeighbours(snapshot, candidates, m);
+                links[row][layer] = neighbours;
+
+                int maxConnections = layer == 0 ? maxConnections0 : m;
+                for (int neighbour : neighbours) {
+                    connect(snapshot, neighbour, row, layer, maxConnections);
+                }
+                entryPoints = candidates;
+            }
+
+            if (level > maxLevel) {
+                entryPoint = row;
+                maxLevel = level;
+            }
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    @Override
+    public SearchHits search(float[] query, int k, SearchOptions options) {
+        lock.readLock().lock();
+        try {
+            if (entryPoint < 0 || k <= 0) {
+                return SearchHits.EMPTY;
+            }
+            VectorStore.Snapshot snapshot = store.snapshot();
+
+            Candidate nearest = new Candidate(entryPoint, snapshot.similarity(entryPoint, query));
+            for (int layer = maxLevel; layer > 0; layer--) {
+                nearest = greedyClosest(snapshot, query, nearest, layer);
+            }
+            // Rows outside the filter still route the search, so widen the beam by how much it rejects
+            RowBitmap allowed = options.getRowFilter();
+            int ef = Math.max(efSearch, k);
+            if (allowed != null) {
+                long factor = Math.min(MAX_FILTER_EF_FACTOR, (long) size / Math.max(1, allowed.cardinality()) + 1);
+                ef = (int) Math.min((long) ef * factor, Math.max(size, ef));
+            }
+            List<Candidate> candidates = searchLayer(snapshot, query, List.of(nearest), ef, 0);
+
+            // Removed and filtered-out rows are only used for routing
+            int count = 0;
+            int[] rows = new int[Math.min(k, candidates.size())];
+            float[] scores = new float[rows.length];
+            for (Candidate candidate : candidates) {
+                if (count == rows.length) {
+                    break;
+                }
+                if (snapshot.isLive(candidate.row) && (allowed == null || allowed.contains(candidate.row))) {
+                    rows[count] = candidate.row;
+                    scores[count] = (float) candidate.score;
+                    count++;
+                }
+            }
+            return new SearchHits(Arrays.copyOf(rows, count), Arrays.copyOf(scores, count));
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * Follow the best link on one layer until no neighbour is closer
+     */
+    private Candidate greedyClosest(VectorStore.Snapshot snapshot, float[] query, Candidate start, int layer) {
+        Candidate best = start;
+        boolean improved = true;
+        while (improved) {
+            improved = false;
+            for (int neighbour : links[best.row][layer]) {
+                double score = snapshot.similarity(neighbour, query);
+                if (score > best.score) {
+                    best = new Candidate(neighbour, score);
+                    improved = true;
+                }
+            }
+        }
+        return best;
+    }
+
+    /**
+     * Best-first search of one layer
+     *
+     * @return Up to ef closest rows found, best first
+     */
+    private List<Candidate> searchLayer(VectorStore.Snapshot snapshot, float[] query, List<Candidate> entryPoints,
+                                        int ef, int layer) {
+        BitSet visited = new BitSet(levels.length);
+        PriorityQueue<Candidate> candidates = new PriorityQueue<>(BEST_FIRST);
+        PriorityQueue<Candidate> results = new PriorityQueue<>(WORST_FIRST);
+        for (Candidate entry : entryPoints) {
+            if (!visited.get(entry.row)) {
+                visited.set(entry.row);
+                candidates.add(entry);
+                results.add(entry);
+            }
+        }
+        while (results.size() > ef) {
+            results.poll();
+        }
+
+        while (!candidates.isEmpty()) {
+            Candidate current = candidates.poll();
+            if (results.size() >= ef && current.score < results.peek().score) {
+                break;
+            }
+            for (int neighbour : links[current.row][layer]) {
+                if (visited.get(neighbour)) {
+                    continue;
+                }
+                visited.set(neighbour);
+                double score = snapshot.similarity(neighbour, query);
+                if (results.size() < ef || score > results.peek().score) {
+                    Candidate candidate = new Candidate(neighbour, score);
+                    candidates.add(candidate);
+                    results.add(candidate);
+                    if (results.size() > ef) {
+                        results.poll();
+                    }
+                }
+            }
+        }
+
+        List<Candidate> sorted = new ArrayList<>(results);
+        sorted.sort(BEST_FIRST);
+        return sorted;
+    }
+
+    /**
+     * Neighbour selection heuristic: skip a candidate that is closer to an already selected
+     * neighbour than to the base node, so links spread out in different directions.
+     * Skipped candidates fill any remaining slots.
+     *
+     * @param candidates Candidates sorted best first by similarity to the base node
+     */
+    private int[] selectNeighbours(VectorStore.Snapshot snapshot, List<Candidate> candidates, int limit) {
+        List<Candidate> selected = new ArrayList<>(limit);
+        List<Candidate> skipped = new ArrayList<>();
+        float[] candidateVector = new float[snapshot.dimension()];
+
+        for (Candidate candidate : candidates) {
+            if (selected.size() >= limit) {
+                break;
+            }
+            snapshot.copyRow(candidate.row, candidateVector);
+            boolean diverse = true;
+            for (Candidate chosen : selected) {
+                if (snapshot.similarity(chosen.row, candidateVector) > candidate.score) {
+                    diverse = false;
+                    break;
+                }
+            }
+            if (diverse) {
+                selected.add(candidate);
+            } else {
+                skipped.add(candidate);
+            }
+        }
+        for (int i = 0; i < skipped.size() && selected.size() < limit; i++) {
+            selected.add(skipped.get(i));
+        }
+
+        int[] rows = new int[selected.size()];
+        for (int i = 0; i < rows.length; i++) {
+            rows[i] = selected.get(i).row;
+        }
+        return rows;
+    }
+
+    /**
+     * Add a back-link from an existing node, pruning its list when it is full
+     */
+    private void connect(VectorStore.Snapshot snapshot, int node, int newNeighbour, int layer, int maxConnections) {
+        int[] current = links[node][layer];
+        int[] extended = Arrays.copyOf(current, current.length + 1);
+        extended[current.length] = newNeighbour;
+        if (extended.length <= maxConnections) {
+            links[node][layer] = extended;
+            return;
+        }
+
+        float[] nodeVector = new float[snapshot.dimension()];
+        snapshot.copyRow(node, nodeVector);
+        List<Candidate> candidates = new ArrayList<>(extended.length);
+        for (int neighbour : extended) {
+            candidates.add(new Candidate(neighbour, snapshot.similarity(neighbour, nodeVector)));
+        }
+        candidates.sort(BEST_FIRST);
+        links[node][layer] = selectNeighbours(snapshot, candidates, maxConnections);
+    }
+
+    private int randomLevel() {
+        return (int) Math.floor(-Math.log(1.0 - random.nextDouble()) * levelMultiplier);
+    }
+
+    private void ensureCapacity(int rows) {
+        if (rows <= levels.length) {
+            return;
+        }
+        int capacity = Math.max(rows, levels.length * 2);
+        int previous = levels.length;
+        levels = Arrays.copyOf(levels, capacity);
+        Arrays.fill(levels, previous, capacity, -1);
+        links = Arrays.copyOf(links, capacity);
+    }
+
+    private static final class Candidate {
+        private final int row;
+        private final double score;
+
+        private Candidate(int row, double score) {
+            this.row = row;
+            this.score = score;
+        }
+    }
+}
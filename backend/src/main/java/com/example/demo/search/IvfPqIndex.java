@@ -0,0 +1,268 @@
+package com.example.demo.search;
+
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.Random;
+import java.util.stream.IntStream;
+
+/**
+ * Inverted-file index with product-quantized residuals (IVF-PQ).
+ *
+ * Store rows and queries are unit length, so inner product equals cosine similarity.
+ * A coarse k-means quantizer splits the rows into nlist inverted lists. Within a list each row is
+ * stored as the residual from its list centroid, split into subspaces that are each encoded as one
+ * byte (256 sub-centroids per subspace). For query q and a row in list c:
+ * <pre>
+ *   q . x  ~  q . centroid_c + sum over subspaces j of lut[j][code_j]
+ * </pre>
+ * where lut[j][b] = q_j . subCentroid_j[b] is computed once per query. Only nprobe lists are scanned.
+ * The heap holds a few bytes per row; full vectors are read only to rerank the best candidates.
+ */
+public class IvfPqIndex implements VectorIndex {
+
+    private static final int CODEBOOK_SIZE = 256;
+    private static final int KMEANS_ITERATIONS = 10;
+
+    private final VectorStore store;
+    private final int nlist;
+    private final int subspaces;
+    private final int defaultNprobe;
+    private final int trainSize;
+    private final int rerankSize;
+
+    private int dimension;
+    private int subDimension;
+    private int lists;
+    private float[] centroids;        // lists * dimension
+    private float[][] codebooks;      // [subspace][CODEBOOK_SIZE * subDimension]
+    private InvertedList[] invertedLists;
+    private final BitSet indexed = new BitSet();
+    private int rowCount = 0;
+    private volatile boolean trained = false;
+
+    public IvfPqIndex(VectorStore store, int nlist, int subspaces, int defaultNprobe, int trainSize, int rerankSize) {
+        this.store = store;
+        this.nlist = nlist;
+        this.subspaces = subspaces;
+        this.defaultNprobe = defaultNprobe;
+        this.trainSize = trainSize;
+        this.rerankSize = rerankSize;
+    }
+
+    public int getNlist() {
+        return lists;
+    }
+
+    public int getSubspaces() {
+        return subspaces;
+    }
+
+    public int getDefaultNprobe() {
+        return defaultNprobe;
+    }
+
+    public int getRerankSize() {
+        return rerankSize;
+    }
+
+    /**
+     * Train the coarse quantizer and codebooks on a sample of the store, then encode every row.
+     * Meant to run on a background thread; the index is not searchable until it returns.
+     */
+    @Override
+    public synchronized void build() {
+        VectorStore.Snapshot snapshot = store.snapshot();
+        dimension = snapshot.dimension();
+        if (dimension == 0) {
+            throw new IllegalStateException("Cannot train IVF-PQ on an empty store");
+        }
+        if (dimension % subspaces != 0) {
+            throw new IllegalStateException("Dimension " + dimension + " is not divisible by "
+                    + subspaces + " PQ subspaces");
+        }
+        subDimension = dimension / subspaces;
+
+        // Sample live rows for training
+        int live = snapshot.liveCount();
+        int sampleCount = Math.min(trainSize, live);
+        float[] sample = new float[sampleCount * dimension];
+        Random random = new Random(42);
+        float[] vector = new float[dimension];
+        int taken = 0;
+        int seen = 0;
+        for (int row = 0; row < snapshot.size() && taken < sampleCount; row++) {
+            if (!snapshot.isLive(row)) {
+                continue;
+            }
+            // Selection sampling keeps every live row equally likely
+            if (random.nextInt(live - seen) < sampleCount - taken) {
+                snapshot.copyRow(row, vector);
+                System.arraycopy(vector, 0, sample, taken * dimension, dimension);
+                taken++;
+            }
+            seen++;
+        }
+
+        // Coarse quantizer
+        lists = Math.max(1, Math.min(nlist, sampleCount));
+        centroids = KMeans.train(sample, sampleCount, dimension, lists, KMEANS_ITERATIONS, random);
+
+        // Residual codebooks, one k-means per subspace
+        float[] residuals = new float[sampleCount * dimension];
+        for (int p = 0; p < sampleCount; p++) {
+            int list = KMeans.nearest(centroids, lists, dimension, sample, p * dimension);
+            for (int d = 0; d < dimension; d++) {
+                residuals[p * dimension + d] = sample[p * dimension + d] - centroids[list * dimension + d];
+            }
+        }
+        int codes = Math.min(CODEBOOK_SIZE, sampleCount);
+        codebooks = new float[subspaces][];
+        IntStream.range(0, subspaces).parallel().forEach(j -> {
+            float[] subvectors = new float[sampleCount * subDimension];
+            for (int p = 0; p < sampleCount; p++) {
+                System.arraycopy(residuals, p * dimension + j * subDimension,
+                        subvectors, p * subDimension, subDimension);
+            }
+            codebooks[j] = KMeans.train(subvectors, sampleCount, subDimension, codes,
+                    KMEANS_ITERATIONS, new Random(j));
+        });
+
+        invertedLists = new InvertedList[lists];
+        for (int list = 0; list < lists; list++) {
+            invertedLists[list] = new InvertedList(subspaces);
+        }
+        trained = true;
+
+        for (int row = 0; row < snapshot.size(); row++) {
+            if (snapshot.isLive(row)) {
+                encode(snapshot, row, vector);
+            }
+        }
+    }
+
+    @Override
+    public synchronized void add(int row) {
+        // Rows added before training are picked up by build()
+        if (!trained || indexed.get(row)) {
+            return;
+        }
+        encode(store.snapshot(), row, new float[dimension]);
+    }
+
+    @Override
+    public synchronized int size() {
+        return rowCount;
+    }
+
+    @Override
+    public SearchHits search(float[] query, int k, SearchOptions options) {
+        if (!trained || k <= 0) {
+            return SearchHits.EMPTY;
+        }
+        VectorStore.Snapshot snapshot = store.snapshot();
+        int nprobe = options.getNprobe() != null ? options.getNprobe() : defaultNprobe;
+        nprobe = Math.max(1, Math.min(nprobe, lists));
+
+        // Pick the nprobe lists whose centroids score highest
+        TopKHeap probes = new TopKHeap(nprobe);
+        for (int list = 0; list < lists; list++) {
+            probes.offer(list, VectorMath.dot(query, 0, centroids, list * dimension, dimension));
+        }
+        SearchHits probeLists = probes.toHits();
+
+        // Lookup tables: one row of CODEBOOK_SIZE partial scores per subspace, computed once per query
+        float[][] lut = new float[subspaces][];
+        for (int j = 0; j < subspaces; j++) {
+            float[] codebook = codebooks[j];
+            int codes = codebook.length / subDimension;
+            lut[j] = new float[CODEBOOK_SIZE];
+            for (int b = 0; b < codes; b++) {
+                lut[j][b] = VectorMath.dot(query, j * subDimension, codebook, b * subDimension, subDimension);
+            }
+        }
+
+        RowBitmap allowed = options.getRowFilter();
+        TopKHeap candidates = new TopKHeap(Math.max(k, rerankSize));
+        for (int p = 0; p < probeLists.size(); p++) {
+            InvertedList list = invertedLists[probeLists.row(p)];
+            float base = probeLists.score(p);
+            int size = list.size;
+            int[] rows = list.rows;
+            byte[] codes = list.codes;
+            for (int i = 0; i < size; i++) {
+                int row = rows[i];
+                if (!snapshot.isLive(row) || (allowed != null && !allowed.contains(row))) {
+                    continue;
+                }
+                float score = base;
+                int offset = i * subspaces;
+                for (int j = 0; j < subspaces; j++) {
+                    score += lut[j][codes[offset + j] & 0xFF];
+                }
+                candidates.offer(row, score);
+            }
+        }
+
+        if (rerankSize <= 0) {
+            return candidates.toHits();
+        }
+
+        // Rescore the shortlist with the full-precision vectors
+        SearchHits shortlist = candidates.toHits();
+        TopKHeap best = new TopKHeap(k);
+        for (int i = 0; i < shortlist.size(); i++) {
+            int row = shortlist.row(i);
+            best.offer(row, snapshot.similarity(row, query));
+        }
+        return best.toHits();
+    }
+
+    /**
+     * Assign one row to its list and append its PQ code (caller holds the monitor)
+     */
+    private void encode(VectorStore.Snapshot snapshot, int row, float[] vector) {
+        snapshot.copyRow(row, vector);
+        int list = KMeans.nearest(centroids, lists, dimension, vector, 0);
+        byte[] code = new byte[subspaces];
+        float[] residual = new float[subDimension];
+        for (int j = 0; j < subspaces; j++) {
+            for (int d = 0; d < subDimension; d++) {
+                int dim = j * subDimension + d;
+                residual[d] = vector[dim] - centroids[list * dimension + dim];
+            }
+            float[] codebook = codebooks[j];
+            code[j] = (byte) KMeans.nearest(codebook, codebook.length / subDimension, subDimension, residual, 0);
+        }
+        invertedLists[list].append(row, code);
+        indexed.set(row);
+        rowCount++;
+    }
+
+    /**
+     * Append-only posting list of (row, PQ code).
+     * Entries are written before size is published, so searches can read without locking.
+     */
+    private static final class InvertedList {
+        private final int codeLength;
+        private volatile int[] rows = new int[16];
+        private volatile byte[] codes;
+        private volatile int size = 0;
+
+        private InvertedList(int codeLength) {
+            this.codeLength = codeLength;
+            this.codes = new byte[16 * codeLength];
+        }
+
+        private void append(int row, byte[] code) {
+            if (size == rows.length) {
+                int[] grownRows = Arrays.copyOf(rows, rows.length * 2);
+                byte[] grownCodes = Arrays.copyOf(codes, grownRows.length * codeLength);
+                codes = grownCodes;
+                rows = grownRows;
+            }
+            rows[size] = row;
+            System.arraycopy(code, 0, codes, size * codeLength, codeLength);
+            size = size + 1;
+        }
+    }
+}
@@ -0,0 +1,90 @@
+package com.example.demo.search;
+
+import java.util.Random;
+import java.util.stream.IntStream;
+
+/**
+ * Lloyd's k-means over row-major float blocks (squared Euclidean distance)
+ */
+public final class KMeans {
+
+    private KMeans() {
+    }
+
+    /**
+     * Train k centroids
+     *
+     * @param data Training points, row-major
+     * @param count Number of points in data
+     * @param dimension Floats per point
+     * @param k Number of centroids (at most count)
+     * @param iterations Number of assignment/update rounds
+     * @param random Source for the initial centroids and for reseeding empty clusters
+     * @return Centroids, row-major (k * dimension floats)
+     */
+    public static float[] train(float[] data, int count, int dimension, int k, int iterations, Random random) {
+        float[] centroids = new float[k * dimension];
+        int[] start = IntStream.range(0, count).toArray();
+        // Partial Fisher-Yates shuffle picks k distinct points as the initial centroids
+        for (int c = 0; c < k; c++) {
+            int pick = c + random.nextInt(count - c);
+            int swap = start[c];
+            start[c] = start[pick];
+            start[pick] = swap;
+            System.arraycopy(data, start[c] * dimension, centroids, c * dimension, dimension);
+        }
+
+        int[] assignment = new int[count];
+        for (int iteration = 0; iteration < iterations; iteration++) {
+            float[] current = centroids;
+            IntStream.range(0, count).parallel()
+                    .forEach(p -> assignment[p] = nearest(current, k, dimension, data, p * dimension));
+
+            float[] sums = new float[k * dimension];
+            int[] sizes = new int[k];
+            for (int p = 0; p < count; p++) {
+                int c = assignment[p];
+                sizes[c]++;
+                int from = p * dimension;
+                int to = c * dimension;
+                for (int d = 0; d < dimension; d++) {
+                    sums[to + d] += data[from + d];
+                }
+            }
+            for (int c = 0; c < k; c++) {
+                int to = c * dimension;
+                if (sizes[c] == 0) {
+                    // Reseed an empty cluster with a random point
+                    System.arraycopy(data, random.nextInt(count) * dimension, sums, to, dimension);
+                    continue;
+                }
+                for (int d = 0; d < dimension; d++) {
+                    sums[to + d] /= sizes[c];
+                }
+            }
+            centroids = sums;
+        }
+        return centroids;
+    }
+
+    /**
+     * Index of the centroid closest to the point data[offset .. offset + dimension)
+     */
+    public static int nearest(float[] centroids, int k, int dimension, float[] data, int offset) {
+        int best = 0;
+        float bestDistance = Float.POSITIVE_INFINITY;
+        for (int c = 0; c < k; c++) {
+            int base = c * dimension;
+            float distance = 0f;
+            for (int d = 0; d < dimension; d++) {
+                float diff = data[offset + d] - centroids[base + d];
+                distance += diff * diff;
+            }
+            if (distance < bestDistance) {
+                bestDistance = distance;
+                best = c;
+            }
+        }
+        return best;
+    }
+}
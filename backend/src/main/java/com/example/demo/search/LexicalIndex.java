@@ -0,0 +1,355 @@
+package com.example.demo.search;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+/**
+ * In-memory inverted index over chunk text, scored with BM25.
+ *
+ * Postings are keyed by store row, so lexical hits use the same row numbers and tombstones as the
+ * vector store. Each term's postings are one byte array of varint-encoded (row delta, term frequency)
+ * pairs in row order, usually 2-3 bytes per posting. The bulk build sorts postings that arrive in scan
+ * order; after that, rows can be appended as long as each comes after every indexed row, which holds
+ * because store rows are append-only.
+ */
+public class LexicalIndex {
+
+    private static final int MAX_TOKEN_LENGTH = 64;
+
+    private final float k1;
+    private final float b;
+    private final ReentrantReadWriteLock lock = new ReentrantReadWriteLock();
+
+    private final Map<String, Postings> postings = new HashMap<>();
+    // Token count of each indexed row (0 = not indexed)
+    private int[] docLengths = new int[1024];
+    private int maxRow = -1;
+    private int documents = 0;
+    private long totalLength = 0;
+    private long postingsBytes = 0;
+
+    // Score accumulators indexed by row, zeroed before they are returned; a pool rather than a
+    // ThreadLocal so queries on short-lived threads reuse them too
+    private final ConcurrentLinkedQueue<float[]> accumulators = new ConcurrentLinkedQueue<>();
+
+    /**
+     * @param k1 Term frequency saturation (typically 1.2)
+     * @param b Document length normalization (typically 0.75)
+     */
+    public LexicalIndex(float k1, float b) {
+        this.k1 = k1;
+        this.b = b;
+    }
+
+    /**
+     * Split text into lowercase letter/digit runs. Runs joined by a single '-', '_', '.' or '/'
+     * (error codes, SKUs, versions) are also emitted joined without separators, so "SKU-1042"
+     * matches the queries "sku 1042" and "sku1042".
+     */
+    public static List<String> tokenize(String text) {
+        List<String> tokens = new ArrayList<>();
+        if (text == null) {
+            return tokens;
+        }
+        StringBuilder compound = new StringBuilder();
+        int parts = 0;
+        int i = 0;
+        int length = text.length();
+        while (i < length) {
+            int start = i;
+            while (i < length && Character.isLetterOrDigit(text.charAt(i))) {
+                i++;
+            }
+            if (i > start) {
+                String token = text.substring(start, i).toLowerCase(Locale.ROOT);
+                if (token.length() <= MAX_TOKEN_LENGTH) {
+                    tokens.add(token);
+                }
+                compound.append(token);
+                parts++;
+            }
+            boolean joined = i + 1 < length && isJoiner(text.charAt(i)) && Character.isLetterOrDigit(text.charAt(i + 1));
+            if (!joined) {
+                if (parts > 1 && compound.length() <= MAX_TOKEN_LENGTH) {
+                    tokens.add(compound.toString());
+                }
+                compound.setLength(0);
+                parts = 0;
+            }
+            i++;
+        }
+        return tokens;
+    }
+
+    private static boolean isJoiner(char c) {
+        return c == '-' || c == '_' || c == '.' || c == '/';
+    }
+
+    /**
+     * Append one row; rows must arrive in increasing order after the bulk build
+     *
+     * @param row Store row of the chunk
+     * @param text Chunk text
+     */
+    public void add(int row, String text) {
+        Map<String, Integer> frequencies = termFrequencies(text);
+        lock.writeLock().lock();
+        try {
+            if (row <= maxRow) {
+                throw new IllegalArgumentException("Row " + row + " is not after the last indexed row " + maxRow);
+            }
+            for (Map.Entry<String, Integer> entry : frequencies.entrySet()) {
+                Postings list = postings.computeIfAbsent(entry.getKey(), term -> new Postings());
+                long before = list.length;
+                list.append(row, entry.getValue());
+                postingsBytes += list.length - before;
+            }
+            setLength(row, tokenCount(frequencies));
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    /**
+     * Rank live rows by BM25 score against the query
+     *
+     * @param query Query text
+     * @param k Number of rows to return
+     * @param snapshot Store view; rows removed in it are skipped
+     * @return Best rows first, scored by BM25
+     */
+    public SearchHits search(String query, int k, VectorStore.Snapshot snapshot) {
+        return search(query, k, snapshot, null);
+    }
+
+    /**
+     * Rank live rows allowed by a filter by BM25 score against the query
+     *
+     * @param query Query text
+     * @param k Number of rows to return
+     * @param snapshot Store view; rows removed in it are skipped
+     * @param filter Rows that may be returned (null = all); other postings are skipped unscored
+     * @return Best rows first, scored by BM25
+     */
+    public SearchHits search(String query, int k, VectorStore.Snapshot snapshot, RowBitmap filter) {
+        List<String> terms = new ArrayList<>(new LinkedHashSet<>(tokenize(query)));
+        lock.readLock().lock();
+        try {
+            if (documents == 0 || terms.isEmpty()) {
+                return SearchHits.EMPTY;
+            }
+            float[] scores = accumulators.poll();
+            if (scores == null || scores.length <= maxRow) {
+                scores = new float[maxRow + 1 + maxRow / 4];
+            }
+            float averageLength = (float) totalLength / documents;
+            int[] touched = new int[64];
+            int touchedCount = 0;
+
+            for (String term : terms) {
+                Postings list = postings.get(term);
+                if (list == null) {
+                    continue;
+                }
+                float idf = (float) Math.log(1 + (documents - list.documentFrequency + 0.5)
+                        / (list.documentFrequency + 0.5));
+                byte[] data = list.data;
+                int position = 0;
+                int row = -1;
+                while (position < list.length) {
+                    // Inline varint decode of (row delta, term frequency)
+                    int delta = 0;
+                    int shift = 0;
+                    byte next;
+                    do {
+                        next = data[position++];
+                        delta |= (next & 0x7F) << shift;
+                        shift += 7;
+                    } while (next < 0);
+                    int frequency = 0;
+                    shift = 0;
+                    do {
+                        next = data[position++];
+                        frequency |= (next & 0x7F) << shift;
+                        shift += 7;
+                    } while (next < 0);
+                    row += delta;
+                    if (filter != null && !filter.contains(row)) {
+                        continue;
+                    }
+
+                    float norm = k1 * (1 - b + b * docLengths[row] / averageLength);
+                    if (scores[row] == 0) {
+                        if (touchedCount == touched.length) {
+                            touched = Arrays.copyOf(touched, touchedCount * 2);
+                        }
+                        touched[touchedCount++] = row;
+                    }
+                    scores[row] += idf * frequency * (k1 + 1) / (frequency + norm);
+                }
+            }
+
+            TopKHeap heap = new TopKHeap(k);
+            for (int i = 0; i < touchedCount; i++) {
+                int row = touched[i];
+                if (row < snapshot.size() && snapshot.isLive(row)) {
+                    heap.offer(row, scores[row]);
+                }
+                scores[row] = 0;
+            }
+            accumulators.offer(scores);
+            return heap.toHits();
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * Number of indexed rows (including rows removed from the store since)
+     */
+    public int documents() {
+        lock.readLock().lock();
+        try {
+            return documents;
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    public int terms() {
+        lock.readLock().lock();
+        try {
+            return postings.size();
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * Size of all encoded postings lists
+     */
+    public long postingsBytes() {
+        lock.readLock().lock();
+        try {
+            return postingsBytes;
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    private void setLength(int row, int length) {
+        if (row >= docLengths.length) {
+            docLengths = Arrays.copyOf(docLengths, Math.max(row + 1, docLengths.length * 2));
+        }
+        docLengths[row] = length;
+        maxRow = Math.max(maxRow, row);
+        documents++;
+        totalLength += length;
+    }
+
+    private static Map<String, Integer> termFrequencies(String text) {
+        Map<String, Integer> frequencies = new HashMap<>();
+        for (String token : tokenize(text)) {
+            frequencies.merge(token, 1, Integer::sum);
+        }
+        return frequencies;
+    }
+
+    private static int tokenCount(Map<String, Integer> frequencies) {
+        int count = 0;
+        for (int frequency : frequencies.values()) {
+            count += frequency;
+        }
+        return count;
+    }
+
+    /**
+     * Bulk build from rows in any order (e.g. a parallel table scan); {@link #add} is thread-safe
+     */
+    public static final class Builder {
+        private final LexicalIndex index;
+        // term -> (row << 32 | frequency) in arrival order
+        private final Map<String, PendingPostings> pending = new HashMap<>();
+
+        public Builder(float k1, float b) {
+            this.index = new LexicalIndex(k1, b);
+        }
+
+        public void add(int row, String text) {
+            Map<String, Integer> frequencies = termFrequencies(text);
+            synchronized (this) {
+                for (Map.Entry<String, Integer> entry : frequencies.entrySet()) {
+                    PendingPostings pairs = pending.computeIfAbsent(entry.getKey(), term -> new PendingPostings());
+                    if (pairs.count == pairs.values.length) {
+                        pairs.values = Arrays.copyOf(pairs.values, pairs.count * 2);
+                    }
+                    pairs.values[pairs.count++] = ((long) row << 32) | entry.getValue();
+                }
+                index.setLength(row, tokenCount(frequencies));
+            }
+        }
+
+        /**
+         * Sort and encode the collected postings
+         */
+        public synchronized LexicalIndex build() {
+            for (Map.Entry<String, PendingPostings> entry : pending.entrySet()) {
+                PendingPostings pairs = entry.getValue();
+                Arrays.sort(pairs.values, 0, pairs.count);
+                Postings list = new Postings();
+                for (int i = 0; i < pairs.count; i++) {
+                    list.append((int) (pairs.values[i] >>> 32), (int) pairs.values[i]);
+                }
+                list.trim();
+                index.postings.put(entry.getKey(), list);
+                index.postingsBytes += list.length;
+            }
+            pending.clear();
+            return index;
+        }
+    }
+
+    private static final class PendingPostings {
+        private long[] values = new long[4];
+        private int count = 0;
+    }
+
+    /**
+     * Varint-encoded (row delta, term frequency) pairs of one term
+     */
+    private static final class Postings {
+        private byte[] data = new byte[8];
+        private int length = 0;
+        private int lastRow = -1;
+        private int documentFrequency = 0;
+
+        private void append(int row, int frequency) {
+            if (data.length - length < 10) {
+                data = Arrays.copyOf(data, Math.max(data.length * 2, length + 10));
+            }
+            writeVarint(row - lastRow);
+            writeVarint(frequency);
+            lastRow = row;
+            documentFrequency++;
+        }
+
+        private void writeVarint(int value) {
+            while ((value & ~0x7F) != 0) {
+                data[length++] = (byte) ((value & 0x7F) | 0x80);
+                value >>>= 7;
+            }
+            data[length++] = (byte) value;
+        }
+
+        private void trim() {
+            data = Arrays.copyOf(data, length);
+        }
+    }
+}
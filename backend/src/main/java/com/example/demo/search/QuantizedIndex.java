@@ -0,0 +1,214 @@
+package com.example.demo.search;
+
+import java.util.Arrays;
+
+/**
+ * Int8 scalar-quantized copy of the store, scored with integer dot products.
+ *
+ * Each dimension d is mapped from [min_d, max_d] onto the codes -128..127, so one byte replaces
+ * a float32 and the full-precision vectors are only read for the rerank candidates.
+ * For a query q and a row x reconstructed as x_d = min_d + scale_d * (code_d + 128):
+ * <pre>
+ *   q . x = sum(q_d * (min_d + 128 * scale_d)) + sum((q_d * scale_d) * code_d)
+ * </pre>
+ * The first term is the same for every row; the weights q_d * scale_d are themselves quantized
+ * to int8, which leaves a plain int8 x int8 dot product per row. Store rows and queries are unit
+ * length, so that dot product already estimates cosine similarity.
+ * The best rerankSize rows by that estimate are rescored with exact cosine.
+ * Codes are kept in fixed-size slabs of whole rows, so the index can hold more than 2 GB of codes
+ * (about 1.4M rows of 1536 dimensions) and growing it never copies the rows already encoded.
+ */
+public class QuantizedIndex implements VectorIndex {
+
+    private static final int INITIAL_ROWS = 1024;
+    // Bytes of codes per slab
+    private static final int SLAB_BYTES = 1 << 22;
+
+    private final VectorStore store;
+    private final int rerankSize;
+    private final int slabBytes;
+
+    // Trained on the rows present at build time; later rows are clamped into the same range
+    private float[] min;
+    private float[] scale;
+    private int dimension;
+    private int rowsPerSlab = 1;
+
+    private volatile byte[][] slabs = new byte[0][];
+    private volatile boolean[] encoded = new boolean[0];
+    private volatile int rows = 0;
+    private volatile boolean trained = false;
+
+    public QuantizedIndex(VectorStore store, int rerankSize) {
+        this(store, rerankSize, SLAB_BYTES);
+    }
+
+    // Smaller slabs let tests cross slab boundaries with few rows
+    QuantizedIndex(VectorStore store, int rerankSize, int slabBytes) {
+        this.store = store;
+        this.rerankSize = rerankSize;
+        this.slabBytes = slabBytes;
+    }
+
+    public int getRerankSize() {
+        return rerankSize;
+    }
+
+    /** Bytes held in the heap per indexed vector */
+    public int bytesPerVector() {
+        return dimension;
+    }
+
+    /**
+     * Train per-dimension ranges on the current store contents and encode every row
+     */
+    @Override
+    public synchronized void build() {
+        VectorStore.Snapshot snapshot = store.snapshot();
+        dimension = snapshot.dimension();
+        if (slabs.length == 0) {
+            // The store's dimension is fixed once it holds rows, so the slab layout is too
+            rowsPerSlab = Math.max(1, slabBytes / Math.max(1, dimension));
+        }
+        min = new float[dimension];
+        float[] max = new float[dimension];
+        Arrays.fill(min, Float.POSITIVE_INFINITY);
+        Arrays.fill(max, Float.NEGATIVE_INFINITY);
+
+        float[] vector = new float[dimension];
+        for (int row = 0; row < snapshot.size(); row++) {
+            if (!snapshot.isLive(row)) {
+                continue;
+            }
+            snapshot.copyRow(row, vector);
+            for (int d = 0; d < dimension; d++) {
+                min[d] = Math.min(min[d], vector[d]);
+                max[d] = Math.max(max[d], vector[d]);
+            }
+        }
+        scale = new float[dimension];
+        for (int d = 0; d < dimension; d++) {
+            if (min[d] > max[d]) {
+                // No rows yet: fall back to the usual embedding range
+                min[d] = -1f;
+                max[d] = 1f;
+            }
+            scale[d] = Math.max((max[d] - min[d]) / 255f, Float.MIN_NORMAL);
+        }
+        trained = true;
+
+        for (int row = 0; row < snapshot.size(); row++) {
+            if (snapshot.isLive(row)) {
+                encode(snapshot, row, vector);
+            }
+        }
+    }
+
+    @Override
+    public synchronized void add(int row) {
+        // Rows added before training are picked up by build()
+        if (!trained || (row < rows && encoded[row])) {
+            return;
+        }
+        VectorStore.Snapshot snapshot = store.snapshot();
+        encode(snapshot, row, new float[dimension]);
+    }
+
+    @Override
+    public int size() {
+        return rows;
+    }
+
+    @Override
+    public SearchHits search(float[] query, int k, SearchOptions options) {
+        if (!trained || k <= 0) {
+            return SearchHits.EMPTY;
+        }
+        VectorStore.Snapshot snapshot = store.snapshot();
+        int rowCount = rows;
+        byte[][] codeSlabs = slabs;
+        boolean[] rowEncoded = encoded;
+
+        // Fold the per-dimension scales into the query, then quantize those weights
+        double offset = 0.0;
+        float maxWeight = 0f;
+        float[] weights = new float[dimension];
+        for (int d = 0; d < dimension; d++) {
+            offset += query[d] * (min[d] + 128f * scale[d]);
+            weights[d] = query[d] * scale[d];
+            maxWeight = Math.max(maxWeight, Math.abs(weights[d]));
+        }
+        float weightScale = maxWeight == 0f ? 1f : maxWeight / 127f;
+        byte[] queryCodes = new byte[dimension];
+        for (int d = 0; d < dimension; d++) {
+            queryCodes[d] = (byte) Math.round(weights[d] / weightScale);
+        }
+
+        // Candidate pass over the int8 codes; filtered-out rows are skipped before the dot product
+        RowBitmap allowed = options.getRowFilter();
+        TopKHeap candidates = new TopKHeap(Math.max(k, rerankSize));
+        for (int row = 0; row < rowCount; row++) {
+            if (!rowEncoded[row] || !snapshot.isLive(row) || (allowed != null && !allowed.contains(row))) {
+                continue;
+            }
+            int dot = dotProduct(queryCodes, codeSlabs[row / rowsPerSlab], (row % rowsPerSlab) * dimension, dimension);
+            float estimate = (float) (offset + weightScale * dot);
+            candidates.offer(row, estimate);
+        }
+
+        // Rerank the candidates against the full-precision vectors
+        SearchHits shortlist = candidates.toHits();
+        TopKHeap best = new TopKHeap(k);
+        for (int i = 0; i < shortlist.size(); i++) {
+            int row = shortlist.row(i);
+            best.offer(row, snapshot.similarity(row, query));
+        }
+        return best.toHits();
+    }
+
+    private static int dotProduct(byte[] query, byte[] codes, int offset, int length) {
+        int sum = 0;
+        for (int d = 0; d < length; d++) {
+            sum += query[d] * codes[offset + d];
+        }
+        return sum;
+    }
+
+    /**
+     * Quantize one row into its slab (caller holds the monitor)
+     */
+    private void encode(VectorStore.Snapshot snapshot, int row, float[] vector) {
+        ensureCapacity(row + 1);
+        snapshot.copyRow(row, vector);
+
+        byte[] codeBlock = slabs[row / rowsPerSlab];
+        int offset = (row % rowsPerSlab) * dimension;
+        for (int d = 0; d < dimension; d++) {
+            float value = Math.min(Math.max(vector[d], min[d]), min[d] + 255f * scale[d]);
+            codeBlock[offset + d] = (byte) (Math.round((value - min[d]) / scale[d]) - 128);
+        }
+        encoded[row] = true;
+        // Publish after the row is written
+        rows = Math.max(rows, row + 1);
+    }
+
+    private void ensureCapacity(int rowCount) {
+        // Slabs holding the row; existing ones are shared with the new table, new ones are
+        // allocated before it is published, so concurrent searches only ever see complete slabs
+        byte[][] current = slabs;
+        int slabCount = (rowCount + rowsPerSlab - 1) / rowsPerSlab;
+        if (slabCount > current.length) {
+            byte[][] newSlabs = Arrays.copyOf(current, slabCount);
+            for (int s = current.length; s < slabCount; s++) {
+                newSlabs[s] = new byte[rowsPerSlab * dimension];
+            }
+            slabs = newSlabs;
+        }
+
+        int capacity = encoded.length;
+        if (rowCount > capacity) {
+            int newCapacity = (int) Math.min(Integer.MAX_VALUE, Math.max(Math.max(rowCount, INITIAL_ROWS), capacity * 2L));
+            encoded = Arrays.copyOf(encoded, newCapacity);
+        }
+    }
+}
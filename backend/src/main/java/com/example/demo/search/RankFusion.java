@@ -0,0 +1,36 @@
+package com.example.demo.search;
+
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Merge rankings from different retrievers into one list.
+ */
+public final class RankFusion {
+
+    private RankFusion() {
+    }
+
+    /**
+     * Reciprocal rank fusion: a row scores the sum of 1 / (rrfK + rank) over the rankings it appears in
+     * (rank starting at 1). Only ranks are used, so BM25 and cosine scores need no calibration.
+     *
+     * @param k Number of rows to return
+     * @param rrfK Damping constant; 60 is the usual choice
+     * @param rankings Rankings to merge, each best first
+     * @return Fused ranking, best first, scored by the fused score
+     */
+    public static SearchHits reciprocalRank(int k, int rrfK, SearchHits... rankings) {
+        Map<Integer, Float> scores = new HashMap<>();
+        for (SearchHits ranking : rankings) {
+            for (int i = 0; i < ranking.size(); i++) {
+                scores.merge(ranking.row(i), 1.0f / (rrfK + i + 1), Float::sum);
+            }
+        }
+        TopKHeap heap = new TopKHeap(k);
+        for (Map.Entry<Integer, Float> entry : scores.entrySet()) {
+            heap.offer(entry.getKey(), entry.getValue());
+        }
+        return heap.toHits();
+    }
+}
@@ -0,0 +1,176 @@
+package com.example.demo.search;
+
+import java.util.Arrays;
+
+/**
+ * Immutable compressed set of store rows, laid out like a roaring bitmap.
+ *
+ * Rows are grouped by their high 16 bits into containers of up to 65536 rows. A sparse container
+ * is a sorted char[] of the low 16 bits (2 bytes per row); once it holds more than 4096 rows it
+ * becomes a 1024-word bitset (8 KB, which is smaller beyond that point). Membership is a table
+ * lookup plus a binary search or a bit test, and iteration with {@link #nextRow(int)} touches only
+ * the rows in the set, so a filtered scan costs in proportion to the rows that match.
+ */
+public final class RowBitmap {
+
+    public static final RowBitmap EMPTY = new RowBitmap(new int[0], new char[0][], new long[0][], 0);
+
+    // Containers larger than this are stored as bitsets
+    private static final int ARRAY_MAX = 4096;
+    private static final int BITSET_WORDS = 1 << 10;
+
+    // slots[high] = container index for that high half, or -1
+    private final int[] slots;
+    private final char[][] arrays;
+    private final long[][] bitsets;
+    private final int cardinality;
+
+    private RowBitmap(int[] slots, char[][] arrays, long[][] bitsets, int cardinality) {
+        this.slots = slots;
+        this.arrays = arrays;
+        this.bitsets = bitsets;
+        this.cardinality = cardinality;
+    }
+
+    /**
+     * Build a bitmap from rows in any order; duplicates are ignored
+     *
+     * @param rows Row numbers (not modified)
+     * @param count Number of leading entries of rows to use
+     */
+    public static RowBitmap of(int[] rows, int count) {
+        if (count == 0) {
+            return EMPTY;
+        }
+        int[] sorted = Arrays.copyOf(rows, count);
+        Arrays.sort(sorted);
+        if (sorted[0] < 0) {
+            throw new IllegalArgumentException("Negative row " + sorted[0]);
+        }
+
+        int[] slots = new int[(sorted[count - 1] >>> 16) + 1];
+        Arrays.fill(slots, -1);
+        char[][] arrays = new char[slots.length][];
+        long[][] bitsets = new long[slots.length][];
+        int containers = 0;
+        int cardinality = 0;
+        int start = 0;
+        while (start < count) {
+            int high = sorted[start] >>> 16;
+            int end = start;
+            int distinct = 0;
+            int previous = -1;
+            while (end < count && sorted[end] >>> 16 == high) {
+                if (sorted[end] != previous) {
+                    distinct++;
+                    previous = sorted[end];
+                }
+                end++;
+            }
+            if (distinct > ARRAY_MAX) {
+                long[] words = new long[BITSET_WORDS];
+                for (int i = start; i < end; i++) {
+                    int low = sorted[i] & 0xFFFF;
+                    words[low >>> 6] |= 1L << low;
+                }
+                bitsets[containers] = words;
+            } else {
+                char[] values = new char[distinct];
+                int n = 0;
+                for (int i = start; i < end; i++) {
+                    char low = (char) sorted[i];
+                    if (n == 0 || values[n - 1] != low) {
+                        values[n++] = low;
+                    }
+                }
+                arrays[containers] = values;
+            }
+            slots[high] = containers++;
+            cardinality += distinct;
+            start = end;
+        }
+        return new RowBitmap(slots, Arrays.copyOf(arrays, containers), Arrays.copyOf(bitsets, containers),
+                cardinality);
+    }
+
+    public boolean contains(int row) {
+        int high = row >>> 16;
+        if (high >= slots.length) {
+            return false;
+        }
+        int container = slots[high];
+        if (container < 0) {
+            return false;
+        }
+        int low = row & 0xFFFF;
+        char[] values = arrays[container];
+        if (values != null) {
+            return Arrays.binarySearch(values, (char) low) >= 0;
+        }
+        return (bitsets[container][low >>> 6] & (1L << low)) != 0;
+    }
+
+    /**
+     * Smallest row in the set that is at least from
+     *
+     * @return The row, or -1 when there is none
+     */
+    public int nextRow(int from) {
+        if (from < 0) {
+            from = 0;
+        }
+        int low = from & 0xFFFF;
+        for (int high = from >>> 16; high < slots.length; high++, low = 0) {
+            int container = slots[high];
+            if (container < 0) {
+                continue;
+            }
+            int found = nextInContainer(container, low);
+            if (found >= 0) {
+                return (high << 16) | found;
+            }
+        }
+        return -1;
+    }
+
+    private int nextInContainer(int container, int low) {
+        char[] values = arrays[container];
+        if (values != null) {
+            int i = Arrays.binarySearch(values, (char) low);
+            if (i < 0) {
+                i = -i - 1;
+            }
+            return i < values.length ? values[i] : -1;
+        }
+        long[] words = bitsets[container];
+        int word = low >>> 6;
+        long bits = words[word] & (-1L << low);
+        while (true) {
+            if (bits != 0) {
+                return (word << 6) + Long.numberOfTrailingZeros(bits);
+            }
+            if (++word == BITSET_WORDS) {
+                return -1;
+            }
+            bits = words[word];
+        }
+    }
+
+    /** Number of rows in the set */
+    public int cardinality() {
+        return cardinality;
+    }
+
+    public boolean isEmpty() {
+        return cardinality == 0;
+    }
+
+    /** Approximate heap size of the containers */
+    public long sizeInBytes() {
+        long bytes = slots.length * 4L;
+        for (int i = 0; i < arrays.length; i++) {
+            bytes += arrays[i] != null ? arrays[i].length * 2L : BITSET_WORDS * 8L;
+        }
+        return bytes;
+    }
+}
@@ -0,0 +1,59 @@
+package com.example.demo.search;
+
+import java.util.Collection;
+import java.util.Set;
+import java.util.TreeSet;
+
+/**
+ * Restricts a search to chunks of matching documents. Conditions that are set must all hold.
+ */
+public class SearchFilter {
+
+    // Owner of the document
+    private String userId;
+
+    // Only these documents (null = any)
+    private Set<String> documentIds;
+
+    // MIME type of the document, compared ignoring case
+    private String contentType;
+
+    public String getUserId() {
+        return userId;
+    }
+
+    public void setUserId(String userId) {
+        this.userId = userId;
+    }
+
+    public Set<String> getDocumentIds() {
+        return documentIds;
+    }
+
+    public void setDocumentIds(Collection<String> documentIds) {
+        // Sorted, so the same ids in any order build the same key
+        this.documentIds = documentIds == null ? null : new TreeSet<>(documentIds);
+    }
+
+    public String getContentType() {
+        return contentType;
+    }
+
+    public void setContentType(String contentType) {
+        this.contentType = contentType;
+    }
+
+    /**
+     * True when no condition is set, i.e. every chunk matches
+     */
+    public boolean isEmpty() {
+        return userId == null && documentIds == null && contentType == null;
+    }
+
+    /**
+     * Conditions as a string for building request keys
+     */
+    public String key() {
+        return "user=" + userId + ",documents=" + documentIds + ",contentType=" + contentType;
+    }
+}
@@ -0,0 +1,29 @@
+package com.example.demo.search;
+
+/**
+ * Rows returned by a vector search, ordered by descending score
+ */
+public final class SearchHits {
+
+    public static final SearchHits EMPTY = new SearchHits(new int[0], new float[0]);
+
+    private final int[] rows;
+    private final float[] scores;
+
+    public SearchHits(int[] rows, float[] scores) {
+        this.rows = rows;
+        this.scores = scores;
+    }
+
+    public int size() {
+        return rows.length;
+    }
+
+    public int row(int i) {
+        return rows[i];
+    }
+
+    public float score(int i) {
+        return scores[i];
+    }
+}
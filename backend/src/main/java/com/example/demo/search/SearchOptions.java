@@ -0,0 +1,102 @@
+package com.example.demo.search;
+
+/**
+ * Per-request search settings
+ */
+public class SearchOptions {
+
+    /**
+     * How candidates are ranked
+     */
+    public enum Mode {
+        // Cosine similarity of embeddings
+        VECTOR,
+        // Vector and BM25 rankings merged with reciprocal rank fusion
+        HYBRID,
+        // BM25 over chunk text only; the query is not embedded
+        LEXICAL
+    }
+
+    private Mode mode = Mode.VECTOR;
+
+    // Skip the approximate index and compare against every chunk
+    private boolean exact;
+
+    // IVF-PQ: number of inverted lists to probe (null = index default)
+    private Integer nprobe;
+
+    // Restrict results to chunks of matching documents (null = all)
+    private SearchFilter filter;
+
+    // Rows allowed by the filter, resolved against the store by the search service
+    private RowBitmap rowFilter;
+
+    public static SearchOptions defaults() {
+        return new SearchOptions();
+    }
+
+    public Mode getMode() {
+        return mode;
+    }
+
+    public void setMode(Mode mode) {
+        this.mode = mode;
+    }
+
+    public boolean isExact() {
+        return exact;
+    }
+
+    public void setExact(boolean exact) {
+        this.exact = exact;
+    }
+
+    public Integer getNprobe() {
+        return nprobe;
+    }
+
+    public void setNprobe(Integer nprobe) {
+        this.nprobe = nprobe;
+    }
+
+    public SearchFilter getFilter() {
+        return filter;
+    }
+
+    public void setFilter(SearchFilter filter) {
+        this.filter = filter;
+    }
+
+    /**
+     * Rows the filter allows; indexes skip every other row before scoring it
+     *
+     * @return Resolved rows, or null when the search is not filtered
+     */
+    public RowBitmap getRowFilter() {
+        return rowFilter;
+    }
+
+    /**
+     * Copy of these options with the filter resolved to store rows
+     */
+    public SearchOptions withRowFilter(RowBitmap rowFilter) {
+        SearchOptions copy = new SearchOptions();
+        copy.mode = mode;
+        copy.exact = exact;
+        copy.nprobe = nprobe;
+        copy.filter = filter;
+        copy.rowFilter = rowFilter;
+        return copy;
+    }
+
+    /**
+     * Settings that change the result, as a string for building request keys
+     */
+    public String key() {
+        String key = "mode=" + mode + ",exact=" + exact + ",nprobe=" + nprobe;
+        if (filter != null && !filter.isEmpty()) {
+            key += ",filter=[" + filter.key() + "]";
+        }
+        return key;
+    }
+}
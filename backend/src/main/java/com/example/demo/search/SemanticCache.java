@@ -0,0 +1,191 @@
+package com.example.demo.search;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.function.Predicate;
+
+/**
+ * Cache of values keyed by a question embedding instead of its exact text.
+ *
+ * A lookup returns the most similar live entry whose cosine similarity with the query reaches
+ * the threshold, so paraphrases of a cached question hit. Every entry records the documents its
+ * value was derived from and is dropped when one of them changes. A value computed while one of
+ * its documents changed is not cached at all: callers take {@link #generation()} before reading
+ * the documents, and {@link #put} rejects the value if a document was invalidated since.
+ * Lookups scan all entries; with a few thousand entries that is well under a millisecond.
+ *
+ * @param <V> Cached value type
+ */
+public class SemanticCache<V> {
+
+    private final int maxEntries;
+    private final float threshold;
+    private final long ttlMillis;
+
+    // Least recently used first: a hit moves its entry to the end, eviction takes the head
+    private final List<Entry<V>> entries = new ArrayList<>();
+    // Bumped by every invalidation; documentId -> generation of its last invalidation
+    private long generation = 0;
+    private final Map<String, Long> invalidatedAt = new HashMap<>();
+    private long hits = 0;
+    private long misses = 0;
+
+    /**
+     * @param maxEntries Entries kept before the oldest is evicted
+     * @param threshold Minimum cosine similarity for a hit (e.g. 0.95)
+     * @param ttlMillis Time after which an entry is no longer returned
+     */
+    public SemanticCache(int maxEntries, float threshold, long ttlMillis) {
+        this.maxEntries = maxEntries;
+        this.threshold = threshold;
+        this.ttlMillis = ttlMillis;
+    }
+
+    /**
+     * Find the most similar cached value
+     *
+     * @param query Unit-length query embedding
+     * @param valid Extra check on a candidate value (e.g. its sources still exist); failing entries are dropped
+     * @return Best match at or above the threshold, or null
+     */
+    public synchronized Match<V> find(float[] query, Predicate<V> valid) {
+        long now = System.currentTimeMillis();
+        Entry<V> best = null;
+        float bestScore = threshold;
+        Iterator<Entry<V>> iterator = entries.iterator();
+        while (iterator.hasNext()) {
+            Entry<V> entry = iterator.next();
+            if (entry.expiresAt <= now) {
+                iterator.remove();
+                continue;
+            }
+            if (entry.vector.length != query.length) {
+                continue;
+            }
+            float score = VectorMath.dot(query, 0, entry.vector, 0, query.length);
+            if (score >= bestScore) {
+                best = entry;
+                bestScore = score;
+            }
+        }
+        if (best != null && !valid.test(best.value)) {
+            entries.remove(best);
+            best = null;
+        }
+        if (best == null) {
+            misses++;
+            return null;
+        }
+        hits++;
+        entries.remove(best);
+        entries.add(best);
+        return new Match<>(best.value, bestScore);
+    }
+
+    /**
+     * Current invalidation generation, to be taken before reading the documents a value is built from
+     */
+    public synchronized long generation() {
+        return generation;
+    }
+
+    /**
+     * Cache a value, unless one of its documents was invalidated while it was being computed
+     *
+     * @param query Unit-length query embedding (kept by reference, must not be modified)
+     * @param documentIds Documents the value was derived from
+     * @param value Value to cache
+     * @param generation {@link #generation()} taken before the documents were read
+     * @return false when the value was stale and not cached
+     */
+    public synchronized boolean put(float[] query, Set<String> documentIds, V value, long generation) {
+        for (String documentId : documentIds) {
+            Long invalidated = invalidatedAt.get(documentId);
+            if (invalidated != null && invalidated > generation) {
+                return false;
+            }
+        }
+        entries.add(new Entry<>(query, documentIds, value, System.currentTimeMillis() + ttlMillis));
+        while (entries.size() > maxEntries) {
+            entries.remove(0);
+        }
+        return true;
+    }
+
+    /**
+     * Drop every entry derived from a document, and reject values being computed from it
+     *
+     * @return Number of entries removed
+     */
+    public synchronized int invalidateDocument(String documentId) {
+        // One small entry per changed document, so the map stays bounded by the number of documents
+        invalidatedAt.put(documentId, ++generation);
+        int before = entries.size();
+        entries.removeIf(entry -> entry.documentIds.contains(documentId));
+        return before - entries.size();
+    }
+
+    public synchronized int size() {
+        return entries.size();
+    }
+
+    public synchronized long getHits() {
+        return hits;
+    }
+
+    public synchronized long getMisses() {
+        return misses;
+    }
+
+    public synchronized double hitRatio() {
+        long lookups = hits + misses;
+        return lookups == 0 ? 0.0 : (double) hits / lookups;
+    }
+
+    public float getThreshold() {
+        return threshold;
+    }
+
+    public int getMaxEntries() {
+        return maxEntries;
+    }
+
+    /**
+     * A cached value and how similar its question was to the query
+     */
+    public static final class Match<V> {
+        private final V value;
+        private final float similarity;
+
+        private Match(V value, float similarity) {
+            this.value = value;
+            this.similarity = similarity;
+        }
+
+        public V value() {
+            return value;
+        }
+
+        public float similarity() {
+            return similarity;
+        }
+    }
+
+    private static final class Entry<V> {
+        private final float[] vector;
+        private final Set<String> documentIds;
+        private final V value;
+        private final long expiresAt;
+
+        private Entry(float[] vector, Set<String> documentIds, V value, long expiresAt) {
+            this.vector = vector;
+            this.documentIds = documentIds;
+            this.value = value;
+            this.expiresAt = expiresAt;
+        }
+    }
+}
@@ -0,0 +1,108 @@
+package com.example.demo.search;
+
+/**
+ * Bounded min-heap of (score, row) pairs that keeps the k best rows seen.
+ * Uses two primitive arrays, so offering a row never allocates.
+ */
+public final class TopKHeap {
+
+    private final int capacity;
+    private final float[] scores;
+    private final int[] rows;
+    private int size;
+
+    public TopKHeap(int capacity) {
+        this.capacity = Math.max(0, capacity);
+        this.scores = new float[this.capacity];
+        this.rows = new int[this.capacity];
+    }
+
+    public int size() {
+        return size;
+    }
+
+    /**
+     * Lowest score still in the heap; rows scoring below it once the heap is full are rejected
+     */
+    public float minScore() {
+        return size == 0 ? Float.NEGATIVE_INFINITY : scores[0];
+    }
+
+    public boolean isFull() {
+        return size == capacity;
+    }
+
+    /**
+     * Offer a row; it is kept if the heap is not full or it beats the current minimum
+     */
+    public void offer(int row, float score) {
+        if (size < capacity) {
+            scores[size] = score;
+            rows[size] = row;
+            siftUp(size++);
+        } else if (capacity > 0 && score > scores[0]) {
+            scores[0] = score;
+            rows[0] = row;
+            siftDown(0, size);
+        }
+    }
+
+    /**
+     * Drain the heap into hits ordered best first. The heap is empty afterwards.
+     */
+    public SearchHits toHits() {
+        int count = size;
+        int[] sortedRows = new int[count];
+        float[] sortedScores = new float[count];
+        // Repeatedly remove the minimum and fill the output from the back
+        for (int i = count - 1; i >= 0; i--) {
+            sortedRows[i] = rows[0];
+            sortedScores[i] = scores[0];
+            size--;
+            scores[0] = scores[size];
+            rows[0] = rows[size];
+            siftDown(0, size);
+        }
+        return new SearchHits(sortedRows, sortedScores);
+    }
+
+    private void siftUp(int index) {
+        float score = scores[index];
+        int row = rows[index];
+        while (index > 0) {
+            int parent = (index - 1) >>> 1;
+            if (scores[parent] <= score) {
+                break;
+            }
+            scores[index] = scores[parent];
+            rows[index] = rows[parent];
+            index = parent;
+        }
+        scores[index] = score;
+        rows[index] = row;
+    }
+
+    private void siftDown(int index, int length) {
+        if (length == 0) {
+            return;
+        }
+        float score = scores[index];
+        int row = rows[index];
+        int half = length >>> 1;
+        while (index < half) {
+            int child = 2 * index + 1;
+            int right = child + 1;
+            if (right < length && scores[right] < scores[child]) {
+                child = right;
+            }
+            if (score <= scores[child]) {
+                break;
+            }
+            scores[index] = scores[child];
+            rows[index] = rows[child];
+            index = child;
+        }
+        scores[index] = score;
+        rows[index] = row;
+    }
+}
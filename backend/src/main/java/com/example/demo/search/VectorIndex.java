@@ -0,0 +1,35 @@
+package com.example.demo.search;
+
+/**
+ * Nearest-neighbour index over the rows of a {@link VectorStore}
+ */
+public interface VectorIndex {
+
+    /**
+     * Index every live row currently in the store (training first where the index needs it).
+     * Can take a long time; callers run it on a background thread.
+     */
+    void build();
+
+    /**
+     * Index a row that has already been appended to the store.
+     * Adding a row twice has no effect.
+     */
+    void add(int row);
+
+    /**
+     * Find the live rows most similar to the query
+     *
+     * @param query Query embedding vector, normalized to unit length
+     * @param k Number of rows to return
+     * @param options Per-request settings; indexes ignore the ones that do not apply to them.
+     *                Rows outside {@link SearchOptions#getRowFilter()} are never returned.
+     * @return Up to k rows, best first
+     */
+    SearchHits search(float[] query, int k, SearchOptions options);
+
+    /**
+     * Number of rows in the index (including rows removed from the store since)
+     */
+    int size();
+}
@@ -0,0 +1,126 @@
+package com.example.demo.search;
+
+import java.nio.FloatBuffer;
+
+/**
+ * Similarity kernels over unit-length vectors.
+ *
+ * Vectors are normalized once when they enter the store and queries once per search,
+ * so cosine similarity is a plain dot product with no per-row norms.
+ * The dot product runs on the JDK Vector API when the JVM was started with
+ * --add-modules jdk.incubator.vector (disable with -Dsearch.simd=false), otherwise on a scalar loop.
+ * The module is still incubating, so the build and startup print a "Using incubator modules" warning.
+ * Rows of a mapped segment are read in place by a scalar loop: on Java 17 the Vector API cannot load
+ * from a FloatBuffer view, and copying each row out first would cost more than the SIMD kernel saves.
+ */
+public final class VectorMath {
+
+    private static final boolean SIMD = Boolean.parseBoolean(System.getProperty("search.simd", "true"))
+            && ModuleLayer.boot().findModule("jdk.incubator.vector").isPresent();
+
+    private VectorMath() {
+    }
+
+    /**
+     * Describe the active dot-product kernel, for logs and stats
+     */
+    public static String kernel() {
+        return SIMD ? "vector-api (" + SimdVectorMath.lanes() + " lanes)" : "scalar";
+    }
+
+    /**
+     * Scale a vector to unit length in place (zero vectors are left unchanged)
+     */
+    public static void normalize(float[] vector) {
+        normalize(vector, 0, vector.length);
+    }
+
+    /**
+     * Scale vector[offset .. offset + length) to unit length in place
+     */
+    public static void normalize(float[] vector, int offset, int length) {
+        double norm = 0.0;
+        for (int i = offset; i < offset + length; i++) {
+            norm += (double) vector[i] * vector[i];
+        }
+        if (norm == 0.0) {
+            return;
+        }
+        float inverse = (float) (1.0 / Math.sqrt(norm));
+        for (int i = offset; i < offset + length; i++) {
+            vector[i] *= inverse;
+        }
+    }
+
+    /**
+     * Unit-length copy of a vector
+     */
+    public static float[] normalized(float[] vector) {
+        float[] copy = vector.clone();
+        normalize(copy);
+        return copy;
+    }
+
+    /**
+     * Dot product of a[aOffset ..] and b[bOffset ..] over length elements
+     */
+    public static float dot(float[] a, int aOffset, float[] b, int bOffset, int length) {
+        if (SIMD) {
+            return SimdVectorMath.dot(a, aOffset, b, bOffset, length);
+        }
+        return scalarDot(a, aOffset, b, bOffset, length);
+    }
+
+    /**
+     * Dot product of a query and one row of a mapped segment
+     */
+    public static float dot(float[] query, FloatBuffer vectors, int offset) {
+        if (vectors.hasArray()) {
+            return dot(query, 0, vectors.array(), vectors.arrayOffset() + offset, query.length);
+        }
+        return bufferDot(query, vectors, offset);
+    }
+
+    /**
+     * Portable kernel; four independent accumulators let the CPU overlap the multiply-adds
+     */
+    static float scalarDot(float[] a, int aOffset, float[] b, int bOffset, int length) {
+        float s0 = 0f;
+        float s1 = 0f;
+        float s2 = 0f;
+        float s3 = 0f;
+        int i = 0;
+        for (; i + 3 < length; i += 4) {
+            s0 += a[aOffset + i] * b[bOffset + i];
+            s1 += a[aOffset + i + 1] * b[bOffset + i + 1];
+            s2 += a[aOffset + i + 2] * b[bOffset + i + 2];
+            s3 += a[aOffset + i + 3] * b[bOffset + i + 3];
+        }
+        for (; i < length; i++) {
+            s0 += a[aOffset + i] * b[bOffset + i];
+        }
+        return (s0 + s1) + (s2 + s3);
+    }
+
+    /**
+     * Scalar kernel reading the row straight from a (mapped) buffer with absolute gets
+     */
+    static float bufferDot(float[] a, FloatBuffer b, int offset) {
+        int length = a.length;
+        float s0 = 0f;
+        float s1 = 0f;
+        float s2 = 0f;
+        float s3 = 0f;
+        int i = 0;
+        for (; i + 3 < length; i += 4) {
+            s0 += a[i] * b.get(offset + i);
+            s1 += a[i + 1] * b.get(offset + i + 1);
+            s2 += a[i + 2] * b.get(offset + i + 2);
+            s3 += a[i + 3] * b.get(offset + i + 3);
+        }
+        for (; i < length; i++) {
+            s0 += a[i] * b.get(offset + i);
+        }
+        return (s0 + s1) + (s2 + s3);
+    }
+}
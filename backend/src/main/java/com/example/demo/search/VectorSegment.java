@@ -0,0 +1,389 @@
+package com.example.demo.search;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.FloatBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.List;
+import java.util.zip.CRC32C;
+
+/**
+ * Read-only, memory-mapped snapshot of a {@link VectorStore} on local disk.
+ *
+ * File layout (all numbers little-endian):
+ * <pre>
+ *   header    64 bytes: magic, version, dimension, rows,
+ *                       vectorsOffset, metadataOffset, metadataLength, checksum
+ *   vectors   rows * dimension float32 values, row-major, unit length
+ *   metadata  per row: chunk_id, document_id (each an int byte length followed by UTF-8 bytes),
+ *             version (long), flags (byte, 1 = removed)
+ * </pre>
+ * The checksum is a CRC32C over everything after the header.
+ * Vectors stay in the page cache (off-heap); only the metadata table is copied into the heap.
+ * Removed rows keep their place (and their vector) so row numbers match the store that wrote them;
+ * they are dropped by {@link #compact}.
+ */
+public final class VectorSegment {
+
+    public static final String FILE_PREFIX = "vectors-";
+    public static final String FILE_SUFFIX = ".seg";
+
+    private static final int MAGIC = 0x47455356; // "VSEG"
+    // Version 2: vectors are stored normalized. Version 3: no chunk text or file names.
+    // Version 4: chunk versions. Version 5: removed rows kept and flagged.
+    // Older files are rejected and rebuilt from DynamoDB.
+    private static final int VERSION = 5;
+    private static final byte FLAG_REMOVED = 1;
+    private static final int HEADER_BYTES = 64;
+    private static final int WRITE_BUFFER_BYTES = 1 << 20;
+
+    // A single mapping is limited to 2 GB, so large segments are mapped in several slabs
+    private static final long MAX_SLAB_BYTES = Integer.MAX_VALUE;
+
+    private final Path file;
+    private final int dimension;
+    private final int rows;
+    private final int rowsPerSlab;
+    private final FloatBuffer[] slabs;
+    private final String[] chunkIds;
+    private final String[] documentIds;
+    private final long[] versions;
+    private final BitSet removed;
+
+    private VectorSegment(Path file, int dimension, int rows, int rowsPerSlab, FloatBuffer[] slabs,
+                          String[] chunkIds, String[] documentIds, long[] versions, BitSet removed) {
+        this.file = file;
+        this.dimension = dimension;
+        this.rows = rows;
+        this.rowsPerSlab = rowsPerSlab;
+        this.slabs = slabs;
+        this.chunkIds = chunkIds;
+        this.documentIds = documentIds;
+        this.versions = versions;
+        this.removed = removed;
+    }
+
+    /**
+     * Write every row of a snapshot to a segment file, removed rows included and flagged, so segment
+     * row numbers are the snapshot's and the segment can replace the rows with {@link VectorStore#rebase}.
+     * The file is written under a temporary name and moved into place, so readers never see a partial segment.
+     *
+     * @param snapshot Store snapshot to persist
+     * @param file Target segment file
+     * @return Number of rows written
+     */
+    public static int write(VectorStore.Snapshot snapshot, Path file) throws IOException {
+        try (Writer writer = new Writer(file, snapshot.dimension())) {
+            float[] row = new float[snapshot.dimension()];
+            for (int r = 0; r < snapshot.size(); r++) {
+                snapshot.copyRow(r, row);
+                writer.append(snapshot.chunkId(r), snapshot.documentId(r), snapshot.version(r),
+                        !snapshot.isLive(r), row);
+            }
+            return writer.finish();
+        }
+    }
+
+    /**
+     * Write a copy of a segment without its removed rows. Rows are renumbered, so this is only
+     * done before anything refers to them (at startup, before indexes are built).
+     *
+     * @param source Mapped segment
+     * @param file Target segment file
+     * @return Number of rows written
+     */
+    public static int compact(VectorSegment source, Path file) throws IOException {
+        try (Writer writer = new Writer(file, source.dimension)) {
+            float[] row = new float[source.dimension];
+            for (int r = 0; r < source.rows; r++) {
+                if (source.isRemoved(r)) {
+                    continue;
+                }
+                source.slab(r).get(source.slabOffset(r), row, 0, source.dimension);
+                writer.append(source.chunkId(r), source.documentId(r), source.version(r), false, row);
+            }
+            return writer.finish();
+        }
+    }
+
+    /**
+     * Memory-map a segment file
+     *
+     * @param file Segment file written by {@link #write}
+     * @param verifyChecksum Whether to check the CRC32C (touches every page of the file once)
+     * @return Mapped segment
+     * @throws IOException if the file is truncated, has an unknown format or fails the checksum
+     */
+    public static VectorSegment map(Path file, boolean verifyChecksum) throws IOException {
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            long fileSize = channel.size();
+            if (fileSize < HEADER_BYTES) {
+                throw new IOException("Segment " + file + " is truncated");
+            }
+
+            ByteBuffer header = ByteBuffer.allocate(HEADER_BYTES).order(ByteOrder.LITTLE_ENDIAN);
+            channel.read(header, 0);
+            header.flip();
+            if (header.getInt() != MAGIC) {
+                throw new IOException("Segment " + file + " has a bad magic number");
+            }
+            int version = header.getInt();
+            if (version != VERSION) {
+                throw new IOException("Segment " + file + " has unsupported version " + version);
+            }
+            int dimension = header.getInt();
+            int rows = header.getInt();
+            long vectorsOffset = header.getLong();
+            long metadataOffset = header.getLong();
+            long metadataLength = header.getLong();
+            long checksum = header.getLong();
+
+            long rowBytes = (long) dimension * Float.BYTES;
+            if (metadataOffset != vectorsOffset + rows * rowBytes || metadataOffset + metadataLength != fileSize) {
+                throw new IOException("Segment " + file + " is truncated");
+            }
+
+            if (verifyChecksum) {
+                CRC32C crc = new CRC32C();
+                for (long position = HEADER_BYTES; position < fileSize; position += MAX_SLAB_BYTES) {
+                    long length = Math.min(MAX_SLAB_BYTES, fileSize - position);
+                    crc.update(channel.map(FileChannel.MapMode.READ_ONLY, position, length));
+                }
+                if (crc.getValue() != checksum) {
+                    throw new IOException("Segment " + file + " failed checksum verification");
+                }
+            }
+
+            // Map the vector block in whole-row slabs
+            int rowsPerSlab = rowBytes == 0 ? 1 : (int) Math.max(1, MAX_SLAB_BYTES / rowBytes);
+            int slabCount = rows == 0 ? 0 : (rows + rowsPerSlab - 1) / rowsPerSlab;
+            FloatBuffer[] slabs = new FloatBuffer[slabCount];
+            for (int s = 0; s < slabCount; s++) {
+                int slabRows = Math.min(rowsPerSlab, rows - s * rowsPerSlab);
+                MappedByteBuffer mapped = channel.map(FileChannel.MapMode.READ_ONLY,
+                        vectorsOffset + s * rowsPerSlab * rowBytes, slabRows * rowBytes);
+                slabs[s] = mapped.order(ByteOrder.LITTLE_ENDIAN).asFloatBuffer();
+            }
+
+            // Metadata table is small compared to the vectors, decode it into the heap
+            String[] chunkIds = new String[rows];
+            String[] documentIds = new String[rows];
+            long[] versions = new long[rows];
+            BitSet removed = new BitSet();
+            ByteBuffer metadata = channel.map(FileChannel.MapMode.READ_ONLY, metadataOffset, metadataLength)
+                    .order(ByteOrder.LITTLE_ENDIAN);
+            for (int r = 0; r < rows; r++) {
+                chunkIds[r] = readString(metadata);
+                documentIds[r] = readString(metadata);
+                versions[r] = metadata.getLong();
+                if ((metadata.get() & FLAG_REMOVED) != 0) {
+                    removed.set(r);
+                }
+            }
+
+            return new VectorSegment(file, dimension, rows, rowsPerSlab, slabs,
+                    chunkIds, documentIds, versions, removed);
+        }
+    }
+
+    public Path file() {
+        return file;
+    }
+
+    public int dimension() {
+        return dimension;
+    }
+
+    public int rows() {
+        return rows;
+    }
+
+    /** Mapped float view holding the given row */
+    public FloatBuffer slab(int row) {
+        return slabs[row / rowsPerSlab];
+    }
+
+    /** Offset of the row's first float inside {@link #slab(int)} */
+    public int slabOffset(int row) {
+        return (row % rowsPerSlab) * dimension;
+    }
+
+    public String chunkId(int row) {
+        return chunkIds[row];
+    }
+
+    public String documentId(int row) {
+        return documentIds[row];
+    }
+
+    public long version(int row) {
+        return versions[row];
+    }
+
+    /** Whether the row had been removed from the store when the segment was written */
+    public boolean isRemoved(int row) {
+        return removed.get(row);
+    }
+
+    /** Number of removed rows */
+    public int removedRows() {
+        return removed.cardinality();
+    }
+
+    /**
+     * Appends rows to a new segment file. Vectors go to disk as they arrive, through one write buffer;
+     * ids and versions are kept until {@link #finish()} writes the metadata table after them.
+     * Closing a writer that was not finished deletes the partial file.
+     */
+    public static final class Writer implements Closeable {
+
+        private final Path file;
+        private final Path tmp;
+        private final FileChannel channel;
+        private final ByteBuffer buffer = ByteBuffer.allocate(WRITE_BUFFER_BYTES).order(ByteOrder.LITTLE_ENDIAN);
+        private final CRC32C crc = new CRC32C();
+        private final List<String> chunkIds = new ArrayList<>();
+        private final List<String> documentIds = new ArrayList<>();
+        private long[] versions = new long[1024];
+        private final BitSet removed = new BitSet();
+        private int dimension;
+        private boolean finished = false;
+
+        /**
+         * @param file Target segment file
+         * @param dimension Floats per row, or 0 to take it from the first row
+         */
+        public Writer(Path file, int dimension) throws IOException {
+            this.file = file;
+            this.tmp = file.resolveSibling(file.getFileName() + ".tmp");
+            this.dimension = dimension;
+            this.channel = FileChannel.open(tmp, StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+                    StandardOpenOption.TRUNCATE_EXISTING);
+            channel.position(HEADER_BYTES);
+        }
+
+        /**
+         * Append one row; safe to call from several threads
+         *
+         * @param vector Unit-length vector (copied)
+         * @return Row number of the appended row
+         */
+        public synchronized int append(String chunkId, String documentId, long version, boolean isRemoved,
+                                       float[] vector) throws IOException {
+            if (dimension == 0) {
+                dimension = vector.length;
+            }
+            if (vector.length != dimension) {
+                throw new IllegalArgumentException("Embedding for chunk " + chunkId + " has dimension "
+                        + vector.length + ", expected " + dimension);
+            }
+            if (buffer.remaining() < dimension * Float.BYTES) {
+                flush(channel, buffer, crc);
+            }
+            buffer.asFloatBuffer().put(vector, 0, dimension);
+            buffer.position(buffer.position() + dimension * Float.BYTES);
+
+            int row = chunkIds.size();
+            chunkIds.add(chunkId);
+            documentIds.add(documentId);
+            if (row == versions.length) {
+                versions = Arrays.copyOf(versions, row * 2);
+            }
+            versions[row] = version;
+            if (isRemoved) {
+                removed.set(row);
+            }
+            return row;
+        }
+
+        /**
+         * Write the metadata table and header and move the file into place
+         *
+         * @return Number of rows written
+         */
+        public synchronized int finish() throws IOException {
+            int rows = chunkIds.size();
+            flush(channel, buffer, crc);
+            long metadataOffset = channel.position();
+
+            for (int r = 0; r < rows; r++) {
+                writeString(channel, buffer, crc, chunkIds.get(r));
+                writeString(channel, buffer, crc, documentIds.get(r));
+                if (buffer.remaining() < Long.BYTES + 1) {
+                    flush(channel, buffer, crc);
+                }
+                buffer.putLong(versions[r]);
+                buffer.put(removed.get(r) ? FLAG_REMOVED : 0);
+            }
+            flush(channel, buffer, crc);
+            long metadataLength = channel.position() - metadataOffset;
+
+            // Header last, once the checksum is known
+            ByteBuffer header = ByteBuffer.allocate(HEADER_BYTES).order(ByteOrder.LITTLE_ENDIAN);
+            header.putInt(MAGIC).putInt(VERSION).putInt(dimension).putInt(rows)
+                  .putLong(HEADER_BYTES).putLong(metadataOffset).putLong(metadataLength)
+                  .putLong(crc.getValue());
+            header.clear();
+            channel.write(header, 0);
+            channel.force(true);
+            channel.close();
+
+            Files.move(tmp, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+            finished = true;
+            return rows;
+        }
+
+        @Override
+        public synchronized void close() throws IOException {
+            if (!finished) {
+                channel.close();
+                Files.deleteIfExists(tmp);
+            }
+        }
+    }
+
+    private static void flush(FileChannel channel, ByteBuffer buffer, CRC32C crc) throws IOException {
+        buffer.flip();
+        crc.update(buffer.duplicate());
+        while (buffer.hasRemaining()) {
+            channel.write(buffer);
+        }
+        buffer.clear();
+    }
+
+    private static void writeString(FileChannel channel, ByteBuffer buffer, CRC32C crc, String value)
+            throws IOException {
+        byte[] bytes = value == null ? new byte[0] : value.getBytes(StandardCharsets.UTF_8);
+        if (buffer.remaining() < Integer.BYTES) {
+            flush(channel, buffer, crc);
+        }
+        buffer.putInt(bytes.length);
+        int written = 0;
+        while (written < bytes.length) {
+            if (!buffer.hasRemaining()) {
+                flush(channel, buffer, crc);
+            }
+            int length = Math.min(buffer.remaining(), bytes.length - written);
+            buffer.put(bytes, written, length);
+            written += length;
+        }
+    }
+
+    private static String readString(ByteBuffer buffer) {
+        int length = buffer.getInt();
+        byte[] bytes = new byte[length];
+        buffer.get(bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+}
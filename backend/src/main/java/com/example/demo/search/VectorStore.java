@@ -0,0 +1,428 @@
+package com.example.demo.search;
+
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Resident store of chunk embeddings.
+ *
+ * Vectors live in one contiguous float[] block (row-major, dimension floats per row),
+ * with chunk ids, document ids and chunk versions in parallel arrays indexed by the same row number.
+ * A chunk's version is the updated_at of its DynamoDB item, so a refresh can tell a re-written chunk
+ * from an unchanged one.
+ * Chunk text and file names are not held here; they are fetched for the search winners only.
+ * After a warm restart, or once a refresh has persisted the store, the first rows come from a
+ * memory-mapped {@link VectorSegment} instead, and only chunks added since that segment was
+ * written are held in the heap block.
+ * Rows are append-only: removed chunks are tombstoned so row numbers never move.
+ * Vectors are scaled to unit length on the way in, so similarity is a plain dot product.
+ * Queries read an immutable {@link Snapshot}, so scoring never blocks a refresh.
+ */
+public class VectorStore {
+
+    private static final int INITIAL_CAPACITY = 1024;
+
+    private final Object writeLock = new Object();
+
+    // Latest published view; replaced (never mutated) by writers
+    private volatile Snapshot snapshot = Snapshot.EMPTY;
+
+    // chunk_id -> row of its live copy (guarded by writeLock)
+    private final Map<String, Integer> rowsByChunkId = new HashMap<>();
+
+    // document_id -> rows appended for it, in order; may include removed rows (guarded by writeLock)
+    private final Map<String, int[]> rowsByDocumentId = new HashMap<>();
+
+    /**
+     * Get the current read-only view of the store
+     */
+    public Snapshot snapshot() {
+        return snapshot;
+    }
+
+    /**
+     * Check whether a chunk is currently stored (and not removed)
+     */
+    public boolean contains(String chunkId) {
+        synchronized (writeLock) {
+            return rowsByChunkId.containsKey(chunkId);
+        }
+    }
+
+    /**
+     * Row of a chunk's live copy
+     *
+     * @return Row number, or -1 when the chunk is not stored
+     */
+    public int row(String chunkId) {
+        synchronized (writeLock) {
+            Integer row = rowsByChunkId.get(chunkId);
+            return row == null ? -1 : row;
+        }
+    }
+
+    /**
+     * Live rows of a set of documents, for restricting a search to them.
+     * Only the documents' own rows are visited, not the whole store.
+     *
+     * @param documentIds Document ids; unknown ids are ignored
+     * @return Rows currently stored for those documents
+     */
+    public RowBitmap rowsOf(Collection<String> documentIds) {
+        synchronized (writeLock) {
+            Snapshot current = snapshot;
+            int[] rows = new int[16];
+            int count = 0;
+            for (String documentId : documentIds) {
+                int[] documentRows = rowsByDocumentId.get(documentId);
+                if (documentRows == null) {
+                    continue;
+                }
+                for (int row : documentRows) {
+                    if (current.isLive(row)) {
+                        if (count == rows.length) {
+                            rows = Arrays.copyOf(rows, count * 2);
+                        }
+                        rows[count++] = row;
+                    }
+                }
+            }
+            return RowBitmap.of(rows, count);
+        }
+    }
+
+    /**
+     * Use a mapped segment as the first rows of an empty store
+     *
+     * @param segment Segment written by a previous run
+     */
+    public void loadSegment(VectorSegment segment) {
+        synchronized (writeLock) {
+            if (snapshot.size != 0) {
+                throw new IllegalStateException("Segments can only be loaded into an empty store");
+            }
+            int rows = segment.rows();
+            int capacity = Math.max(INITIAL_CAPACITY, rows * 2);
+            String[] chunkIds = new String[capacity];
+            String[] documentIds = new String[capacity];
+            long[] versions = new long[capacity];
+            BitSet deleted = new BitSet();
+            for (int row = 0; row < rows; row++) {
+                chunkIds[row] = segment.chunkId(row);
+                documentIds[row] = segment.documentId(row);
+                versions[row] = segment.version(row);
+                if (segment.isRemoved(row)) {
+                    deleted.set(row);
+                    continue;
+                }
+                // A later row for the same chunk replaces the earlier one, as in add()
+                Integer previousRow = rowsByChunkId.put(chunkIds[row], row);
+                if (previousRow != null) {
+                    deleted.set(previousRow);
+                }
+                appendDocumentRow(documentIds[row], row);
+            }
+            // Heap block only holds rows appended after the segment
+            float[] vectors = new float[INITIAL_CAPACITY * segment.dimension()];
+            snapshot = new Snapshot(segment.dimension(), rows, segment, rows, vectors,
+                    chunkIds, documentIds, versions, deleted);
+        }
+    }
+
+    /**
+     * Serve the first rows from a segment just written from this store, releasing their heap copies.
+     * Row numbers do not change, so indexes built over the store stay valid; rows appended since the
+     * segment's snapshot was taken move to a new, smaller heap block.
+     *
+     * @param segment Segment written by {@link VectorSegment#write} from a snapshot of this store
+     */
+    public void rebase(VectorSegment segment) {
+        synchronized (writeLock) {
+            Snapshot current = snapshot;
+            int rows = segment.rows();
+            if (rows > current.size || (rows > 0 && segment.dimension() != current.dimension)) {
+                throw new IllegalArgumentException("Segment " + segment.file() + " was not written from this store");
+            }
+            for (int row = 0; row < rows; row++) {
+                if (!segment.chunkId(row).equals(current.chunkIds[row])) {
+                    throw new IllegalArgumentException("Segment " + segment.file() + " row " + row
+                            + " holds chunk " + segment.chunkId(row) + ", store has " + current.chunkIds[row]);
+                }
+            }
+
+            int dimension = current.dimension;
+            int tail = current.size - rows;
+            float[] vectors = new float[Math.max(INITIAL_CAPACITY, tail * 2) * dimension];
+            for (int row = rows; row < current.size; row++) {
+                if (row < current.baseRows) {
+                    current.base.slab(row).get(current.base.slabOffset(row), vectors, (row - rows) * dimension,
+                            dimension);
+                } else {
+                    System.arraycopy(current.vectors, current.heapOffset(row), vectors, (row - rows) * dimension,
+                            dimension);
+                }
+            }
+            snapshot = new Snapshot(dimension, current.size, segment, rows, vectors,
+                    current.chunkIds, current.documentIds, current.versions, current.deleted);
+        }
+    }
+
+    /**
+     * Append one chunk to the store, at version 0
+     *
+     * @param chunkId Chunk id (a chunk that is already stored is replaced)
+     * @param documentId Owning document id
+     * @param vector Embedding vector; every row must have the same dimension (stored normalized)
+     * @return Row number assigned to the chunk
+     */
+    public int add(String chunkId, String documentId, float[] vector) {
+        return add(chunkId, documentId, 0L, vector);
+    }
+
+    /**
+     * Append one chunk to the store
+     *
+     * @param chunkId Chunk id (a chunk that is already stored is replaced)
+     * @param documentId Owning document id
+     * @param version Version of the chunk's item (its updated_at, 0 when it has none)
+     * @param vector Embedding vector; every row must have the same dimension (stored normalized)
+     * @return Row number assigned to the chunk
+     */
+    public int add(String chunkId, String documentId, long version, float[] vector) {
+        synchronized (writeLock) {
+            Snapshot current = snapshot;
+            int dimension = current.dimension == 0 ? vector.length : current.dimension;
+            if (vector.length != dimension) {
+                throw new IllegalArgumentException("Embedding for chunk " + chunkId + " has dimension "
+                        + vector.length + ", expected " + dimension);
+            }
+
+            BitSet deleted = current.deleted;
+            Integer previousRow = rowsByChunkId.get(chunkId);
+            if (previousRow != null) {
+                deleted = (BitSet) deleted.clone();
+                deleted.set(previousRow);
+            }
+
+            int row = current.size;
+            float[] vectors = current.vectors;
+            String[] chunkIds = current.chunkIds;
+            String[] documentIds = current.documentIds;
+            long[] versions = current.versions;
+
+            // Grow the arrays when full; older snapshots keep reading the previous ones
+            if (row == chunkIds.length) {
+                int capacity = Math.max(INITIAL_CAPACITY, chunkIds.length * 2);
+                chunkIds = Arrays.copyOf(chunkIds, capacity);
+                documentIds = Arrays.copyOf(documentIds, capacity);
+                versions = Arrays.copyOf(versions, capacity);
+            }
+            int heapOffset = (row - current.baseRows) * dimension;
+            if (heapOffset + dimension > vectors.length) {
+                vectors = Arrays.copyOf(vectors, Math.max(INITIAL_CAPACITY * dimension, vectors.length * 2));
+            }
+
+            // Rows past current.size are invisible to existing snapshots, so writing in place is safe
+            System.arraycopy(vector, 0, vectors, heapOffset, dimension);
+            VectorMath.normalize(vectors, heapOffset, dimension);
+            chunkIds[row] = chunkId;
+            documentIds[row] = documentId;
+            versions[row] = version;
+
+            rowsByChunkId.put(chunkId, row);
+            appendDocumentRow(documentId, row);
+            snapshot = new Snapshot(dimension, row + 1, current.base, current.baseRows, vectors,
+                    chunkIds, documentIds, versions, deleted);
+            return row;
+        }
+    }
+
+    /**
+     * Remove every chunk belonging to a document
+     *
+     * @return Number of chunks removed
+     */
+    public int removeDocument(String documentId) {
+        synchronized (writeLock) {
+            Snapshot current = snapshot;
+            BitSet deleted = (BitSet) current.deleted.clone();
+            int removed = 0;
+            int[] documentRows = rowsByDocumentId.remove(documentId);
+            if (documentRows == null) {
+                return 0;
+            }
+            // Also lists rows already removed, e.g. earlier versions of replaced chunks
+            for (int row : documentRows) {
+                if (!deleted.get(row)) {
+                    deleted.set(row);
+                    rowsByChunkId.remove(current.chunkIds[row]);
+                    removed++;
+                }
+            }
+            if (removed > 0) {
+                snapshot = current.withDeleted(deleted);
+            }
+            return removed;
+        }
+    }
+
+    /**
+     * Remove chunks by id
+     *
+     * @return Number of chunks removed
+     */
+    public int removeChunks(Iterable<String> chunkIds) {
+        synchronized (writeLock) {
+            Snapshot current = snapshot;
+            BitSet deleted = (BitSet) current.deleted.clone();
+            int removed = 0;
+            for (String chunkId : chunkIds) {
+                Integer row = rowsByChunkId.remove(chunkId);
+                if (row != null) {
+                    deleted.set(row);
+                    removed++;
+                }
+            }
+            if (removed > 0) {
+                snapshot = current.withDeleted(deleted);
+            }
+            return removed;
+        }
+    }
+
+    /**
+     * Record a row under its document (caller holds writeLock). Documents have few chunks,
+     * so the list is grown one entry at a time.
+     */
+    private void appendDocumentRow(String documentId, int row) {
+        if (documentId == null) {
+            return;
+        }
+        int[] rows = rowsByDocumentId.get(documentId);
+        if (rows == null) {
+            rowsByDocumentId.put(documentId, new int[] {row});
+        } else {
+            rows = Arrays.copyOf(rows, rows.length + 1);
+            rows[rows.length - 1] = row;
+            rowsByDocumentId.put(documentId, rows);
+        }
+    }
+
+    /**
+     * Immutable view of the store at one point in time
+     */
+    public static final class Snapshot {
+
+        static final Snapshot EMPTY = new Snapshot(0, 0, null, 0, new float[0], new String[0], new String[0],
+                new long[0], new BitSet());
+
+        private final int dimension;
+        private final int size;
+        private final VectorSegment base;
+        private final int baseRows;
+        private final float[] vectors;
+        private final String[] chunkIds;
+        private final String[] documentIds;
+        private final long[] versions;
+        private final BitSet deleted;
+
+        private Snapshot(int dimension, int size, VectorSegment base, int baseRows, float[] vectors,
+                         String[] chunkIds, String[] documentIds, long[] versions, BitSet deleted) {
+            this.dimension = dimension;
+            this.size = size;
+            this.base = base;
+            this.baseRows = baseRows;
+            this.vectors = vectors;
+            this.chunkIds = chunkIds;
+            this.documentIds = documentIds;
+            this.versions = versions;
+            this.deleted = deleted;
+        }
+
+        private Snapshot withDeleted(BitSet deleted) {
+            return new Snapshot(dimension, size, base, baseRows, vectors,
+                    chunkIds, documentIds, versions, deleted);
+        }
+
+        /** Number of floats per row */
+        public int dimension() {
+            return dimension;
+        }
+
+        /** Number of rows, including removed ones */
+        public int size() {
+            return size;
+        }
+
+        /** Number of rows that have not been removed */
+        public int liveCount() {
+            return size - deleted.cardinality();
+        }
+
+        public boolean isLive(int row) {
+            return !deleted.get(row);
+        }
+
+        /** Mapped segment backing rows [0, baseRows), or null when everything is in the heap */
+        public VectorSegment base() {
+            return base;
+        }
+
+        /** Number of rows served from the mapped segment */
+        public int baseRows() {
+            return baseRows;
+        }
+
+        /**
+         * Heap vector block for rows from baseRows onward; see {@link #heapOffset(int)}.
+         * Shared with the store, so callers must treat it as read-only.
+         */
+        public float[] vectors() {
+            return vectors;
+        }
+
+        /** Offset of a heap row inside {@link #vectors()} */
+        public int heapOffset(int row) {
+            return (row - baseRows) * dimension;
+        }
+
+        /**
+         * Cosine similarity between a unit-length query and one row, wherever it is stored
+         *
+         * @param query Query vector, already normalized with {@link VectorMath#normalize(float[])}
+         */
+        public float similarity(int row, float[] query) {
+            if (row < baseRows) {
+                return VectorMath.dot(query, base.slab(row), base.slabOffset(row));
+            }
+            return VectorMath.dot(query, 0, vectors, heapOffset(row), dimension);
+        }
+
+        /**
+         * Copy one row into a caller-provided array, wherever it is stored
+         */
+        public void copyRow(int row, float[] target) {
+            if (row < baseRows) {
+                base.slab(row).get(base.slabOffset(row), target, 0, dimension);
+            } else {
+                System.arraycopy(vectors, heapOffset(row), target, 0, dimension);
+            }
+        }
+
+        public String chunkId(int row) {
+            return chunkIds[row];
+        }
+
+        public String documentId(int row) {
+            return documentIds[row];
+        }
+
+        /** Version of the chunk's item when the row was stored */
+        public long version(int row) {
+            return versions[row];
+        }
+    }
+}
@@ -0,0 +1,20 @@
+package com.example.demo.service;
+
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Receives a streamed answer: the sources first, then the answer text piece by piece
+ */
+public interface AnswerStreamListener {
+
+    /**
+     * @param sources Chunks the answer is based on, in the same form as the "sources" of a non-streamed answer
+     */
+    void onSources(List<Map<String, Object>> sources) throws Exception;
+
+    /**
+     * @param token Next piece of answer text
+     */
+    void onToken(String token) throws Exception;
+}
@@ -0,0 +1,300 @@
+package com.example.demo.service;
+
+import com.example.demo.search.LexicalIndex;
+
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Turns retrieved chunks into the document section of a chat prompt within a token budget.
+ *
+ * Chunks are cut as 500-character windows that overlap their neighbours by 50 characters, so
+ * several hits from one document often repeat text. Consecutive chunks of the same document are
+ * merged into one passage with the shared overlap written once. Passages whose word shingles are
+ * mostly contained in a better-ranked passage are dropped. The rest are added best first until the
+ * budget is spent; the passage that crosses it is cut at a word boundary, or left out when too
+ * little room remains for it to be useful.
+ */
+public class ContextBuilder {
+
+    // Chunk overlap looked for when joining neighbours; shorter matches are taken as coincidence
+    private static final int MIN_OVERLAP_CHARS = 8;
+    private static final int MAX_OVERLAP_CHARS = 200;
+    // Words per shingle for near-duplicate detection
+    private static final int SHINGLE_WORDS = 3;
+    // A passage is only cut to fit when at least this many tokens of it would remain
+    private static final int MIN_PARTIAL_TOKENS = 32;
+
+    private final int maxTokens;
+    private final double duplicateThreshold;
+
+    /**
+     * @param maxTokens Token budget of the document section
+     * @param duplicateThreshold Share of a passage's shingles found in a kept passage above which it is dropped
+     */
+    public ContextBuilder(int maxTokens, double duplicateThreshold) {
+        this.maxTokens = maxTokens;
+        this.duplicateThreshold = duplicateThreshold;
+    }
+
+    public int getMaxTokens() {
+        return maxTokens;
+    }
+
+    /**
+     * Assemble the document section from search results
+     *
+     * @param searchResults Chunks best first, as returned by SearchService
+     * @return Prompt text and what was merged, dropped and cut to build it
+     */
+    public Context build(List<Map<String, Object>> searchResults) {
+        List<Passage> passages = mergeNeighbours(searchResults);
+        passages.sort(Comparator.comparingInt(passage -> passage.rank));
+
+        StringBuilder text = new StringBuilder("Based on the following documents:\n\n");
+        int tokens = TokenCounter.count(text.toString());
+        List<Set<Long>> keptShingles = new ArrayList<>();
+        int included = 0;
+        int duplicates = 0;
+        int truncated = 0;
+        int omitted = 0;
+
+        for (Passage passage : passages) {
+            Set<Long> shingles = shingles(passage.text);
+            if (isDuplicate(shingles, keptShingles)) {
+                duplicates++;
+                continue;
+            }
+
+            String header = "Document " + (included + 1) + " (" + passage.fileName
+                    + (passage.similarity != null ? ", similarity: " + String.format("%.2f", passage.similarity) : "")
+                    + "):\n";
+            int headerTokens = TokenCounter.count(header);
+            int remaining = maxTokens - tokens - headerTokens - 1;
+            String body = passage.text;
+            int bodyTokens = TokenCounter.count(body);
+            if (bodyTokens > remaining) {
+                if (remaining < MIN_PARTIAL_TOKENS) {
+                    // Too little room for this one; a shorter passage further down may still fit
+                    omitted++;
+                    continue;
+                }
+                body = TokenCounter.truncate(body, remaining - 1) + " ...";
+                bodyTokens = TokenCounter.count(body);
+                truncated++;
+            }
+
+            text.append(header).append(body).append("\n\n");
+            tokens += headerTokens + bodyTokens + 1;
+            keptShingles.add(shingles);
+            included++;
+        }
+        int merged = 0;
+        for (Passage passage : passages) {
+            merged += passage.chunks - 1;
+        }
+        return new Context(text.toString(), tokens, included, merged, duplicates, truncated, omitted);
+    }
+
+    /**
+     * Group chunks by document and join runs of consecutive chunk numbers into single passages
+     */
+    private static List<Passage> mergeNeighbours(List<Map<String, Object>> searchResults) {
+        Map<String, List<Passage>> byDocument = new LinkedHashMap<>();
+        for (int rank = 0; rank < searchResults.size(); rank++) {
+            Map<String, Object> result = searchResults.get(rank);
+            String text = (String) result.get("text");
+            if (text == null || text.isBlank()) {
+                continue;
+            }
+            Passage chunk = new Passage((String) result.get("file_name"), text, rank,
+                    (Double) result.get("similarity"), chunkNumber((String) result.get("chunk_id")));
+            String documentId = (String) result.get("document_id");
+            byDocument.computeIfAbsent(documentId != null ? documentId : "", id -> new ArrayList<>()).add(chunk);
+        }
+
+        List<Passage> passages = new ArrayList<>();
+        for (List<Passage> chunks : byDocument.values()) {
+            chunks.sort(Comparator.comparingInt(chunk -> chunk.lastChunk));
+            Passage current = null;
+            for (Passage chunk : chunks) {
+                boolean adjacent = current != null && current.lastChunk >= 0 && chunk.firstChunk >= 0
+                        && chunk.firstChunk <= current.lastChunk + 1;
+                if (adjacent) {
+                    current.append(chunk);
+                } else {
+                    current = chunk;
+                    passages.add(current);
+                }
+            }
+        }
+        return passages;
+    }
+
+    /**
+     * Chunk number from an id of the form "{documentId}_chunk_{n}", or -1 when there is none
+     */
+    private static int chunkNumber(String chunkId) {
+        if (chunkId == null) {
+            return -1;
+        }
+        int separator = chunkId.lastIndexOf("_chunk_");
+        if (separator < 0) {
+            return -1;
+        }
+        try {
+            return Integer.parseInt(chunkId.substring(separator + "_chunk_".length()));
+        } catch (NumberFormatException e) {
+            return -1;
+        }
+    }
+
+    /**
+     * Length of the longest suffix of left that is also a prefix of right
+     */
+    static int overlap(String left, String right) {
+        int max = Math.min(MAX_OVERLAP_CHARS, Math.min(left.length(), right.length()));
+        for (int length = max; length >= MIN_OVERLAP_CHARS; length--) {
+            if (left.regionMatches(left.length() - length, right, 0, length)) {
+                return length;
+            }
+        }
+        return 0;
+    }
+
+    /**
+     * Hashes of the passage's word 3-grams, using the same tokenizer as the BM25 index
+     */
+    private static Set<Long> shingles(String text) {
+        List<String> words = LexicalIndex.tokenize(text);
+        Set<Long> shingles = new HashSet<>();
+        if (words.size() < SHINGLE_WORDS) {
+            shingles.add((long) String.join(" ", words).hashCode());
+            return shingles;
+        }
+        for (int i = 0; i + SHINGLE_WORDS <= words.size(); i++) {
+            long hash = 1;
+            for (int j = i; j < i + SHINGLE_WORDS; j++) {
+                hash = hash * 1_000_003L + words.get(j).hashCode();
+            }
+            shingles.add(hash);
+        }
+        return shingles;
+    }
+
+    private boolean isDuplicate(Set<Long> shingles, List<Set<Long>> keptShingles) {
+        if (shingles.isEmpty()) {
+            return false;
+        }
+        for (Set<Long> kept : keptShingles) {
+            int shared = 0;
+            for (Long shingle : shingles) {
+                if (kept.contains(shingle)) {
+                    shared++;
+                }
+            }
+            if (shared >= duplicateThreshold * shingles.size()) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * One or more consecutive chunks of a document
+     */
+    private static final class Passage {
+        private final String fileName;
+        private String text;
+        // Best (lowest) search rank and highest similarity among the merged chunks
+        private int rank;
+        private Double similarity;
+        private final int firstChunk;
+        private int lastChunk;
+        private int chunks = 1;
+
+        private Passage(String fileName, String text, int rank, Double similarity, int chunk) {
+            this.fileName = fileName;
+            this.text = text;
+            this.rank = rank;
+            this.similarity = similarity;
+            this.firstChunk = chunk;
+            this.lastChunk = chunk;
+        }
+
+        private void append(Passage next) {
+            if (next.lastChunk > lastChunk) {
+                text = text + next.text.substring(overlap(text, next.text));
+                lastChunk = next.lastChunk;
+            }
+            chunks++;
+            rank = Math.min(rank, next.rank);
+            if (next.similarity != null && (similarity == null || next.similarity > similarity)) {
+                similarity = next.similarity;
+            }
+        }
+    }
+
+    /**
+     * Assembled document section of a prompt
+     */
+    public static final class Context {
+        private final String text;
+        private final int tokens;
+        private final int passages;
+        private final int mergedChunks;
+        private final int duplicates;
+        private final int truncated;
+        private final int omitted;
+
+        private Context(String text, int tokens, int passages, int mergedChunks, int duplicates, int truncated,
+                        int omitted) {
+            this.text = text;
+            this.tokens = tokens;
+            this.passages = passages;
+            this.mergedChunks = mergedChunks;
+            this.duplicates = duplicates;
+            this.truncated = truncated;
+            this.omitted = omitted;
+        }
+
+        public String getText() {
+            return text;
+        }
+
+        /** Estimated tokens of the text */
+        public int getTokens() {
+            return tokens;
+        }
+
+        /** Passages written into the text */
+        public int getPassages() {
+            return passages;
+        }
+
+        /** Chunks folded into a neighbouring chunk's passage */
+        public int getMergedChunks() {
+            return mergedChunks;
+        }
+
+        /** Passages dropped as near-duplicates */
+        public int getDuplicates() {
+            return duplicates;
+        }
+
+        /** Passages cut short to fit the budget */
+        public int getTruncated() {
+            return truncated;
+        }
+
+        /** Passages left out because the budget was spent */
+        public int getOmitted() {
+            return omitted;
+        }
+    }
+}
@@ -0,0 +1,18 @@
+package com.example.demo.service;
+
+/**
+ * Published when the indexed chunks of a document change (deleted, re-ingested or removed from the table),
+ * so caches holding results derived from the document can drop them.
+ */
+public class DocumentChangedEvent {
+
+    private final String documentId;
+
+    public DocumentChangedEvent(String documentId) {
+        this.documentId = documentId;
+    }
+
+    public String getDocumentId() {
+        return documentId;
+    }
+}
@@ -0,0 +1,215 @@
+package com.example.demo.service;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Groups embedding requests that arrive close together into one API call.
+ *
+ * A dispatcher thread takes the first waiting input, keeps collecting for at most maxWaitMillis
+ * or until maxBatchSize inputs are queued, and hands the batch to a sender pool. Each caller
+ * blocks on its own future and receives the vector at its position in the batch response.
+ * A single request therefore waits at most maxWaitMillis longer than an unbatched call.
+ * A caller gives up after timeoutMillis, and {@link #shutdown()} fails every request not yet answered.
+ */
+public class EmbeddingBatcher {
+
+    /**
+     * Embedding call for several inputs at once
+     */
+    public interface BatchCall {
+        /**
+         * @param inputs Texts to embed
+         * @return One vector per input, in the same order
+         */
+        List<float[]> embed(List<String> inputs) throws Exception;
+    }
+
+    private final BatchCall call;
+    private final int maxBatchSize;
+    private final long maxWaitNanos;
+    private final long timeoutMillis;
+    private final BlockingQueue<Pending> queue = new LinkedBlockingQueue<>();
+    private final ExecutorService senders;
+    private final Thread dispatcher;
+    private volatile boolean closed = false;
+
+    private final AtomicLong requests = new AtomicLong();
+    private final AtomicLong batches = new AtomicLong();
+
+    /**
+     * @param call API call that embeds a batch
+     * @param maxBatchSize Most inputs sent in one call
+     * @param maxWaitMillis Longest time the first input of a batch waits for others
+     * @param concurrency Batches that may be in flight at once
+     * @param timeoutMillis Longest a caller waits for its vector, queueing and the API call included
+     * @param threadFactory Threads for the senders
+     */
+    public EmbeddingBatcher(BatchCall call, int maxBatchSize, long maxWaitMillis, int concurrency,
+                            long timeoutMillis, ThreadFactory threadFactory) {
+        this.call = call;
+        this.maxBatchSize = Math.max(1, maxBatchSize);
+        this.maxWaitNanos = TimeUnit.MILLISECONDS.toNanos(Math.max(0, maxWaitMillis));
+        this.timeoutMillis = Math.max(1, timeoutMillis);
+        this.senders = Executors.newFixedThreadPool(Math.max(1, concurrency), threadFactory);
+        this.dispatcher = new Thread(this::dispatch, "embedding-batcher");
+        this.dispatcher.setDaemon(true);
+        this.dispatcher.start();
+    }
+
+    /**
+     * Embed one input as part of the next batch
+     *
+     * @param input Text to embed
+     * @return Embedding vector
+     * @throws TimeoutException when no vector arrived within the timeout
+     * @throws IllegalStateException when the batcher has been shut down
+     */
+    public float[] embed(String input) throws Exception {
+        Pending pending = new Pending(input);
+        requests.incrementAndGet();
+        queue.add(pending);
+        // Checked after queueing, so a concurrent shutdown() either drains this request or is seen here
+        if (closed) {
+            fail(List.of(pending), new IllegalStateException("Embedding batcher is shut down"));
+        }
+        try {
+            return pending.future.get(timeoutMillis, TimeUnit.MILLISECONDS);
+        } catch (ExecutionException e) {
+            Throwable cause = e.getCause();
+            if (cause instanceof Exception) {
+                throw (Exception) cause;
+            }
+            throw e;
+        } catch (TimeoutException e) {
+            // Drop it from the queue if it was never sent; a late batch response is ignored
+            queue.remove(pending);
+            pending.future.cancel(false);
+            throw new TimeoutException("No embedding within " + timeoutMillis + " ms");
+        }
+    }
+
+    /** Inputs embedded so far */
+    public long getRequests() {
+        return requests.get();
+    }
+
+    /** API calls made so far */
+    public long getBatches() {
+        return batches.get();
+    }
+
+    /**
+     * Stop dispatching and fail every request that has not been answered yet
+     */
+    public void shutdown() {
+        closed = true;
+        dispatcher.interrupt();
+        Exception stopped = new IllegalStateException("Embedding batcher is shut down");
+        for (Runnable task : senders.shutdownNow()) {
+            fail(((SendTask) task).batch, stopped);
+        }
+        List<Pending> queued = new ArrayList<>();
+        queue.drainTo(queued);
+        fail(queued, stopped);
+    }
+
+    private void dispatch() {
+        // The batch being collected, failed below if the loop ends before it is handed to a sender
+        List<Pending> batch = List.of();
+        try {
+            while (!Thread.currentThread().isInterrupted()) {
+                batch = new ArrayList<>();
+                batch.add(queue.take());
+                queue.drainTo(batch, maxBatchSize - batch.size());
+
+                // Give requests arriving right behind the first one a short window to join
+                long deadline = System.nanoTime() + maxWaitNanos;
+                while (batch.size() < maxBatchSize) {
+                    long remaining = deadline - System.nanoTime();
+                    Pending next = remaining > 0 ? queue.poll(remaining, TimeUnit.NANOSECONDS) : null;
+                    if (next == null) {
+                        break;
+                    }
+                    batch.add(next);
+                    queue.drainTo(batch, maxBatchSize - batch.size());
+                }
+                senders.execute(new SendTask(batch));
+                batch = List.of();
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } catch (Throwable t) {
+            // Includes RejectedExecutionException once the senders are shut down
+            fail(batch, t);
+            if (!closed) {
+                System.err.println("Embedding batcher stopped: " + t);
+            }
+        } finally {
+            // Nothing is dispatched any more, so no caller is left waiting for its timeout
+            closed = true;
+            Exception stopped = new IllegalStateException("Embedding batcher is shut down");
+            fail(batch, stopped);
+            List<Pending> queued = new ArrayList<>();
+            queue.drainTo(queued);
+            fail(queued, stopped);
+        }
+    }
+
+    private void send(List<Pending> batch) {
+        batches.incrementAndGet();
+        List<String> inputs = new ArrayList<>(batch.size());
+        for (Pending pending : batch) {
+            inputs.add(pending.input);
+        }
+        try {
+            List<float[]> vectors = call.embed(inputs);
+            if (vectors.size() != batch.size()) {
+                throw new IllegalStateException("Expected " + batch.size() + " embeddings, got " + vectors.size());
+            }
+            for (int i = 0; i < batch.size(); i++) {
+                batch.get(i).future.complete(vectors.get(i));
+            }
+        } catch (Throwable t) {
+            fail(batch, t);
+        }
+    }
+
+    private static void fail(List<Pending> batch, Throwable cause) {
+        for (Pending pending : batch) {
+            pending.future.completeExceptionally(cause);
+        }
+    }
+
+    private final class SendTask implements Runnable {
+        private final List<Pending> batch;
+
+        private SendTask(List<Pending> batch) {
+            this.batch = batch;
+        }
+
+        @Override
+        public void run() {
+            send(batch);
+        }
+    }
+
+    private static final class Pending {
+        private final String input;
+        private final CompletableFuture<float[]> future = new CompletableFuture<>();
+
+        private Pending(String input) {
+            this.input = input;
+        }
+    }
+}
@@ -0,0 +1,145 @@
+package com.example.demo.service;
+
+import com.example.demo.repository.EmbeddingRepository;
+import jakarta.annotation.PreDestroy;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+import software.amazon.awssdk.services.dynamodb.model.AttributeValue;
+import software.amazon.awssdk.services.dynamodb.model.ScanResponse;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/**
+ * Background job that rewrites legacy JSON embeddings in the binary format.
+ * Items are migrated in scan pages of batchSize and paced to itemsPerSecond,
+ * so the job never competes with searches for the table's write capacity.
+ */
+@Service
+public class EmbeddingMigrationService {
+
+    @Autowired
+    private EmbeddingRepository embeddingRepository;
+
+    @Value("${embeddings.migration.batchSize:25}")
+    private int batchSize;
+
+    @Value("${embeddings.migration.itemsPerSecond:50}")
+    private int itemsPerSecond;
+
+    private final ExecutorService worker = Executors.newSingleThreadExecutor();
+
+    private volatile boolean running = false;
+    private volatile long scanned = 0;
+    private volatile long migrated = 0;
+    private volatile long skipped = 0;
+    private volatile long failed = 0;
+    private volatile long startedAt = 0;
+    private volatile long finishedAt = 0;
+    private volatile String lastError;
+
+    /**
+     * Start the migration in the background
+     *
+     * @return false if a migration is already running
+     */
+    public synchronized boolean start() {
+        if (running) {
+            return false;
+        }
+        running = true;
+        scanned = 0;
+        migrated = 0;
+        skipped = 0;
+        failed = 0;
+        lastError = null;
+        startedAt = System.currentTimeMillis();
+        finishedAt = 0;
+        worker.submit(this::migrate);
+        return true;
+    }
+
+    /**
+     * Progress of the current or last migration
+     */
+    public Map<String, Object> getStatus() {
+        Map<String, Object> status = new HashMap<>();
+        status.put("running", running);
+        status.put("scanned", scanned);
+        status.put("migrated", migrated);
+        status.put("skipped", skipped);
+        status.put("failed", failed);
+        status.put("batchSize", batchSize);
+        status.put("itemsPerSecond", itemsPerSecond);
+        status.put("startedAt", startedAt);
+        status.put("finishedAt", finishedAt);
+        if (lastError != null) {
+            status.put("lastError", lastError);
+        }
+        return status;
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        worker.shutdownNow();
+    }
+
+    private void migrate() {
+        System.out.println("Embedding migration started");
+        try {
+            long processed = 0;
+            Map<String, AttributeValue> lastEvaluatedKey = null;
+            do {
+                ScanResponse page = embeddingRepository.scanLegacyPage(lastEvaluatedKey, batchSize);
+                scanned += page.scannedCount() == null ? page.items().size() : page.scannedCount();
+
+                for (Map<String, AttributeValue> item : page.items()) {
+                    try {
+                        if (embeddingRepository.migrateItem(item)) {
+                            migrated++;
+                        } else {
+                            skipped++;
+                        }
+                    } catch (Exception e) {
+                        failed++;
+                        lastError = item.get("chunk_id").s() + ": " + e.getMessage();
+                        System.err.println("Failed to migrate embedding " + lastError);
+                    }
+                    processed++;
+                    throttle(processed);
+                }
+
+                lastEvaluatedKey = page.lastEvaluatedKey();
+            } while (lastEvaluatedKey != null && !lastEvaluatedKey.isEmpty());
+
+            System.out.println("Embedding migration finished: " + migrated + " migrated, "
+                    + skipped + " skipped, " + failed + " failed");
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            lastError = "Interrupted";
+        } catch (Exception e) {
+            lastError = e.getMessage();
+            System.err.println("Embedding migration stopped: " + e.getMessage());
+        } finally {
+            finishedAt = System.currentTimeMillis();
+            running = false;
+        }
+    }
+
+    /**
+     * Sleep until the elapsed time matches the configured rate for the items processed so far
+     */
+    private void throttle(long processed) throws InterruptedException {
+        if (itemsPerSecond <= 0) {
+            return;
+        }
+        long due = startedAt + processed * 1000L / itemsPerSecond;
+        long wait = due - System.currentTimeMillis();
+        if (wait > 0) {
+            Thread.sleep(wait);
+        }
+    }
+}
@@ -0,0 +1,568 @@
+package com.example.demo.service;
+
+import com.example.demo.model.Document;
+import com.example.demo.repository.DocumentRepository;
+import com.example.demo.repository.EmbeddingRepository;
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+import org.apache.pdfbox.Loader;
+import org.apache.pdfbox.pdmodel.PDDocument;
+import org.apache.pdfbox.text.PDFTextStripper;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+import software.amazon.awssdk.core.ResponseInputStream;
+import software.amazon.awssdk.services.dynamodb.model.AttributeValue;
+import software.amazon.awssdk.services.s3.model.GetObjectResponse;
+
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.Reader;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Function;
+
+/**
+ * In-process document ingestion, as an alternative to the processing Lambda behind the SNS topic.
+ *
+ * Four stages run on their own threads: text extraction from S3, chunking into overlapping windows,
+ * embedding, and BatchWriteItem writes to DocumentEmbeddings. Each hands work to the next through a
+ * bounded queue, so when a stage falls behind (usually the embedding API) its input queue fills and
+ * the stages before it block instead of piling extracted text up in memory. Chunks of all documents
+ * in flight share embedding calls and write batches. A document is PROCESSING from the moment its
+ * extraction starts and COMPLETED once its last chunk is written; each written batch is added to the
+ * resident search store straight away. If a document fails, the chunks already written for it are
+ * deleted from DynamoDB and the store again.
+ */
+@Service
+public class IngestionService {
+
+    private static final String STATUS_PROCESSING = "PROCESSING";
+    private static final String STATUS_COMPLETED = "COMPLETED";
+    private static final String STATUS_FAILED = "FAILED";
+
+    // Items per BatchWriteItem request (the DynamoDB limit)
+    private static final int BATCH_WRITE_LIMIT = 25;
+    // Text handed from extraction to chunking at a time
+    private static final int TEXT_BLOCK_CHARS = 16384;
+    private static final int PDF_PAGES_PER_BLOCK = 8;
+
+    @Autowired
+    private DocumentRepository documentRepository;
+
+    @Autowired
+    private EmbeddingRepository embeddingRepository;
+
+    @Autowired
+    private S3Service s3Service;
+
+    @Autowired
+    private OpenAIClient openAIClient;
+
+    @Autowired
+    private SearchService searchService;
+
+    @Autowired
+    @Qualifier("blockingIoThreadFactory")
+    private ThreadFactory blockingIoThreadFactory;
+
+    // Off by default: uploads are announced on SNS for the processing Lambda
+    @Value("${ingestion.inProcess.enabled:false}")
+    private boolean enabled;
+
+    // Capacity of each queue between stages
+    @Value("${ingestion.queueCapacity:256}")
+    private int queueCapacity;
+
+    @Value("${ingestion.extract.threads:2}")
+    private int extractThreads;
+
+    @Value("${ingestion.chunk.threads:2}")
+    private int chunkThreads;
+
+    // Same windows as the Lambda: 500 characters, 50 shared with the previous chunk
+    @Value("${ingestion.chunk.size:500}")
+    private int chunkSize;
+
+    @Value("${ingestion.chunk.overlap:50}")
+    private int chunkOverlap;
+
+    @Value("${ingestion.embed.threads:4}")
+    private int embedThreads;
+
+    // Chunks per embedding request
+    @Value("${ingestion.embed.batchSize:100}")
+    private int embedBatchSize;
+
+    @Value("${ingestion.write.threads:4}")
+    private int writeThreads;
+
+    private BlockingQueue<Job> jobs;
+    // One queue per chunking thread; a document's text always goes to the same one, so it is cut in order
+    private List<BlockingQueue<TextBlock>> textQueues;
+    private BlockingQueue<Chunk> embedQueue;
+    private BlockingQueue<Chunk> writeQueue;
+    private ExecutorService stages;
+
+    private final AtomicLong sequence = new AtomicLong();
+    private final AtomicLong submitted = new AtomicLong();
+    private final AtomicLong completed = new AtomicLong();
+    private final AtomicLong failed = new AtomicLong();
+    private final AtomicLong embeddingCalls = new AtomicLong();
+    private final AtomicLong batchWrites = new AtomicLong();
+    private final AtomicLong chunksWritten = new AtomicLong();
+
+    @PostConstruct
+    public void init() {
+        if (!enabled) {
+            return;
+        }
+        jobs = new ArrayBlockingQueue<>(queueCapacity);
+        textQueues = new ArrayList<>();
+        for (int i = 0; i < Math.max(1, chunkThreads); i++) {
+            textQueues.add(new ArrayBlockingQueue<>(queueCapacity));
+        }
+        embedQueue = new ArrayBlockingQueue<>(queueCapacity);
+        writeQueue = new ArrayBlockingQueue<>(queueCapacity);
+
+        stages = Executors.newCachedThreadPool(blockingIoThreadFactory);
+        for (int i = 0; i < Math.max(1, extractThreads); i++) {
+            stages.execute(() -> runStage(jobs, 1, job -> job, batch -> extract(batch.get(0))));
+        }
+        for (BlockingQueue<TextBlock> textQueue : textQueues) {
+            stages.execute(() -> runStage(textQueue, 1, block -> block.job, batch -> chunk(batch.get(0))));
+        }
+        for (int i = 0; i < Math.max(1, embedThreads); i++) {
+            stages.execute(() -> runStage(embedQueue, Math.max(1, embedBatchSize), chunk -> chunk.job, this::embed));
+        }
+        for (int i = 0; i < Math.max(1, writeThreads); i++) {
+            stages.execute(() -> runStage(writeQueue, BATCH_WRITE_LIMIT, chunk -> chunk.job, this::write));
+        }
+        System.out.println("In-process ingestion enabled: " + extractThreads + " extract, " + textQueues.size()
+                + " chunk, " + embedThreads + " embed, " + writeThreads + " write threads");
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        if (stages != null) {
+            stages.shutdownNow();
+        }
+    }
+
+    public boolean isEnabled() {
+        return enabled;
+    }
+
+    /**
+     * Queue an uploaded document for ingestion
+     *
+     * @param document Saved document whose file is in S3
+     * @return false when ingestion is disabled or the queue is full
+     */
+    public boolean submit(Document document) {
+        if (!enabled || !jobs.offer(new Job(document, sequence.getAndIncrement()))) {
+            return false;
+        }
+        submitted.incrementAndGet();
+        return true;
+    }
+
+    /**
+     * Counters and queue depths of the pipeline
+     */
+    public Map<String, Object> getStatus() {
+        Map<String, Object> status = new HashMap<>();
+        status.put("enabled", enabled);
+        status.put("submitted", submitted.get());
+        status.put("completed", completed.get());
+        status.put("failed", failed.get());
+        status.put("embeddingCalls", embeddingCalls.get());
+        status.put("batchWrites", batchWrites.get());
+        status.put("chunksWritten", chunksWritten.get());
+        if (enabled) {
+            int textQueued = 0;
+            for (BlockingQueue<TextBlock> textQueue : textQueues) {
+                textQueued += textQueue.size();
+            }
+            status.put("documentsQueued", jobs.size());
+            status.put("textBlocksQueued", textQueued);
+            status.put("chunksAwaitingEmbedding", embedQueue.size());
+            status.put("chunksAwaitingWrite", writeQueue.size());
+        }
+        return status;
+    }
+
+    /**
+     * Work done on a batch of queued items
+     */
+    private interface Step<T> {
+        void run(List<T> batch) throws Exception;
+    }
+
+    /**
+     * Worker loop of one stage thread: take an item, add up to maxBatch - 1 more that are already waiting.
+     * Steps fail their own jobs; if one throws anyway, every document in its batch is failed.
+     *
+     * @param jobOf Document an item belongs to
+     */
+    private <T> void runStage(BlockingQueue<T> queue, int maxBatch, Function<T, Job> jobOf, Step<T> step) {
+        while (!Thread.currentThread().isInterrupted()) {
+            List<T> batch = new ArrayList<>(maxBatch);
+            try {
+                batch.add(queue.take());
+                queue.drainTo(batch, maxBatch - 1);
+                step.run(batch);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            } catch (Exception e) {
+                System.err.println("Ingestion stage error: " + e.getMessage());
+                e.printStackTrace();
+                for (T item : batch) {
+                    fail(jobOf.apply(item), e);
+                }
+            }
+        }
+    }
+
+    /**
+     * Stage 1: stream the file from S3 and pass its text on in blocks
+     */
+    private void extract(Job job) throws InterruptedException {
+        BlockingQueue<TextBlock> out = textQueues.get((int) (job.sequence % textQueues.size()));
+        try {
+            documentRepository.updateStatus(job.document.getId(), STATUS_PROCESSING);
+            try (ResponseInputStream<GetObjectResponse> in = s3Service.openFile(job.document.getS3Key())) {
+                if ("application/pdf".equalsIgnoreCase(job.document.getContentType())) {
+                    extractPdf(job, in, out);
+                } else {
+                    extractText(job, in, out);
+                }
+            }
+            out.put(new TextBlock(job, null));
+        } catch (InterruptedException e) {
+            throw e;
+        } catch (Exception e) {
+            fail(job, e);
+        }
+    }
+
+    private void extractPdf(Job job, InputStream in, BlockingQueue<TextBlock> out) throws Exception {
+        // PDFBox needs random access; a temporary file keeps large PDFs out of the heap
+        Path file = Files.createTempFile("ingest-", ".pdf");
+        try {
+            Files.copy(in, file, StandardCopyOption.REPLACE_EXISTING);
+            try (PDDocument pdf = Loader.loadPDF(file.toFile())) {
+                PDFTextStripper stripper = new PDFTextStripper();
+                int pages = pdf.getNumberOfPages();
+                for (int start = 1; start <= pages && !job.failed.get(); start += PDF_PAGES_PER_BLOCK) {
+                    stripper.setStartPage(start);
+                    stripper.setEndPage(Math.min(pages, start + PDF_PAGES_PER_BLOCK - 1));
+                    out.put(new TextBlock(job, stripper.getText(pdf)));
+                }
+            }
+        } finally {
+            Files.deleteIfExists(file);
+        }
+    }
+
+    private void extractText(Job job, InputStream in, BlockingQueue<TextBlock> out) throws Exception {
+        Reader reader = new InputStreamReader(in, StandardCharsets.UTF_8);
+        char[] buffer = new char[TEXT_BLOCK_CHARS];
+        int read;
+        while ((read = reader.read(buffer)) > 0 && !job.failed.get()) {
+            out.put(new TextBlock(job, new String(buffer, 0, read)));
+        }
+    }
+
+    /**
+     * Stage 2: cut a document's text into chunkSize windows that overlap by chunkOverlap characters.
+     * The unfinished tail is kept on the job until the next block (or the end marker) arrives.
+     */
+    private void chunk(TextBlock block) throws InterruptedException {
+        Job job = block.job;
+        if (job.failed.get()) {
+            return;
+        }
+        StringBuilder pending = job.pendingText;
+        int step = Math.max(1, chunkSize - chunkOverlap);
+        if (block.text != null) {
+            pending.append(block.text);
+            while (pending.length() >= chunkSize) {
+                emitChunk(job, pending.substring(0, chunkSize));
+                pending.delete(0, step);
+            }
+            return;
+        }
+
+        // End of the document: the tail is a chunk unless it is only the overlap already sent
+        if (pending.length() > 0 && (job.chunkCount == 0 || pending.length() > chunkOverlap)) {
+            emitChunk(job, pending.toString());
+        }
+        pending.setLength(0);
+        if (job.chunkCount == 0) {
+            fail(job, new IllegalStateException("No text could be extracted"));
+            return;
+        }
+        job.totalChunks = job.chunkCount;
+        completeIfDone(job);
+    }
+
+    private void emitChunk(Job job, String text) throws InterruptedException {
+        if (text.isBlank()) {
+            return;
+        }
+        String chunkId = job.document.getId() + "_chunk_" + job.chunkCount++;
+        embedQueue.put(new Chunk(job, chunkId, text));
+    }
+
+    /**
+     * Stage 3: embed waiting chunks, of any documents, with one API call
+     */
+    private void embed(List<Chunk> batch) throws InterruptedException {
+        List<Chunk> live = new ArrayList<>(batch.size());
+        List<String> inputs = new ArrayList<>(batch.size());
+        for (Chunk chunk : batch) {
+            if (!chunk.job.failed.get()) {
+                live.add(chunk);
+                inputs.add(chunk.text);
+            }
+        }
+        if (live.isEmpty()) {
+            return;
+        }
+        List<float[]> vectors;
+        try {
+            vectors = openAIClient.createEmbeddings(SearchService.EMBEDDING_MODEL, inputs);
+            embeddingCalls.incrementAndGet();
+            if (vectors.size() != live.size()) {
+                throw new IllegalStateException("Embedding API returned " + vectors.size() + " vectors for "
+                        + live.size() + " inputs");
+            }
+        } catch (Exception e) {
+            failAll(live, e);
+            return;
+        }
+        for (int i = 0; i < live.size(); i++) {
+            live.get(i).vector = vectors.get(i);
+            writeQueue.put(live.get(i));
+        }
+    }
+
+    /**
+     * Stage 4: write up to 25 chunks with one BatchWriteItem, then make them searchable
+     */
+    private void write(List<Chunk> batch) throws InterruptedException {
+        List<Map<String, AttributeValue>> items = new ArrayList<>(batch.size());
+        Map<Job, List<Chunk>> byJob = new LinkedHashMap<>();
+        long version = System.currentTimeMillis();
+        for (Chunk chunk : batch) {
+            if (chunk.job.failed.get()) {
+                continue;
+            }
+            items.add(embeddingRepository.chunkItem(chunk.chunkId, chunk.job.document.getId(),
+                    chunk.job.document.getFileName(), chunk.text, version, chunk.vector));
+            byJob.computeIfAbsent(chunk.job, job -> new ArrayList<>()).add(chunk);
+        }
+        if (items.isEmpty()) {
+            return;
+        }
+        try {
+            embeddingRepository.batchWrite(items);
+            batchWrites.incrementAndGet();
+            chunksWritten.addAndGet(items.size());
+        } catch (InterruptedException e) {
+            throw e;
+        } catch (Exception e) {
+            // DynamoDB may have taken part of the batch before giving up; fail() deletes all of it again
+            for (Map.Entry<Job, List<Chunk>> entry : byJob.entrySet()) {
+                List<String> chunkIds = new ArrayList<>();
+                for (Chunk chunk : entry.getValue()) {
+                    chunkIds.add(chunk.chunkId);
+                }
+                if (!recordWritten(entry.getKey(), chunkIds)) {
+                    discard(entry.getKey(), chunkIds, false);
+                }
+            }
+            failAll(batch, e);
+            return;
+        }
+
+        for (Map.Entry<Job, List<Chunk>> entry : byJob.entrySet()) {
+            Job job = entry.getKey();
+            List<String> chunkIds = new ArrayList<>();
+            List<String> texts = new ArrayList<>();
+            List<float[]> vectors = new ArrayList<>();
+            for (Chunk chunk : entry.getValue()) {
+                chunkIds.add(chunk.chunkId);
+                texts.add(chunk.text);
+                vectors.add(chunk.vector);
+            }
+            boolean live;
+            synchronized (job) {
+                // Checked under the job's lock, so a failing document never gets chunks added after its cleanup
+                live = recordWritten(job, chunkIds);
+                if (live) {
+                    searchService.addChunks(job.document, chunkIds, texts, vectors, version);
+                }
+            }
+            if (!live) {
+                discard(job, chunkIds, false);
+                continue;
+            }
+            job.written.addAndGet(chunkIds.size());
+            completeIfDone(job);
+        }
+    }
+
+    /**
+     * Mark the document COMPLETED once chunking has finished and every chunk is written
+     */
+    private void completeIfDone(Job job) {
+        int total = job.totalChunks;
+        if (total < 0 || job.written.get() < total || !job.finished.compareAndSet(false, true)) {
+            return;
+        }
+        try {
+            documentRepository.updateStatus(job.document.getId(), STATUS_COMPLETED);
+        } catch (Exception e) {
+            System.err.println("Failed to mark document " + job.document.getId() + " completed: " + e.getMessage());
+        }
+        completed.incrementAndGet();
+        System.out.println("Ingested document " + job.document.getId() + " (" + job.document.getFileName() + "): "
+                + total + " chunks in " + (System.currentTimeMillis() - job.startedAt) + " ms");
+    }
+
+    private void failAll(List<Chunk> chunks, Exception e) {
+        for (Chunk chunk : chunks) {
+            fail(chunk.job, e);
+        }
+    }
+
+    /**
+     * Note chunk ids that are (or may be) in DynamoDB, unless the document has failed in the meantime
+     *
+     * @return false when the document failed before they could be noted; the caller deletes them itself
+     */
+    private boolean recordWritten(Job job, List<String> chunkIds) {
+        synchronized (job) {
+            if (job.failed.get()) {
+                return false;
+            }
+            job.writtenChunkIds.addAll(chunkIds);
+            return true;
+        }
+    }
+
+    /**
+     * Mark the document FAILED and delete the chunks already written for it; its chunks still queued in
+     * later stages are dropped, and writes in progress clean up after themselves
+     */
+    private void fail(Job job, Exception e) {
+        List<String> written;
+        synchronized (job) {
+            job.failed.set(true);
+            if (!job.finished.compareAndSet(false, true)) {
+                return;
+            }
+            written = new ArrayList<>(job.writtenChunkIds);
+        }
+        failed.incrementAndGet();
+        System.err.println("Ingestion failed for document " + job.document.getId() + ": " + e.getMessage());
+        try {
+            documentRepository.updateStatus(job.document.getId(), STATUS_FAILED);
+        } catch (Exception statusError) {
+            System.err.println("Failed to mark document " + job.document.getId() + " failed: " + statusError.getMessage());
+        }
+        if (!written.isEmpty()) {
+            discard(job, written, true);
+        }
+    }
+
+    /**
+     * Delete chunks of a failed document from DynamoDB, then from the resident store
+     *
+     * @param chunkIds Chunks written (or possibly written) for the document
+     * @param searchable Whether any of them may have been added to the resident store
+     */
+    private void discard(Job job, List<String> chunkIds, boolean searchable) {
+        try {
+            embeddingRepository.batchDelete(chunkIds);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            System.err.println("Interrupted deleting chunks of failed document " + job.document.getId());
+        } catch (Exception e) {
+            // Left in the table; deleting the FAILED document lets the orphan cleanup remove them
+            System.err.println("Failed to delete " + chunkIds.size() + " chunks of failed document "
+                    + job.document.getId() + ": " + e.getMessage());
+        }
+        if (searchable) {
+            searchService.removeDocument(job.document.getId());
+        }
+    }
+
+    /**
+     * One document moving through the pipeline
+     */
+    private static final class Job {
+        private final Document document;
+        private final long sequence;
+        private final long startedAt = System.currentTimeMillis();
+        private final AtomicBoolean failed = new AtomicBoolean();
+        private final AtomicBoolean finished = new AtomicBoolean();
+        private final AtomicInteger written = new AtomicInteger();
+        // Chunk ids put in DynamoDB so far, deleted again if the document fails (guarded by the job)
+        private final List<String> writtenChunkIds = new ArrayList<>();
+        // Chunking state, only touched by the document's chunking thread
+        private final StringBuilder pendingText = new StringBuilder();
+        private int chunkCount = 0;
+        // Set once chunking is done (-1 until then)
+        private volatile int totalChunks = -1;
+
+        private Job(Document document, long sequence) {
+            this.document = document;
+            this.sequence = sequence;
+        }
+    }
+
+    /**
+     * Extracted text of a document; null text marks the end of the document
+     */
+    private static final class TextBlock {
+        private final Job job;
+        private final String text;
+
+        private TextBlock(Job job, String text) {
+            this.job = job;
+            this.text = text;
+        }
+    }
+
+    private static final class Chunk {
+        private final Job job;
+        private final String chunkId;
+        private final String text;
+        private float[] vector;
+
+        private Chunk(Job job, String chunkId, String text) {
+            this.job = job;
+            this.chunkId = chunkId;
+            this.text = text;
+        }
+    }
+}
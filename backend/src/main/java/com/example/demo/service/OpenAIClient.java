@@ -0,0 +1,440 @@
+package com.example.demo.service;
+
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.JsonToken;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import jakarta.annotation.PostConstruct;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+
+import java.io.InputStream;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.util.*;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Flow;
+import java.util.concurrent.ThreadFactory;
+
+/**
+ * Shared client for the OpenAI REST API.
+ *
+ * One HttpClient is reused for every call, so connections (HTTP/2 where the server offers it)
+ * stay open between requests and the TLS handshake is paid once. Responses are decoded with a
+ * streaming JsonParser straight from the socket into the values callers need, without building
+ * a JSON tree or buffering the body as a string.
+ */
+@Service
+public class OpenAIClient {
+
+    /**
+     * Receives answer text as it is generated
+     */
+    public interface TokenListener {
+        void onToken(String token) throws Exception;
+    }
+
+    @Value("${openai.api.key}")
+    private String openaiApiKey;
+
+    @Value("${openai.api.baseUrl:https://api.openai.com/v1}")
+    private String baseUrl;
+
+    @Value("${openai.http.connectTimeoutMs:10000}")
+    private long connectTimeoutMs;
+
+    // Embeddings answer quickly; a long chat completion can legitimately take minutes (0 = no timeout)
+    @Value("${openai.http.requestTimeoutMs:30000}")
+    private long requestTimeoutMs;
+
+    @Value("${openai.http.chatTimeoutMs:120000}")
+    private long chatTimeoutMs;
+
+    // Dimension of the last embedding read, so the next one is parsed into an array of the right size
+    private volatile int embeddingDimension = 256;
+
+    // Response callbacks (streamed tokens) run on these threads and may block writing to the client
+    @Autowired
+    @Qualifier("blockingIoThreadFactory")
+    private ThreadFactory blockingIoThreadFactory;
+
+    private final ObjectMapper objectMapper = new ObjectMapper();
+
+    private HttpClient httpClient;
+
+    @PostConstruct
+    public void init() {
+        httpClient = HttpClient.newBuilder()
+                .version(HttpClient.Version.HTTP_2)
+                .connectTimeout(Duration.ofMillis(connectTimeoutMs))
+                .executor(Executors.newCachedThreadPool(blockingIoThreadFactory))
+                .build();
+    }
+
+    /**
+     * Embed several inputs with one call
+     *
+     * @param model Embedding model name
+     * @param inputs Texts to embed
+     * @return One vector per input, in input order
+     */
+    public List<float[]> createEmbeddings(String model, List<String> inputs) throws Exception {
+        Map<String, Object> requestBody = new HashMap<>();
+        requestBody.put("model", model);
+        requestBody.put("input", inputs);
+
+        try (InputStream body = post("/embeddings", requestBody, requestTimeoutMs);
+             JsonParser parser = objectMapper.getFactory().createParser(body)) {
+            float[][] embeddings = new float[inputs.size()][];
+            expect(parser.nextToken(), JsonToken.START_OBJECT);
+            while (parser.nextToken() == JsonToken.FIELD_NAME) {
+                String field = parser.currentName();
+                parser.nextToken();
+                if (!"data".equals(field)) {
+                    parser.skipChildren();
+                    continue;
+                }
+                expect(parser.currentToken(), JsonToken.START_ARRAY);
+                while (parser.nextToken() == JsonToken.START_OBJECT) {
+                    readEmbedding(parser, embeddings);
+                }
+            }
+            for (int i = 0; i < embeddings.length; i++) {
+                if (embeddings[i] == null) {
+                    throw new Exception("OpenAI API returned no embedding for input " + i);
+                }
+            }
+            return Arrays.asList(embeddings);
+        }
+    }
+
+    /**
+     * Run a chat completion and return the text of the first choice
+     *
+     * @param model Chat model name
+     * @param messages Messages with "role" and "content"
+     * @param temperature Sampling temperature
+     * @param maxTokens Most tokens to generate
+     * @return Answer text
+     */
+    public String createChatCompletion(String model, List<Map<String, String>> messages,
+                                       double temperature, int maxTokens) throws Exception {
+        Map<String, Object> requestBody = new HashMap<>();
+        requestBody.put("model", model);
+        requestBody.put("messages", messages);
+        requestBody.put("temperature", temperature);
+        requestBody.put("max_tokens", maxTokens);
+
+        try (InputStream body = post("/chat/completions", requestBody, chatTimeoutMs);
+             JsonParser parser = objectMapper.getFactory().createParser(body)) {
+            // choices[0].message.content
+            expect(parser.nextToken(), JsonToken.START_OBJECT);
+            while (parser.nextToken() == JsonToken.FIELD_NAME) {
+                String field = parser.currentName();
+                parser.nextToken();
+                if (!"choices".equals(field)) {
+                    parser.skipChildren();
+                    continue;
+                }
+                expect(parser.currentToken(), JsonToken.START_ARRAY);
+                if (parser.nextToken() == JsonToken.START_OBJECT) {
+                    String content = readMessageContent(parser);
+                    if (content != null) {
+                        // Consume the rest (usage etc.) so the connection can be reused
+                        while (parser.nextToken() != null) {
+                            parser.skipChildren();
+                        }
+                        return content;
+                    }
+                }
+                break;
+            }
+            throw new Exception("OpenAI API returned no answer");
+        }
+    }
+
+    /**
+     * Run a streamed chat completion, passing each piece of the first choice to the listener as it arrives.
+     *
+     * The call does not block: lines are parsed on the HTTP client's threads and the returned future
+     * completes with the full answer when the stream ends. If the listener throws (e.g. the caller
+     * disconnected) the upstream request is cancelled and the future fails with that exception.
+     *
+     * @param model Chat model name
+     * @param messages Messages with "role" and "content"
+     * @param temperature Sampling temperature
+     * @param maxTokens Most tokens to generate
+     * @param listener Receives answer tokens in order
+     * @return Future of the complete answer text
+     */
+    public CompletableFuture<String> streamChatCompletion(String model, List<Map<String, String>> messages,
+                                                          double temperature, int maxTokens,
+                                                          TokenListener listener) throws Exception {
+        Map<String, Object> requestBody = new HashMap<>();
+        requestBody.put("model", model);
+        requestBody.put("messages", messages);
+        requestBody.put("temperature", temperature);
+        requestBody.put("max_tokens", maxTokens);
+        requestBody.put("stream", true);
+
+        HttpRequest request = newRequest("/chat/completions", requestBody, chatTimeoutMs);
+        CompletableFuture<String> answer = new CompletableFuture<>();
+
+        httpClient.sendAsync(request, responseInfo -> responseInfo.statusCode() == 200
+                        ? HttpResponse.BodySubscribers.mapping(chatStreamBody(listener, answer), ignored -> "")
+                        : HttpResponse.BodySubscribers.ofString(StandardCharsets.UTF_8))
+                .whenComplete((response, error) -> {
+                    if (error != null) {
+                        answer.completeExceptionally(error);
+                    } else if (response.statusCode() != 200) {
+                        answer.completeExceptionally(new Exception(
+                                "OpenAI API error: " + response.statusCode() + " - " + response.body().trim()));
+                    }
+                });
+        return answer;
+    }
+
+    /**
+     * Body of a streamed chat completion: split into lines (also across network buffers) and parsed as
+     * server-sent events
+     *
+     * @param listener Receives answer tokens in order
+     * @param answer Completed with the full answer at "[DONE]" or the end of the body, or failed on an error event
+     */
+    HttpResponse.BodySubscriber<Void> chatStreamBody(TokenListener listener, CompletableFuture<String> answer) {
+        return HttpResponse.BodySubscribers.fromLineSubscriber(new ChatStreamSubscriber(listener, answer),
+                subscriber -> null, StandardCharsets.UTF_8, null);
+    }
+
+    /**
+     * POST a JSON body and return the response stream, failing on a non-200 status
+     */
+    private InputStream post(String path, Map<String, Object> requestBody, long timeoutMs) throws Exception {
+        HttpResponse<InputStream> response = httpClient.send(newRequest(path, requestBody, timeoutMs),
+                HttpResponse.BodyHandlers.ofInputStream());
+        if (response.statusCode() != 200) {
+            try (InputStream error = response.body()) {
+                String errorResponse = new String(error.readAllBytes(), StandardCharsets.UTF_8);
+                throw new Exception("OpenAI API error: " + response.statusCode() + " - " + errorResponse.trim());
+            }
+        }
+        return response.body();
+    }
+
+    /**
+     * @param timeoutMs Longest wait for the response, or 0 for none
+     */
+    private HttpRequest newRequest(String path, Map<String, Object> requestBody, long timeoutMs) throws Exception {
+        HttpRequest.Builder builder = HttpRequest.newBuilder(URI.create(baseUrl + path))
+                .header("Content-Type", "application/json")
+                .header("Authorization", "Bearer " + openaiApiKey)
+                .POST(HttpRequest.BodyPublishers.ofByteArray(objectMapper.writeValueAsBytes(requestBody)));
+        if (timeoutMs > 0) {
+            builder.timeout(Duration.ofMillis(timeoutMs));
+        }
+        return builder.build();
+    }
+
+    /**
+     * Read one item of the embeddings "data" array; the parser is on its START_OBJECT
+     */
+    private void readEmbedding(JsonParser parser, float[][] embeddings) throws Exception {
+        int index = -1;
+        float[] embedding = null;
+        while (parser.nextToken() == JsonToken.FIELD_NAME) {
+            String field = parser.currentName();
+            parser.nextToken();
+            if ("index".equals(field)) {
+                index = parser.getIntValue();
+            } else if ("embedding".equals(field)) {
+                embedding = readFloatArray(parser, embeddingDimension);
+                embeddingDimension = embedding.length;
+            } else {
+                parser.skipChildren();
+            }
+        }
+        if (index < 0 || index >= embeddings.length || embedding == null) {
+            throw new Exception("Malformed embedding in OpenAI API response");
+        }
+        embeddings[index] = embedding;
+    }
+
+    /**
+     * Read a JSON number array into a float[]; the parser is on its START_ARRAY
+     *
+     * @param expectedLength Likely length; the array grows past it and is trimmed below it
+     */
+    private static float[] readFloatArray(JsonParser parser, int expectedLength) throws Exception {
+        expect(parser.currentToken(), JsonToken.START_ARRAY);
+        float[] values = new float[Math.max(1, expectedLength)];
+        int size = 0;
+        while (parser.nextToken() != JsonToken.END_ARRAY) {
+            if (size == values.length) {
+                values = Arrays.copyOf(values, size * 2);
+            }
+            values[size++] = parser.getFloatValue();
+        }
+        return size == values.length ? values : Arrays.copyOf(values, size);
+    }
+
+    /**
+     * Read message.content from a choice object; the parser is on its START_OBJECT
+     */
+    private static String readMessageContent(JsonParser parser) throws Exception {
+        String content = null;
+        while (parser.nextToken() == JsonToken.FIELD_NAME) {
+            String field = parser.currentName();
+            JsonToken token = parser.nextToken();
+            if (!"message".equals(field) || token != JsonToken.START_OBJECT) {
+                parser.skipChildren();
+                continue;
+            }
+            while (parser.nextToken() == JsonToken.FIELD_NAME) {
+                String messageField = parser.currentName();
+                parser.nextToken();
+                if ("content".equals(messageField)) {
+                    content = parser.getValueAsString();
+                } else {
+                    parser.skipChildren();
+                }
+            }
+        }
+        return content;
+    }
+
+    /**
+     * Read choices[0].delta.content from one streamed chunk
+     *
+     * @return Token text, or null when the chunk carries none (role header, finish reason)
+     * @throws Exception when the chunk is an error event ({"error": {"message": ...}})
+     */
+    private String readDeltaContent(String json) throws Exception {
+        try (JsonParser parser = objectMapper.getFactory().createParser(json)) {
+            expect(parser.nextToken(), JsonToken.START_OBJECT);
+            while (parser.nextToken() == JsonToken.FIELD_NAME) {
+                String field = parser.currentName();
+                parser.nextToken();
+                if ("error".equals(field)) {
+                    throw new Exception("OpenAI API error during stream: " + readErrorMessage(parser));
+                }
+                if (!"choices".equals(field)) {
+                    parser.skipChildren();
+                    continue;
+                }
+                expect(parser.currentToken(), JsonToken.START_ARRAY);
+                if (parser.nextToken() != JsonToken.START_OBJECT) {
+                    return null;
+                }
+                while (parser.nextToken() == JsonToken.FIELD_NAME) {
+                    String choiceField = parser.currentName();
+                    JsonToken token = parser.nextToken();
+                    if (!"delta".equals(choiceField) || token != JsonToken.START_OBJECT) {
+                        parser.skipChildren();
+                        continue;
+                    }
+                    while (parser.nextToken() == JsonToken.FIELD_NAME) {
+                        String deltaField = parser.currentName();
+                        parser.nextToken();
+                        if ("content".equals(deltaField)) {
+                            return parser.getValueAsString();
+                        }
+                        parser.skipChildren();
+                    }
+                }
+                return null;
+            }
+            return null;
+        }
+    }
+
+    /**
+     * Read error.message; the parser is on the error value
+     */
+    private static String readErrorMessage(JsonParser parser) throws Exception {
+        if (parser.currentToken() != JsonToken.START_OBJECT) {
+            return parser.getValueAsString();
+        }
+        String message = null;
+        while (parser.nextToken() == JsonToken.FIELD_NAME) {
+            String field = parser.currentName();
+            parser.nextToken();
+            if ("message".equals(field)) {
+                message = parser.getValueAsString();
+            } else {
+                parser.skipChildren();
+            }
+        }
+        return message;
+    }
+
+    /**
+     * Consumes the server-sent event lines of a streamed chat completion, one line at a time
+     */
+    private final class ChatStreamSubscriber implements Flow.Subscriber<String> {
+        private final TokenListener listener;
+        private final CompletableFuture<String> answer;
+        private final StringBuilder text = new StringBuilder();
+        private Flow.Subscription subscription;
+
+        private ChatStreamSubscriber(TokenListener listener, CompletableFuture<String> answer) {
+            this.listener = listener;
+            this.answer = answer;
+        }
+
+        @Override
+        public void onSubscribe(Flow.Subscription subscription) {
+            this.subscription = subscription;
+            subscription.request(1);
+        }
+
+        @Override
+        public void onNext(String line) {
+            if (answer.isDone()) {
+                // Drain whatever follows [DONE], so the body completes and the connection is released
+                subscription.request(1);
+                return;
+            }
+            try {
+                // "data: {json}" per chunk, "data: [DONE]" at the end; blank lines separate events
+                if (line.startsWith("data:")) {
+                    String data = line.substring(5).trim();
+                    if ("[DONE]".equals(data)) {
+                        answer.complete(text.toString());
+                    } else {
+                        String token = readDeltaContent(data);
+                        if (token != null && !token.isEmpty()) {
+                            text.append(token);
+                            listener.onToken(token);
+                        }
+                    }
+                }
+                subscription.request(1);
+            } catch (Exception e) {
+                subscription.cancel();
+                answer.completeExceptionally(e);
+            }
+        }
+
+        @Override
+        public void onError(Throwable error) {
+            answer.completeExceptionally(error);
+        }
+
+        @Override
+        public void onComplete() {
+            answer.complete(text.toString());
+        }
+    }
+
+    private static void expect(JsonToken actual, JsonToken expected) throws Exception {
+        if (actual != expected) {
+            throw new Exception("Unexpected OpenAI API response: expected " + expected + " but found " + actual);
+        }
+    }
+}
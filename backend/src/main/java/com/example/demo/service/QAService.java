@@ -1,98 +1,318 @@
 package com.example.demo.service;
 
 // Spring annotations
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Qualifier;
 import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.event.EventListener;
 import org.springframework.stereotype.Service;
 
-// JSON processing
-import com.fasterxml.jackson.databind.JsonNode;
-import com.fasterxml.jackson.databind.ObjectMapper;
-
-// HTTP client
-import java.io.BufferedReader;
-import java.io.InputStreamReader;
-import java.io.OutputStream;
-import java.net.HttpURLConnection;
-import java.net.URL;
+// Answer cache
+import com.example.demo.search.EmbeddingCache;
+import com.example.demo.search.SearchOptions;
+import com.example.demo.search.SemanticCache;
 
 // Data structures
 import java.util.*;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
 
 @Service
 public class QAService {
     @Autowired
     private SearchService searchService;
 
-    @Value("${openai.api.key}")
-    private String openaiApiKey;
+    @Autowired
+    private OpenAIClient openAIClient;
+
+    @Autowired
+    @Qualifier("blockingIoThreadFactory")
+    private ThreadFactory blockingIoThreadFactory;
 
     @Value("${openai.model}")
     private String openaiModel;
 
-    private final ObjectMapper objectMapper = new ObjectMapper();
+    // Answers reused for questions whose embedding is at least this similar to an answered one
+    @Value("${qa.cache.enabled:true}")
+    private boolean answerCacheEnabled;
+
+    @Value("${qa.cache.threshold:0.95}")
+    private float answerCacheThreshold;
+
+    @Value("${qa.cache.maxEntries:1000}")
+    private int answerCacheMaxEntries;
+
+    @Value("${qa.cache.ttlSeconds:86400}")
+    private long answerCacheTtlSeconds;
+
+    private SemanticCache<Map<String, Object>> answerCache;
+
+    // Streamed answers: retrieval runs on this pool, generation on the HTTP client's threads
+    @Value("${qa.stream.threads:16}")
+    private int streamThreads;
+
+    @Value("${qa.stream.timeoutMs:120000}")
+    private long streamTimeoutMs;
+
+    private ExecutorService streamExecutor;
+
+    // Prompt context: token budget for the retrieved passages, and the shingle overlap that marks a near-duplicate
+    @Value("${qa.context.maxTokens:3000}")
+    private int contextMaxTokens;
+
+    @Value("${qa.context.duplicateThreshold:0.8}")
+    private double contextDuplicateThreshold;
+
+    private ContextBuilder contextBuilder;
+
+    private static final String SYSTEM_PROMPT =
+            "You are a helpful AI assistant. Answer questions based on the provided documents. " +
+            "If the documents don't contain enough information to answer the question, " +
+            "say so honestly. Always be concise and accurate.";
+
+    @PostConstruct
+    public void init() {
+        answerCache = new SemanticCache<>(answerCacheMaxEntries, answerCacheThreshold, answerCacheTtlSeconds * 1000);
+        streamExecutor = Executors.newFixedThreadPool(Math.max(1, streamThreads), blockingIoThreadFactory);
+        contextBuilder = new ContextBuilder(contextMaxTokens, contextDuplicateThreshold);
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        streamExecutor.shutdownNow();
+    }
+
+    // Identical questions asked at the same time share one search and one chat completion
+    private final SingleFlight<String, Map<String, Object>> answerFlights = new SingleFlight<>();
 
     public Map<String, Object> answerQuestion(String question, int maxSources) throws Exception {
-        // Step 1: Search for relevant documents
+        String key = EmbeddingCache.key(openaiModel, question) + '\n' + maxSources;
+        Map<String, Object> shared = answerFlights.execute(key, () -> answer(question, maxSources));
+        // Coalesced callers may have spaced the question differently
+        Map<String, Object> response = new HashMap<>(shared);
+        response.put("question", question);
+        return response;
+    }
+
+    /**
+     * Answer a question, passing the sources and then the answer tokens to the listener as they become available.
+     *
+     * Returns immediately; retrieval runs on the stream pool and the chat completion is read asynchronously,
+     * so no thread waits for the whole generation.
+     *
+     * @param question User's question
+     * @param maxSources Number of chunks to base the answer on
+     * @param listener Receives the sources, then the answer text
+     * @return Future of the same response answerQuestion would return
+     */
+    public CompletableFuture<Map<String, Object>> streamAnswer(String question, int maxSources,
+                                                               AnswerStreamListener listener) {
+        CompletableFuture<Map<String, Object>> result = new CompletableFuture<>();
+        streamExecutor.execute(() -> {
+            try {
+                float[] questionEmbedding = embedQuestion(question);
+
+                Map<String, Object> cached = findCachedAnswer(question, questionEmbedding, maxSources);
+                if (cached != null) {
+                    listener.onSources(sources(cached));
+                    listener.onToken((String) cached.get("answer"));
+                    result.complete(cached);
+                    return;
+                }
+
+                long cacheGeneration = answerCache.generation();
+                List<Map<String, Object>> searchResults = findSources(questionEmbedding, maxSources);
+                listener.onSources(searchResults);
+
+                List<Map<String, String>> messages = chatMessages(SYSTEM_PROMPT,
+                        buildUserMessage(question, searchResults));
+
+                System.out.println("Streaming answer from OpenAI...");
+                openAIClient.streamChatCompletion(openaiModel, messages, 0.7, 1000, listener::onToken)
+                        .whenComplete((answer, error) -> {
+                            if (error != null) {
+                                result.completeExceptionally(error);
+                            } else {
+                                System.out.println("Streamed answer from OpenAI");
+                                result.complete(buildResponse(question, answer, searchResults,
+                                        questionEmbedding, maxSources, cacheGeneration));
+                            }
+                        });
+            } catch (Exception e) {
+                result.completeExceptionally(e);
+            }
+        });
+        return result;
+    }
+
+    /**
+     * Time after which an open answer stream is closed
+     */
+    public long getStreamTimeoutMillis() {
+        return streamTimeoutMs;
+    }
+
+    private Map<String, Object> answer(String question, int maxSources) throws Exception {
+        float[] questionEmbedding = embedQuestion(question);
+
+        Map<String, Object> cached = findCachedAnswer(question, questionEmbedding, maxSources);
+        if (cached != null) {
+            return cached;
+        }
+
+        // Taken before the search, so an answer built from a document re-ingested meanwhile is not cached
+        long cacheGeneration = answerCache.generation();
+        List<Map<String, Object>> searchResults = findSources(questionEmbedding, maxSources);
+        String userMessage = buildUserMessage(question, searchResults);
+        
+        System.out.println("Calling OpenAI API...");
+        String answer = callOpenAIChatAPI(SYSTEM_PROMPT, userMessage);
+        System.out.println("Received answer from OpenAI");
+
+        return buildResponse(question, answer, searchResults, questionEmbedding, maxSources, cacheGeneration);
+    }
+
+    /**
+     * Embed the question while the search store is made ready, so a cold store loads during the embedding call.
+     * The cache lookup needs the embedding and the search needs both, so this is where the stages join.
+     */
+    private float[] embedQuestion(String question) throws Exception {
+        CompletableFuture<float[]> embedding = searchService.embedQueryAsync(question);
+        CompletableFuture<Void> storeReady = searchService.loadStoreAsync();
+        float[] questionEmbedding = SearchService.await(embedding);
+        SearchService.await(storeReady);
+        return questionEmbedding;
+    }
+
+    /**
+     * Step 0: Reuse the answer to an equivalent question if its sources are all still indexed
+     *
+     * @return Cached response marked "cached", or null
+     */
+    private Map<String, Object> findCachedAnswer(String question, float[] questionEmbedding, int maxSources) {
+        if (!answerCacheEnabled) {
+            return null;
+        }
+        SemanticCache.Match<Map<String, Object>> match = answerCache.find(questionEmbedding,
+                cached -> (Integer) cached.get("maxSources") == maxSources
+                        && searchService.containsChunks(sourceChunkIds(cached)));
+        if (match == null) {
+            return null;
+        }
+        System.out.println("Answer cache hit (similarity " + match.similarity() + ")");
+        Map<String, Object> response = new HashMap<>(match.value());
+        response.remove("maxSources");
+        response.put("question", question);
+        response.put("cached", true);
+        response.put("cacheSimilarity", match.similarity());
+        return response;
+    }
+
+    /**
+     * Step 1: Search for relevant documents
+     */
+    private List<Map<String, Object>> findSources(float[] questionEmbedding, int maxSources) throws Exception {
         System.out.println("Searching for relevant documents...");
-        List<Map<String, Object>> searchResults = searchService.searchDocuments(question, maxSources);
+        List<Map<String, Object>> searchResults = searchService.searchByVector(questionEmbedding, maxSources,
+                SearchOptions.defaults());
         
         if (searchResults.isEmpty()) {
             throw new Exception("No relevant documents found");
         }
         
         System.out.println("Found " + searchResults.size() + " relevant documents");
+        return searchResults;
+    }
 
-        StringBuilder contextBuilder = new StringBuilder();
-        contextBuilder.append("Based on the following documents:\n\n");
-        
-        for (int i = 0; i < searchResults.size(); i++) {
-            Map<String, Object> result = searchResults.get(i);
-            String fileName = (String) result.get("file_name");
-            String text = (String) result.get("text");
-            Double similarity = (Double) result.get("similarity");
-            
-            contextBuilder.append("Document ").append(i + 1)
-                         .append(" (").append(fileName).append(", similarity: ")
-                         .append(String.format("%.2f", similarity)).append("):\n")
-                         .append(text).append("\n\n");
-        }
-        
-        String context = contextBuilder.toString();
-        System.out.println("Built context with " + context.length() + " characters");
+    /**
+     * Step 2: Put the retrieved chunks and the question into the prompt.
+     * Neighbouring chunks are merged, near-duplicates dropped and the passages capped at the token budget.
+     */
+    private String buildUserMessage(String question, List<Map<String, Object>> searchResults) {
+        ContextBuilder.Context context = contextBuilder.build(searchResults);
+        System.out.println("Built context with " + context.getTokens() + " of " + contextBuilder.getMaxTokens()
+                + " tokens: " + context.getPassages() + " passages, " + context.getMergedChunks() + " chunks merged, "
+                + context.getDuplicates() + " duplicates dropped, " + context.getTruncated() + " truncated, "
+                + context.getOmitted() + " left out");
 
-        String systemPrompt = "You are a helpful AI assistant. Answer questions based on the provided documents. " +
-                             "If the documents don't contain enough information to answer the question, " +
-                             "say so honestly. Always be concise and accurate.";
-        
-        String userMessage = context + "\n\nQuestion: " + question + "\n\nPlease answer based on the documents above.";
-        
-        System.out.println("Calling OpenAI API...");
-        String answer = callOpenAIChatAPI(systemPrompt, userMessage);
-        System.out.println("Received answer from OpenAI");
+        return context.getText() + "\n\nQuestion: " + question + "\n\nPlease answer based on the documents above.";
+    }
 
+    /**
+     * Step 3: Assemble the response and remember it for equivalent questions
+     */
+    private Map<String, Object> buildResponse(String question, String answer, List<Map<String, Object>> searchResults,
+                                              float[] questionEmbedding, int maxSources, long cacheGeneration) {
         Map<String, Object> response = new HashMap<>();
         response.put("question", question);
         response.put("answer", answer);
         response.put("sources", searchResults);
         response.put("model", openaiModel);
+
+        if (answerCacheEnabled) {
+            Set<String> documentIds = new HashSet<>();
+            for (Map<String, Object> source : searchResults) {
+                documentIds.add((String) source.get("document_id"));
+            }
+            Map<String, Object> cached = new HashMap<>(response);
+            cached.put("maxSources", maxSources);
+            if (!answerCache.put(questionEmbedding, documentIds, cached, cacheGeneration)) {
+                System.out.println("Answer not cached: a source document changed while it was generated");
+            }
+        }
         
         return response;
     }
 
+    /**
+     * Drop cached answers built from a document that was deleted or re-ingested
+     */
+    @EventListener
+    public void onDocumentChanged(DocumentChangedEvent event) {
+        int removed = answerCache.invalidateDocument(event.getDocumentId());
+        if (removed > 0) {
+            System.out.println("Invalidated " + removed + " cached answers for document: " + event.getDocumentId());
+        }
+    }
+
+    /**
+     * Hit ratio and size of the answer cache
+     */
+    public Map<String, Object> getAnswerCacheStats() {
+        Map<String, Object> stats = new HashMap<>();
+        stats.put("enabled", answerCacheEnabled);
+        stats.put("entries", answerCache.size());
+        stats.put("maxEntries", answerCache.getMaxEntries());
+        stats.put("threshold", answerCache.getThreshold());
+        stats.put("hits", answerCache.getHits());
+        stats.put("misses", answerCache.getMisses());
+        stats.put("hitRatio", answerCache.hitRatio());
+        stats.put("answersCoalesced", answerFlights.getCoalesced());
+        return stats;
+    }
+
+    @SuppressWarnings("unchecked")
+    private static List<Map<String, Object>> sources(Map<String, Object> response) {
+        return (List<Map<String, Object>>) response.get("sources");
+    }
+
+    private static List<String> sourceChunkIds(Map<String, Object> response) {
+        List<String> chunkIds = new ArrayList<>();
+        for (Map<String, Object> source : sources(response)) {
+            chunkIds.add((String) source.get("chunk_id"));
+        }
+        return chunkIds;
+    }
+
     private String callOpenAIChatAPI(String systemPrompt, String userMessage) throws Exception {
-        URL url = new URL("https://api.openai.com/v1/chat/completions");
-        HttpURLConnection conn = (HttpURLConnection) url.openConnection();
-        conn.setRequestMethod("POST");
-        conn.setRequestProperty("Content-Type", "application/json");
-        conn.setRequestProperty("Authorization", "Bearer " + openaiApiKey);
-        conn.setDoOutput(true);
-        conn.setConnectTimeout(30000);
-        conn.setReadTimeout(30000);
-
-        Map<String, Object> requestBody = new HashMap<>();
-        requestBody.put("model", openaiModel);
-        
+        return openAIClient.createChatCompletion(openaiModel, chatMessages(systemPrompt, userMessage), 0.7, 1000);
+    }
+
+    private static List<Map<String, String>> chatMessages(String systemPrompt, String userMessage) {
         List<Map<String, String>> messages = new ArrayList<>();
         
         Map<String, String> systemMessage = new HashMap<>();
@@ -104,44 +324,7 @@ public class QAService {
         userMsg.put("role", "user");
         userMsg.put("content", userMessage);
         messages.add(userMsg);
-        
-        requestBody.put("messages", messages);
-        requestBody.put("temperature", 0.7);
-        requestBody.put("max_tokens", 1000);
-
-        String jsonRequest = objectMapper.writeValueAsString(requestBody);
-    
-        try (OutputStream os = conn.getOutputStream()) {
-            byte[] input = jsonRequest.getBytes("utf-8");
-            os.write(input, 0, input.length);
-        }
 
-        int responseCode = conn.getResponseCode();
-
-        if (responseCode != 200) {
-            try (BufferedReader br = new BufferedReader(
-                    new InputStreamReader(conn.getErrorStream(), "utf-8"))) {
-                StringBuilder errorResponse = new StringBuilder();
-                String responseLine;
-                while ((responseLine = br.readLine()) != null) {
-                    errorResponse.append(responseLine.trim());
-                }
-                throw new Exception("OpenAI API error: " + responseCode + " - " + errorResponse.toString());
-            }
-        }
-        
-        try (BufferedReader br = new BufferedReader(
-                new InputStreamReader(conn.getInputStream(), "utf-8"))) {
-            StringBuilder response = new StringBuilder();
-            String responseLine;
-            while ((responseLine = br.readLine()) != null) {
-                response.append(responseLine.trim());
-            }
-            
-            JsonNode jsonResponse = objectMapper.readTree(response.toString());
-            String answer = jsonResponse.get("choices").get(0).get("message").get("content").asText();
-            
-            return answer;
-        }
+        return messages;
     }
 }
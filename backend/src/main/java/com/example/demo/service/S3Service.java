@@ -1,15 +1,34 @@
 package com.example.demo.service;
 
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Qualifier;
 import org.springframework.beans.factory.annotation.Value;
 import org.springframework.stereotype.Service;
 import org.springframework.web.multipart.MultipartFile;
+import software.amazon.awssdk.core.ResponseInputStream;
 import software.amazon.awssdk.core.sync.RequestBody;
 import software.amazon.awssdk.services.s3.S3Client;
 import software.amazon.awssdk.services.s3.model.*;
 
+import java.io.ByteArrayInputStream;
 import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.util.ArrayList;
+import java.util.List;
 import java.util.UUID;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
 
 @Service
 public class S3Service {
@@ -20,8 +39,52 @@ public class S3Service {
     @Value("${s3.bucketName}")
     private String bucketName;
 
+    @Autowired
+    @Qualifier("blockingIoThreadFactory")
+    private ThreadFactory blockingIoThreadFactory;
+
+    // Files larger than this are sent as a multipart upload
+    @Value("${s3.multipart.thresholdBytes:16777216}")
+    private long multipartThreshold;
+
+    // Part size of multipart uploads (S3 requires at least 5 MB for all but the last part)
+    @Value("${s3.multipart.partSizeBytes:8388608}")
+    private int partSize;
+
+    // Parts of one upload in flight at a time; each holds one part-sized buffer
+    @Value("${s3.multipart.concurrency:4}")
+    private int partConcurrency;
+
+    // Threads sending parts for all uploads, and parts that may wait for one of them
+    @Value("${s3.multipart.threads:8}")
+    private int partThreads;
+
+    @Value("${s3.multipart.queueCapacity:16}")
+    private int partQueueCapacity;
+
+    private static final int MIN_PART_SIZE = 5 * 1024 * 1024;
+    private static final int MAX_PARTS = 10000;
+
+    private ExecutorService partExecutor;
+
+    @PostConstruct
+    public void init() {
+        // Once the threads are busy and the queue is full the uploading request sends the part itself,
+        // which slows its reader down instead of starting more threads or failing the upload
+        int threads = Math.max(1, partThreads);
+        partExecutor = new ThreadPoolExecutor(threads, threads, 0L, TimeUnit.MILLISECONDS,
+                new ArrayBlockingQueue<>(Math.max(1, partQueueCapacity)), blockingIoThreadFactory,
+                new ThreadPoolExecutor.CallerRunsPolicy());
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        partExecutor.shutdownNow();
+    }
+
     /**
-     * Upload file to S3
+     * Upload file to S3, streaming it from the request instead of loading it into memory.
+     * Files above s3.multipart.thresholdBytes are sent as a multipart upload.
      * @param file The file to upload
      * @param userId The user ID (for organizing files)
      * @return The S3 key (path) of the uploaded file
@@ -34,6 +97,11 @@ public class S3Service {
                                      UUID.randomUUID().toString(), 
                                      fileExtension);
 
+        if (file.getSize() > multipartThreshold) {
+            uploadMultipart(file, s3Key);
+            return s3Key;
+        }
+
         // Upload to S3
         PutObjectRequest putObjectRequest = PutObjectRequest.builder()
                 .bucket(bucketName)
@@ -42,24 +110,150 @@ public class S3Service {
                 .contentLength(file.getSize())
                 .build();
 
-        s3Client.putObject(putObjectRequest, 
-                          RequestBody.fromBytes(file.getBytes()));
+        try (InputStream in = file.getInputStream()) {
+            s3Client.putObject(putObjectRequest, RequestBody.fromInputStream(in, file.getSize()));
+        }
 
         return s3Key;
     }
 
     /**
-     * Download file from S3
+     * Upload a large file in parts. Parts are read one after another from the request stream and
+     * sent on the shared part pool, at most s3.multipart.concurrency at a time; a part buffer is reused once its part has been
+     * sent, so an upload never holds more than concurrency x part size bytes. The upload is aborted
+     * if any part fails, so no orphaned parts are left in the bucket.
+     */
+    private void uploadMultipart(MultipartFile file, String s3Key) throws IOException {
+        // Grow the parts when the file would otherwise need more than S3's 10000
+        int size = (int) Math.max(Math.max(partSize, MIN_PART_SIZE), (file.getSize() + MAX_PARTS - 1) / MAX_PARTS);
+        int concurrency = Math.max(1, partConcurrency);
+
+        CreateMultipartUploadRequest createRequest = CreateMultipartUploadRequest.builder()
+                .bucket(bucketName)
+                .key(s3Key)
+                .contentType(file.getContentType())
+                .build();
+        String uploadId = s3Client.createMultipartUpload(createRequest).uploadId();
+
+        BlockingQueue<byte[]> freeBuffers = new ArrayBlockingQueue<>(concurrency);
+        int allocated = 0;
+        AtomicBoolean partFailed = new AtomicBoolean();
+        List<Future<CompletedPart>> parts = new ArrayList<>();
+        try (InputStream in = file.getInputStream()) {
+            for (int partNumber = 1; !partFailed.get(); partNumber++) {
+                byte[] buffer = freeBuffers.poll();
+                if (buffer == null) {
+                    // Waits for a part in flight to finish once all buffers are in use
+                    buffer = allocated < concurrency ? new byte[size] : freeBuffers.take();
+                    allocated = Math.min(concurrency, allocated + 1);
+                }
+                int length = in.readNBytes(buffer, 0, size);
+                if (length == 0) {
+                    break;
+                }
+                parts.add(partExecutor.submit(uploadPart(s3Key, uploadId, partNumber, buffer, length,
+                        freeBuffers, partFailed)));
+                if (length < size) {
+                    break;
+                }
+            }
+
+            List<CompletedPart> completedParts = new ArrayList<>(parts.size());
+            for (Future<CompletedPart> part : parts) {
+                completedParts.add(part.get());
+            }
+
+            CompleteMultipartUploadRequest completeRequest = CompleteMultipartUploadRequest.builder()
+                    .bucket(bucketName)
+                    .key(s3Key)
+                    .uploadId(uploadId)
+                    .multipartUpload(CompletedMultipartUpload.builder().parts(completedParts).build())
+                    .build();
+            s3Client.completeMultipartUpload(completeRequest);
+            System.out.println("Uploaded " + s3Key + " in " + completedParts.size() + " parts");
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            abortMultipart(s3Key, uploadId, parts);
+            throw new InterruptedIOException("Multipart upload interrupted");
+        } catch (ExecutionException e) {
+            abortMultipart(s3Key, uploadId, parts);
+            throw new IOException("Multipart upload failed: " + e.getCause().getMessage(), e.getCause());
+        } catch (IOException | RuntimeException e) {
+            abortMultipart(s3Key, uploadId, parts);
+            throw e;
+        }
+    }
+
+    private Callable<CompletedPart> uploadPart(String s3Key, String uploadId, int partNumber, byte[] buffer,
+                                               int length, BlockingQueue<byte[]> freeBuffers,
+                                               AtomicBoolean partFailed) {
+        return () -> {
+            try {
+                UploadPartRequest partRequest = UploadPartRequest.builder()
+                        .bucket(bucketName)
+                        .key(s3Key)
+                        .uploadId(uploadId)
+                        .partNumber(partNumber)
+                        .contentLength((long) length)
+                        .build();
+                UploadPartResponse response = s3Client.uploadPart(partRequest,
+                        RequestBody.fromInputStream(new ByteArrayInputStream(buffer, 0, length), length));
+                return CompletedPart.builder()
+                        .partNumber(partNumber)
+                        .eTag(response.eTag())
+                        .build();
+            } catch (RuntimeException e) {
+                // Stops the reader from sending further parts
+                partFailed.set(true);
+                throw e;
+            } finally {
+                freeBuffers.offer(buffer);
+            }
+        };
+    }
+
+    private void abortMultipart(String s3Key, String uploadId, List<Future<CompletedPart>> parts) {
+        for (Future<CompletedPart> part : parts) {
+            part.cancel(true);
+        }
+        try {
+            AbortMultipartUploadRequest abortRequest = AbortMultipartUploadRequest.builder()
+                    .bucket(bucketName)
+                    .key(s3Key)
+                    .uploadId(uploadId)
+                    .build();
+            s3Client.abortMultipartUpload(abortRequest);
+        } catch (Exception e) {
+            System.err.println("Failed to abort multipart upload of " + s3Key + ": " + e.getMessage());
+        }
+    }
+
+    /**
+     * Open a file in S3 for reading without loading it into memory
+     * @param s3Key The S3 key of the file
+     * @return Stream of the file content; the caller must close it
+     */
+    public ResponseInputStream<GetObjectResponse> openFile(String s3Key) {
+        return openFile(s3Key, null, null);
+    }
+
+    /**
+     * Open part of a file in S3, or nothing if the caller's copy is current
      * @param s3Key The S3 key of the file
-     * @return Byte array of the file content
+     * @param range HTTP byte range such as "bytes=0-1023", or null for the whole file
+     * @param ifNoneMatch ETag(s) the caller already has, or null
+     * @return Stream of the requested bytes; response() carries the ETag and Content-Range. The caller must close it
+     * @throws S3Exception with status 304 when ifNoneMatch matches, 416 when the range is outside the file
      */
-    public byte[] downloadFile(String s3Key) {
+    public ResponseInputStream<GetObjectResponse> openFile(String s3Key, String range, String ifNoneMatch) {
         GetObjectRequest getObjectRequest = GetObjectRequest.builder()
                 .bucket(bucketName)
                 .key(s3Key)
+                .range(range)
+                .ifNoneMatch(ifNoneMatch)
                 .build();
 
-        return s3Client.getObjectAsBytes(getObjectRequest).asByteArray();
+        return s3Client.getObject(getObjectRequest);
     }
 
     /**
@@ -1,33 +1,225 @@
 package com.example.demo.service;
 
-import com.fasterxml.jackson.databind.JsonNode;
-import com.fasterxml.jackson.databind.ObjectMapper;
+import com.example.demo.model.Document;
+import com.example.demo.repository.DocumentRepository;
+import com.example.demo.repository.EmbeddingRepository;
+import com.example.demo.search.EmbeddingCache;
+import com.example.demo.search.ExactScorer;
+import com.example.demo.search.HnswIndex;
+import com.example.demo.search.IvfPqIndex;
+import com.example.demo.search.LexicalIndex;
+import com.example.demo.search.QuantizedIndex;
+import com.example.demo.search.RankFusion;
+import com.example.demo.search.RowBitmap;
+import com.example.demo.search.SearchFilter;
+import com.example.demo.search.SearchHits;
+import com.example.demo.search.SearchOptions;
+import com.example.demo.search.VectorIndex;
+import com.example.demo.search.VectorMath;
+import com.example.demo.search.VectorSegment;
+import com.example.demo.search.VectorStore;
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Qualifier;
 import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.ApplicationEventPublisher;
+import org.springframework.scheduling.annotation.Scheduled;
 import org.springframework.stereotype.Service;
-import software.amazon.awssdk.services.dynamodb.DynamoDbClient;
-import software.amazon.awssdk.services.dynamodb.model.AttributeValue;
-import software.amazon.awssdk.services.dynamodb.model.ScanRequest;
-import software.amazon.awssdk.services.dynamodb.model.ScanResponse;
-
-import java.io.BufferedReader;
-import java.io.InputStreamReader;
-import java.io.OutputStream;
-import java.net.HttpURLConnection;
-import java.net.URL;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
 import java.util.*;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.concurrent.locks.ReentrantLock;
 import java.util.stream.Collectors;
+import java.util.stream.Stream;
 
 @Service
 public class SearchService {
     
     @Autowired
-    private DynamoDbClient dynamoDbClient;
+    private EmbeddingRepository embeddingRepository;
+
+    @Autowired
+    private DocumentRepository documentRepository;
+
+    @Autowired
+    private ApplicationEventPublisher eventPublisher;
+
+    @Autowired
+    private OpenAIClient openAIClient;
+
+    @Autowired
+    @Qualifier("blockingIoThreadFactory")
+    private ThreadFactory blockingIoThreadFactory;
+
+    // Directory for persisted vector segments (empty disables warm restarts)
+    @Value("${search.segment.dir:data/vector-segments}")
+    private String segmentDir;
+
+    @Value("${search.segment.verifyChecksum:true}")
+    private boolean verifySegmentChecksum;
+
+    // The segment is rewritten once this many rows are held in the heap rather than on every change;
+    // rows not yet persisted are fetched again from DynamoDB after a restart
+    @Value("${search.segment.rewriteMinRows:5000}")
+    private int segmentRewriteMinRows;
+
+    // Share of removed rows in the segment above which it is compacted at startup
+    @Value("${search.segment.compactRatio:0.2}")
+    private double segmentCompactRatio;
+
+    // All chunk vectors, loaded once at startup and kept in sync by refreshEmbeddings()
+    private final VectorStore vectorStore = new VectorStore();
+
+    private volatile boolean storeLoaded = false;
+
+    private final ReentrantLock refreshLock = new ReentrantLock();
+
+    // Load started by the first search after a failed startup load, shared by concurrent searches
+    private final AtomicReference<CompletableFuture<Void>> storeLoad = new AtomicReference<>();
+
+    // Blocking stages of the search pipeline (embedding calls, store loads, text hydration).
+    // Bounded, so a burst of searches queues instead of starting one thread per stage
+    @Value("${search.pipeline.threads:32}")
+    private int pipelineThreads;
+
+    private ExecutorService pipelineExecutor;
+
+    // Recently returned chunk texts, so popular chunks are not fetched again on every search
+    @Value("${search.textCache.size:2000}")
+    private int textCacheSize;
+
+    private Map<String, Map<String, String>> chunkTextCache;
+
+    static final String EMBEDDING_MODEL = "text-embedding-3-small";
+
+    // Upper bound on results per search (topK, maxSources); heaps are sized from it
+    public static final int MAX_TOP_K = 100;
+
+    // Query embeddings keyed on model + normalized query text, bounded by TTL and total bytes
+    @Value("${search.queryCache.maxBytes:67108864}")
+    private long queryCacheMaxBytes;
+
+    @Value("${search.queryCache.ttlSeconds:3600}")
+    private long queryCacheTtlSeconds;
+
+    private EmbeddingCache queryEmbeddingCache;
+
+    // In-flight deduplication of identical concurrent searches and embedding calls
+    private final SingleFlight<String, List<Map<String, Object>>> searchFlights = new SingleFlight<>();
+
+    private final SingleFlight<String, float[]> embeddingFlights = new SingleFlight<>();
+
+    // Queries arriving within the window are embedded with one API call
+    @Value("${search.embedding.batch.maxSize:16}")
+    private int embeddingBatchMaxSize;
+
+    @Value("${search.embedding.batch.maxWaitMs:5}")
+    private long embeddingBatchMaxWaitMs;
+
+    @Value("${search.embedding.batch.concurrency:4}")
+    private int embeddingBatchConcurrency;
+
+    // Longest a search waits for its query embedding, time in the batch queue included
+    @Value("${search.embedding.batch.timeoutMs:60000}")
+    private long embeddingBatchTimeoutMs;
+
+    private EmbeddingBatcher embeddingBatcher;
+
+    // Approximate index: "exact" (brute force), "hnsw", "int8" (quantized scan + rerank) or "ivfpq"
+    @Value("${search.index.type:exact}")
+    private String indexType;
+
+    @Value("${search.hnsw.m:16}")
+    private int hnswM;
+
+    @Value("${search.hnsw.efConstruction:200}")
+    private int hnswEfConstruction;
+
+    @Value("${search.hnsw.efSearch:64}")
+    private int hnswEfSearch;
+
+    // Number of int8 candidates rescored with full-precision vectors
+    @Value("${search.quantization.rerank:200}")
+    private int quantizationRerank;
+
+    // IVF-PQ: coarse lists, PQ subspaces (must divide the dimension), default lists probed per query
+    @Value("${search.ivfpq.nlist:256}")
+    private int ivfPqNlist;
 
-    @Value("${openai.api.key}")
-    private String openaiApiKey;
+    @Value("${search.ivfpq.subspaces:96}")
+    private int ivfPqSubspaces;
 
-    private final ObjectMapper objectMapper = new ObjectMapper();
+    @Value("${search.ivfpq.nprobe:16}")
+    private int ivfPqNprobe;
+
+    @Value("${search.ivfpq.trainSize:20000}")
+    private int ivfPqTrainSize;
+
+    @Value("${search.ivfpq.rerank:100}")
+    private int ivfPqRerank;
+
+    private volatile VectorIndex vectorIndex;
+
+    private volatile boolean indexReady = false;
+
+    private volatile boolean indexBuilding = false;
+
+    // Live rows when the current index was built
+    private volatile int indexBuiltRows = 0;
+
+    private final ExecutorService indexBuilder = Executors.newSingleThreadExecutor();
+
+    // Exact scoring: worker threads (0 = one per core) and the store size below which it stays serial
+    @Value("${search.exact.parallelism:0}")
+    private int exactParallelism;
+
+    @Value("${search.exact.serialThreshold:20000}")
+    private int exactSerialThreshold;
+
+    private ExactScorer exactScorer;
+
+    // BM25 index over chunk text for lexical and hybrid search, built in the background once the store is loaded
+    @Value("${search.lexical.enabled:true}")
+    private boolean lexicalEnabled;
+
+    @Value("${search.bm25.k1:1.2}")
+    private float bm25K1;
+
+    @Value("${search.bm25.b:0.75}")
+    private float bm25B;
+
+    // Hybrid: rows taken from each ranking before fusion, and the reciprocal rank fusion constant
+    @Value("${search.hybrid.candidates:50}")
+    private int hybridCandidates;
+
+    @Value("${search.hybrid.rrfK:60}")
+    private int rrfK;
+
+    private volatile LexicalIndex lexicalIndex;
+    private volatile boolean lexicalBuilding = false;
+
+    // Filtered searches matching at most this many rows are scored exactly over those rows
+    // instead of searching the approximate index and dropping rows outside the filter
+    @Value("${search.filter.exactMaxRows:20000}")
+    private int filterExactMaxRows;
+
+    // Owner and content type of each document, reloaded on every refresh, for resolving filters
+    private volatile DocumentAttributes documentAttributes;
 
     /**
      * Search for documents similar to the query
@@ -37,184 +229,979 @@ public class SearchService {
      * @return List of most relevant documents with similarity scores
      */
     public List<Map<String, Object>> searchDocuments(String query, int topK) throws Exception {
-        // Generate embedding for the query
-        List<Double> queryEmbedding = generateQueryEmbedding(query);
-        
-        // Get all document embeddings from DynamoDB
-        List<Map<String, Object>> allEmbeddings = getAllEmbeddings();
-        
-        // Calculate similarity for each document
-        List<Map<String, Object>> results = new ArrayList<>();
-
-        for (Map<String, Object> doc : allEmbeddings) {
-            // Get embedding from DynamoDB (stored as JSON string)
-            String embeddingJson = (String) doc.get("embedding");
-            List<Double> docEmbedding = parseEmbedding(embeddingJson);
-
-            double similarity = cosineSimilarity(queryEmbedding, docEmbedding);
-
-            Map<String, Object> result = new HashMap<>();
-            result.put("chunk_id", doc.get("chunk_id"));
-            result.put("document_id", doc.get("document_id"));
-            result.put("text", doc.get("text"));
-            result.put("file_name", doc.get("file_name"));
-            result.put("similarity", similarity);
-            
+        return searchDocuments(query, topK, SearchOptions.defaults());
+    }
+
+    /**
+     * Search for documents similar to the query
+     * 
+     * @param query User's search question
+     * @param topK Number of top results to return (e.g., 5)
+     * @param options Per-request settings (ranking mode, filter, exact fallback, IVF-PQ nprobe)
+     * @return List of most relevant documents with similarity scores
+     */
+    public List<Map<String, Object>> searchDocuments(String query, int topK, SearchOptions options) throws Exception {
+        checkTopK(topK);
+        // Identical concurrent searches share one execution
+        String key = EmbeddingCache.key(EMBEDDING_MODEL, query) + '\n' + topK + '\n' + options.key();
+        return searchFlights.execute(key, () -> {
+            // Keyword lookups skip the embedding call entirely
+            if (options.getMode() == SearchOptions.Mode.LEXICAL && lexicalIndex != null) {
+                return searchLexical(query, topK, options);
+            }
+            // Unit-length query embedding (cached), so every row score is a dot product
+            return await(searchAsync(query, embedQueryAsync(query), topK, options));
+        });
+    }
+
+    /**
+     * Search as a pipeline of asynchronous stages. Getting the store ready (loading it if the startup
+     * load failed) and resolving the filter to store rows run while the embedding request is in flight;
+     * ranking and text hydration start as soon as both are done.
+     *
+     * @param query Query text, used for the lexical ranking in hybrid mode
+     * @param queryEmbedding Pending unit-length query embedding, e.g. from {@link #embedQueryAsync(String)}
+     * @param topK Number of top results to return
+     * @param options Per-request settings (ranking mode, filter, exact fallback, IVF-PQ nprobe)
+     * @return Future of the same results {@link #searchByVector} returns
+     */
+    public CompletableFuture<List<Map<String, Object>>> searchAsync(String query,
+                                                                    CompletableFuture<float[]> queryEmbedding,
+                                                                    int topK, SearchOptions options) {
+        CompletableFuture<SearchOptions> filtered = loadStoreAsync()
+                .thenCompose(ready -> resolveFilterAsync(options));
+        return queryEmbedding.thenCombine(filtered,
+                        (embedding, resolved) -> async(() -> search(query, embedding, topK, resolved)))
+                .thenCompose(stage -> stage);
+    }
+
+    /**
+     * Search with a query that has already been embedded
+     *
+     * @param queryEmbedding Unit-length query embedding from {@link #embedQuery(String)}
+     * @param topK Number of top results to return
+     * @param options Per-request settings (filter, exact fallback, IVF-PQ nprobe)
+     * @return List of most relevant documents with similarity scores
+     */
+    public List<Map<String, Object>> searchByVector(float[] queryEmbedding, int topK, SearchOptions options)
+            throws Exception {
+        checkTopK(topK);
+        return search(null, queryEmbedding, topK, options);
+    }
+
+    private static void checkTopK(int topK) {
+        if (topK < 1 || topK > MAX_TOP_K) {
+            throw new IllegalArgumentException("topK must be between 1 and " + MAX_TOP_K + ", was " + topK);
+        }
+    }
+
+    private List<Map<String, Object>> search(String query, float[] queryEmbedding, int topK, SearchOptions options)
+            throws Exception {
+        // Make sure the resident store has been loaded (startup load may have failed)
+        if (!storeLoaded) {
+            await(loadStoreAsync());
+        }
+        VectorStore.Snapshot snapshot = vectorStore.snapshot();
+        options = resolveFilter(options);
+        RowBitmap filter = options.getRowFilter();
+        if (filter != null && filter.isEmpty()) {
+            return new ArrayList<>();
+        }
+        // No ranking can return more rows than are live, so no heap is sized past that
+        int k = Math.min(topK, snapshot.liveCount());
+        if (k == 0) {
+            return new ArrayList<>();
+        }
+
+        // Hybrid (or lexical requested before the BM25 index was ready): fuse both rankings
+        LexicalIndex lexical = lexicalIndex;
+        boolean hybrid = query != null && options.getMode() != SearchOptions.Mode.VECTOR && lexical != null;
+        SearchHits hits;
+        if (hybrid) {
+            int candidates = Math.min(Math.max(k, hybridCandidates), snapshot.liveCount());
+            hits = RankFusion.reciprocalRank(k, rrfK,
+                    rankByVector(snapshot, queryEmbedding, candidates, options),
+                    lexical.search(query, candidates, snapshot, filter));
+        } else {
+            hits = rankByVector(snapshot, queryEmbedding, k, options);
+        }
+
+        // Result maps are only built for the winners
+        Map<String, Map<String, String>> texts = getChunkTexts(snapshot, hits);
+        List<Map<String, Object>> results = new ArrayList<>(hits.size());
+        for (int i = 0; i < hits.size(); i++) {
+            int row = hits.row(i);
+            if (hybrid) {
+                Map<String, Object> result = toResult(snapshot, row,
+                        (double) snapshot.similarity(row, queryEmbedding), texts);
+                result.put("score", (double) hits.score(i));
+                results.add(result);
+            } else {
+                results.add(toResult(snapshot, row, (double) hits.score(i), texts));
+            }
+        }
+        return results;
+    }
+
+    /**
+     * Rank rows by cosine similarity, with the approximate index once it has been built.
+     * A selective filter is scored exactly over its own rows: that is cheaper than the index,
+     * and the index could miss rows after dropping most of its candidates.
+     */
+    private SearchHits rankByVector(VectorStore.Snapshot snapshot, float[] queryEmbedding, int k,
+                                    SearchOptions options) {
+        VectorIndex index = vectorIndex;
+        RowBitmap filter = options.getRowFilter();
+        boolean selective = filter != null && filter.cardinality() <= filterExactMaxRows;
+        if (!options.isExact() && index != null && indexReady && !selective) {
+            return index.search(queryEmbedding, k, options);
+        }
+        return exactScorer.search(snapshot, queryEmbedding, k, filter);
+    }
+
+    /**
+     * BM25 search over chunk text; results carry "score" instead of a cosine "similarity"
+     */
+    private List<Map<String, Object>> searchLexical(String query, int topK, SearchOptions options) throws Exception {
+        VectorStore.Snapshot snapshot = vectorStore.snapshot();
+        RowBitmap filter = resolveFilter(options).getRowFilter();
+        if (filter != null && filter.isEmpty()) {
+            return new ArrayList<>();
+        }
+        int k = Math.min(topK, snapshot.liveCount());
+        if (k == 0) {
+            return new ArrayList<>();
+        }
+        SearchHits hits = lexicalIndex.search(query, k, snapshot, filter);
+        Map<String, Map<String, String>> texts = getChunkTexts(snapshot, hits);
+        List<Map<String, Object>> results = new ArrayList<>(hits.size());
+        for (int i = 0; i < hits.size(); i++) {
+            Map<String, Object> result = toResult(snapshot, hits.row(i), null, texts);
+            result.put("score", (double) hits.score(i));
             results.add(result);
         }
-        
-        // Sort by similarity (highest first) and return top K
-        return results.stream()
-                .sorted((a, b) -> Double.compare((Double) b.get("similarity"), (Double) a.get("similarity")))
-                .limit(topK)
-                .collect(Collectors.toList());
+        return results;
     }
 
     /**
-     * Generate embedding for user query using OpenAI API
-     * 
+     * Resolve the request's filter to store rows in the pipeline pool, when there is one to resolve
+     */
+    private CompletableFuture<SearchOptions> resolveFilterAsync(SearchOptions options) {
+        SearchFilter filter = options.getFilter();
+        if (filter == null || filter.isEmpty() || options.getRowFilter() != null) {
+            return CompletableFuture.completedFuture(options);
+        }
+        return async(() -> resolveFilter(options));
+    }
+
+    /**
+     * Resolve the request's filter to the rows of matching documents
+     *
+     * @return Options carrying the allowed rows, or the same options when nothing is filtered
+     */
+    private SearchOptions resolveFilter(SearchOptions options) throws Exception {
+        SearchFilter filter = options.getFilter();
+        if (filter == null || filter.isEmpty() || options.getRowFilter() != null) {
+            return options;
+        }
+        Set<String> documentIds = filter.getDocumentIds() == null ? null : new HashSet<>(filter.getDocumentIds());
+        if (filter.getUserId() != null || filter.getContentType() != null) {
+            DocumentAttributes attributes = documentAttributes;
+            if (attributes == null) {
+                attributes = loadDocumentAttributes();
+            }
+            if (filter.getUserId() != null) {
+                documentIds = intersect(documentIds, attributes.byUser.get(filter.getUserId()));
+            }
+            if (filter.getContentType() != null) {
+                documentIds = intersect(documentIds,
+                        attributes.byContentType.get(filter.getContentType().toLowerCase(Locale.ROOT)));
+            }
+        }
+        return options.withRowFilter(vectorStore.rowsOf(documentIds));
+    }
+
+    private static Set<String> intersect(Set<String> documentIds, Set<String> allowed) {
+        if (allowed == null) {
+            return new HashSet<>();
+        }
+        if (documentIds == null) {
+            return new HashSet<>(allowed);
+        }
+        documentIds.retainAll(allowed);
+        return documentIds;
+    }
+
+    /**
+     * Read owner and content type of every document (one scan of the Documents table)
+     */
+    private DocumentAttributes loadDocumentAttributes() {
+        DocumentAttributes attributes = new DocumentAttributes(documentRepository.findAll());
+        documentAttributes = attributes;
+        return attributes;
+    }
+
+    /**
+     * Text and file name of the winning chunks: cached ones from the LRU, the rest in one BatchGetItem
+     */
+    private Map<String, Map<String, String>> getChunkTexts(VectorStore.Snapshot snapshot, SearchHits hits)
+            throws InterruptedException {
+        Map<String, Map<String, String>> texts = new HashMap<>();
+        List<String> missing = new ArrayList<>();
+        for (int i = 0; i < hits.size(); i++) {
+            String chunkId = snapshot.chunkId(hits.row(i));
+            Map<String, String> cached = chunkTextCache.get(chunkId);
+            if (cached != null) {
+                texts.put(chunkId, cached);
+            } else {
+                missing.add(chunkId);
+            }
+        }
+        if (!missing.isEmpty()) {
+            Map<String, Map<String, String>> fetched = embeddingRepository.getChunkTexts(missing);
+            chunkTextCache.putAll(fetched);
+            texts.putAll(fetched);
+        }
+        return texts;
+    }
+
+    /**
+     * Embed a query, reusing a cached vector for a recently seen query
+     *
+     * @param query User's search question
+     * @return Unit-length embedding; shared with the cache, so it must not be modified
+     */
+    public float[] embedQuery(String query) throws Exception {
+        String key = EmbeddingCache.key(EMBEDDING_MODEL, query);
+        float[] cached = queryEmbeddingCache.get(key);
+        if (cached != null) {
+            return cached;
+        }
+        return embedUncached(key, query);
+    }
+
+    /**
+     * Embed a query without blocking the caller; a cached vector is returned as a completed future
+     *
      * @param query User's search question
-     * @return List of 1536 doubles representing the embedding vector
-     */
-    private List<Double> generateQueryEmbedding(String query) throws Exception {
-        // Create connection to OpenAI API
-        URL url = new URL("https://api.openai.com/v1/embeddings");
-        HttpURLConnection conn = (HttpURLConnection) url.openConnection();
-
-        // Set request headers
-        conn.setRequestMethod("POST");
-        conn.setRequestProperty("Content-Type", "application/json");
-        conn.setRequestProperty("Authorization", "Bearer " + openaiApiKey);
-        conn.setDoOutput(true);
-
-        // Prepare JSON request body
-        String jsonInputString = String.format(
-            "{\"input\": \"%s\", \"model\": \"text-embedding-3-small\"}",
-            query.replace("\"", "\\\"")  // Escape quotes in user input
-        );
-        
-        // Send request
-        try (OutputStream os = conn.getOutputStream()) {
-            byte[] input = jsonInputString.getBytes("utf-8");
-            os.write(input, 0, input.length);
-        }
-
-        // Read response
-        try (BufferedReader br = new BufferedReader(
-                new InputStreamReader(conn.getInputStream(), "utf-8"))) {
-            StringBuilder response = new StringBuilder();
-            String responseLine;
-            while ((responseLine = br.readLine()) != null) {
-                response.append(responseLine.trim());
-            }
-
-            // Parse JSON response
-            JsonNode jsonResponse = objectMapper.readTree(response.toString());
-            JsonNode embeddingArray = jsonResponse.get("data").get(0).get("embedding");
-            
-            // Convert to List<Double>
-            List<Double> embedding = new ArrayList<>();
-            for (JsonNode value : embeddingArray) {
-                embedding.add(value.asDouble());
-            }
-            
+     * @return Future of the unit-length embedding (shared with the cache, must not be modified)
+     */
+    public CompletableFuture<float[]> embedQueryAsync(String query) {
+        String key = EmbeddingCache.key(EMBEDDING_MODEL, query);
+        float[] cached = queryEmbeddingCache.get(key);
+        if (cached != null) {
+            return CompletableFuture.completedFuture(cached);
+        }
+        return async(() -> embedUncached(key, query));
+    }
+
+    /**
+     * Start loading the resident store if it has not been loaded yet
+     *
+     * @return Future that completes once the store is loaded; concurrent callers share one load
+     */
+    public CompletableFuture<Void> loadStoreAsync() {
+        if (storeLoaded) {
+            return CompletableFuture.completedFuture(null);
+        }
+        CompletableFuture<Void> load = storeLoad.get();
+        if (load == null || load.isCompletedExceptionally()) {
+            CompletableFuture<Void> next = new CompletableFuture<>();
+            if (storeLoad.compareAndSet(load, next)) {
+                pipelineExecutor.execute(() -> {
+                    try {
+                        if (!storeLoaded) {
+                            refreshEmbeddings();
+                        }
+                        next.complete(null);
+                    } catch (Exception e) {
+                        next.completeExceptionally(e);
+                    }
+                });
+            }
+            load = storeLoad.get();
+        }
+        return load;
+    }
+
+    private float[] embedUncached(String key, String query) throws Exception {
+        // Concurrent misses for the same query make one API call, batched with other queries
+        return embeddingFlights.execute(key, () -> {
+            float[] embedding = embeddingBatcher.embed(query);
+            VectorMath.normalize(embedding);
+            queryEmbeddingCache.put(key, embedding);
             return embedding;
+        });
+    }
+
+    /**
+     * Check that every chunk is still in the resident store
+     */
+    public boolean containsChunks(Collection<String> chunkIds) {
+        for (String chunkId : chunkIds) {
+            if (!vectorStore.contains(chunkId)) {
+                return false;
+            }
         }
+        return true;
     }
+
     /**
-     * Get all document embeddings from DynamoDB
+     * Hit ratio and size of the query embedding cache
+     */
+    public Map<String, Object> getQueryCacheStats() {
+        Map<String, Object> stats = new HashMap<>();
+        stats.put("entries", queryEmbeddingCache.size());
+        stats.put("hits", queryEmbeddingCache.getHits());
+        stats.put("misses", queryEmbeddingCache.getMisses());
+        stats.put("hitRatio", queryEmbeddingCache.hitRatio());
+        stats.put("evictions", queryEmbeddingCache.getEvictions());
+        stats.put("weightBytes", queryEmbeddingCache.getWeightBytes());
+        stats.put("maxWeightBytes", queryEmbeddingCache.getMaxWeightBytes());
+        stats.put("ttlSeconds", queryEmbeddingCache.getTtlMillis() / 1000);
+        stats.put("embeddingCalls", embeddingFlights.getExecutions());
+        stats.put("embeddingCallsCoalesced", embeddingFlights.getCoalesced());
+        stats.put("embeddingBatches", embeddingBatcher.getBatches());
+        stats.put("searchesCoalesced", searchFlights.getCoalesced());
+        return stats;
+    }
+
+    private Map<String, Object> toResult(VectorStore.Snapshot snapshot, int row, Double similarity,
+                                         Map<String, Map<String, String>> texts) {
+        // A chunk deleted from the table since the last refresh has no text left; return it without
+        Map<String, String> chunk = texts.getOrDefault(snapshot.chunkId(row), Map.of());
+        Map<String, Object> result = new HashMap<>();
+        result.put("chunk_id", snapshot.chunkId(row));
+        result.put("document_id", snapshot.documentId(row));
+        result.put("text", chunk.get("text"));
+        result.put("file_name", chunk.get("file_name"));
+        if (similarity != null) {
+            result.put("similarity", similarity);
+        }
+        return result;
+    }
+
+    /**
+     * Describe the active vector index
+     */
+    public Map<String, Object> getIndexStats() {
+        Map<String, Object> stats = new HashMap<>();
+        stats.put("type", indexType);
+        stats.put("ready", "exact".equalsIgnoreCase(indexType) || indexReady);
+        stats.put("building", indexBuilding);
+        stats.put("chunks", vectorStore.snapshot().liveCount());
+        stats.put("kernel", VectorMath.kernel());
+        stats.put("exactParallelism", exactScorer.getParallelism());
+        stats.put("exactSerialThreshold", exactScorer.getSerialThreshold());
+        stats.put("filterExactMaxRows", filterExactMaxRows);
+
+        Map<String, Object> lexical = new HashMap<>();
+        LexicalIndex lexicalSnapshot = lexicalIndex;
+        lexical.put("enabled", lexicalEnabled);
+        lexical.put("ready", lexicalSnapshot != null);
+        lexical.put("building", lexicalBuilding);
+        if (lexicalSnapshot != null) {
+            lexical.put("chunks", lexicalSnapshot.documents());
+            lexical.put("terms", lexicalSnapshot.terms());
+            lexical.put("postingsBytes", lexicalSnapshot.postingsBytes());
+        }
+        stats.put("lexical", lexical);
+        if (vectorIndex instanceof HnswIndex) {
+            HnswIndex hnsw = (HnswIndex) vectorIndex;
+            stats.put("indexedRows", hnsw.size());
+            stats.put("m", hnsw.getM());
+            stats.put("efConstruction", hnsw.getEfConstruction());
+            stats.put("efSearch", hnsw.getEfSearch());
+        }
+        if (vectorIndex instanceof QuantizedIndex) {
+            QuantizedIndex quantized = (QuantizedIndex) vectorIndex;
+            stats.put("indexedRows", quantized.size());
+            stats.put("rerank", quantized.getRerankSize());
+            stats.put("bytesPerVector", quantized.bytesPerVector());
+        }
+        if (vectorIndex instanceof IvfPqIndex) {
+            IvfPqIndex ivfPq = (IvfPqIndex) vectorIndex;
+            stats.put("indexedRows", ivfPq.size());
+            stats.put("nlist", ivfPq.getNlist());
+            stats.put("subspaces", ivfPq.getSubspaces());
+            stats.put("nprobe", ivfPq.getDefaultNprobe());
+            stats.put("rerank", ivfPq.getRerankSize());
+        }
+        return stats;
+    }
+
+    /**
+     * Load the resident vector store once at startup.
+     * The last persisted segment is mapped first, so only chunks added since then are read from DynamoDB.
+     * Failures are logged so the application still starts; the first search retries the load.
+     */
+    @PostConstruct
+    public void loadEmbeddings() {
+        int parallelism = exactParallelism > 0 ? exactParallelism : Runtime.getRuntime().availableProcessors();
+        exactScorer = new ExactScorer(parallelism, exactSerialThreshold);
+        queryEmbeddingCache = new EmbeddingCache(queryCacheMaxBytes, queryCacheTtlSeconds * 1000);
+        pipelineExecutor = Executors.newFixedThreadPool(Math.max(1, pipelineThreads), blockingIoThreadFactory);
+        embeddingBatcher = new EmbeddingBatcher(inputs -> openAIClient.createEmbeddings(EMBEDDING_MODEL, inputs),
+                embeddingBatchMaxSize, embeddingBatchMaxWaitMs, embeddingBatchConcurrency, embeddingBatchTimeoutMs,
+                blockingIoThreadFactory);
+        chunkTextCache = Collections.synchronizedMap(new LinkedHashMap<>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String, Map<String, String>> eldest) {
+                return size() > textCacheSize;
+            }
+        });
+        System.out.println("Similarity kernel: " + VectorMath.kernel() + ", exact search parallelism: " + parallelism);
+        try {
+            loadLatestSegment();
+            refreshEmbeddings();
+        } catch (Exception e) {
+            System.err.println("Failed to load embeddings at startup: " + e.getMessage());
+        }
+        buildIndex();
+    }
+
+    /**
+     * Build the configured approximate index in the background.
+     * Searches use exact scoring until the first build finishes, and keep using the
+     * previous index while a rebuild runs; the new index is swapped in when complete.
      * 
-     * @return List of all embedding records from DocumentEmbeddings table
-     */
-    private List<Map<String, Object>> getAllEmbeddings() {
-        List<Map<String, Object>> embeddings = new ArrayList<>();
-        Map<String, AttributeValue> lastEvaluatedKey = null;
-        
-        // Loop through all pages of DynamoDB scan results
-        do {
-            ScanRequest.Builder scanBuilder = ScanRequest.builder()
-                    .tableName("DocumentEmbeddings");
-            
-            // If we have a pagination key, add it to continue from last page
-            if (lastEvaluatedKey != null) {
-                scanBuilder.exclusiveStartKey(lastEvaluatedKey);
-            }
-            
-            ScanResponse response = dynamoDbClient.scan(scanBuilder.build());
-            
-            // Process items from this page
-            for (Map<String, AttributeValue> item : response.items()) {
-                Map<String, Object> embedding = new HashMap<>();
-                embedding.put("chunk_id", item.get("chunk_id").s());
-                embedding.put("document_id", item.get("document_id").s());
-                embedding.put("text", item.get("text").s());
-                embedding.put("file_name", item.get("file_name").s());
-                embedding.put("embedding", item.get("embedding").s());
-                embeddings.add(embedding);
-            }
-            
-            // Get pagination key for next page
-            lastEvaluatedKey = response.lastEvaluatedKey();
-            
-        } while (lastEvaluatedKey != null && !lastEvaluatedKey.isEmpty());
-        
-        System.out.println("Total embeddings loaded from DynamoDB: " + embeddings.size());
-        
-        // Debug: Print unique file names
-        Set<String> uniqueFileNames = new HashSet<>();
-        for (Map<String, Object> emb : embeddings) {
-            uniqueFileNames.add((String) emb.get("file_name"));
-        }
-        System.out.println("Unique files in embeddings: " + uniqueFileNames);
-        
-        return embeddings;
-    }
-
-    /**
-     * Parse embedding JSON string to List<Double>
+     * @return false when no approximate index is configured or a build is already running
+     */
+    public synchronized boolean buildIndex() {
+        if ("exact".equalsIgnoreCase(indexType) || indexBuilding) {
+            return false;
+        }
+        indexBuilding = true;
+        indexBuilder.submit(() -> {
+            try {
+                long start = System.currentTimeMillis();
+                VectorIndex index = createIndex();
+                index.build();
+                vectorIndex = index;
+                indexReady = true;
+
+                // Rows appended while the build ran went to the previous index
+                VectorStore.Snapshot snapshot = vectorStore.snapshot();
+                for (int row = 0; row < snapshot.size(); row++) {
+                    if (snapshot.isLive(row)) {
+                        index.add(row);
+                    }
+                }
+                indexBuiltRows = snapshot.liveCount();
+                System.out.println(indexType + " index built over " + index.size() + " rows in "
+                        + (System.currentTimeMillis() - start) + " ms");
+            } catch (Exception e) {
+                System.err.println("Failed to build " + indexType + " index: " + e.getMessage());
+            } finally {
+                indexBuilding = false;
+            }
+        });
+        return true;
+    }
+
+    private VectorIndex createIndex() {
+        switch (indexType.toLowerCase()) {
+            case "hnsw":
+                return new HnswIndex(vectorStore, hnswM, hnswEfConstruction, hnswEfSearch);
+            case "int8":
+                return new QuantizedIndex(vectorStore, quantizationRerank);
+            case "ivfpq":
+                return new IvfPqIndex(vectorStore, ivfPqNlist, ivfPqSubspaces, ivfPqNprobe,
+                        ivfPqTrainSize, ivfPqRerank);
+            default:
+                throw new IllegalStateException("Unknown search.index.type: " + indexType);
+        }
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        indexBuilder.shutdownNow();
+        exactScorer.shutdown();
+        embeddingBatcher.shutdown();
+        pipelineExecutor.shutdownNow();
+    }
+
+    /**
+     * Periodically pick up chunks written by the document processing Lambda
+     */
+    @Scheduled(initialDelayString = "${search.store.refreshIntervalMs:300000}",
+               fixedDelayString = "${search.store.refreshIntervalMs:300000}")
+    public void scheduledRefresh() {
+        try {
+            refreshEmbeddings();
+        } catch (Exception e) {
+            System.err.println("Embedding refresh failed: " + e.getMessage());
+        }
+    }
+
+    /**
+     * Sync the resident store with DocumentEmbeddings: append new chunks, replace re-written ones
+     * and drop removed ones. An empty store is filled by one parallel scan of whole items. Otherwise
+     * only chunk ids and versions (updated_at) are scanned, and full items are fetched for chunks the
+     * store does not have yet or holds at a different version.
      * 
-     * @param embeddingJson JSON string like "[0.23, -0.15, 0.87, ...]"
-     * @return List of doubles
+     * @return Number of chunks added to the store
      */
-    private List<Double> parseEmbedding(String embeddingJson) throws Exception {
-        JsonNode arrayNode = objectMapper.readTree(embeddingJson);
-        List<Double> embedding = new ArrayList<>();
-        
-        for (JsonNode value : arrayNode) {
-            embedding.add(value.asDouble());
+    public int refreshEmbeddings() throws Exception {
+        refreshLock.lock();
+        try {
+            return syncStore();
+        } finally {
+            refreshLock.unlock();
+        }
+    }
+
+    private int syncStore() throws Exception {
+        Set<String> seenChunkIds;
+        AtomicInteger added = new AtomicInteger();
+        // Documents whose chunks changed after the initial load
+        Set<String> changedDocumentIds = new HashSet<>();
+        boolean coldLoad = vectorStore.snapshot().size() == 0;
+
+        if (coldLoad) {
+            seenChunkIds = ConcurrentHashMap.newKeySet();
+            if (!loadIntoSegment(seenChunkIds, added)) {
+                // No segment directory: stream ids and vectors straight into the heap, decoding on the scan threads
+                embeddingRepository.scanVectors(item -> {
+                    String chunkId = item.get("chunk_id").s();
+                    addChunk(chunkId, item.get("document_id").s(), EmbeddingRepository.readVersion(item),
+                            embeddingRepository.readVector(item));
+                    seenChunkIds.add(chunkId);
+                    added.incrementAndGet();
+                });
+            }
+        } else {
+            // Incremental: scan ids and versions only, then fetch the chunks that are new or re-written
+            Map<String, Long> tableVersions = scanChunkVersions();
+            seenChunkIds = tableVersions.keySet();
+            VectorStore.Snapshot current = vectorStore.snapshot();
+            List<String> staleChunkIds = new ArrayList<>();
+            for (Map.Entry<String, Long> entry : tableVersions.entrySet()) {
+                int row = vectorStore.row(entry.getKey());
+                if (row < 0 || current.version(row) != entry.getValue()) {
+                    staleChunkIds.add(entry.getKey());
+                }
+            }
+            List<Integer> addedRows = new ArrayList<>();
+            List<String> addedChunkIds = new ArrayList<>();
+            for (Map<String, Object> doc : embeddingRepository.getEmbeddings(staleChunkIds)) {
+                // Decoded from either the legacy JSON or the binary attribute; a stored copy is replaced
+                String chunkId = (String) doc.get("chunk_id");
+                String documentId = (String) doc.get("document_id");
+                int previousRow = vectorStore.row(chunkId);
+                if (previousRow >= 0) {
+                    // Re-ingested under the same id: the old row may belong to another document
+                    changedDocumentIds.add(current.documentId(previousRow));
+                    chunkTextCache.remove(chunkId);
+                }
+                addedRows.add(addChunk(chunkId, documentId, (Long) doc.get(EmbeddingRepository.UPDATED_AT),
+                        (float[]) doc.get("embedding")));
+                addedChunkIds.add(chunkId);
+                changedDocumentIds.add(documentId);
+                added.incrementAndGet();
+            }
+            addToLexicalIndex(addedRows, addedChunkIds);
+        }
+
+        // Drop chunks that no longer exist in the table
+        VectorStore.Snapshot snapshot = vectorStore.snapshot();
+        List<String> removedChunkIds = new ArrayList<>();
+        for (int row = 0; row < snapshot.size(); row++) {
+            if (snapshot.isLive(row) && !seenChunkIds.contains(snapshot.chunkId(row))) {
+                removedChunkIds.add(snapshot.chunkId(row));
+                changedDocumentIds.add(snapshot.documentId(row));
+            }
+        }
+        int removed = vectorStore.removeChunks(removedChunkIds);
+        for (String documentId : changedDocumentIds) {
+            eventPublisher.publishEvent(new DocumentChangedEvent(documentId));
+        }
+
+        storeLoaded = true;
+        System.out.println("Vector store refreshed: " + added.get() + " added, " + removed + " removed, "
+                + vectorStore.snapshot().liveCount() + " chunks resident");
+
+        if (added.get() > 0 || removed > 0) {
+            // A cold load that fell back to the heap is moved to a mapped segment before indexes are built
+            persistSegment(coldLoad);
+        }
+
+        // Trained indexes drift as the corpus grows; retrain once it has doubled.
+        // Also retry a first build that failed (e.g. IVF-PQ on an empty store).
+        boolean trainedIndex = "int8".equalsIgnoreCase(indexType) || "ivfpq".equalsIgnoreCase(indexType);
+        if (trainedIndex && indexReady && vectorStore.snapshot().liveCount() > 2 * indexBuiltRows) {
+            System.out.println("Corpus has doubled since the index was trained, rebuilding");
+            buildIndex();
+        } else if (!indexReady && !indexBuilding && added.get() > 0) {
+            buildIndex();
+        }
+        if (lexicalIndex == null) {
+            buildLexicalIndex();
+        }
+
+        // After the chunks, so every resident chunk's document is known to user and type filters
+        try {
+            loadDocumentAttributes();
+        } catch (Exception e) {
+            System.err.println("Failed to load document attributes for search filters: " + e.getMessage());
         }
-        
-        return embedding;
-    } 
+        return added.get();
+    }
+
     /**
-     * Calculate cosine similarity between two vectors
+     * Cold start: stream every vector from DynamoDB straight into a new segment file and map it,
+     * so the corpus never has to fit in the heap (only chunk ids and document ids are held there).
      * 
-     * @param vec1 First embedding vector
-     * @param vec2 Second embedding vector
-     * @return Similarity score between 0 and 1 (1 = identical, 0 = unrelated)
-     */
-    private double cosineSimilarity(List<Double> vec1, List<Double> vec2) {
-        // Calculate dot product (A · B)
-        double dotProduct = 0.0;
-        for (int i = 0; i < vec1.size(); i++) {
-            dotProduct += vec1.get(i) * vec2.get(i);
-        }
-        
-        // Calculate magnitude of vec1 (|A|)
-        double magnitude1 = 0.0;
-        for (double val : vec1) {
-            magnitude1 += val * val;
-        }
-        magnitude1 = Math.sqrt(magnitude1);
-        
-        // Calculate magnitude of vec2 (|B|)
-        double magnitude2 = 0.0;
-        for (double val : vec2) {
-            magnitude2 += val * val;
-        }
-        magnitude2 = Math.sqrt(magnitude2);
-        
-        // Return cosine similarity
-        return dotProduct / (magnitude1 * magnitude2);
+     * @param seenChunkIds Receives the id of every scanned chunk
+     * @param added Counts the scanned chunks
+     * @return false when segments are disabled or the file could not be written; the caller then loads into the heap
+     */
+    private boolean loadIntoSegment(Set<String> seenChunkIds, AtomicInteger added) throws Exception {
+        if (segmentDir.isEmpty()) {
+            return false;
+        }
+        long start = System.currentTimeMillis();
+        Path file;
+        try {
+            file = newSegmentFile();
+            try (VectorSegment.Writer writer = new VectorSegment.Writer(file, 0)) {
+                // Decoded and normalized on the scan threads; append() serializes the writes
+                embeddingRepository.scanVectors(item -> {
+                    String chunkId = item.get("chunk_id").s();
+                    float[] vector = embeddingRepository.readVector(item);
+                    VectorMath.normalize(vector);
+                    try {
+                        writer.append(chunkId, item.get("document_id").s(), EmbeddingRepository.readVersion(item),
+                                false, vector);
+                    } catch (IOException e) {
+                        throw new UncheckedIOException(e);
+                    }
+                    seenChunkIds.add(chunkId);
+                    added.incrementAndGet();
+                });
+                writer.finish();
+            }
+        } catch (IOException | UncheckedIOException e) {
+            System.err.println("Failed to write vector segment during cold load, loading into the heap: "
+                    + e.getMessage());
+            seenChunkIds.clear();
+            added.set(0);
+            return false;
+        }
+        vectorStore.loadSegment(VectorSegment.map(file, false));
+        System.out.println("Streamed " + added.get() + " vectors into " + file + " in "
+                + (System.currentTimeMillis() - start) + " ms");
+        deleteSegmentsExcept(file);
+        return true;
+    }
+
+    /**
+     * Append one chunk to the store and the active index (replacing a stored copy)
+     */
+    private int addChunk(String chunkId, String documentId, long version, float[] embedding) {
+        int row = vectorStore.add(chunkId, documentId, version, embedding);
+        // Read the index after the row is stored, so a concurrent rebuild cannot miss it
+        VectorIndex index = vectorIndex;
+        if (index != null) {
+            index.add(row);
+        }
+        return row;
+    }
+
+    /**
+     * Make chunks just written by the in-process ingestion pipeline searchable without waiting for a refresh
+     *
+     * @param document Owning document; its owner and content type become visible to search filters
+     * @param chunkIds Chunk ids
+     * @param texts Chunk texts, for the BM25 index
+     * @param vectors Chunk embeddings
+     * @param version updated_at the chunks were written with, so the next refresh sees them as current
+     */
+    public void addChunks(Document document, List<String> chunkIds, List<String> texts, List<float[]> vectors,
+                          long version) {
+        refreshLock.lock();
+        try {
+            // Before the first load the chunks are read from the table with everything else
+            if (!storeLoaded) {
+                return;
+            }
+            LexicalIndex lexical = lexicalIndex;
+            for (int i = 0; i < chunkIds.size(); i++) {
+                int row = addChunk(chunkIds.get(i), document.getId(), version, vectors.get(i));
+                if (lexical != null) {
+                    lexical.add(row, texts.get(i));
+                }
+                chunkTextCache.remove(chunkIds.get(i));
+            }
+            DocumentAttributes attributes = documentAttributes;
+            if (attributes != null) {
+                documentAttributes = attributes.with(document);
+            }
+        } finally {
+            refreshLock.unlock();
+        }
+        eventPublisher.publishEvent(new DocumentChangedEvent(document.getId()));
+    }
+
+    /**
+     * Index the text of newly added rows in the BM25 index (rows in increasing order)
+     */
+    private void addToLexicalIndex(List<Integer> rows, List<String> chunkIds) throws InterruptedException {
+        LexicalIndex lexical = lexicalIndex;
+        if (lexical == null || rows.isEmpty()) {
+            return;
+        }
+        Map<String, Map<String, String>> texts = embeddingRepository.getChunkTexts(chunkIds);
+        for (int i = 0; i < rows.size(); i++) {
+            Map<String, String> chunk = texts.get(chunkIds.get(i));
+            if (chunk != null) {
+                lexical.add(rows.get(i), chunk.get("text"));
+            }
+        }
+    }
+
+    /**
+     * Build the BM25 index from one parallel scan of chunk text, in the background.
+     * Refreshes wait for the build (it holds the refresh lock) and then append new chunks to it;
+     * until it is ready, lexical and hybrid searches fall back to vector ranking.
+     */
+    private synchronized void buildLexicalIndex() {
+        if (!lexicalEnabled || lexicalBuilding) {
+            return;
+        }
+        lexicalBuilding = true;
+        pipelineExecutor.execute(() -> {
+            refreshLock.lock();
+            try {
+                long start = System.currentTimeMillis();
+                LexicalIndex.Builder builder = new LexicalIndex.Builder(bm25K1, bm25B);
+                embeddingRepository.scanTexts(item -> {
+                    int row = vectorStore.row(item.get("chunk_id").s());
+                    if (row >= 0 && item.containsKey("text")) {
+                        builder.add(row, item.get("text").s());
+                    }
+                });
+                LexicalIndex lexical = builder.build();
+                lexicalIndex = lexical;
+                System.out.println("BM25 index built over " + lexical.documents() + " chunks ("
+                        + lexical.terms() + " terms, " + lexical.postingsBytes() + " postings bytes) in "
+                        + (System.currentTimeMillis() - start) + " ms");
+            } catch (Exception e) {
+                System.err.println("Failed to build BM25 index: " + e.getMessage());
+            } finally {
+                lexicalBuilding = false;
+                refreshLock.unlock();
+            }
+        });
+    }
+
+    /**
+     * Map the newest valid segment file into the (empty) store.
+     * A segment with many removed rows is compacted first; indexes are not built yet, so renumbering is safe.
+     */
+    private void loadLatestSegment() {
+        if (segmentDir.isEmpty()) {
+            return;
+        }
+        for (Path file : listSegments()) {
+            try {
+                long start = System.currentTimeMillis();
+                VectorSegment segment = VectorSegment.map(file, verifySegmentChecksum);
+                if (segment.removedRows() > segmentCompactRatio * segment.rows()) {
+                    Path compacted = newSegmentFile();
+                    int rows = VectorSegment.compact(segment, compacted);
+                    System.out.println("Compacted " + file + ": dropped " + (segment.rows() - rows)
+                            + " removed rows");
+                    segment = VectorSegment.map(compacted, false);
+                    deleteSegmentsExcept(compacted);
+                }
+                vectorStore.loadSegment(segment);
+                System.out.println("Mapped " + segment.rows() + " vectors from " + file + " in "
+                        + (System.currentTimeMillis() - start) + " ms");
+                return;
+            } catch (Exception e) {
+                // Fall back to an older segment, or a full load from DynamoDB
+                System.err.println("Skipping unreadable segment " + file + ": " + e.getMessage());
+            }
+        }
+    }
+
+    /**
+     * Write the store to a new segment once enough rows have piled up in the heap, map it and serve
+     * the store from it, then delete older segments. Removed rows are written too (flagged), so row
+     * numbers do not change and the active indexes stay valid.
+     * 
+     * @param force Persist however few rows are in the heap
+     */
+    private void persistSegment(boolean force) {
+        if (segmentDir.isEmpty()) {
+            return;
+        }
+        VectorStore.Snapshot snapshot = vectorStore.snapshot();
+        int heapRows = snapshot.size() - snapshot.baseRows();
+        if (heapRows == 0 || (!force && heapRows < segmentRewriteMinRows)) {
+            return;
+        }
+        try {
+            long start = System.currentTimeMillis();
+            Path file = newSegmentFile();
+            int rows = VectorSegment.write(snapshot, file);
+            vectorStore.rebase(VectorSegment.map(file, false));
+            System.out.println("Persisted " + rows + " vectors to " + file + " in "
+                    + (System.currentTimeMillis() - start) + " ms; heap now holds "
+                    + (vectorStore.snapshot().size() - rows) + " rows");
+            deleteSegmentsExcept(file);
+        } catch (Exception e) {
+            System.err.println("Failed to persist vector segment: " + e.getMessage());
+        }
+    }
+
+    private Path newSegmentFile() throws IOException {
+        Path dir = Paths.get(segmentDir);
+        Files.createDirectories(dir);
+        return dir.resolve(VectorSegment.FILE_PREFIX + System.currentTimeMillis() + VectorSegment.FILE_SUFFIX);
+    }
+
+    private void deleteSegmentsExcept(Path keep) {
+        for (Path old : listSegments()) {
+            if (!old.equals(keep)) {
+                try {
+                    // Snapshots still reading an old mapping keep working; the pages go once they are dropped
+                    Files.deleteIfExists(old);
+                } catch (IOException e) {
+                    // Still mapped on platforms that lock mapped files; removed on a later persist
+                    System.err.println("Could not delete old segment " + old + ": " + e.getMessage());
+                }
+            }
+        }
+    }
+
+    /**
+     * List segment files, newest first
+     */
+    private List<Path> listSegments() {
+        Path dir = Paths.get(segmentDir);
+        if (!Files.isDirectory(dir)) {
+            return Collections.emptyList();
+        }
+        try (Stream<Path> files = Files.list(dir)) {
+            return files
+                    .filter(f -> f.getFileName().toString().startsWith(VectorSegment.FILE_PREFIX)
+                            && f.getFileName().toString().endsWith(VectorSegment.FILE_SUFFIX))
+                    .sorted(Comparator.comparing((Path f) -> f.getFileName().toString()).reversed())
+                    .collect(Collectors.toList());
+        } catch (IOException e) {
+            System.err.println("Failed to list segments in " + dir + ": " + e.getMessage());
+            return Collections.emptyList();
+        }
+    }
+
+    /**
+     * Evict a deleted document's chunks from the resident store
+     * 
+     * @param documentId ID of the deleted document
+     */
+    public void removeDocument(String documentId) {
+        int removed = vectorStore.removeDocument(documentId);
+        // Chunk ids are "{documentId}_chunk_{n}"
+        synchronized (chunkTextCache) {
+            chunkTextCache.keySet().removeIf(chunkId -> chunkId.startsWith(documentId + "_chunk_"));
+        }
+        System.out.println("Removed " + removed + " resident chunks for document: " + documentId);
+        eventPublisher.publishEvent(new DocumentChangedEvent(documentId));
+    }
+
+    /**
+     * Get the id and version of every chunk in DynamoDB
+     * 
+     * @return chunk_id -> updated_at (0 for items without one) in the DocumentEmbeddings table
+     */
+    private Map<String, Long> scanChunkVersions() throws Exception {
+        Map<String, Long> versions = new ConcurrentHashMap<>();
+        embeddingRepository.scanVersions(item ->
+                versions.put(item.get("chunk_id").s(), EmbeddingRepository.readVersion(item)));
+        return versions;
+    }
+
+    /**
+     * Document ids by owner and by lower-cased content type
+     */
+    private static final class DocumentAttributes {
+        private final Map<String, Set<String>> byUser = new HashMap<>();
+        private final Map<String, Set<String>> byContentType = new HashMap<>();
+
+        private DocumentAttributes(List<Document> documents) {
+            for (Document document : documents) {
+                if (document.getUserId() != null) {
+                    byUser.computeIfAbsent(document.getUserId(), key -> new HashSet<>()).add(document.getId());
+                }
+                if (document.getContentType() != null) {
+                    byContentType.computeIfAbsent(document.getContentType().toLowerCase(Locale.ROOT),
+                            key -> new HashSet<>()).add(document.getId());
+                }
+            }
+        }
+
+        /**
+         * Copy that also knows one more document; sets of other keys are shared, never modified
+         */
+        private DocumentAttributes with(Document document) {
+            String contentType = document.getContentType() != null
+                    ? document.getContentType().toLowerCase(Locale.ROOT) : null;
+            boolean knownUser = document.getUserId() == null
+                    || byUser.getOrDefault(document.getUserId(), Set.of()).contains(document.getId());
+            boolean knownType = contentType == null
+                    || byContentType.getOrDefault(contentType, Set.of()).contains(document.getId());
+            if (knownUser && knownType) {
+                return this;
+            }
+            DocumentAttributes copy = new DocumentAttributes(List.of());
+            copy.byUser.putAll(byUser);
+            copy.byContentType.putAll(byContentType);
+            if (!knownUser) {
+                Set<String> ids = new HashSet<>(byUser.getOrDefault(document.getUserId(), Set.of()));
+                ids.add(document.getId());
+                copy.byUser.put(document.getUserId(), ids);
+            }
+            if (!knownType) {
+                Set<String> ids = new HashSet<>(byContentType.getOrDefault(contentType, Set.of()));
+                ids.add(document.getId());
+                copy.byContentType.put(contentType, ids);
+            }
+            return copy;
+        }
+    }
+
+    /**
+     * Run a blocking stage (DynamoDB or OpenAI I/O) on the pipeline pool
+     */
+    private <T> CompletableFuture<T> async(Callable<T> stage) {
+        CompletableFuture<T> future = new CompletableFuture<>();
+        pipelineExecutor.execute(() -> {
+            try {
+                future.complete(stage.call());
+            } catch (Exception e) {
+                future.completeExceptionally(e);
+            }
+        });
+        return future;
+    }
+
+    /**
+     * Wait for a pipeline stage and rethrow its failure as thrown by the stage
+     */
+    static <T> T await(CompletableFuture<T> future) throws Exception {
+        try {
+            return future.get();
+        } catch (ExecutionException e) {
+            Throwable cause = e.getCause();
+            while (cause instanceof CompletionException && cause.getCause() != null) {
+                cause = cause.getCause();
+            }
+            if (cause instanceof Exception) {
+                throw (Exception) cause;
+            }
+            throw e;
+        }
     }
 }
@@ -0,0 +1,77 @@
+package com.example.demo.service;
+
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Coalesces concurrent calls with the same key into one execution.
+ *
+ * The first caller for a key runs the work; callers arriving while it is in flight wait on the
+ * same {@link CompletableFuture} and receive the same result (or exception). Nothing is cached:
+ * once the call completes, the next caller for the key starts a new execution.
+ *
+ * @param <K> Request key type
+ * @param <V> Result type; shared between callers, so it must be treated as read-only
+ */
+public class SingleFlight<K, V> {
+
+    private final ConcurrentHashMap<K, CompletableFuture<V>> inFlight = new ConcurrentHashMap<>();
+    private final AtomicLong executions = new AtomicLong();
+    private final AtomicLong coalesced = new AtomicLong();
+
+    /**
+     * Run the work for a key, or join the execution already in flight for it
+     *
+     * @param key Request key; equal keys must produce interchangeable results
+     * @param work Work to run when no call for the key is in flight
+     * @return Result of the shared execution
+     */
+    public V execute(K key, Callable<V> work) throws Exception {
+        CompletableFuture<V> created = new CompletableFuture<>();
+        CompletableFuture<V> existing = inFlight.putIfAbsent(key, created);
+        if (existing != null) {
+            coalesced.incrementAndGet();
+            return await(existing);
+        }
+
+        executions.incrementAndGet();
+        try {
+            V result = work.call();
+            created.complete(result);
+            return result;
+        } catch (Throwable t) {
+            created.completeExceptionally(t);
+            throw t;
+        } finally {
+            inFlight.remove(key, created);
+        }
+    }
+
+    /** Executions actually run */
+    public long getExecutions() {
+        return executions.get();
+    }
+
+    /** Calls that joined an execution already in flight */
+    public long getCoalesced() {
+        return coalesced.get();
+    }
+
+    private V await(CompletableFuture<V> future) throws Exception {
+        try {
+            return future.get();
+        } catch (ExecutionException e) {
+            Throwable cause = e.getCause();
+            if (cause instanceof Exception) {
+                throw (Exception) cause;
+            }
+            if (cause instanceof Error) {
+                throw (Error) cause;
+            }
+            throw e;
+        }
+    }
+}
@@ -0,0 +1,120 @@
+package com.example.demo.service;
+
+/**
+ * Local estimate of how many tokens the chat model's tokenizer (cl100k_base) produces for a text.
+ *
+ * Text is split the way that tokenizer's pre-tokenizer splits it: words with their leading space,
+ * digit runs in groups of three, punctuation runs and whitespace runs. Each piece is then costed
+ * without the 100k-entry merge table: common words are one token, long or non-ASCII words are
+ * costed per few characters. On English prose this lands within a few percent of the real count
+ * and errs high, which is the safe side for a prompt budget.
+ */
+public final class TokenCounter {
+
+    // ASCII words up to this length are almost always a single token
+    private static final int SINGLE_TOKEN_WORD = 8;
+    // Characters per token in longer ASCII words
+    private static final int WORD_CHARS_PER_TOKEN = 5;
+
+    private TokenCounter() {
+    }
+
+    /**
+     * @param text Text to measure
+     * @return Estimated token count
+     */
+    public static int count(String text) {
+        if (text == null) {
+            return 0;
+        }
+        int tokens = 0;
+        int i = 0;
+        while (i < text.length()) {
+            int end = pieceEnd(text, i);
+            tokens += pieceTokens(text, i, end);
+            i = end;
+        }
+        return tokens;
+    }
+
+    /**
+     * Longest prefix of the text that fits in a token budget, cut at a word boundary when possible
+     *
+     * @param text Text to shorten
+     * @param maxTokens Token budget
+     * @return The whole text if it fits, otherwise its longest prefix within the budget
+     */
+    public static String truncate(String text, int maxTokens) {
+        int tokens = 0;
+        int i = 0;
+        while (i < text.length()) {
+            int end = pieceEnd(text, i);
+            int cost = pieceTokens(text, i, end);
+            if (tokens + cost > maxTokens) {
+                break;
+            }
+            tokens += cost;
+            i = end;
+        }
+        if (i == text.length()) {
+            return text;
+        }
+        // Pieces end at word edges, so the cut never splits a word
+        return text.substring(0, i).stripTrailing();
+    }
+
+    /**
+     * End of the pre-tokenizer piece starting at i
+     */
+    private static int pieceEnd(String text, int i) {
+        int n = text.length();
+        char c = text.charAt(i);
+        // A single space belongs to the word or punctuation that follows it
+        if (c == ' ' && i + 1 < n && !Character.isWhitespace(text.charAt(i + 1))) {
+            i++;
+            c = text.charAt(i);
+        }
+        if (Character.isLetter(c)) {
+            while (i < n && Character.isLetter(text.charAt(i))) {
+                i++;
+            }
+        } else if (Character.isDigit(c)) {
+            while (i < n && Character.isDigit(text.charAt(i))) {
+                i++;
+            }
+        } else if (Character.isWhitespace(c)) {
+            while (i < n && Character.isWhitespace(text.charAt(i))) {
+                i++;
+            }
+        } else {
+            while (i < n && !Character.isLetterOrDigit(text.charAt(i)) && !Character.isWhitespace(text.charAt(i))) {
+                i++;
+            }
+        }
+        return i;
+    }
+
+    private static int pieceTokens(String text, int start, int end) {
+        if (text.charAt(start) == ' ' && end - start > 1) {
+            start++;
+        }
+        char c = text.charAt(start);
+        int length = end - start;
+        if (Character.isLetter(c)) {
+            for (int i = start; i < end; i++) {
+                if (text.charAt(i) > 127) {
+                    // Accented and CJK text runs close to one token per character
+                    return length;
+                }
+            }
+            return length <= SINGLE_TOKEN_WORD ? 1 : (length + WORD_CHARS_PER_TOKEN - 1) / WORD_CHARS_PER_TOKEN;
+        }
+        if (Character.isDigit(c)) {
+            return (length + 2) / 3;
+        }
+        if (Character.isWhitespace(c)) {
+            return 1;
+        }
+        return (length + 2) / 3;
+    }
+}
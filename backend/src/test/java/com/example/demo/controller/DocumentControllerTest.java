@@ -0,0 +1,151 @@
+package com.example.demo.controller;
+
+import com.example.demo.model.Document;
+import com.example.demo.repository.DocumentRepository;
+import com.example.demo.service.S3Service;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.ResponseEntity;
+import org.springframework.test.util.ReflectionTestUtils;
+import org.springframework.web.servlet.mvc.method.annotation.StreamingResponseBody;
+import software.amazon.awssdk.awscore.exception.AwsErrorDetails;
+import software.amazon.awssdk.core.ResponseInputStream;
+import software.amazon.awssdk.http.AbortableInputStream;
+import software.amazon.awssdk.http.SdkHttpResponse;
+import software.amazon.awssdk.services.s3.model.GetObjectResponse;
+import software.amazon.awssdk.services.s3.model.S3Exception;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.FilterInputStream;
+import java.nio.charset.StandardCharsets;
+import java.time.Instant;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.ArgumentMatchers.isNull;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+class DocumentControllerTest {
+
+    private static final byte[] CONTENT = "0123456789".getBytes(StandardCharsets.UTF_8);
+    private static final String ETAG = "\"5d41402abc4b2a76\"";
+
+    private final DocumentRepository documentRepository = mock(DocumentRepository.class);
+    private final S3Service s3Service = mock(S3Service.class);
+    private final DocumentController controller = new DocumentController();
+    private final Document document = new Document("doc-1", "user-1", "report.pdf", "documents/user-1/doc-1.pdf",
+            (long) CONTENT.length, "application/pdf", Instant.now(), "COMPLETED");
+    private boolean objectClosed;
+
+    @BeforeEach
+    void setUp() {
+        ReflectionTestUtils.setField(controller, "documentRepository", documentRepository);
+        ReflectionTestUtils.setField(controller, "s3Service", s3Service);
+        when(documentRepository.findById("doc-1")).thenReturn(document);
+    }
+
+    @Test
+    void rangeIsServedAsPartialContent() throws Exception {
+        when(s3Service.openFile(document.getS3Key(), "bytes=2-5", null))
+                .thenReturn(object(2, 6, "bytes 2-5/10"));
+
+        ResponseEntity<?> response = controller.downloadDocument("doc-1", "bytes=2-5", null);
+
+        assertEquals(206, response.getStatusCode().value());
+        HttpHeaders headers = response.getHeaders();
+        assertEquals("bytes 2-5/10", headers.getFirst(HttpHeaders.CONTENT_RANGE));
+        assertEquals(4, headers.getContentLength());
+        assertEquals(ETAG, headers.getETag());
+        assertEquals("bytes", headers.getFirst(HttpHeaders.ACCEPT_RANGES));
+        assertArrayEquals("2345".getBytes(StandardCharsets.UTF_8), write(response));
+        assertTrue(objectClosed);
+    }
+
+    @Test
+    void multipleRangesGetTheWholeFile() throws Exception {
+        when(s3Service.openFile(eq(document.getS3Key()), isNull(), isNull()))
+                .thenReturn(object(0, CONTENT.length, null));
+
+        ResponseEntity<?> response = controller.downloadDocument("doc-1", "bytes=0-1,4-5", null);
+
+        assertEquals(200, response.getStatusCode().value());
+        assertNull(response.getHeaders().getFirst(HttpHeaders.CONTENT_RANGE));
+        assertArrayEquals(CONTENT, write(response));
+    }
+
+    @Test
+    void notModifiedCarriesTheObjectsETagRatherThanTheRequestHeader() {
+        SdkHttpResponse notModified = SdkHttpResponse.builder()
+                .statusCode(304)
+                .putHeader(HttpHeaders.ETAG, ETAG)
+                .build();
+        when(s3Service.openFile(document.getS3Key(), null, "*")).thenThrow(S3Exception.builder()
+                .statusCode(304)
+                .awsErrorDetails(AwsErrorDetails.builder().sdkHttpResponse(notModified).build())
+                .build());
+
+        ResponseEntity<?> response = controller.downloadDocument("doc-1", null, "*");
+
+        assertEquals(304, response.getStatusCode().value());
+        assertEquals(ETAG, response.getHeaders().getETag());
+        assertNull(response.getBody());
+    }
+
+    @Test
+    void rangeOutsideTheFileIsNotSatisfiable() {
+        when(s3Service.openFile(document.getS3Key(), "bytes=20-30", null))
+                .thenThrow(S3Exception.builder().statusCode(416).build());
+
+        ResponseEntity<?> response = controller.downloadDocument("doc-1", "bytes=20-30", null);
+
+        assertEquals(416, response.getStatusCode().value());
+        assertEquals("bytes */10", response.getHeaders().getFirst(HttpHeaders.CONTENT_RANGE));
+    }
+
+    @Test
+    void objectIsClosedWhenTheResponseCannotBeBuilt() {
+        document.setContentType("not a media type");
+        when(s3Service.openFile(document.getS3Key(), null, null)).thenReturn(object(0, CONTENT.length, null));
+
+        ResponseEntity<?> response = controller.downloadDocument("doc-1", null, null);
+
+        assertEquals(500, response.getStatusCode().value());
+        assertTrue(objectClosed);
+    }
+
+    @Test
+    void unknownDocumentIsNotFound() {
+        ResponseEntity<?> response = controller.downloadDocument("missing", null, null);
+
+        assertEquals(404, response.getStatusCode().value());
+        assertFalse(objectClosed);
+    }
+
+    private ResponseInputStream<GetObjectResponse> object(int from, int to, String contentRange) {
+        GetObjectResponse metadata = GetObjectResponse.builder()
+                .eTag(ETAG)
+                .contentLength((long) (to - from))
+                .contentRange(contentRange)
+                .build();
+        FilterInputStream in = new FilterInputStream(new ByteArrayInputStream(CONTENT, from, to - from)) {
+            @Override
+            public void close() {
+                objectClosed = true;
+            }
+        };
+        return new ResponseInputStream<>(metadata, AbortableInputStream.create(in));
+    }
+
+    private static byte[] write(ResponseEntity<?> response) throws Exception {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        ((StreamingResponseBody) response.getBody()).writeTo(out);
+        return out.toByteArray();
+    }
+}
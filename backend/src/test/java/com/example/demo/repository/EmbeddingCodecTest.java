@@ -0,0 +1,96 @@
+package com.example.demo.repository;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class EmbeddingCodecTest {
+
+    @Test
+    void everyHalfValueRoundTrips() {
+        for (int bits = 0; bits <= 0xffff; bits++) {
+            short half = (short) bits;
+            float value = EmbeddingCodec.fromHalf(half);
+            if (Float.isNaN(value)) {
+                assertTrue(Float.isNaN(EmbeddingCodec.fromHalf(EmbeddingCodec.toHalf(value))));
+                continue;
+            }
+            assertEquals(half, EmbeddingCodec.toHalf(value), "half bits 0x" + Integer.toHexString(bits));
+        }
+    }
+
+    @Test
+    void knownValuesConvert() {
+        assertEquals(1.0f, EmbeddingCodec.fromHalf((short) 0x3c00), 0f);
+        assertEquals(-2.0f, EmbeddingCodec.fromHalf((short) 0xc000), 0f);
+        assertEquals(65504f, EmbeddingCodec.fromHalf((short) 0x7bff), 0f);
+        assertEquals(0x1p-24f, EmbeddingCodec.fromHalf((short) 0x0001), 0f);
+        assertEquals((short) 0x3555, EmbeddingCodec.toHalf(1f / 3f));
+        assertEquals((short) 0x8000, EmbeddingCodec.toHalf(-0f));
+    }
+
+    @Test
+    void roundsToNearestWithTiesToEven() {
+        // Halfway between 1 and the next half (1 + 2^-10): the even neighbour, 1, wins
+        assertEquals(1f, EmbeddingCodec.fromHalf(EmbeddingCodec.toHalf(1f + 0x1p-11f)), 0f);
+        // Halfway between 1 + 2^-10 and 1 + 2^-9: rounds up to the even 1 + 2^-9
+        assertEquals(1f + 0x1p-9f, EmbeddingCodec.fromHalf(EmbeddingCodec.toHalf(1f + 3 * 0x1p-11f)), 0f);
+        // Subnormal ties: 2^-25 goes to zero, 3 * 2^-25 up to 2^-23
+        assertEquals(0f, EmbeddingCodec.fromHalf(EmbeddingCodec.toHalf(0x1p-25f)), 0f);
+        assertEquals(0x1p-23f, EmbeddingCodec.fromHalf(EmbeddingCodec.toHalf(3 * 0x1p-25f)), 0f);
+        assertEquals(0f, EmbeddingCodec.fromHalf(EmbeddingCodec.toHalf(0x1p-30f)), 0f);
+    }
+
+    @Test
+    void overflowAndSpecialValues() {
+        assertEquals(65504f, EmbeddingCodec.fromHalf(EmbeddingCodec.toHalf(65519f)), 0f);
+        assertEquals(Float.POSITIVE_INFINITY, EmbeddingCodec.fromHalf(EmbeddingCodec.toHalf(65520f)), 0f);
+        assertEquals(Float.NEGATIVE_INFINITY, EmbeddingCodec.fromHalf(EmbeddingCodec.toHalf(-1e9f)), 0f);
+        assertEquals(Float.POSITIVE_INFINITY,
+                EmbeddingCodec.fromHalf(EmbeddingCodec.toHalf(Float.POSITIVE_INFINITY)), 0f);
+        assertTrue(Float.isNaN(EmbeddingCodec.fromHalf(EmbeddingCodec.toHalf(Float.NaN))));
+    }
+
+    @Test
+    void conversionErrorIsWithinHalfAnUlp() {
+        Random random = new Random(1);
+        for (int i = 0; i < 100_000; i++) {
+            float value = (float) (random.nextGaussian() * 0.05);
+            float restored = EmbeddingCodec.fromHalf(EmbeddingCodec.toHalf(value));
+            // Half spacing is 2^-10 of the binade above the subnormal range, 2^-24 inside it
+            float spacing = Math.max(0x1p-24f, Math.ulp(value) * (1 << 13));
+            assertTrue(Math.abs(restored - value) <= spacing / 2, value + " became " + restored);
+        }
+    }
+
+    @Test
+    void binaryFormatsRoundTripAVector() {
+        Random random = new Random(2);
+        float[] vector = new float[1536];
+        for (int i = 0; i < vector.length; i++) {
+            vector[i] = (float) (random.nextGaussian() * 0.05);
+        }
+
+        byte[] float32 = EmbeddingCodec.encode(vector, EmbeddingCodec.FORMAT_FLOAT32);
+        assertEquals(vector.length * 4, float32.length);
+        assertArrayEquals(vector, EmbeddingCodec.decode(float32, EmbeddingCodec.FORMAT_FLOAT32));
+
+        byte[] float16 = EmbeddingCodec.encode(vector, EmbeddingCodec.FORMAT_FLOAT16);
+        assertEquals(vector.length * 2, float16.length);
+        assertArrayEquals(vector, EmbeddingCodec.decode(float16, EmbeddingCodec.FORMAT_FLOAT16), 2e-4f);
+    }
+
+    @Test
+    void parsesLegacyJson() {
+        assertArrayEquals(new float[] {0.23f, -0.15f, 1e-3f},
+                EmbeddingCodec.parseJson("[0.23, -0.15,1e-3]"));
+        assertEquals(0, EmbeddingCodec.parseJson("[ ]").length);
+        assertThrows(IllegalArgumentException.class, () -> EmbeddingCodec.parseJson("0.23, -0.15"));
+        assertThrows(IllegalArgumentException.class, () -> EmbeddingCodec.formatOf("int8"));
+    }
+}
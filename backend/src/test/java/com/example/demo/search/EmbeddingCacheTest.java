@@ -0,0 +1,87 @@
+package com.example.demo.search;
+
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotEquals;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertSame;
+
+class EmbeddingCacheTest {
+
+    // 96 bytes of overhead + 2 key chars * 2 + 4 floats * 4
+    private static final long ENTRY_BYTES = 96 + 4 + 16;
+
+    @Test
+    void keyIgnoresWhitespaceButNotTheModel() {
+        assertEquals(EmbeddingCache.key("m", " What  is\tAI? \n"), EmbeddingCache.key("m", "What is AI?"));
+        assertNotEquals(EmbeddingCache.key("m", "ai"), EmbeddingCache.key("other", "ai"));
+    }
+
+    @Test
+    void keyKeepsCase() {
+        // Acronyms and identifiers embed differently from the lower-case word
+        assertNotEquals(EmbeddingCache.key("m", "IT policy"), EmbeddingCache.key("m", "it policy"));
+        assertNotEquals(EmbeddingCache.key("m", "getUserId"), EmbeddingCache.key("m", "getuserid"));
+    }
+
+    @Test
+    void countsHitsAndMisses() {
+        EmbeddingCache cache = new EmbeddingCache(10_000, 60_000);
+        float[] vector = new float[4];
+        assertNull(cache.get("k1"));
+        cache.put("k1", vector);
+        assertSame(vector, cache.get("k1"));
+        assertSame(vector, cache.get("k1"));
+        assertEquals(2, cache.getHits());
+        assertEquals(1, cache.getMisses());
+        assertEquals(2.0 / 3.0, cache.hitRatio(), 1e-9);
+        assertEquals(ENTRY_BYTES, cache.getWeightBytes());
+    }
+
+    @Test
+    void evictsLeastRecentlyUsedPastTheWeightLimit() {
+        EmbeddingCache cache = new EmbeddingCache(3 * ENTRY_BYTES, 60_000);
+        cache.put("k1", new float[4]);
+        cache.put("k2", new float[4]);
+        cache.put("k3", new float[4]);
+        // Touch k1 so k2 is now the least recently used
+        assertNotNull(cache.get("k1"));
+        cache.put("k4", new float[4]);
+
+        assertEquals(3, cache.size());
+        assertEquals(1, cache.getEvictions());
+        assertNull(cache.get("k2"));
+        assertNotNull(cache.get("k1"));
+        assertNotNull(cache.get("k4"));
+        assertEquals(3 * ENTRY_BYTES, cache.getWeightBytes());
+    }
+
+    @Test
+    void replacingAnEntryKeepsTheWeightExact() {
+        EmbeddingCache cache = new EmbeddingCache(10_000, 60_000);
+        cache.put("k1", new float[4]);
+        cache.put("k1", new float[8]);
+        assertEquals(1, cache.size());
+        assertEquals(ENTRY_BYTES + 16, cache.getWeightBytes());
+    }
+
+    @Test
+    void entryHeavierThanTheLimitIsNotCached() {
+        EmbeddingCache cache = new EmbeddingCache(ENTRY_BYTES - 1, 60_000);
+        cache.put("k1", new float[4]);
+        assertEquals(0, cache.size());
+        assertEquals(0, cache.getWeightBytes());
+    }
+
+    @Test
+    void expiredEntriesAreMissesAndReleaseTheirWeight() {
+        EmbeddingCache cache = new EmbeddingCache(10_000, 0);
+        cache.put("k1", new float[4]);
+        assertNull(cache.get("k1"));
+        assertEquals(0, cache.size());
+        assertEquals(0, cache.getWeightBytes());
+        assertEquals(1, cache.getMisses());
+    }
+}
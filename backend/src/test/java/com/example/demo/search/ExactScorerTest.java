@@ -0,0 +1,120 @@
+package com.example.demo.search;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class ExactScorerTest {
+
+    private static final int ROWS = 5000;
+    private static final int DIMENSION = 24;
+
+    private final ExactScorer serial = new ExactScorer(1, Integer.MAX_VALUE);
+    private final ExactScorer parallel = new ExactScorer(4, 100);
+
+    @AfterEach
+    void shutdown() {
+        serial.shutdown();
+        parallel.shutdown();
+    }
+
+    @Test
+    void parallelSearchReturnsTheSerialResult() {
+        Random random = new Random(1);
+        VectorStore store = randomStore(random);
+        for (int q = 0; q < 20; q++) {
+            float[] query = randomUnitVector(random);
+            assertSameHits(serial.search(store.snapshot(), query, 10), parallel.search(store.snapshot(), query, 10));
+        }
+    }
+
+    @Test
+    void serialSearchReturnsTheBestLiveRows() {
+        Random random = new Random(2);
+        VectorStore store = randomStore(random);
+        List<String> removed = new ArrayList<>();
+        for (int row = 0; row < ROWS; row += 3) {
+            removed.add("c" + row);
+        }
+        store.removeChunks(removed);
+        VectorStore.Snapshot snapshot = store.snapshot();
+        float[] query = randomUnitVector(random);
+
+        // Reference: the best live row found by a plain loop
+        int bestRow = -1;
+        for (int row = 0; row < snapshot.size(); row++) {
+            if (snapshot.isLive(row)
+                    && (bestRow < 0 || snapshot.similarity(row, query) > snapshot.similarity(bestRow, query))) {
+                bestRow = row;
+            }
+        }
+        SearchHits hits = serial.search(snapshot, query, 10);
+        assertEquals(bestRow, hits.row(0));
+        for (int i = 0; i < hits.size(); i++) {
+            assertTrue(hits.row(i) % 3 != 0, "removed row " + hits.row(i) + " returned");
+        }
+        assertSameHits(hits, parallel.search(snapshot, query, 10));
+    }
+
+    @Test
+    void filteredSearchOnlyScoresTheFilterRows() {
+        Random random = new Random(3);
+        VectorStore store = randomStore(random);
+        int[] allowed = new int[ROWS / 7 + 1];
+        int count = 0;
+        for (int row = 0; row < ROWS; row += 7) {
+            allowed[count++] = row;
+        }
+        RowBitmap filter = RowBitmap.of(allowed, count);
+        float[] query = randomUnitVector(random);
+
+        SearchHits hits = parallel.search(store.snapshot(), query, 10, filter);
+        assertEquals(10, hits.size());
+        for (int i = 0; i < hits.size(); i++) {
+            assertEquals(0, hits.row(i) % 7);
+        }
+        assertSameHits(serial.search(store.snapshot(), query, 10, filter), hits);
+    }
+
+    @Test
+    void returnsEveryLiveRowWhenKExceedsThem() {
+        VectorStore store = new VectorStore();
+        Random random = new Random(4);
+        for (int row = 0; row < 3; row++) {
+            store.add("c" + row, "d", randomUnitVector(random));
+        }
+        SearchHits hits = parallel.search(store.snapshot(), randomUnitVector(random), 10);
+        assertEquals(3, hits.size());
+    }
+
+    private static void assertSameHits(SearchHits expected, SearchHits actual) {
+        assertEquals(expected.size(), actual.size());
+        for (int i = 0; i < expected.size(); i++) {
+            assertEquals(expected.row(i), actual.row(i));
+            assertEquals(expected.score(i), actual.score(i), 0f);
+        }
+    }
+
+    private static VectorStore randomStore(Random random) {
+        VectorStore store = new VectorStore();
+        for (int row = 0; row < ROWS; row++) {
+            store.add("c" + row, "d" + row / 10, randomUnitVector(random));
+        }
+        return store;
+    }
+
+    private static float[] randomUnitVector(Random random) {
+        float[] vector = new float[DIMENSION];
+        for (int i = 0; i < DIMENSION; i++) {
+            vector[i] = (float) random.nextGaussian();
+        }
+        VectorMath.normalize(vector);
+        return vector;
+    }
+}
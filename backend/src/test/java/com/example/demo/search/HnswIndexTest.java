@@ -0,0 +1,109 @@
+package com.example.demo.search;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.HashSet;
+import java.util.List;
+import java.util.Random;
+import java.util.Set;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class HnswIndexTest {
+
+    private static final int ROWS = 3000;
+    private static final int DIMENSION = 32;
+    private static final int QUERIES = 200;
+    private static final int K = 10;
+
+    @Test
+    void recallAt10IsCloseToExactSearch() {
+        Random random = new Random(7);
+        VectorStore store = randomStore(random);
+        HnswIndex index = new HnswIndex(store, 16, 200, 64);
+        index.build();
+        assertEquals(ROWS, index.size());
+
+        ExactScorer exact = new ExactScorer(1, Integer.MAX_VALUE);
+        int found = 0;
+        for (int q = 0; q < QUERIES; q++) {
+            float[] query = randomUnitVector(random);
+            Set<Integer> truth = rows(exact.search(store.snapshot(), query, K));
+            SearchHits hits = index.search(query, K, SearchOptions.defaults());
+            assertEquals(K, hits.size());
+            for (int i = 0; i < hits.size(); i++) {
+                if (truth.contains(hits.row(i))) {
+                    found++;
+                }
+            }
+        }
+        double recall = (double) found / (QUERIES * K);
+        assertTrue(recall >= 0.9, "recall@10 was " + recall);
+    }
+
+    @Test
+    void resultsAreOrderedBestFirstWithExactScores() {
+        Random random = new Random(8);
+        VectorStore store = randomStore(random);
+        HnswIndex index = new HnswIndex(store, 16, 100, 64);
+        index.build();
+
+        float[] query = randomUnitVector(random);
+        SearchHits hits = index.search(query, K, SearchOptions.defaults());
+        for (int i = 0; i < hits.size(); i++) {
+            assertEquals(store.snapshot().similarity(hits.row(i), query), hits.score(i), 1e-6f);
+            if (i > 0) {
+                assertTrue(hits.score(i - 1) >= hits.score(i));
+            }
+        }
+    }
+
+    @Test
+    void removedRowsAndRowsOutsideTheFilterAreNeverReturned() {
+        Random random = new Random(9);
+        VectorStore store = randomStore(random);
+        HnswIndex index = new HnswIndex(store, 16, 100, 64);
+        index.build();
+
+        // A stored vector is its own nearest neighbour until it is removed
+        float[] query = new float[DIMENSION];
+        store.snapshot().copyRow(42, query);
+        assertEquals(42, index.search(query, 1, SearchOptions.defaults()).row(0));
+        store.removeChunks(List.of("c42"));
+        assertTrue(!rows(index.search(query, K, SearchOptions.defaults())).contains(42));
+
+        int[] allowed = {5, 17, 900, 2500};
+        SearchOptions filtered = SearchOptions.defaults().withRowFilter(RowBitmap.of(allowed, allowed.length));
+        SearchHits hits = index.search(query, K, filtered);
+        Set<Integer> allowedRows = Set.of(5, 17, 900, 2500);
+        for (int i = 0; i < hits.size(); i++) {
+            assertTrue(allowedRows.contains(hits.row(i)));
+        }
+    }
+
+    private static VectorStore randomStore(Random random) {
+        VectorStore store = new VectorStore();
+        for (int row = 0; row < ROWS; row++) {
+            store.add("c" + row, "d" + row / 10, randomUnitVector(random));
+        }
+        return store;
+    }
+
+    private static float[] randomUnitVector(Random random) {
+        float[] vector = new float[DIMENSION];
+        for (int i = 0; i < DIMENSION; i++) {
+            vector[i] = (float) random.nextGaussian();
+        }
+        VectorMath.normalize(vector);
+        return vector;
+    }
+
+    private static Set<Integer> rows(SearchHits hits) {
+        Set<Integer> rows = new HashSet<>();
+        for (int i = 0; i < hits.size(); i++) {
+            rows.add(hits.row(i));
+        }
+        return rows;
+    }
+}
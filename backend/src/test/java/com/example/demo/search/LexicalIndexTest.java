@@ -0,0 +1,126 @@
+package com.example.demo.search;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class LexicalIndexTest {
+
+    private static final float K1 = 1.2f;
+    private static final float B = 0.75f;
+
+    private static final String[] TEXTS = {
+        "Refund policy: refunds are issued within 30 days",
+        "Vacation policy for full-time employees",
+        "Error SKU-1042 means the warehouse is out of stock",
+        "Expense reports are due at the end of the month",
+    };
+
+    @Test
+    void tokenizeLowercasesAndAddsJoinedCompounds() {
+        assertEquals(List.of("error", "sku", "1042", "sku1042", "in", "v2", "3", "1", "v231"),
+                LexicalIndex.tokenize("Error SKU-1042 in v2.3.1"));
+        // A separator followed by a space does not join
+        assertEquals(List.of("end", "of", "line"), LexicalIndex.tokenize("End - of. Line"));
+        assertEquals(List.of(), LexicalIndex.tokenize(null));
+    }
+
+    @Test
+    void scoresMatchTheBm25Formula() {
+        VectorStore store = storeOf(TEXTS.length);
+        LexicalIndex index = sequentialIndex();
+
+        SearchHits hits = index.search("vacation", 10, store.snapshot());
+        assertEquals(1, hits.size());
+        assertEquals(1, hits.row(0));
+
+        // "vacation" occurs once in row 1 and in 1 of 4 rows. Rows have 8, 7 ("full-time" adds
+        // full, time and fulltime), 11 and 10 tokens
+        float averageLength = (8 + 7 + 11 + 10) / 4f;
+        float idf = (float) Math.log(1 + (4 - 1 + 0.5) / (1 + 0.5));
+        float norm = K1 * (1 - B + B * 7 / averageLength);
+        assertEquals(idf * (K1 + 1) / (1 + norm), hits.score(0), 1e-5f);
+    }
+
+    @Test
+    void rowsMatchingMoreTermsRankFirst() {
+        VectorStore store = storeOf(TEXTS.length);
+        SearchHits hits = sequentialIndex().search("refund policy", 10, store.snapshot());
+        assertEquals(2, hits.size());
+        assertEquals(0, hits.row(0));
+        assertEquals(1, hits.row(1));
+
+        // Compound tokens make the joined and split spellings match the same row
+        assertEquals(2, sequentialIndex().search("sku1042", 10, store.snapshot()).row(0));
+        assertEquals(2, sequentialIndex().search("sku 1042", 10, store.snapshot()).row(0));
+    }
+
+    @Test
+    void removedRowsAndRowsOutsideTheFilterAreSkipped() {
+        VectorStore store = storeOf(TEXTS.length);
+        LexicalIndex index = sequentialIndex();
+        store.removeChunks(List.of("c0"));
+        SearchHits hits = index.search("refund policy", 10, store.snapshot());
+        assertEquals(1, hits.size());
+        assertEquals(1, hits.row(0));
+
+        SearchHits filtered = index.search("policy the", 10, store.snapshot(), RowBitmap.of(new int[] {2, 3}, 2));
+        assertEquals(2, filtered.size());
+        for (int i = 0; i < filtered.size(); i++) {
+            assertTrue(filtered.row(i) == 2 || filtered.row(i) == 3);
+        }
+    }
+
+    @Test
+    void bulkBuildInAnyOrderEqualsSequentialAdds() {
+        VectorStore store = storeOf(TEXTS.length);
+        LexicalIndex.Builder builder = new LexicalIndex.Builder(K1, B);
+        for (int row : new int[] {2, 0, 3, 1}) {
+            builder.add(row, TEXTS[row]);
+        }
+        LexicalIndex built = builder.build();
+        LexicalIndex sequential = sequentialIndex();
+        assertEquals(sequential.documents(), built.documents());
+        assertEquals(sequential.terms(), built.terms());
+        assertEquals(sequential.postingsBytes(), built.postingsBytes());
+
+        for (String query : new String[] {"policy", "the end of the month", "refunds within 30 days"}) {
+            SearchHits expected = sequential.search(query, 10, store.snapshot());
+            SearchHits actual = built.search(query, 10, store.snapshot());
+            assertEquals(expected.size(), actual.size());
+            for (int i = 0; i < expected.size(); i++) {
+                assertEquals(expected.row(i), actual.row(i));
+                assertEquals(expected.score(i), actual.score(i), 1e-6f);
+            }
+        }
+    }
+
+    @Test
+    void appendedRowsMustComeAfterIndexedOnes() {
+        VectorStore store = storeOf(TEXTS.length + 1);
+        LexicalIndex index = sequentialIndex();
+        index.add(4, "Remote work policy");
+        assertEquals(4, index.search("remote", 10, store.snapshot()).row(0));
+        assertThrows(IllegalArgumentException.class, () -> index.add(2, "too late"));
+    }
+
+    private static LexicalIndex sequentialIndex() {
+        LexicalIndex index = new LexicalIndex(K1, B);
+        for (int row = 0; row < TEXTS.length; row++) {
+            index.add(row, TEXTS[row]);
+        }
+        return index;
+    }
+
+    private static VectorStore storeOf(int rows) {
+        VectorStore store = new VectorStore();
+        for (int row = 0; row < rows; row++) {
+            store.add("c" + row, "d" + row, new float[] {1f, row});
+        }
+        return store;
+    }
+}
@@ -0,0 +1,63 @@
+package com.example.demo.search;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+class QuantizedIndexTest {
+
+    private static final int DIMENSION = 16;
+
+    @Test
+    void rowsSpreadOverManySlabsScoreAsInOneSlab() {
+        Random random = new Random(1);
+        VectorStore store = new VectorStore();
+        for (int i = 0; i < 500; i++) {
+            store.add("c" + i, "d", VectorSegmentTest.randomVector(random));
+        }
+        // 3 rows per slab against one slab for everything
+        QuantizedIndex small = new QuantizedIndex(store, 20, 3 * DIMENSION);
+        QuantizedIndex large = new QuantizedIndex(store, 20);
+        small.build();
+        large.build();
+
+        // Rows added after the build land in new slabs, including one straddling a boundary
+        for (int i = 500; i < 700; i++) {
+            int row = store.add("c" + i, "d", VectorSegmentTest.randomVector(random));
+            small.add(row);
+            large.add(row);
+        }
+        assertEquals(700, small.size());
+
+        for (int q = 0; q < 20; q++) {
+            float[] query = VectorSegmentTest.randomVector(random);
+            SearchHits expected = large.search(query, 10, SearchOptions.defaults());
+            SearchHits actual = small.search(query, 10, SearchOptions.defaults());
+            assertEquals(expected.size(), actual.size());
+            for (int i = 0; i < expected.size(); i++) {
+                assertEquals(expected.row(i), actual.row(i));
+                assertEquals(expected.score(i), actual.score(i), 0f);
+            }
+        }
+    }
+
+    @Test
+    void eachRowIsFoundByItsOwnVectorAcrossSlabBoundaries() {
+        Random random = new Random(2);
+        VectorStore store = new VectorStore();
+        float[][] vectors = new float[64][];
+        for (int i = 0; i < vectors.length; i++) {
+            vectors[i] = VectorSegmentTest.randomVector(random);
+            store.add("c" + i, "d", vectors[i]);
+        }
+        // One row per slab: the last byte of each row sits at a slab edge
+        QuantizedIndex index = new QuantizedIndex(store, 10, DIMENSION);
+        index.build();
+        for (int i = 0; i < vectors.length; i++) {
+            SearchHits hits = index.search(vectors[i], 1, SearchOptions.defaults());
+            assertEquals(i, hits.row(0));
+        }
+    }
+}
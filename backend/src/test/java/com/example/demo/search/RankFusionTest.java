@@ -0,0 +1,44 @@
+package com.example.demo.search;
+
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+class RankFusionTest {
+
+    private static final int RRF_K = 60;
+
+    @Test
+    void rowsRankedByBothRetrieversWinAndScoresAreReciprocalRankSums() {
+        SearchHits vector = new SearchHits(new int[] {10, 20, 30}, new float[] {0.9f, 0.8f, 0.7f});
+        SearchHits lexical = new SearchHits(new int[] {30, 40, 10}, new float[] {12f, 9f, 3f});
+
+        SearchHits fused = RankFusion.reciprocalRank(4, RRF_K, vector, lexical);
+        assertEquals(4, fused.size());
+        // 10: ranks 1 and 3; 30: ranks 3 and 1 (a tie, in either order); then 20 (rank 2) and 40 (rank 2)
+        float both = 1f / 61 + 1f / 63;
+        assertEquals(both, fused.score(0), 1e-7f);
+        assertEquals(both, fused.score(1), 1e-7f);
+        assertEquals(30 + 10, fused.row(0) + fused.row(1));
+        assertEquals(1f / 62, fused.score(2), 1e-7f);
+        assertEquals(1f / 62, fused.score(3), 1e-7f);
+        assertEquals(20 + 40, fused.row(2) + fused.row(3));
+    }
+
+    @Test
+    void onlyRanksMatterNotRawScores() {
+        SearchHits first = new SearchHits(new int[] {1, 2}, new float[] {1000f, 999f});
+        SearchHits second = new SearchHits(new int[] {2, 1}, new float[] {0.02f, 0.01f});
+        SearchHits fused = RankFusion.reciprocalRank(2, RRF_K, first, second);
+        assertEquals(fused.score(0), fused.score(1), 0f);
+    }
+
+    @Test
+    void keepsAtMostKRows() {
+        SearchHits ranking = new SearchHits(new int[] {5, 6, 7}, new float[] {3f, 2f, 1f});
+        SearchHits fused = RankFusion.reciprocalRank(2, RRF_K, ranking, SearchHits.EMPTY);
+        assertEquals(2, fused.size());
+        assertEquals(5, fused.row(0));
+        assertEquals(6, fused.row(1));
+    }
+}
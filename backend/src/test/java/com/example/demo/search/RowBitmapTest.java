@@ -0,0 +1,91 @@
+package com.example.demo.search;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.BitSet;
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class RowBitmapTest {
+
+    @Test
+    void matchesABitSetAcrossSparseAndDenseContainers() {
+        Random random = new Random(1);
+        // Container 0 sparse, container 1 dense (bitset), container 2 empty, container 3 sparse
+        int[] rows = new int[30_000];
+        int count = 0;
+        for (int i = 0; i < 1000; i++) {
+            rows[count++] = random.nextInt(1 << 16);
+        }
+        for (int i = 0; i < 20_000; i++) {
+            rows[count++] = (1 << 16) + random.nextInt(1 << 16);
+        }
+        for (int i = 0; i < 500; i++) {
+            rows[count++] = (3 << 16) + random.nextInt(1 << 16);
+        }
+        // Duplicates are ignored
+        rows[count++] = rows[0];
+        rows[count++] = rows[2000];
+        assertBitmapMatches(rows, count);
+    }
+
+    @Test
+    void containerJustPastTheArrayLimitBecomesABitset() {
+        int[] rows = new int[4097];
+        for (int i = 0; i < rows.length; i++) {
+            rows[i] = i * 3;
+        }
+        RowBitmap sparse = RowBitmap.of(rows, 4096);
+        RowBitmap dense = RowBitmap.of(rows, 4097);
+        assertEquals(4 + 4096 * 2, sparse.sizeInBytes());
+        assertEquals(4 + 1024 * 8, dense.sizeInBytes());
+        assertBitmapMatches(rows, 4097);
+    }
+
+    @Test
+    void nextRowWalksTheSetInOrder() {
+        RowBitmap bitmap = RowBitmap.of(new int[] {70_000, 5, 65_535, 5, 65_536}, 5);
+        assertEquals(4, bitmap.cardinality());
+        assertEquals(5, bitmap.nextRow(-10));
+        assertEquals(65_535, bitmap.nextRow(6));
+        assertEquals(65_536, bitmap.nextRow(65_536));
+        assertEquals(70_000, bitmap.nextRow(65_537));
+        assertEquals(-1, bitmap.nextRow(70_001));
+        assertFalse(bitmap.contains(1 << 20));
+    }
+
+    @Test
+    void emptyAndInvalidInput() {
+        assertSame(RowBitmap.EMPTY, RowBitmap.of(new int[] {1, 2}, 0));
+        assertTrue(RowBitmap.EMPTY.isEmpty());
+        assertEquals(-1, RowBitmap.EMPTY.nextRow(0));
+        assertFalse(RowBitmap.EMPTY.contains(0));
+        assertThrows(IllegalArgumentException.class, () -> RowBitmap.of(new int[] {3, -1}, 2));
+    }
+
+    private static void assertBitmapMatches(int[] rows, int count) {
+        BitSet expected = new BitSet();
+        for (int i = 0; i < count; i++) {
+            expected.set(rows[i]);
+        }
+        RowBitmap bitmap = RowBitmap.of(rows, count);
+        assertEquals(expected.cardinality(), bitmap.cardinality());
+        for (int row = 0; row < expected.length() + 70_000; row++) {
+            assertEquals(expected.get(row), bitmap.contains(row), "row " + row);
+        }
+        int visited = 0;
+        int expectedRow = expected.nextSetBit(0);
+        for (int row = bitmap.nextRow(0); row >= 0; row = bitmap.nextRow(row + 1)) {
+            assertEquals(expectedRow, row);
+            expectedRow = expected.nextSetBit(row + 1);
+            visited++;
+        }
+        assertEquals(-1, expectedRow);
+        assertEquals(expected.cardinality(), visited);
+    }
+}
@@ -0,0 +1,113 @@
+package com.example.demo.search;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.Set;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class SemanticCacheTest {
+
+    private static final float[] QUESTION = unit(1f, 0f, 0f);
+    // cos = 0.98 and 0.8 with QUESTION
+    private static final float[] PARAPHRASE = unit(0.98f, (float) Math.sqrt(1 - 0.98 * 0.98), 0f);
+    private static final float[] UNRELATED = unit(0.8f, 0.6f, 0f);
+
+    @Test
+    void similarQuestionHitsAndDissimilarOneMisses() {
+        SemanticCache<String> cache = new SemanticCache<>(10, 0.95f, 60_000);
+        cache.put(QUESTION, Set.of("d1"), "answer", cache.generation());
+
+        SemanticCache.Match<String> match = cache.find(PARAPHRASE, value -> true);
+        assertNotNull(match);
+        assertEquals("answer", match.value());
+        assertEquals(0.98f, match.similarity(), 1e-5f);
+        assertNull(cache.find(UNRELATED, value -> true));
+        assertEquals(1, cache.getHits());
+        assertEquals(1, cache.getMisses());
+    }
+
+    @Test
+    void bestMatchAboveTheThresholdWins() {
+        SemanticCache<String> cache = new SemanticCache<>(10, 0.7f, 60_000);
+        cache.put(UNRELATED, Set.of("d1"), "far", cache.generation());
+        cache.put(PARAPHRASE, Set.of("d1"), "near", cache.generation());
+        assertEquals("near", cache.find(QUESTION, value -> true).value());
+    }
+
+    @Test
+    void entryFailingTheCallersCheckIsAMissAndIsDropped() {
+        SemanticCache<String> cache = new SemanticCache<>(10, 0.95f, 60_000);
+        cache.put(QUESTION, Set.of("d1"), "answer", cache.generation());
+
+        // e.g. a source chunk is gone, or the answer was built for another maxSources
+        assertNull(cache.find(QUESTION, value -> false));
+        assertEquals(0, cache.size());
+        assertNull(cache.find(QUESTION, value -> true));
+    }
+
+    @Test
+    void invalidatingADocumentDropsOnlyTheEntriesDerivedFromIt() {
+        SemanticCache<String> cache = new SemanticCache<>(10, 0.95f, 60_000);
+        cache.put(QUESTION, Set.of("d1", "d2"), "both", cache.generation());
+        cache.put(unit(0f, 1f, 0f), Set.of("d2"), "second", cache.generation());
+        cache.put(unit(0f, 0f, 1f), Set.of("d3"), "third", cache.generation());
+
+        assertEquals(2, cache.invalidateDocument("d2"));
+        assertNull(cache.find(QUESTION, value -> true));
+        assertNull(cache.find(unit(0f, 1f, 0f), value -> true));
+        assertEquals("third", cache.find(unit(0f, 0f, 1f), value -> true).value());
+        assertEquals(0, cache.invalidateDocument("unknown"));
+    }
+
+    @Test
+    void leastRecentlyUsedEntryIsEvictedFirst() {
+        SemanticCache<String> cache = new SemanticCache<>(2, 0.95f, 60_000);
+        float[] first = unit(1f, 0f, 0f);
+        float[] second = unit(0f, 1f, 0f);
+        float[] third = unit(0f, 0f, 1f);
+        cache.put(first, Set.of("d"), "first", cache.generation());
+        cache.put(second, Set.of("d"), "second", cache.generation());
+        // Using the older entry makes the other one the eviction candidate
+        assertNotNull(cache.find(first, value -> true));
+        cache.put(third, Set.of("d"), "third", cache.generation());
+
+        assertEquals(2, cache.size());
+        assertNotNull(cache.find(first, value -> true));
+        assertNull(cache.find(second, value -> true));
+        assertNotNull(cache.find(third, value -> true));
+    }
+
+    @Test
+    void valueComputedWhileItsDocumentWasInvalidatedIsNotCached() {
+        SemanticCache<String> cache = new SemanticCache<>(10, 0.95f, 60_000);
+        // Answer computation starts, its document is re-ingested, then the stale answer is put
+        long generation = cache.generation();
+        cache.invalidateDocument("d1");
+        assertFalse(cache.put(QUESTION, Set.of("d1", "d2"), "stale", generation));
+        assertNull(cache.find(QUESTION, value -> true));
+
+        // Other documents' answers from the same generation are still cached
+        assertTrue(cache.put(QUESTION, Set.of("d2"), "fresh", generation));
+        // And an answer started after the invalidation is cached
+        assertTrue(cache.put(UNRELATED, Set.of("d1"), "later", cache.generation()));
+        assertEquals(2, cache.size());
+    }
+
+    @Test
+    void expiredEntriesAreMisses() throws Exception {
+        SemanticCache<String> cache = new SemanticCache<>(10, 0.95f, 1);
+        cache.put(QUESTION, Set.of("d1"), "answer", cache.generation());
+        Thread.sleep(5);
+        assertNull(cache.find(QUESTION, value -> true));
+        assertEquals(0, cache.size());
+    }
+
+    private static float[] unit(float... values) {
+        return VectorMath.normalized(values);
+    }
+}
@@ -0,0 +1,76 @@
+package com.example.demo.search;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.Arrays;
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class TopKHeapTest {
+
+    @Test
+    void keepsTheBestRowsOrderedBestFirst() {
+        Random random = new Random(1);
+        int count = 1000;
+        float[] scores = new float[count];
+        TopKHeap heap = new TopKHeap(10);
+        for (int row = 0; row < count; row++) {
+            scores[row] = random.nextFloat();
+            heap.offer(row, scores[row]);
+        }
+        assertTrue(heap.isFull());
+
+        float[] sorted = scores.clone();
+        Arrays.sort(sorted);
+        assertEquals(sorted[count - 10], heap.minScore(), 0f);
+
+        SearchHits hits = heap.toHits();
+        assertEquals(10, hits.size());
+        for (int i = 0; i < hits.size(); i++) {
+            assertEquals(sorted[count - 1 - i], hits.score(i), 0f);
+            assertEquals(scores[hits.row(i)], hits.score(i), 0f);
+        }
+        assertEquals(0, heap.size());
+    }
+
+    @Test
+    void returnsFewerHitsThanCapacityWhenFewerRowsAreOffered() {
+        TopKHeap heap = new TopKHeap(5);
+        heap.offer(7, 0.2f);
+        heap.offer(3, 0.9f);
+        assertFalse(heap.isFull());
+        assertEquals(0.2f, heap.minScore(), 0f);
+
+        SearchHits hits = heap.toHits();
+        assertEquals(2, hits.size());
+        assertEquals(3, hits.row(0));
+        assertEquals(7, hits.row(1));
+    }
+
+    @Test
+    void rejectsRowsBelowTheMinimumOnceFull() {
+        TopKHeap heap = new TopKHeap(2);
+        heap.offer(1, 0.5f);
+        heap.offer(2, 0.6f);
+        heap.offer(3, 0.4f);
+        heap.offer(4, 0.5f);
+        SearchHits hits = heap.toHits();
+        assertEquals(2, hits.size());
+        assertEquals(2, hits.row(0));
+        assertEquals(0.5f, hits.score(1), 0f);
+    }
+
+    @Test
+    void zeroOrNegativeCapacityKeepsNothing() {
+        for (int capacity : new int[] {0, -3}) {
+            TopKHeap heap = new TopKHeap(capacity);
+            heap.offer(1, 1f);
+            assertTrue(heap.isFull());
+            assertEquals(Float.NEGATIVE_INFINITY, heap.minScore(), 0f);
+            assertEquals(0, heap.toHits().size());
+        }
+    }
+}
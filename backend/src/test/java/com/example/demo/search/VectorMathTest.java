@@ -0,0 +1,124 @@
+package com.example.demo.search;
+
+import org.junit.jupiter.api.Test;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.FloatBuffer;
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+class VectorMathTest {
+
+    // Includes dimensions below, at and just past common lane counts (4, 8, 16), and embedding sizes
+    private static final int[] DIMENSIONS = {1, 3, 4, 7, 8, 9, 15, 16, 17, 31, 33, 100, 383, 1536, 1537};
+
+    private static final float TOLERANCE = 1e-5f;
+
+    @Test
+    void scalarKernelMatchesBaselineCosine() {
+        Random random = new Random(1);
+        for (int dimension : DIMENSIONS) {
+            float[] a = randomVector(random, dimension);
+            float[] b = randomVector(random, dimension);
+            float expected = (float) cosine(a, b);
+            float actual = VectorMath.scalarDot(VectorMath.normalized(a), 0, VectorMath.normalized(b), 0, dimension);
+            assertEquals(expected, actual, TOLERANCE, "dimension " + dimension);
+        }
+    }
+
+    @Test
+    void simdKernelMatchesBaselineCosine() {
+        // Surefire starts the JVM with --add-modules jdk.incubator.vector, so the Vector API is loadable here
+        Random random = new Random(2);
+        for (int dimension : DIMENSIONS) {
+            float[] a = randomVector(random, dimension);
+            float[] b = randomVector(random, dimension);
+            float expected = (float) cosine(a, b);
+            float actual = SimdVectorMath.dot(VectorMath.normalized(a), 0, VectorMath.normalized(b), 0, dimension);
+            assertEquals(expected, actual, TOLERANCE, "dimension " + dimension + ", "
+                    + SimdVectorMath.lanes() + " lanes");
+        }
+    }
+
+    @Test
+    void kernelsAgreeAtOffsetsIntoALargerBlock() {
+        Random random = new Random(3);
+        int dimension = 37;
+        int rows = 5;
+        float[] block = new float[rows * dimension];
+        for (int row = 0; row < rows; row++) {
+            System.arraycopy(VectorMath.normalized(randomVector(random, dimension)), 0, block, row * dimension,
+                    dimension);
+        }
+        float[] query = VectorMath.normalized(randomVector(random, dimension));
+        for (int row = 0; row < rows; row++) {
+            float[] copy = new float[dimension];
+            System.arraycopy(block, row * dimension, copy, 0, dimension);
+            float expected = (float) cosine(query, copy);
+            assertEquals(expected, VectorMath.scalarDot(query, 0, block, row * dimension, dimension), TOLERANCE);
+            assertEquals(expected, SimdVectorMath.dot(query, 0, block, row * dimension, dimension), TOLERANCE);
+            assertEquals(expected, VectorMath.dot(query, 0, block, row * dimension, dimension), TOLERANCE);
+            assertEquals(expected, VectorMath.dot(query, FloatBuffer.wrap(block), row * dimension), TOLERANCE);
+        }
+    }
+
+    @Test
+    void bufferOverloadMatchesArrayOverloadAtUnalignedOffsets() {
+        Random random = new Random(4);
+        for (int dimension : DIMENSIONS) {
+            // One spare float in front, so every row starts off a lane (and 8-byte) boundary
+            int rows = 3;
+            float[] block = new float[1 + rows * dimension];
+            for (int i = 0; i < block.length; i++) {
+                block[i] = (float) random.nextGaussian();
+            }
+            ByteBuffer bytes = ByteBuffer.allocateDirect(block.length * Float.BYTES).order(ByteOrder.LITTLE_ENDIAN);
+            FloatBuffer mapped = bytes.asFloatBuffer();
+            mapped.put(block);
+            FloatBuffer heap = FloatBuffer.wrap(block);
+            float[] query = VectorMath.normalized(randomVector(random, dimension));
+            for (int row = 0; row < rows; row++) {
+                int offset = 1 + row * dimension;
+                float expected = VectorMath.dot(query, 0, block, offset, dimension);
+                float tolerance = TOLERANCE * (float) Math.sqrt(dimension);
+                assertEquals(expected, VectorMath.dot(query, mapped, offset), tolerance, "dimension " + dimension);
+                assertEquals(expected, VectorMath.bufferDot(query, mapped, offset), tolerance, "dimension " + dimension);
+                assertEquals(expected, VectorMath.dot(query, heap, offset), 0f, "dimension " + dimension);
+            }
+        }
+    }
+
+    @Test
+    void normalizeLeavesZeroVectorsUnchanged() {
+        float[] zero = new float[5];
+        VectorMath.normalize(zero);
+        assertArrayEquals(new float[5], zero);
+
+        float[] vector = {3f, 4f};
+        VectorMath.normalize(vector);
+        assertArrayEquals(new float[] {0.6f, 0.8f}, vector, 1e-7f);
+    }
+
+    private static double cosine(float[] a, float[] b) {
+        double dot = 0.0;
+        double normA = 0.0;
+        double normB = 0.0;
+        for (int i = 0; i < a.length; i++) {
+            dot += (double) a[i] * b[i];
+            normA += (double) a[i] * a[i];
+            normB += (double) b[i] * b[i];
+        }
+        return dot / Math.sqrt(normA * normB);
+    }
+
+    private static float[] randomVector(Random random, int dimension) {
+        float[] vector = new float[dimension];
+        for (int i = 0; i < dimension; i++) {
+            vector[i] = (float) random.nextGaussian();
+        }
+        return vector;
+    }
+}
@@ -0,0 +1,201 @@
+package com.example.demo.search;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class VectorSegmentTest {
+
+    private static final int DIMENSION = 16;
+
+    @TempDir
+    Path dir;
+
+    @Test
+    void writeAndMapRoundTripsRowsVersionsAndRemovedFlags() throws Exception {
+        VectorStore store = new VectorStore();
+        Random random = new Random(1);
+        for (int i = 0; i < 10; i++) {
+            store.add("doc" + (i % 3) + "_chunk_" + i, "doc" + (i % 3), 100L + i, randomVector(random));
+        }
+        store.removeChunks(List.of("doc1_chunk_4"));
+
+        Path file = dir.resolve("a.seg");
+        assertEquals(10, VectorSegment.write(store.snapshot(), file));
+        VectorSegment segment = VectorSegment.map(file, true);
+
+        assertEquals(10, segment.rows());
+        assertEquals(DIMENSION, segment.dimension());
+        assertEquals(1, segment.removedRows());
+        assertTrue(segment.isRemoved(4));
+        assertEquals("doc2_chunk_5", segment.chunkId(5));
+        assertEquals("doc2", segment.documentId(5));
+        assertEquals(105L, segment.version(5));
+
+        VectorStore reloaded = new VectorStore();
+        reloaded.loadSegment(segment);
+        VectorStore.Snapshot snapshot = reloaded.snapshot();
+        assertFalse(snapshot.isLive(4));
+        assertFalse(reloaded.contains("doc1_chunk_4"));
+        assertEquals(9, snapshot.liveCount());
+        float[] query = new float[DIMENSION];
+        store.snapshot().copyRow(7, query);
+        assertEquals(store.snapshot().similarity(7, query), snapshot.similarity(7, query), 1e-6f);
+    }
+
+    @Test
+    void rebaseKeepsRowNumbersAndMovesLaterRowsToTheHeap() throws Exception {
+        VectorStore store = new VectorStore();
+        Random random = new Random(2);
+        for (int i = 0; i < 20; i++) {
+            store.add("c" + i, "d", randomVector(random));
+        }
+        VectorStore.Snapshot written = store.snapshot();
+        Path file = dir.resolve("b.seg");
+        VectorSegment.write(written, file);
+
+        // Appended and removed after the snapshot was written
+        store.add("c20", "d", randomVector(random));
+        store.removeChunks(List.of("c3"));
+        VectorStore.Snapshot before = store.snapshot();
+
+        store.rebase(VectorSegment.map(file, false));
+        VectorStore.Snapshot after = store.snapshot();
+
+        assertEquals(20, after.baseRows());
+        assertEquals(21, after.size());
+        assertFalse(after.isLive(3));
+        float[] query = new float[DIMENSION];
+        for (int row = 0; row < after.size(); row++) {
+            before.copyRow(row, query);
+            assertEquals(before.chunkId(row), after.chunkId(row));
+            assertEquals(1f, after.similarity(row, query), 1e-5f);
+        }
+        // Still appendable after the rebase
+        assertEquals(21, store.add("c21", "d", randomVector(random)));
+    }
+
+    @Test
+    void rebaseRejectsASegmentFromAnotherStore() throws Exception {
+        VectorStore store = new VectorStore();
+        VectorStore other = new VectorStore();
+        Random random = new Random(3);
+        store.add("a", "d", randomVector(random));
+        other.add("b", "d", randomVector(random));
+        Path file = dir.resolve("c.seg");
+        VectorSegment.write(other.snapshot(), file);
+
+        VectorSegment segment = VectorSegment.map(file, false);
+        assertThrows(IllegalArgumentException.class, () -> store.rebase(segment));
+    }
+
+    @Test
+    void compactDropsRemovedRows() throws Exception {
+        VectorStore store = new VectorStore();
+        Random random = new Random(4);
+        for (int i = 0; i < 8; i++) {
+            store.add("c" + i, "d", randomVector(random));
+        }
+        // Replacing a chunk removes its earlier row
+        store.add("c2", "d", 7L, randomVector(random));
+        store.removeChunks(List.of("c5"));
+        Path file = dir.resolve("d.seg");
+        VectorSegment.write(store.snapshot(), file);
+
+        Path compacted = dir.resolve("e.seg");
+        assertEquals(7, VectorSegment.compact(VectorSegment.map(file, false), compacted));
+        VectorSegment segment = VectorSegment.map(compacted, true);
+        assertEquals(0, segment.removedRows());
+        for (int row = 0; row < segment.rows(); row++) {
+            assertFalse(segment.chunkId(row).equals("c5"));
+        }
+        assertEquals("c2", segment.chunkId(6));
+        assertEquals(7L, segment.version(6));
+    }
+
+    @Test
+    void mapRejectsACorruptedFile() throws Exception {
+        VectorStore store = new VectorStore();
+        store.add("a", "d", randomVector(new Random(5)));
+        Path file = dir.resolve("f.seg");
+        VectorSegment.write(store.snapshot(), file);
+
+        byte[] bytes = Files.readAllBytes(file);
+        bytes[bytes.length - 1] ^= 1;
+        Files.write(file, bytes);
+        assertThrows(IOException.class, () -> VectorSegment.map(file, true));
+    }
+
+    @Test
+    void writerAppendsFromSeveralThreadsIntoALoadableSegment() throws Exception {
+        Path file = dir.resolve("h.seg");
+        int threads = 4;
+        int perThread = 250;
+        try (VectorSegment.Writer writer = new VectorSegment.Writer(file, 0)) {
+            Thread[] workers = new Thread[threads];
+            for (int t = 0; t < threads; t++) {
+                int thread = t;
+                workers[t] = new Thread(() -> {
+                    Random random = new Random(thread);
+                    for (int i = 0; i < perThread; i++) {
+                        try {
+                            writer.append("t" + thread + "_chunk_" + i, "t" + thread, i, false, randomVector(random));
+                        } catch (IOException e) {
+                            throw new RuntimeException(e);
+                        }
+                    }
+                });
+                workers[t].start();
+            }
+            for (Thread worker : workers) {
+                worker.join();
+            }
+            assertEquals(threads * perThread, writer.finish());
+        }
+
+        VectorStore store = new VectorStore();
+        store.loadSegment(VectorSegment.map(file, true));
+        VectorStore.Snapshot snapshot = store.snapshot();
+        assertEquals(threads * perThread, snapshot.liveCount());
+        assertEquals(snapshot.size(), snapshot.baseRows());
+
+        // Each row's vector stayed with its chunk id
+        float[] expected = null;
+        Random random = new Random(2);
+        for (int i = 0; i < perThread; i++) {
+            expected = randomVector(random);
+        }
+        int row = store.row("t2_chunk_" + (perThread - 1));
+        assertEquals(1.0f, snapshot.similarity(row, expected), 1e-5f);
+        assertEquals(perThread - 1L, snapshot.version(row));
+    }
+
+    @Test
+    void unfinishedWriterLeavesNoFile() throws Exception {
+        Path file = dir.resolve("g.seg");
+        try (VectorSegment.Writer writer = new VectorSegment.Writer(file, 0)) {
+            writer.append("a", "d", 0L, false, randomVector(new Random(6)));
+        }
+        assertFalse(Files.exists(file));
+        assertFalse(Files.exists(dir.resolve("g.seg.tmp")));
+    }
+
+    static float[] randomVector(Random random) {
+        float[] vector = new float[DIMENSION];
+        for (int i = 0; i < DIMENSION; i++) {
+            vector[i] = (float) random.nextGaussian();
+        }
+        VectorMath.normalize(vector);
+        return vector;
+    }
+}
@@ -0,0 +1,62 @@
+package com.example.demo.search;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.nio.file.Path;
+import java.util.List;
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class VectorStoreTest {
+
+    @TempDir
+    Path dir;
+
+    @Test
+    void removeDocumentRemovesOnlyThatDocumentsLiveRows() {
+        VectorStore store = new VectorStore();
+        Random random = new Random(1);
+        store.add("a_chunk_0", "a", VectorSegmentTest.randomVector(random));
+        store.add("b_chunk_0", "b", VectorSegmentTest.randomVector(random));
+        store.add("a_chunk_1", "a", VectorSegmentTest.randomVector(random));
+        // Replacing a chunk leaves its earlier row listed under the document, already removed
+        store.add("a_chunk_0", "a", 2L, VectorSegmentTest.randomVector(random));
+        store.removeChunks(List.of("a_chunk_1"));
+
+        assertEquals(1, store.removeDocument("a"));
+        VectorStore.Snapshot snapshot = store.snapshot();
+        assertEquals(1, snapshot.liveCount());
+        assertFalse(store.contains("a_chunk_0"));
+        assertTrue(store.contains("b_chunk_0"));
+        assertEquals(0, store.rowsOf(List.of("a")).cardinality());
+
+        assertEquals(0, store.removeDocument("a"));
+        assertEquals(0, store.removeDocument("unknown"));
+    }
+
+    @Test
+    void removeDocumentFindsRowsLoadedFromASegment() throws Exception {
+        VectorStore written = new VectorStore();
+        Random random = new Random(2);
+        for (int i = 0; i < 6; i++) {
+            written.add("d" + (i % 2) + "_chunk_" + i, "d" + (i % 2), VectorSegmentTest.randomVector(random));
+        }
+        Path file = dir.resolve("a.seg");
+        VectorSegment.write(written.snapshot(), file);
+
+        VectorStore store = new VectorStore();
+        store.loadSegment(VectorSegment.map(file, false));
+        store.add("d1_chunk_6", "d1", VectorSegmentTest.randomVector(random));
+
+        assertEquals(4, store.removeDocument("d1"));
+        VectorStore.Snapshot snapshot = store.snapshot();
+        assertEquals(3, snapshot.liveCount());
+        for (int row = 0; row < snapshot.size(); row++) {
+            assertEquals("d0".equals(snapshot.documentId(row)), snapshot.isLive(row));
+        }
+    }
+}
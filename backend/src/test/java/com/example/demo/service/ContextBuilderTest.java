@@ -0,0 +1,121 @@
+package com.example.demo.service;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class ContextBuilderTest {
+
+    private static final String[] WORDS = {
+        "policy", "employees", "expense", "travel", "approval", "manager", "receipt", "within", "days",
+        "submit", "report", "hotel", "flight", "budget", "quarter", "team", "office", "remote", "laptop", "claim",
+    };
+
+    @Test
+    void overlapFindsTheLongestSharedSuffixAndPrefix() {
+        assertEquals(10, ContextBuilder.overlap("xxxx0123456789", "0123456789yyyy"));
+        assertEquals(8, ContextBuilder.overlap("abcdefgh", "abcdefgh and more"));
+        // Shorter matches are coincidence
+        assertEquals(0, ContextBuilder.overlap("the end of it", "it goes on"));
+        assertEquals(0, ContextBuilder.overlap("", "anything"));
+    }
+
+    @Test
+    void consecutiveChunksAreMergedWithTheOverlapWrittenOnce() {
+        String document = randomText(new Random(1), 1400);
+        List<String> chunks = chunk(document);
+        assertEquals(3, chunks.size());
+
+        // Returned out of order, as search ranks them
+        List<Map<String, Object>> results = List.of(
+                result("doc1", 2, chunks.get(2), 0.90),
+                result("doc1", 0, chunks.get(0), 0.85),
+                result("doc1", 1, chunks.get(1), 0.80));
+        ContextBuilder.Context context = new ContextBuilder(10_000, 0.8).build(results);
+
+        assertEquals(1, context.getPassages());
+        assertEquals(2, context.getMergedChunks());
+        assertTrue(context.getText().contains(document));
+        // Best similarity of the merged chunks is reported
+        assertTrue(context.getText().contains("similarity: 0.90"));
+    }
+
+    @Test
+    void chunksWithAGapStaySeparatePassages() {
+        List<String> chunks = chunk(randomText(new Random(2), 1400));
+        ContextBuilder.Context context = new ContextBuilder(10_000, 0.8).build(List.of(
+                result("doc1", 0, chunks.get(0), 0.9),
+                result("doc1", 2, chunks.get(2), 0.8)));
+        assertEquals(2, context.getPassages());
+        assertEquals(0, context.getMergedChunks());
+    }
+
+    @Test
+    void nearDuplicatePassagesAreDropped() {
+        String text = randomText(new Random(3), 500);
+        ContextBuilder.Context context = new ContextBuilder(10_000, 0.8).build(List.of(
+                result("doc1", 0, text, 0.9),
+                result("doc2", 0, text.replace("policy", "Policy"), 0.8),
+                result("doc3", 0, randomText(new Random(4), 500), 0.7)));
+        assertEquals(2, context.getPassages());
+        assertEquals(1, context.getDuplicates());
+        assertFalse(context.getText().contains("doc2.pdf"));
+    }
+
+    @Test
+    void budgetCutsThePassageThatCrossesItAndLeavesOutTheRest() {
+        List<Map<String, Object>> results = new ArrayList<>();
+        for (int i = 0; i < 5; i++) {
+            results.add(result("doc" + i, 0, randomText(new Random(10 + i), 500), 0.9 - i * 0.1));
+        }
+        int budget = 250;
+        ContextBuilder.Context context = new ContextBuilder(budget, 0.8).build(results);
+
+        assertTrue(context.getTokens() <= budget, "used " + context.getTokens());
+        assertEquals(TokenCounter.count(context.getText()), context.getTokens(), 5);
+        assertEquals(1, context.getTruncated());
+        assertTrue(context.getText().contains(" ...\n\n"));
+        assertEquals(5, context.getPassages() + context.getOmitted());
+        assertTrue(context.getOmitted() > 0);
+    }
+
+    /**
+     * Cut text the way the ingestion pipeline does: 500-character windows overlapping by 50
+     */
+    private static List<String> chunk(String text) {
+        List<String> chunks = new ArrayList<>();
+        for (int start = 0; start < text.length(); start += 450) {
+            chunks.add(text.substring(start, Math.min(text.length(), start + 500)));
+            if (start + 500 >= text.length()) {
+                break;
+            }
+        }
+        return chunks;
+    }
+
+    private static Map<String, Object> result(String documentId, int chunk, String text, double similarity) {
+        Map<String, Object> result = new HashMap<>();
+        result.put("document_id", documentId);
+        result.put("chunk_id", documentId + "_chunk_" + chunk);
+        result.put("file_name", documentId + ".pdf");
+        result.put("text", text);
+        result.put("similarity", similarity);
+        return result;
+    }
+
+    private static String randomText(Random random, int length) {
+        StringBuilder text = new StringBuilder();
+        while (text.length() < length) {
+            text.append(WORDS[random.nextInt(WORDS.length)]).append(' ');
+        }
+        return text.substring(0, length);
+    }
+}
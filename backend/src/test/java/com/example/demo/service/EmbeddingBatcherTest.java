@@ -0,0 +1,123 @@
+package com.example.demo.service;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class EmbeddingBatcherTest {
+
+    private final ExecutorService callers = Executors.newCachedThreadPool();
+    private EmbeddingBatcher batcher;
+
+    @AfterEach
+    void shutdown() {
+        if (batcher != null) {
+            batcher.shutdown();
+        }
+        callers.shutdownNow();
+    }
+
+    @Test
+    void concurrentInputsShareOneCallAndGetTheirOwnVectors() throws Exception {
+        List<Integer> batchSizes = new ArrayList<>();
+        batcher = new EmbeddingBatcher(inputs -> {
+            synchronized (batchSizes) {
+                batchSizes.add(inputs.size());
+            }
+            List<float[]> vectors = new ArrayList<>();
+            for (String input : inputs) {
+                vectors.add(new float[] {input.length()});
+            }
+            return vectors;
+        }, 3, 10_000, 2, 5_000, Executors.defaultThreadFactory());
+
+        // A full batch is sent straight away, without waiting out the window
+        List<Future<float[]>> results = new ArrayList<>();
+        for (String input : List.of("a", "bb", "ccc")) {
+            results.add(callers.submit(() -> batcher.embed(input)));
+        }
+        for (int i = 0; i < results.size(); i++) {
+            assertEquals(i + 1f, results.get(i).get(5, TimeUnit.SECONDS)[0], 0f);
+        }
+        assertEquals(List.of(3), batchSizes);
+        assertEquals(1, batcher.getBatches());
+        assertEquals(3, batcher.getRequests());
+    }
+
+    @Test
+    void failedCallFailsEveryInputOfTheBatch() throws Exception {
+        batcher = new EmbeddingBatcher(inputs -> {
+            throw new IllegalArgumentException("rate limited");
+        }, 2, 10_000, 1, 5_000, Executors.defaultThreadFactory());
+
+        Future<float[]> first = callers.submit(() -> batcher.embed("a"));
+        Future<float[]> second = callers.submit(() -> batcher.embed("b"));
+        for (Future<float[]> result : List.of(first, second)) {
+            ExecutionException e = assertThrows(ExecutionException.class, () -> result.get(5, TimeUnit.SECONDS));
+            assertTrue(e.getCause() instanceof IllegalArgumentException);
+        }
+    }
+
+    @Test
+    void wrongNumberOfVectorsIsAnError() {
+        batcher = new EmbeddingBatcher(inputs -> List.of(), 1, 0, 1, 5_000, Executors.defaultThreadFactory());
+        assertThrows(IllegalStateException.class, () -> batcher.embed("a"));
+    }
+
+    @Test
+    void errorThrownByTheCallStillCompletesTheCaller() {
+        batcher = new EmbeddingBatcher(inputs -> {
+            throw new OutOfMemoryError("simulated");
+        }, 1, 0, 1, 5_000, Executors.defaultThreadFactory());
+        ExecutionException e = assertThrows(ExecutionException.class, () -> batcher.embed("a"));
+        assertTrue(e.getCause() instanceof OutOfMemoryError);
+    }
+
+    @Test
+    void callerGivesUpAfterTheTimeout() {
+        CountDownLatch never = new CountDownLatch(1);
+        batcher = new EmbeddingBatcher(inputs -> {
+            never.await();
+            return List.of();
+        }, 1, 0, 1, 100, Executors.defaultThreadFactory());
+        long start = System.currentTimeMillis();
+        assertThrows(TimeoutException.class, () -> batcher.embed("a"));
+        assertTrue(System.currentTimeMillis() - start < 5_000);
+    }
+
+    @Test
+    void shutdownFailsInputsNotYetAnswered() throws Exception {
+        CountDownLatch started = new CountDownLatch(1);
+        CountDownLatch never = new CountDownLatch(1);
+        batcher = new EmbeddingBatcher(inputs -> {
+            started.countDown();
+            never.await();
+            return List.of();
+        }, 1, 0, 1, 60_000, Executors.defaultThreadFactory());
+
+        // The only sender is stuck on the first input, so the second stays queued
+        Future<float[]> inFlight = callers.submit(() -> batcher.embed("a"));
+        assertTrue(started.await(5, TimeUnit.SECONDS));
+        Future<float[]> queued = callers.submit(() -> batcher.embed("b"));
+        Thread.sleep(100);
+        batcher.shutdown();
+
+        for (Future<float[]> result : List.of(inFlight, queued)) {
+            assertThrows(ExecutionException.class, () -> result.get(5, TimeUnit.SECONDS));
+        }
+        assertThrows(IllegalStateException.class, () -> batcher.embed("c"));
+    }
+}
@@ -0,0 +1,226 @@
+package com.example.demo.service;
+
+import com.example.demo.model.Document;
+import com.example.demo.repository.DocumentRepository;
+import com.example.demo.repository.EmbeddingRepository;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.mockito.ArgumentCaptor;
+import org.springframework.test.util.ReflectionTestUtils;
+import software.amazon.awssdk.core.ResponseInputStream;
+import software.amazon.awssdk.http.AbortableInputStream;
+import software.amazon.awssdk.services.s3.model.GetObjectResponse;
+
+import java.io.ByteArrayInputStream;
+import java.nio.charset.StandardCharsets;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyList;
+import static org.mockito.ArgumentMatchers.anyLong;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.doAnswer;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+class IngestionServiceTest {
+
+    // Two 10-character chunks per document
+    private static final String TEXT = "aaaaaaaaaabbbbbbbbbb";
+
+    private final DocumentRepository documentRepository = mock(DocumentRepository.class);
+    private final EmbeddingRepository embeddingRepository = mock(EmbeddingRepository.class);
+    private final S3Service s3Service = mock(S3Service.class);
+    private final OpenAIClient openAIClient = mock(OpenAIClient.class);
+    private final SearchService searchService = mock(SearchService.class);
+    private final IngestionService ingestionService = new IngestionService();
+
+    // Last status set for each document
+    private final Map<String, String> statuses = new ConcurrentHashMap<>();
+    private final CountDownLatch cleanedUp = new CountDownLatch(1);
+
+    @BeforeEach
+    void setUp() {
+        ReflectionTestUtils.setField(ingestionService, "documentRepository", documentRepository);
+        ReflectionTestUtils.setField(ingestionService, "embeddingRepository", embeddingRepository);
+        ReflectionTestUtils.setField(ingestionService, "s3Service", s3Service);
+        ReflectionTestUtils.setField(ingestionService, "openAIClient", openAIClient);
+        ReflectionTestUtils.setField(ingestionService, "searchService", searchService);
+        ReflectionTestUtils.setField(ingestionService, "blockingIoThreadFactory", Executors.defaultThreadFactory());
+        ReflectionTestUtils.setField(ingestionService, "enabled", true);
+        ReflectionTestUtils.setField(ingestionService, "queueCapacity", 1);
+        ReflectionTestUtils.setField(ingestionService, "extractThreads", 1);
+        ReflectionTestUtils.setField(ingestionService, "chunkThreads", 1);
+        ReflectionTestUtils.setField(ingestionService, "chunkSize", 10);
+        ReflectionTestUtils.setField(ingestionService, "chunkOverlap", 0);
+        ReflectionTestUtils.setField(ingestionService, "embedThreads", 1);
+        // One chunk per embedding call, so a document's chunks can succeed and fail separately
+        ReflectionTestUtils.setField(ingestionService, "embedBatchSize", 1);
+        ReflectionTestUtils.setField(ingestionService, "writeThreads", 1);
+
+        when(s3Service.openFile(anyString())).thenAnswer(invocation -> new ResponseInputStream<>(
+                GetObjectResponse.builder().build(),
+                AbortableInputStream.create(new ByteArrayInputStream(TEXT.getBytes(StandardCharsets.UTF_8)))));
+        doAnswer(invocation -> {
+            statuses.put(invocation.getArgument(0), invocation.getArgument(1));
+            return null;
+        }).when(documentRepository).updateStatus(anyString(), anyString());
+        doAnswer(invocation -> {
+            cleanedUp.countDown();
+            return null;
+        }).when(searchService).removeDocument(anyString());
+    }
+
+    @AfterEach
+    void tearDown() {
+        ingestionService.shutdown();
+    }
+
+    @Test
+    void failedEmbeddingDeletesTheChunksAlreadyWritten() throws Exception {
+        CountDownLatch firstWrite = new CountDownLatch(1);
+        AtomicInteger calls = new AtomicInteger();
+        when(openAIClient.createEmbeddings(anyString(), anyList())).thenAnswer(invocation -> {
+            if (calls.incrementAndGet() == 1) {
+                return List.of(new float[] {1f});
+            }
+            // The second chunk fails once the first is in DynamoDB and searchable
+            assertTrue(firstWrite.await(5, TimeUnit.SECONDS));
+            throw new IllegalStateException("rate limited");
+        });
+        doAnswer(invocation -> {
+            firstWrite.countDown();
+            return null;
+        }).when(searchService).addChunks(any(Document.class), anyList(), anyList(), anyList(), anyLong());
+        ingestionService.init();
+
+        assertTrue(ingestionService.submit(document("doc-1")));
+
+        assertTrue(cleanedUp.await(5, TimeUnit.SECONDS));
+        assertEquals("FAILED", statuses.get("doc-1"));
+        ArgumentCaptor<List> deleted = ArgumentCaptor.forClass(List.class);
+        verify(embeddingRepository).batchDelete(deleted.capture());
+        assertEquals(List.of("doc-1_chunk_0"), deleted.getValue());
+        verify(searchService).removeDocument("doc-1");
+    }
+
+    @Test
+    void failedWriteDeletesEveryChunkThatMayHaveBeenWritten() throws Exception {
+        CountDownLatch firstWrite = new CountDownLatch(1);
+        AtomicInteger embedCalls = new AtomicInteger();
+        when(openAIClient.createEmbeddings(anyString(), anyList())).thenAnswer(invocation -> {
+            // Holds the second chunk back so the two are written in separate batches
+            if (embedCalls.incrementAndGet() == 2) {
+                assertTrue(firstWrite.await(5, TimeUnit.SECONDS));
+            }
+            return List.of(new float[] {1f});
+        });
+        AtomicInteger writeCalls = new AtomicInteger();
+        doAnswer(invocation -> {
+            if (writeCalls.incrementAndGet() == 2) {
+                throw new IllegalStateException("throughput exceeded");
+            }
+            firstWrite.countDown();
+            return null;
+        }).when(embeddingRepository).batchWrite(anyList());
+        ingestionService.init();
+
+        assertTrue(ingestionService.submit(document("doc-1")));
+
+        assertTrue(cleanedUp.await(5, TimeUnit.SECONDS));
+        assertEquals("FAILED", statuses.get("doc-1"));
+        // The failed batch may have been partly applied, so its chunk is deleted along with the first
+        ArgumentCaptor<List> deleted = ArgumentCaptor.forClass(List.class);
+        verify(embeddingRepository).batchDelete(deleted.capture());
+        assertEquals(List.of("doc-1_chunk_0", "doc-1_chunk_1"), deleted.getValue());
+        verify(searchService).removeDocument("doc-1");
+        verify(searchService).addChunks(any(Document.class), eq(List.of("doc-1_chunk_0")), anyList(), anyList(),
+                anyLong());
+    }
+
+    @Test
+    void fullQueuesBlockTheStagesAndRefuseNewDocumentsWithoutDroppingWork() throws Exception {
+        CountDownLatch embeddingStarted = new CountDownLatch(1);
+        CountDownLatch embeddingReleased = new CountDownLatch(1);
+        List<String> embedded = new ArrayList<>();
+        when(openAIClient.createEmbeddings(anyString(), anyList())).thenAnswer(invocation -> {
+            embeddingStarted.countDown();
+            assertTrue(embeddingReleased.await(5, TimeUnit.SECONDS));
+            List<String> inputs = invocation.getArgument(1);
+            synchronized (embedded) {
+                embedded.addAll(inputs);
+            }
+            List<float[]> vectors = new ArrayList<>();
+            for (int i = 0; i < inputs.size(); i++) {
+                vectors.add(new float[] {1f});
+            }
+            return vectors;
+        });
+        ingestionService.init();
+
+        assertTrue(ingestionService.submit(document("doc-0")));
+        assertTrue(embeddingStarted.await(5, TimeUnit.SECONDS));
+        // With the embedding call stuck, every queue fills and the stages before it wait
+        int accepted = 1;
+        long deadline = System.currentTimeMillis() + 5000;
+        while (true) {
+            assertTrue(System.currentTimeMillis() < deadline);
+            if (ingestionService.submit(document("doc-" + accepted))) {
+                accepted++;
+                continue;
+            }
+            // Refused; the pipeline is full once nothing moves any more
+            Map<String, Object> before = ingestionService.getStatus();
+            Thread.sleep(100);
+            if (isFull(before) && isFull(ingestionService.getStatus())) {
+                break;
+            }
+        }
+        // Blocked, not dropping work to make room
+        assertFalse(ingestionService.submit(document("doc-" + accepted)));
+
+        embeddingReleased.countDown();
+        deadline = System.currentTimeMillis() + 5000;
+        while (!ingestionService.getStatus().get("completed").equals((long) accepted)
+                && System.currentTimeMillis() < deadline) {
+            Thread.sleep(10);
+        }
+
+        Map<String, Object> status = ingestionService.getStatus();
+        assertEquals((long) accepted, status.get("completed"));
+        assertEquals((long) accepted, status.get("submitted"));
+        assertEquals(0L, status.get("failed"));
+        assertEquals(2L * accepted, status.get("chunksWritten"));
+        assertEquals(2 * accepted, embedded.size());
+        for (int i = 0; i < accepted; i++) {
+            assertEquals("COMPLETED", statuses.get("doc-" + i));
+        }
+        assertFalse(statuses.containsKey("doc-" + accepted));
+        verify(embeddingRepository, never()).batchDelete(anyList());
+    }
+
+    private static boolean isFull(Map<String, Object> status) {
+        return status.get("documentsQueued").equals(1) && status.get("textBlocksQueued").equals(1)
+                && status.get("chunksAwaitingEmbedding").equals(1);
+    }
+
+    private static Document document(String id) {
+        return new Document(id, "user-1", id + ".txt", "documents/user-1/" + id + ".txt",
+                (long) TEXT.length(), "text/plain", Instant.now(), "UPLOADED");
+    }
+}
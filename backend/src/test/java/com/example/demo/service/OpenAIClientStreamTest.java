@@ -0,0 +1,150 @@
+package com.example.demo.service;
+
+import org.junit.jupiter.api.Test;
+
+import java.net.http.HttpResponse;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Flow;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * Streamed chat completions, fed canned server-sent event bytes the way the HTTP client delivers them
+ */
+class OpenAIClientStreamTest {
+
+    private final OpenAIClient client = new OpenAIClient();
+    private final List<String> tokens = new ArrayList<>();
+    private final CompletableFuture<String> answer = new CompletableFuture<>();
+    private final FakeSubscription subscription = new FakeSubscription();
+
+    @Test
+    void deltasArePassedOnInOrderAndJoinedAtDone() throws Exception {
+        HttpResponse.BodySubscriber<Void> body = subscribe();
+        body.onNext(buffers(event("{\"choices\":[{\"delta\":{\"role\":\"assistant\"}}]}")
+                + event(delta("Hello"))
+                + event(delta(", world"))
+                + event("{\"choices\":[{\"delta\":{},\"finish_reason\":\"stop\"}]}")
+                + "data: [DONE]\n\n"));
+
+        assertEquals(List.of("Hello", ", world"), tokens);
+        assertEquals("Hello, world", answer.get(1, TimeUnit.SECONDS));
+        body.onComplete();
+        assertTrue(body.getBody().toCompletableFuture().isDone());
+    }
+
+    @Test
+    void doneCompletesTheAnswerBeforeTheBodyEnds() throws Exception {
+        HttpResponse.BodySubscriber<Void> body = subscribe();
+        body.onNext(buffers(event(delta("a")) + "data: [DONE]\n\n"));
+        assertEquals("a", answer.get(1, TimeUnit.SECONDS));
+
+        // Anything after [DONE] is ignored
+        body.onNext(buffers(event(delta("late"))));
+        assertEquals(List.of("a"), tokens);
+        assertFalse(subscription.cancelled);
+    }
+
+    @Test
+    void lineSplitAcrossBuffersIsReassembled() throws Exception {
+        HttpResponse.BodySubscriber<Void> body = subscribe();
+        // "é" is two bytes in UTF-8; cut between them and in the middle of each line
+        byte[] stream = (event(delta("café")) + event(delta(" ok")) + "data: [DONE]\n\n")
+                .getBytes(StandardCharsets.UTF_8);
+        int split = indexOf(stream, (byte) 0xA9);
+        body.onNext(List.of(ByteBuffer.wrap(Arrays.copyOfRange(stream, 0, 7))));
+        body.onNext(List.of(ByteBuffer.wrap(Arrays.copyOfRange(stream, 7, split))));
+        body.onNext(List.of(ByteBuffer.wrap(Arrays.copyOfRange(stream, split, split + 9)),
+                ByteBuffer.wrap(Arrays.copyOfRange(stream, split + 9, stream.length))));
+
+        assertEquals(List.of("café", " ok"), tokens);
+        assertEquals("café ok", answer.get(1, TimeUnit.SECONDS));
+    }
+
+    @Test
+    void errorEventMidStreamFailsTheAnswerAndCancels() {
+        HttpResponse.BodySubscriber<Void> body = subscribe();
+        body.onNext(buffers(event(delta("partial"))
+                + event("{\"error\":{\"message\":\"The server had an error\",\"type\":\"server_error\"}}")
+                + event(delta("never"))));
+
+        assertEquals(List.of("partial"), tokens);
+        ExecutionException error = assertThrows(ExecutionException.class, () -> answer.get(1, TimeUnit.SECONDS));
+        assertTrue(error.getCause().getMessage().contains("The server had an error"));
+        assertTrue(subscription.cancelled);
+    }
+
+    @Test
+    void bodyEndingWithoutDoneStillCompletesTheAnswer() throws Exception {
+        HttpResponse.BodySubscriber<Void> body = subscribe();
+        body.onNext(buffers(event(delta("cut ")) + event(delta("short"))));
+        body.onComplete();
+        assertEquals("cut short", answer.get(1, TimeUnit.SECONDS));
+    }
+
+    @Test
+    void listenerFailureCancelsTheStream() {
+        CompletableFuture<String> failing = new CompletableFuture<>();
+        HttpResponse.BodySubscriber<Void> body = client.chatStreamBody(token -> {
+            throw new IllegalStateException("client went away");
+        }, failing);
+        body.onSubscribe(subscription);
+        body.onNext(buffers(event(delta("a"))));
+
+        assertTrue(failing.isCompletedExceptionally());
+        assertTrue(subscription.cancelled);
+    }
+
+    private HttpResponse.BodySubscriber<Void> subscribe() {
+        HttpResponse.BodySubscriber<Void> body = client.chatStreamBody(tokens::add, answer);
+        body.onSubscribe(subscription);
+        return body;
+    }
+
+    private static String delta(String content) {
+        return "{\"id\":\"c1\",\"choices\":[{\"index\":0,\"delta\":{\"content\":\"" + content + "\"}}]}";
+    }
+
+    private static String event(String json) {
+        return "data: " + json + "\n\n";
+    }
+
+    private static List<ByteBuffer> buffers(String text) {
+        return List.of(ByteBuffer.wrap(text.getBytes(StandardCharsets.UTF_8)));
+    }
+
+    private static int indexOf(byte[] bytes, byte value) {
+        for (int i = 0; i < bytes.length; i++) {
+            if (bytes[i] == value) {
+                return i;
+            }
+        }
+        throw new IllegalArgumentException("byte not found");
+    }
+
+    /**
+     * Upstream of the body; the test pushes buffers itself, so demand is only recorded
+     */
+    private static final class FakeSubscription implements Flow.Subscription {
+        private volatile boolean cancelled;
+
+        @Override
+        public void request(long n) {
+        }
+
+        @Override
+        public void cancel() {
+            cancelled = true;
+        }
+    }
+}
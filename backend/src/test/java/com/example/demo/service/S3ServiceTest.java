@@ -0,0 +1,162 @@
+package com.example.demo.service;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.mockito.ArgumentCaptor;
+import org.springframework.mock.web.MockMultipartFile;
+import org.springframework.test.util.ReflectionTestUtils;
+import software.amazon.awssdk.core.sync.RequestBody;
+import software.amazon.awssdk.services.s3.S3Client;
+import software.amazon.awssdk.services.s3.model.AbortMultipartUploadRequest;
+import software.amazon.awssdk.services.s3.model.CompleteMultipartUploadRequest;
+import software.amazon.awssdk.services.s3.model.CompletedPart;
+import software.amazon.awssdk.services.s3.model.CreateMultipartUploadRequest;
+import software.amazon.awssdk.services.s3.model.CreateMultipartUploadResponse;
+import software.amazon.awssdk.services.s3.model.PutObjectRequest;
+import software.amazon.awssdk.services.s3.model.S3Exception;
+import software.amazon.awssdk.services.s3.model.UploadPartRequest;
+import software.amazon.awssdk.services.s3.model.UploadPartResponse;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+class S3ServiceTest {
+
+    private static final int MB = 1024 * 1024;
+
+    private final S3Client s3Client = mock(S3Client.class);
+    private final S3Service s3Service = new S3Service();
+    // Bytes each part carried, by part number
+    private final Map<Integer, byte[]> sentParts = new ConcurrentHashMap<>();
+
+    @BeforeEach
+    void setUp() {
+        ReflectionTestUtils.setField(s3Service, "s3Client", s3Client);
+        ReflectionTestUtils.setField(s3Service, "bucketName", "bucket");
+        ReflectionTestUtils.setField(s3Service, "blockingIoThreadFactory", Executors.defaultThreadFactory());
+        ReflectionTestUtils.setField(s3Service, "multipartThreshold", 6L * MB);
+        ReflectionTestUtils.setField(s3Service, "partSize", 5 * MB);
+        ReflectionTestUtils.setField(s3Service, "partConcurrency", 4);
+        // Fewer threads and queue slots than parts in flight, so the uploading thread sends some itself
+        ReflectionTestUtils.setField(s3Service, "partThreads", 1);
+        ReflectionTestUtils.setField(s3Service, "partQueueCapacity", 1);
+        s3Service.init();
+
+        when(s3Client.createMultipartUpload(any(CreateMultipartUploadRequest.class)))
+                .thenReturn(CreateMultipartUploadResponse.builder().uploadId("upload-1").build());
+        when(s3Client.uploadPart(any(UploadPartRequest.class), any(RequestBody.class))).thenAnswer(invocation -> {
+            UploadPartRequest request = invocation.getArgument(0);
+            RequestBody body = invocation.getArgument(1);
+            try (InputStream in = body.contentStreamProvider().newStream()) {
+                sentParts.put(request.partNumber(), in.readAllBytes());
+            }
+            return UploadPartResponse.builder().eTag("etag-" + request.partNumber()).build();
+        });
+    }
+
+    @AfterEach
+    void tearDown() {
+        s3Service.shutdown();
+    }
+
+    @Test
+    void fileBelowTheThresholdIsSentWithOnePut() throws Exception {
+        MockMultipartFile file = new MockMultipartFile("file", "notes.txt", "text/plain", randomBytes(1000));
+
+        String key = s3Service.uploadFile(file, "user-1");
+
+        assertTrue(key.startsWith("documents/user-1/"));
+        assertTrue(key.endsWith(".txt"));
+        ArgumentCaptor<PutObjectRequest> request = ArgumentCaptor.forClass(PutObjectRequest.class);
+        verify(s3Client).putObject(request.capture(), any(RequestBody.class));
+        assertEquals(key, request.getValue().key());
+        long length = request.getValue().contentLength();
+        assertEquals(1000, length);
+        verify(s3Client, never()).createMultipartUpload(any(CreateMultipartUploadRequest.class));
+    }
+
+    @Test
+    void largeFileIsSplitIntoPartSizedPartsInOrder() throws Exception {
+        byte[] content = randomBytes(11 * MB + 1);
+        MockMultipartFile file = new MockMultipartFile("file", "big.pdf", "application/pdf", content);
+
+        String key = s3Service.uploadFile(file, "user-1");
+
+        ArgumentCaptor<UploadPartRequest> parts = ArgumentCaptor.forClass(UploadPartRequest.class);
+        verify(s3Client, times(3)).uploadPart(parts.capture(), any(RequestBody.class));
+        List<UploadPartRequest> requests = new ArrayList<>(parts.getAllValues());
+        requests.sort(Comparator.comparing(UploadPartRequest::partNumber));
+        long[] lengths = requests.stream().mapToLong(UploadPartRequest::contentLength).toArray();
+        assertArrayEquals(new long[] {5L * MB, 5L * MB, MB + 1}, lengths);
+        for (UploadPartRequest request : requests) {
+            assertEquals("upload-1", request.uploadId());
+            assertEquals(key, request.key());
+        }
+        // The parts put back together are the file
+        byte[] sent = new byte[content.length];
+        int offset = 0;
+        for (int partNumber = 1; partNumber <= 3; partNumber++) {
+            byte[] part = sentParts.get(partNumber);
+            System.arraycopy(part, 0, sent, offset, part.length);
+            offset += part.length;
+        }
+        assertArrayEquals(content, sent);
+
+        ArgumentCaptor<CompleteMultipartUploadRequest> complete =
+                ArgumentCaptor.forClass(CompleteMultipartUploadRequest.class);
+        verify(s3Client).completeMultipartUpload(complete.capture());
+        List<CompletedPart> completed = new ArrayList<>(complete.getValue().multipartUpload().parts());
+        assertEquals(3, completed.size());
+        for (int i = 0; i < completed.size(); i++) {
+            int partNumber = completed.get(i).partNumber();
+            assertEquals(i + 1, partNumber);
+            assertEquals("etag-" + (i + 1), completed.get(i).eTag());
+        }
+        verify(s3Client, never()).abortMultipartUpload(any(AbortMultipartUploadRequest.class));
+    }
+
+    @Test
+    void failedPartAbortsTheUpload() {
+        when(s3Client.uploadPart(any(UploadPartRequest.class), any(RequestBody.class))).thenAnswer(invocation -> {
+            UploadPartRequest request = invocation.getArgument(0);
+            if (request.partNumber() == 2) {
+                throw S3Exception.builder().statusCode(500).message("part failed").build();
+            }
+            return UploadPartResponse.builder().eTag("etag-" + request.partNumber()).build();
+        });
+        MockMultipartFile file = new MockMultipartFile("file", "big.pdf", "application/pdf", randomBytes(11 * MB));
+
+        assertThrows(IOException.class, () -> s3Service.uploadFile(file, "user-1"));
+
+        ArgumentCaptor<AbortMultipartUploadRequest> abort = ArgumentCaptor.forClass(AbortMultipartUploadRequest.class);
+        verify(s3Client).abortMultipartUpload(abort.capture());
+        assertEquals("upload-1", abort.getValue().uploadId());
+        assertEquals("bucket", abort.getValue().bucket());
+        verify(s3Client, never()).completeMultipartUpload(any(CompleteMultipartUploadRequest.class));
+    }
+
+    private static byte[] randomBytes(int length) {
+        byte[] bytes = new byte[length];
+        new Random(length).nextBytes(bytes);
+        return bytes;
+    }
+}
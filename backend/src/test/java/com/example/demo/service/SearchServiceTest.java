@@ -0,0 +1,229 @@
+package com.example.demo.service;
+
+import com.example.demo.repository.DocumentRepository;
+import com.example.demo.repository.EmbeddingRepository;
+import com.example.demo.repository.ParallelScanner;
+import com.example.demo.search.SearchOptions;
+import com.example.demo.search.VectorMath;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.springframework.context.ApplicationEventPublisher;
+import org.springframework.test.util.ReflectionTestUtils;
+import software.amazon.awssdk.services.dynamodb.DynamoDbClient;
+import software.amazon.awssdk.services.dynamodb.model.AttributeValue;
+import software.amazon.awssdk.services.dynamodb.model.BatchGetItemRequest;
+import software.amazon.awssdk.services.dynamodb.model.BatchGetItemResponse;
+import software.amazon.awssdk.services.dynamodb.model.KeysAndAttributes;
+import software.amazon.awssdk.services.dynamodb.model.ScanRequest;
+import software.amazon.awssdk.services.dynamodb.model.ScanResponse;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.TreeSet;
+import java.util.concurrent.Executors;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+class SearchServiceTest {
+
+    private static final int DIMENSION = 8;
+
+    @TempDir
+    Path dir;
+
+    private final DynamoDbClient dynamoDbClient = mock(DynamoDbClient.class);
+    private final ApplicationEventPublisher eventPublisher = mock(ApplicationEventPublisher.class);
+    private final ParallelScanner parallelScanner =
+            new ParallelScanner(dynamoDbClient, 2, 2, 0, Executors.defaultThreadFactory());
+    private final EmbeddingRepository embeddingRepository =
+            new EmbeddingRepository(dynamoDbClient, parallelScanner, "float32");
+    private final SearchService searchService = new SearchService();
+
+    // DocumentEmbeddings, by chunk_id
+    private final Map<String, Map<String, AttributeValue>> table = new TreeMap<>();
+    // Chunk ids of each BatchGetItem, split by what was fetched
+    private final List<Set<String>> vectorFetches = new ArrayList<>();
+    private final List<Set<String>> textFetches = new ArrayList<>();
+
+    @BeforeEach
+    void setUp() {
+        when(dynamoDbClient.scan(any(ScanRequest.class))).thenAnswer(invocation -> {
+            ScanRequest request = invocation.getArgument(0);
+            List<Map<String, AttributeValue>> items = new ArrayList<>();
+            synchronized (table) {
+                for (Map<String, AttributeValue> item : table.values()) {
+                    // Items are spread over the segments by chunk id
+                    if (Math.floorMod(item.get("chunk_id").s().hashCode(), request.totalSegments())
+                            == request.segment()) {
+                        items.add(item);
+                    }
+                }
+            }
+            return ScanResponse.builder().items(items).build();
+        });
+        when(dynamoDbClient.batchGetItem(any(BatchGetItemRequest.class))).thenAnswer(invocation -> {
+            BatchGetItemRequest request = invocation.getArgument(0);
+            KeysAndAttributes keys = request.requestItems().get(EmbeddingRepository.TABLE_NAME);
+            Set<String> chunkIds = new TreeSet<>();
+            List<Map<String, AttributeValue>> items = new ArrayList<>();
+            synchronized (table) {
+                for (Map<String, AttributeValue> key : keys.keys()) {
+                    String chunkId = key.get("chunk_id").s();
+                    chunkIds.add(chunkId);
+                    if (table.containsKey(chunkId)) {
+                        items.add(table.get(chunkId));
+                    }
+                }
+            }
+            (keys.expressionAttributeNames().containsValue("text") ? textFetches : vectorFetches).add(chunkIds);
+            return BatchGetItemResponse.builder()
+                    .responses(Map.of(EmbeddingRepository.TABLE_NAME, items))
+                    .build();
+        });
+
+        ReflectionTestUtils.setField(searchService, "embeddingRepository", embeddingRepository);
+        ReflectionTestUtils.setField(searchService, "documentRepository", mock(DocumentRepository.class));
+        ReflectionTestUtils.setField(searchService, "eventPublisher", eventPublisher);
+        ReflectionTestUtils.setField(searchService, "openAIClient", mock(OpenAIClient.class));
+        ReflectionTestUtils.setField(searchService, "blockingIoThreadFactory", Executors.defaultThreadFactory());
+        ReflectionTestUtils.setField(searchService, "segmentDir", "");
+        ReflectionTestUtils.setField(searchService, "verifySegmentChecksum", true);
+        ReflectionTestUtils.setField(searchService, "segmentRewriteMinRows", 5000);
+        ReflectionTestUtils.setField(searchService, "segmentCompactRatio", 0.2);
+        ReflectionTestUtils.setField(searchService, "pipelineThreads", 2);
+        ReflectionTestUtils.setField(searchService, "textCacheSize", 100);
+        ReflectionTestUtils.setField(searchService, "queryCacheMaxBytes", 1L << 20);
+        ReflectionTestUtils.setField(searchService, "queryCacheTtlSeconds", 60L);
+        ReflectionTestUtils.setField(searchService, "embeddingBatchMaxSize", 16);
+        ReflectionTestUtils.setField(searchService, "embeddingBatchMaxWaitMs", 5L);
+        ReflectionTestUtils.setField(searchService, "embeddingBatchConcurrency", 1);
+        ReflectionTestUtils.setField(searchService, "embeddingBatchTimeoutMs", 1000L);
+        ReflectionTestUtils.setField(searchService, "indexType", "exact");
+        ReflectionTestUtils.setField(searchService, "exactParallelism", 1);
+        ReflectionTestUtils.setField(searchService, "exactSerialThreshold", 20000);
+        ReflectionTestUtils.setField(searchService, "lexicalEnabled", false);
+        ReflectionTestUtils.setField(searchService, "filterExactMaxRows", 20000);
+
+        put("a_chunk_0", "a", "first of a", 1L, axis(0));
+        put("a_chunk_1", "a", "second of a", 1L, axis(1));
+        put("b_chunk_0", "b", "only of b", 1L, axis(2));
+    }
+
+    @AfterEach
+    void tearDown() {
+        searchService.shutdown();
+        parallelScanner.shutdown();
+    }
+
+    @Test
+    void coldLoadStreamsTheTableIntoAMappedSegment() throws Exception {
+        ReflectionTestUtils.setField(searchService, "segmentDir", dir.toString());
+        searchService.loadEmbeddings();
+
+        try (Stream<Path> files = Files.list(dir)) {
+            assertEquals(1, files.count());
+        }
+        // Vectors come from the scan alone; nothing is fetched item by item
+        assertTrue(vectorFetches.isEmpty());
+        assertTrue(searchService.containsChunks(List.of("a_chunk_0", "a_chunk_1", "b_chunk_0")));
+        assertEquals("b_chunk_0", search(axis(2), 1).get(0).get("chunk_id"));
+    }
+
+    @Test
+    void refreshFetchesOnlyNewAndRewrittenChunksAndDropsDeletedOnes() throws Exception {
+        searchService.loadEmbeddings();
+        assertTrue(vectorFetches.isEmpty());
+
+        put("a_chunk_0", "a", "first of a, re-ingested", 2L, axis(3));
+        remove("b_chunk_0");
+        put("c_chunk_0", "c", "only of c", 1L, axis(4));
+
+        assertEquals(2, searchService.refreshEmbeddings());
+
+        assertEquals(List.of(Set.of("a_chunk_0", "c_chunk_0")), vectorFetches);
+        assertFalse(searchService.containsChunks(List.of("b_chunk_0")));
+        assertTrue(searchService.containsChunks(List.of("a_chunk_0", "a_chunk_1", "c_chunk_0")));
+        // The replaced chunk is found by its new vector, not its old one
+        assertEquals("a_chunk_0", search(axis(3), 1).get(0).get("chunk_id"));
+        Set<Object> resident = search(axis(0), 10).stream()
+                .map(result -> result.get("chunk_id"))
+                .collect(Collectors.toSet());
+        assertEquals(Set.of("a_chunk_0", "a_chunk_1", "c_chunk_0"), resident);
+    }
+
+    @Test
+    void refreshWithNothingChangedFetchesNothing() throws Exception {
+        searchService.loadEmbeddings();
+
+        assertEquals(0, searchService.refreshEmbeddings());
+
+        assertTrue(vectorFetches.isEmpty());
+        verify(eventPublisher, never()).publishEvent(any());
+        assertTrue(searchService.containsChunks(List.of("a_chunk_0", "a_chunk_1", "b_chunk_0")));
+    }
+
+    @Test
+    void chunkTextIsFetchedOnceAndAgainAfterTheChunkIsRewritten() throws Exception {
+        searchService.loadEmbeddings();
+
+        // Closest to a_chunk_0, then a_chunk_1
+        float[] query = VectorMath.normalized(new float[] {1f, 0.5f, 0f, 0f, 0f, 0f, 0f, 0f});
+        List<Map<String, Object>> first = search(query, 2);
+        assertEquals(List.of(Set.of("a_chunk_0", "a_chunk_1")), textFetches);
+        assertEquals("first of a", first.get(0).get("text"));
+        assertEquals("second of a", first.get(1).get("text"));
+
+        // Served from the text cache
+        List<Map<String, Object>> second = search(query, 2);
+        assertEquals(1, textFetches.size());
+        assertEquals(first, second);
+
+        put("a_chunk_0", "a", "first of a, re-ingested", 2L, axis(0));
+        searchService.refreshEmbeddings();
+        List<Map<String, Object>> third = search(query, 2);
+
+        // Only the rewritten chunk's text is fetched again
+        assertEquals(List.of(Set.of("a_chunk_0", "a_chunk_1"), Set.of("a_chunk_0")), textFetches);
+        assertEquals("first of a, re-ingested", third.get(0).get("text"));
+        assertEquals("second of a", third.get(1).get("text"));
+    }
+
+    private List<Map<String, Object>> search(float[] vector, int topK) throws Exception {
+        return searchService.searchByVector(vector, topK, SearchOptions.defaults());
+    }
+
+    private void put(String chunkId, String documentId, String text, long version, float[] vector) {
+        synchronized (table) {
+            table.put(chunkId, embeddingRepository.chunkItem(chunkId, documentId, documentId + ".txt", text,
+                    version, vector));
+        }
+    }
+
+    private void remove(String chunkId) {
+        synchronized (table) {
+            table.remove(chunkId);
+        }
+    }
+
+    private static float[] axis(int i) {
+        float[] vector = new float[DIMENSION];
+        vector[i] = 1f;
+        return vector;
+    }
+}
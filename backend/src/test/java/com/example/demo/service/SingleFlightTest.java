@@ -0,0 +1,100 @@
+package com.example.demo.service;
+
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.BooleanSupplier;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class SingleFlightTest {
+
+    private static final int CALLERS = 8;
+
+    @Test
+    void concurrentCallersShareOneExecution() throws Exception {
+        SingleFlight<String, Object> flights = new SingleFlight<>();
+        CountDownLatch release = new CountDownLatch(1);
+        AtomicInteger runs = new AtomicInteger();
+        Object shared = new Object();
+        ExecutorService callers = Executors.newFixedThreadPool(CALLERS);
+        try {
+            List<Future<Object>> results = new ArrayList<>();
+            for (int i = 0; i < CALLERS; i++) {
+                results.add(callers.submit(() -> flights.execute("key", () -> {
+                    runs.incrementAndGet();
+                    release.await();
+                    return shared;
+                })));
+            }
+            // Hold the first execution until every other caller has joined it
+            waitFor(() -> flights.getCoalesced() == CALLERS - 1);
+            release.countDown();
+            for (Future<Object> result : results) {
+                assertSame(shared, result.get(5, TimeUnit.SECONDS));
+            }
+        } finally {
+            callers.shutdownNow();
+        }
+        assertEquals(1, runs.get());
+        assertEquals(1, flights.getExecutions());
+    }
+
+    @Test
+    void joinedCallersReceiveTheSameException() throws Exception {
+        SingleFlight<String, Object> flights = new SingleFlight<>();
+        CountDownLatch release = new CountDownLatch(1);
+        ExecutorService callers = Executors.newFixedThreadPool(2);
+        try {
+            Future<Object> first = callers.submit(() -> flights.execute("key", () -> {
+                release.await();
+                throw new IOException("table unavailable");
+            }));
+            waitFor(() -> flights.getExecutions() == 1);
+            Future<Object> second = callers.submit(() -> flights.execute("key", () -> "not run"));
+            waitFor(() -> flights.getCoalesced() == 1);
+            release.countDown();
+
+            for (Future<Object> result : List.of(first, second)) {
+                Exception e = assertThrows(Exception.class, () -> result.get(5, TimeUnit.SECONDS));
+                assertTrue(e.getCause() instanceof IOException);
+                assertEquals("table unavailable", e.getCause().getMessage());
+            }
+        } finally {
+            callers.shutdownNow();
+        }
+    }
+
+    @Test
+    void nothingIsCachedOnceACallCompletes() throws Exception {
+        SingleFlight<String, Integer> flights = new SingleFlight<>();
+        AtomicInteger runs = new AtomicInteger();
+        int first = flights.execute("key", runs::incrementAndGet);
+        int second = flights.execute("key", runs::incrementAndGet);
+        int other = flights.execute("other", runs::incrementAndGet);
+        assertEquals(1, first);
+        assertEquals(2, second);
+        assertEquals(3, other);
+        assertEquals(3, flights.getExecutions());
+        assertEquals(0, flights.getCoalesced());
+    }
+
+    private static void waitFor(BooleanSupplier condition) throws InterruptedException {
+        long deadline = System.currentTimeMillis() + 5000;
+        while (!condition.getAsBoolean()) {
+            assertTrue(System.currentTimeMillis() < deadline, "timed out waiting for callers");
+            Thread.sleep(5);
+        }
+    }
+}
@@ -0,0 +1,63 @@
+package com.example.demo.service;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class TokenCounterTest {
+
+    private static final String[] WORDS = {
+        "the", "policy", "employees", "reimbursement", "within", "days", "of", "approval", "2024", "manager",
+        "internationalization", "request", "must", "be", "submitted", "café", "(see", "section", "4.2)", "and",
+    };
+
+    @Test
+    void countsPiecesTheWayThePreTokenizerSplitsThem() {
+        assertEquals(0, TokenCounter.count(null));
+        assertEquals(0, TokenCounter.count(""));
+        // "Hello" and " world", each a single token
+        assertEquals(2, TokenCounter.count("Hello world"));
+        // Digits in groups of three
+        assertEquals(3, TokenCounter.count("1234567"));
+        // Long words cost one token per five characters
+        assertEquals(4, TokenCounter.count("internationalization"));
+        // Non-ASCII words cost one token per character
+        assertEquals(4, TokenCounter.count("café"));
+        // "Hi", "!!!", " there", "\n\n"
+        assertEquals(4, TokenCounter.count("Hi!!! there\n\n"));
+    }
+
+    @Test
+    void truncateReturnsTheWholeTextWhenItFits() {
+        String text = "Refunds are issued within 30 days.";
+        assertSame(text, TokenCounter.truncate(text, TokenCounter.count(text)));
+    }
+
+    @Test
+    void truncateCutsAtAWordBoundary() {
+        assertEquals("one two", TokenCounter.truncate("one two three four", 2));
+        assertEquals("", TokenCounter.truncate("one two", 0));
+    }
+
+    @Test
+    void truncatedTextIsAPrefixWithinTheBudget() {
+        Random random = new Random(1);
+        StringBuilder builder = new StringBuilder();
+        for (int i = 0; i < 400; i++) {
+            builder.append(WORDS[random.nextInt(WORDS.length)]).append(random.nextInt(10) == 0 ? ".\n" : " ");
+        }
+        String text = builder.toString();
+        int total = TokenCounter.count(text);
+        for (int budget = 0; budget <= total; budget += 7) {
+            String prefix = TokenCounter.truncate(text, budget);
+            assertTrue(text.startsWith(prefix));
+            assertTrue(TokenCounter.count(prefix) <= budget, "budget " + budget);
+            // Nothing is lost beyond the piece that did not fit
+            assertTrue(TokenCounter.count(prefix) >= budget - 4, "budget " + budget + " left " + prefix.length());
+        }
+    }
+}